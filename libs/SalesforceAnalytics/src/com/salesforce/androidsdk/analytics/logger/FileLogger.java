@@ -35,7 +35,11 @@ import com.squareup.tape.QueueFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -45,17 +49,19 @@ import java.util.List;
  */
 public class FileLogger {
 
-    private static final String LOG_SUFFIX = "_log";
-    private static final String UTF8 = "UTF-8";
-    private static final String ASCII = "US-ASCII";
+    private static final String LEGACY_LOG_SUFFIX = "_log";
+    private static final String LOG_SUFFIX = "_log_file";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final String FILE_LOGGER_PREFS = "sf_file_logger_prefs";
     private static final String TAG = "FileLogger";
     private static final int MAX_SIZE = 10000;
+    private static final long MAX_BYTES = 2 * 1024 * 1024;
 
     private Context context;
     private String componentName;
-    private QueueFile file;
+    private LogFile file;
     private int maxSize;
+    private volatile long maxBytes = MAX_BYTES;
 
     /**
      * Parameterized constructor.
@@ -69,7 +75,8 @@ public class FileLogger {
         this.componentName = componentName;
         readFileLoggerPrefs();
         final File filename = new File(context.getFilesDir(), componentName + LOG_SUFFIX);
-        file = new QueueFile(filename);
+        file = new LogFile(filename);
+        migrateLegacyLog(new File(context.getFilesDir(), componentName + LEGACY_LOG_SUFFIX));
     }
 
     /**
@@ -115,6 +122,25 @@ public class FileLogger {
         storeFileLoggerPrefs(size);
     }
 
+    /**
+     * Returns the maximum number of bytes the stored log lines can take in this file.
+     *
+     * @return Maximum number of bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes the stored log lines can take in this file.
+     * The oldest log lines are dropped to stay within both this budget and the maximum number of lines.
+     *
+     * @param bytes Maximum number of bytes.
+     */
+    public void setMaxBytes(long bytes) {
+        maxBytes = (bytes < 0) ? 0 : bytes;
+    }
+
     /**
      * Writes a log line to the file.
      *
@@ -124,20 +150,11 @@ public class FileLogger {
         if (TextUtils.isEmpty(logLine)) {
             return;
         }
-        try {
-            while (getSize() >= maxSize) {
-                file.remove();
-            }
-            if (maxSize > 0) {
-                file.add(logLine.getBytes(UTF8));
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to write log line", e);
-        }
+        addLogLines(Collections.singletonList(logLine));
     }
 
     /**
-     * Writes a list of log lines to the file.
+     * Writes a list of log lines to the file, with a single write for the whole list.
      *
      * @param logLines Log lines.
      */
@@ -145,13 +162,21 @@ public class FileLogger {
         if (logLines == null || logLines.size() == 0) {
             return;
         }
-        String[] logLinesArray = new String[logLines.size()];
-        logLines.toArray(logLinesArray);
-        addLogLines(logLinesArray);
+        final List<byte[]> records = new ArrayList<>(logLines.size());
+        for (final String logLine : logLines) {
+            if (!TextUtils.isEmpty(logLine)) {
+                records.add(logLine.getBytes(UTF8));
+            }
+        }
+        try {
+            file.add(records, maxSize, maxBytes);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write log lines", e);
+        }
     }
 
     /**
-     * Writes an array of log lines to the file.
+     * Writes an array of log lines to the file, with a single write for the whole array.
      *
      * @param logLines Log lines.
      */
@@ -159,9 +184,7 @@ public class FileLogger {
         if (logLines == null || logLines.length == 0) {
             return;
         }
-        for (final String logLine : logLines) {
-            addLogLine(logLine);
-        }
+        addLogLines(Arrays.asList(logLines));
     }
 
     /**
@@ -172,9 +195,9 @@ public class FileLogger {
     public String readLogLine() {
         String logLine = null;
         try {
-            byte[] logLineBytes = file.peek();
-            if (logLineBytes != null && logLineBytes.length > 0) {
-                logLine = new String(logLineBytes, ASCII);
+            final List<byte[]> records = file.peek(1);
+            if (records.size() > 0 && records.get(0).length > 0) {
+                logLine = new String(records.get(0), UTF8);
             }
         } catch (IOException e) {
             Log.e(TAG, "Failed to read log line", e);
@@ -190,13 +213,12 @@ public class FileLogger {
      */
     public List<String> readAndRemoveLogLinesAsList(int numLines) {
         List<String> logLines = new ArrayList<>();
-        int linesToRead = (getSize() < numLines) ? getSize() : numLines;
-        for (int i = 0; i < linesToRead; i++) {
-            final String logLine = readLogLine();
-            removeLogLine();
-            if (logLine != null) {
-                logLines.add(logLine);
+        try {
+            for (final byte[] record : file.readAndRemove(numLines)) {
+                logLines.add(new String(record, UTF8));
             }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read log lines", e);
         }
         if (logLines.size() == 0) {
             logLines = null;
@@ -242,11 +264,7 @@ public class FileLogger {
      * Removes the first log line in the file.
      */
     public void removeLogLine() {
-        try {
-            file.remove();
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to remove log line", e);
-        }
+        removeLogLines(1);
     }
 
     /**
@@ -255,9 +273,46 @@ public class FileLogger {
      * @param numLines Number of log lines.
      */
     public void removeLogLines(int numLines) {
-        int linesToRemove = (getSize() < numLines) ? getSize() : numLines;
-        for (int i = 0; i < linesToRemove; i++) {
-            removeLogLine();
+        try {
+            file.remove(numLines);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to remove log lines", e);
+        }
+    }
+
+    /*
+     * Moves the log lines of a file written by earlier versions into the current file.
+     */
+    private void migrateLegacyLog(File legacyFile) {
+        if (!legacyFile.exists()) {
+            return;
+        }
+        try {
+            final QueueFile legacyQueue = new QueueFile(legacyFile);
+            final List<byte[]> records = new ArrayList<>(legacyQueue.size());
+            legacyQueue.forEach(new QueueFile.ElementReader() {
+
+                @Override
+                public void read(InputStream in, int length) throws IOException {
+                    final byte[] record = new byte[length];
+                    int read = 0;
+                    while (read < length) {
+                        final int count = in.read(record, read, length - read);
+                        if (count < 0) {
+                            throw new IOException("Unexpected end of log line");
+                        }
+                        read += count;
+                    }
+                    records.add(record);
+                }
+            });
+            legacyQueue.close();
+            file.add(records, maxSize, maxBytes);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to migrate log file", e);
+        }
+        if (!legacyFile.delete()) {
+            Log.w(TAG, "Failed to delete legacy log file");
         }
     }
 
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.analytics.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File of log lines in FIFO, written and trimmed in batches.
+ * Records are stored back to back as [int length][bytes] after a header holding the
+ * number of records and the offsets of the first and past-the-last record.
+ * Removing lines from the front only moves the head offset; the space it frees is
+ * reclaimed by copying the live records back to the front once it outgrows them.
+ * Every mutation ends with a single header write, so a partially written batch is ignored.
+ */
+class LogFile {
+
+    private static final int MAGIC = 0x53464C47;
+    private static final int HEADER_LENGTH = 24;
+    private static final int RECORD_HEADER_LENGTH = 4;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int COMPACT_THRESHOLD = 64 * 1024;
+
+    private final RandomAccessFile raf;
+    private int count;
+    private long head;
+    private long tail;
+
+    /**
+     * Opens the file, creating it (or resetting it if it can't be read) as needed.
+     *
+     * @param file File.
+     * @throws IOException If the file could not be opened.
+     */
+    LogFile(File file) throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        if (!readHeader()) {
+            clear();
+        }
+    }
+
+    /**
+     * @return number of records stored.
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return number of bytes taken by the stored records, including their length prefix.
+     */
+    synchronized long usedBytes() {
+        return tail - head;
+    }
+
+    /**
+     * Appends records with a single write, first dropping the oldest records needed to stay
+     * within the given budgets. If the batch alone exceeds a budget, only its newest records are kept.
+     *
+     * @param records Records, oldest first.
+     * @param maxCount Maximum number of records to keep in the file.
+     * @param maxBytes Maximum number of bytes to keep in the file.
+     * @throws IOException If the file could not be written.
+     */
+    synchronized void add(List<byte[]> records, int maxCount, long maxBytes) throws IOException {
+        int first = records.size();
+        long batchBytes = 0;
+        while (first > 0 && records.size() - first < maxCount) {
+            final long length = RECORD_HEADER_LENGTH + records.get(first - 1).length;
+            if (batchBytes + length > maxBytes) {
+                break;
+            }
+            batchBytes += length;
+            first--;
+        }
+        final int kept = records.size() - first;
+        final int overCount = count + kept - maxCount;
+        final long overBytes = tail - head + batchBytes - maxBytes;
+        if (overCount > 0 || overBytes > 0) {
+            skip(Math.max(overCount, 0), Math.max(overBytes, 0));
+        }
+        if (kept > 0) {
+            final ByteBuffer batch = ByteBuffer.allocate((int) batchBytes);
+            for (int i = first; i < records.size(); i++) {
+                final byte[] record = records.get(i);
+                batch.putInt(record.length);
+                batch.put(record);
+            }
+            raf.seek(tail);
+            raf.write(batch.array());
+            tail += batchBytes;
+            count += kept;
+        }
+        writeHeader();
+        compactIfNeeded();
+    }
+
+    /**
+     * Returns the oldest records without removing them.
+     *
+     * @param maxRecords Maximum number of records to return.
+     * @return Records, oldest first.
+     * @throws IOException If the file could not be read.
+     */
+    synchronized List<byte[]> peek(int maxRecords) throws IOException {
+        final List<byte[]> records = new ArrayList<>();
+        final Cursor cursor = new Cursor(head);
+        while (records.size() < maxRecords && records.size() < count) {
+            records.add(cursor.readRecord());
+        }
+        return records;
+    }
+
+    /**
+     * Returns and removes the oldest records, with a single header write.
+     *
+     * @param maxRecords Maximum number of records to return.
+     * @return Records, oldest first.
+     * @throws IOException If the file could not be read or written.
+     */
+    synchronized List<byte[]> readAndRemove(int maxRecords) throws IOException {
+        final List<byte[]> records = new ArrayList<>();
+        final Cursor cursor = new Cursor(head);
+        while (records.size() < maxRecords && records.size() < count) {
+            records.add(cursor.readRecord());
+        }
+        if (records.size() > 0) {
+            head = cursor.position;
+            count -= records.size();
+            writeHeader();
+            compactIfNeeded();
+        }
+        return records;
+    }
+
+    /**
+     * Removes the oldest records, with a single header write.
+     *
+     * @param numRecords Number of records to remove.
+     * @throws IOException If the file could not be read or written.
+     */
+    synchronized void remove(int numRecords) throws IOException {
+        if (numRecords <= 0 || count == 0) {
+            return;
+        }
+        skip(numRecords, 0);
+        writeHeader();
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes all records and shrinks the file.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    synchronized void clear() throws IOException {
+        count = 0;
+        head = HEADER_LENGTH;
+        tail = HEADER_LENGTH;
+        writeHeader();
+        raf.setLength(HEADER_LENGTH);
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException If the file could not be closed.
+     */
+    synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    /*
+     * Moves the head past the oldest records until at least the given number of records
+     * and bytes have been dropped, or the file is empty. Does not write the header.
+     */
+    private void skip(int minRecords, long minBytes) throws IOException {
+        final Cursor cursor = new Cursor(head);
+        int skipped = 0;
+        while (skipped < count && (skipped < minRecords || cursor.position - head < minBytes)) {
+            cursor.skipRecord();
+            skipped++;
+        }
+        head = cursor.position;
+        count -= skipped;
+    }
+
+    /*
+     * Copies the live records back to the front of the file once the space freed before them
+     * is larger than they are, so the copy never overwrites a record the current header points to.
+     */
+    private void compactIfNeeded() throws IOException {
+        final long live = tail - head;
+        final long free = head - HEADER_LENGTH;
+        if (free == 0 || (live > 0 && (free < COMPACT_THRESHOLD || free < live))) {
+            return;
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        while (copied < live) {
+            final int chunk = (int) Math.min(BUFFER_SIZE, live - copied);
+            raf.seek(head + copied);
+            raf.readFully(buffer, 0, chunk);
+            raf.seek(HEADER_LENGTH + copied);
+            raf.write(buffer, 0, chunk);
+            copied += chunk;
+        }
+        head = HEADER_LENGTH;
+        tail = HEADER_LENGTH + live;
+        writeHeader();
+        raf.setLength(tail);
+    }
+
+    private boolean readHeader() throws IOException {
+        if (raf.length() < HEADER_LENGTH) {
+            return false;
+        }
+        final byte[] header = new byte[HEADER_LENGTH];
+        raf.seek(0);
+        raf.readFully(header);
+        final ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt() != MAGIC) {
+            return false;
+        }
+        count = buffer.getInt();
+        head = buffer.getLong();
+        tail = buffer.getLong();
+        return count >= 0 && head >= HEADER_LENGTH && head <= tail && tail <= raf.length();
+    }
+
+    private void writeHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(count).putLong(head).putLong(tail);
+        raf.seek(0);
+        raf.write(header.array());
+    }
+
+    /**
+     * Reads records sequentially, filling a buffer with one read for many small records.
+     */
+    private class Cursor {
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private long bufferStart;
+        private int bufferLength;
+        private long position;
+
+        Cursor(long position) {
+            this.position = position;
+        }
+
+        byte[] readRecord() throws IOException {
+            final int length = readLength();
+            final byte[] record = new byte[length];
+            if (length <= BUFFER_SIZE) {
+                fill(length);
+                System.arraycopy(buffer, (int) (position - bufferStart), record, 0, length);
+            } else {
+                raf.seek(position);
+                raf.readFully(record);
+            }
+            position += length;
+            return record;
+        }
+
+        void skipRecord() throws IOException {
+            position += readLength();
+        }
+
+        private int readLength() throws IOException {
+            fill(RECORD_HEADER_LENGTH);
+            final int length = ByteBuffer.wrap(buffer, (int) (position - bufferStart), RECORD_HEADER_LENGTH).getInt();
+            position += RECORD_HEADER_LENGTH;
+            if (length < 0 || position + length > tail) {
+                throw new IOException("Corrupt log record at offset " + (position - RECORD_HEADER_LENGTH));
+            }
+            return length;
+        }
+
+        private void fill(int length) throws IOException {
+            if (position >= bufferStart && position + length <= bufferStart + bufferLength) {
+                return;
+            }
+            bufferStart = position;
+            bufferLength = (int) Math.min(BUFFER_SIZE, tail - position);
+            if (bufferLength < length) {
+                throw new IOException("Corrupt log record at offset " + position);
+            }
+            raf.seek(bufferStart);
+            raf.readFully(buffer, 0, bufferLength);
+        }
+    }
+}
@@ -34,14 +34,15 @@ import android.content.pm.PackageManager;
 import android.util.Log;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A simple logger that allows components to log statements of different log levels. This class
@@ -53,13 +54,27 @@ import java.util.concurrent.Executors;
 public class SalesforceLogger {
 
     private static final String TAG = "SalesforceLogger";
-    private static final String LOG_LINE_FORMAT = "TIME: %s, LEVEL: %s, TAG: %s, MESSAGE: %s";
-    private static final String LOG_LINE_FORMAT_WITH_EXCEPTION = "TIME: %s, LEVEL: %s, TAG: %s, MESSAGE: %s, EXCEPTION: %s";
-    private static final String US_DATE_FORMAT = "MM-dd HH:mm:ss.SSS";
     private static final String SF_LOGGER_PREFS = "sf_logger_prefs";
     private static final ExecutorService THREAD_POOL = Executors.newFixedThreadPool(1);
+    private static final int BUFFER_CAPACITY = 1024;
+    private static final int MAX_LINES_PER_WRITE = 256;
     private static Map<String, SalesforceLogger> LOGGERS;
 
+    // Only used from the file logging thread
+    private static final Calendar CALENDAR = Calendar.getInstance();
+    private static final StringBuilder LINE_BUILDER = new StringBuilder();
+
+    /**
+     * Supplies a log message, only called if the message is going to be logged.
+     */
+    public interface MessageSupplier {
+
+        /**
+         * @return log message.
+         */
+        String get();
+    }
+
     /**
      * An enumeration of log levels.
      */
@@ -81,7 +96,16 @@ public class SalesforceLogger {
     private FileLogger fileLogger;
     private Context context;
     private String componentName;
-    private Level logLevel;
+    private volatile Level logLevel;
+    private final LogRingBuffer<LogEntry> buffer = new LogRingBuffer<>(BUFFER_CAPACITY);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+
+        @Override
+        public void run() {
+            drain();
+        }
+    };
 
     /**
      * Returns a logger instance associated with a named component.
@@ -319,6 +343,17 @@ public class SalesforceLogger {
         log(Level.VERBOSE, tag, message, e);
     }
 
+    /**
+     * Returns whether a log line of the specified level would be logged.
+     * Useful to skip building expensive messages.
+     *
+     * @param level Log level.
+     * @return True - if log lines of that level are logged, False - otherwise.
+     */
+    public boolean isLoggable(Level level) {
+        return level != Level.OFF && level.severity >= logLevel.severity;
+    }
+
     /**
      * Logs a log line of the specified level.
      *
@@ -327,45 +362,22 @@ public class SalesforceLogger {
      * @param message Log message.
      */
     public void log(Level level, String tag, String message) {
-        if (level.severity >= logLevel.severity) {
-            switch (level) {
-                case OFF:
-                    break;
-                case ERROR:
-                    Log.e(tag, message);
-                    break;
-                case WARN:
-                    Log.w(tag, message);
-                    break;
-                case INFO:
-                    Log.i(tag, message);
-                    break;
-                case DEBUG:
-                    Log.d(tag, message);
-                    break;
-                case VERBOSE:
-                    Log.v(tag, message);
-                    break;
-                default:
-                    Log.d(tag, message);
-            }
-            logToFile(getTimeFromUTC(), level, tag, message, null);
-        }
+        log(level, tag, message, null);
     }
 
-  /**
-   * Logs a log line of the specified level.
-   *
-   * @param level Log level.
-   * @param tag Log tag.
-   * @param message Log message.
-   * @param e Exception to be logged.
-   */
-  public void log(Level level, String tag, String message, Throwable e) {
-      if (level.severity >= logLevel.severity) {
-          switch (level) {
-              case OFF:
-                break;
+    /**
+     * Logs a log line of the specified level.
+     *
+     * @param level Log level.
+     * @param tag Log tag.
+     * @param message Log message.
+     * @param e Exception to be logged.
+     */
+    public void log(Level level, String tag, String message, Throwable e) {
+        if (!isLoggable(level)) {
+            return;
+        }
+        switch (level) {
             case ERROR:
                 Log.e(tag, message, e);
                 break;
@@ -383,36 +395,106 @@ public class SalesforceLogger {
                 break;
             default:
                 Log.d(tag, message, e);
-          }
-          logToFile(getTimeFromUTC(), level, tag, message, e);
-      }
-    }
-
-    private void logToFile(final String curTime, final Level level, final String tag,
-                           final String message, final Throwable e) {
-        THREAD_POOL.execute(new Runnable() {
-
-            @Override
-            public void run() {
-                if (fileLogger != null) {
-                    String logLine;
-                    if (e != null) {
-                        logLine = String.format(LOG_LINE_FORMAT_WITH_EXCEPTION, curTime, level,
-                                tag, message, Log.getStackTraceString(e));
-                    } else {
-                        logLine = String.format(LOG_LINE_FORMAT, curTime, level, tag, message);
-                    }
-                    fileLogger.addLogLine(logLine);
-                }
+        }
+        logToFile(System.currentTimeMillis(), level, tag, message, e);
+    }
+
+    /**
+     * Logs a log line of the specified level, the message is only built if it is going to be logged.
+     *
+     * @param level Log level.
+     * @param tag Log tag.
+     * @param supplier Log message supplier.
+     * @param e Exception to be logged, can be null.
+     */
+    public void log(Level level, String tag, MessageSupplier supplier, Throwable e) {
+        if (isLoggable(level)) {
+            log(level, tag, supplier.get(), e);
+        }
+    }
+
+    /**
+     * Writes log lines buffered for the file logger, waiting for a drain in progress to complete.
+     * Used ONLY by tests.
+     */
+    public void flush() {
+        try {
+            THREAD_POOL.submit(drainTask).get();
+        } catch (Exception e) {
+            Log.e(TAG, "Couldn't flush log lines", e);
+        }
+    }
+
+    /**
+     * Buffers a log line for the file logger. Formatting and writing happen on the
+     * file logging thread, a batch of lines at a time.
+     */
+    private void logToFile(long time, Level level, String tag, String message, Throwable e) {
+        if (fileLogger == null || fileLogger.getMaxSize() <= 0
+                || !buffer.offer(new LogEntry(time, level, tag, message, e))) {
+            return;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            THREAD_POOL.execute(drainTask);
+        }
+    }
+
+    private void drain() {
+
+        // Cleared first, so that lines buffered after the drain below schedule another one
+        drainScheduled.set(false);
+        final List<LogEntry> entries = new ArrayList<>();
+        final List<String> logLines = new ArrayList<>();
+        while (buffer.drainTo(entries, MAX_LINES_PER_WRITE) > 0) {
+            for (final LogEntry entry : entries) {
+                logLines.add(format(entry));
             }
-        });
+            fileLogger.addLogLines(logLines);
+            entries.clear();
+            logLines.clear();
+        }
+    }
+
+    private static String format(LogEntry entry) {
+        final StringBuilder builder = LINE_BUILDER;
+        builder.setLength(0);
+        builder.append("TIME: ");
+        appendTime(builder, entry.time);
+        builder.append(", LEVEL: ").append(entry.level.name())
+                .append(", TAG: ").append(entry.tag)
+                .append(", MESSAGE: ").append(entry.message);
+        if (entry.throwable != null) {
+            builder.append(", EXCEPTION: ").append(Log.getStackTraceString(entry.throwable));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends the time in MM-dd HH:mm:ss.SSS format, without allocating a formatter or a date.
+     */
+    private static void appendTime(StringBuilder builder, long time) {
+        final Calendar calendar = CALENDAR;
+        calendar.setTimeInMillis(time);
+        appendPadded(builder, calendar.get(Calendar.MONTH) + 1, 2);
+        builder.append('-');
+        appendPadded(builder, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        builder.append(' ');
+        appendPadded(builder, calendar.get(Calendar.HOUR_OF_DAY), 2);
+        builder.append(':');
+        appendPadded(builder, calendar.get(Calendar.MINUTE), 2);
+        builder.append(':');
+        appendPadded(builder, calendar.get(Calendar.SECOND), 2);
+        builder.append('.');
+        appendPadded(builder, calendar.get(Calendar.MILLISECOND), 3);
     }
 
-    private String getTimeFromUTC() {
-        long curTime = System.currentTimeMillis();
-        final Date date = new Date(curTime);
-        final SimpleDateFormat dateFormat = new SimpleDateFormat(US_DATE_FORMAT, Locale.US);
-        return dateFormat.format(date);
+    private static void appendPadded(StringBuilder builder, int value, int digits) {
+        for (int limit = 10, i = 1; i < digits; i++, limit *= 10) {
+            if (value < limit) {
+                builder.append('0');
+            }
+        }
+        builder.append(value);
     }
 
     private synchronized void storeLoggerPrefs(Level level) {
@@ -447,4 +529,24 @@ public class SalesforceLogger {
         e.clear();
         e.commit();
     }
+
+    /**
+     * Log line waiting to be written to the file logger
+     */
+    private static class LogEntry {
+
+        final long time;
+        final Level level;
+        final String tag;
+        final String message;
+        final Throwable throwable;
+
+        LogEntry(long time, Level level, String tag, String message, Throwable throwable) {
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+            this.throwable = throwable;
+        }
+    }
 }
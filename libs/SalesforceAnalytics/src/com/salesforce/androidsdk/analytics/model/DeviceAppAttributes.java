@@ -26,6 +26,8 @@
  */
 package com.salesforce.androidsdk.analytics.model;
 
+import android.text.TextUtils;
+
 import com.salesforce.androidsdk.analytics.util.SalesforceAnalyticsLogger;
 
 import org.json.JSONException;
@@ -211,4 +213,29 @@ public class DeviceAppAttributes {
         }
         return json;
     }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
+        if (!(object instanceof DeviceAppAttributes)) {
+            return false;
+        }
+        final DeviceAppAttributes other = (DeviceAppAttributes) object;
+        return TextUtils.equals(appVersion, other.appVersion)
+                && TextUtils.equals(appName, other.appName)
+                && TextUtils.equals(osVersion, other.osVersion)
+                && TextUtils.equals(osName, other.osName)
+                && TextUtils.equals(nativeAppType, other.nativeAppType)
+                && TextUtils.equals(mobileSdkVersion, other.mobileSdkVersion)
+                && TextUtils.equals(deviceModel, other.deviceModel)
+                && TextUtils.equals(deviceId, other.deviceId)
+                && TextUtils.equals(clientId, other.clientId);
+    }
+
+    @Override
+    public int hashCode() {
+        return deviceId != null ? deviceId.hashCode() : 0;
+    }
 }
@@ -61,6 +61,7 @@ public class InstrumentationEvent {
     public static final String PAGE_KEY = "page";
     public static final String PREVIOUS_PAGE_KEY = "previousPage";
     public static final String MARKS_KEY = "marks";
+    public static final String WIRE_FORMS_KEY = "wireForms";
 
     private String eventId;
     private long startTime;
@@ -81,6 +82,7 @@ public class InstrumentationEvent {
     private JSONObject page;
     private JSONObject previousPage;
     private JSONObject marks;
+    private JSONObject wireForms;
 
     InstrumentationEvent(String eventId, long startTime, long endTime, String name,
                          JSONObject attributes, String sessionId, int sequenceId,
@@ -150,6 +152,7 @@ public class InstrumentationEvent {
             page = json.optJSONObject(PAGE_KEY);
             previousPage = json.optJSONObject(PREVIOUS_PAGE_KEY);
             marks = json.optJSONObject(MARKS_KEY);
+            wireForms = json.optJSONObject(WIRE_FORMS_KEY);
         }
     }
 
@@ -324,6 +327,34 @@ public class InstrumentationEvent {
         return marks;
     }
 
+    /**
+     * Returns the wire form of this event computed by a transform when it was stored.
+     *
+     * @param transformKey Key of the transform, see {@link com.salesforce.androidsdk.analytics.transform.WireFormatTransform}.
+     * @return Wire form, or null if it wasn't computed.
+     */
+    public synchronized String getWireForm(String transformKey) {
+        return wireForms != null ? wireForms.optString(transformKey, null) : null;
+    }
+
+    /**
+     * Caches the wire form of this event computed by a transform, so it gets stored with it.
+     * This is meant for internal use.
+     *
+     * @param transformKey Key of the transform.
+     * @param wireForm Wire form.
+     */
+    public synchronized void putWireForm(String transformKey, String wireForm) {
+        try {
+            if (wireForms == null) {
+                wireForms = new JSONObject();
+            }
+            wireForms.put(transformKey, wireForm);
+        } catch (JSONException e) {
+            SalesforceAnalyticsLogger.e(null, TAG, "Exception thrown while caching wire form", e);
+        }
+    }
+
     /**
      * Returns a JSON representation of this event.
      *
@@ -369,6 +400,9 @@ public class InstrumentationEvent {
             if (marks != null) {
                 json.put(MARKS_KEY, marks);
             }
+            if (wireForms != null) {
+                json.put(WIRE_FORMS_KEY, wireForms);
+            }
         } catch (JSONException e) {
             SalesforceAnalyticsLogger.e(null, TAG, "Exception thrown while attempting to convert to JSON", e);
         }
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.analytics.store;
+
+import com.salesforce.androidsdk.analytics.model.InstrumentationEvent;
+import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.analytics.util.SalesforceAnalyticsLogger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Append-only, encrypted log of events, split in segment files.
+ * Each append is encrypted once, as a single frame holding all the events appended together.
+ * A frame starts with its number of events and length in clear, so that the log can be
+ * counted when opened without decrypting anything.
+ * Segments hold at most {@link #MAX_EVENTS_PER_SEGMENT} events (larger appends are split across segments),
+ * and are deleted once all their events have been deleted (e.g. after a successful publish).
+ * Segments losing only some of their events are written to a temporary file renamed over them,
+ * so that a crash never leaves a segment half rewritten.
+ */
+class EventLog {
+
+    private static final String TAG = "EventLog";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    /**
+     * Segments holding this many events are not appended to anymore
+     */
+    static final int MAX_EVENTS_PER_SEGMENT = 100;
+
+    // Logs are shared by all the store managers using the same directory
+    private static final Map<String, EventLog> LOGS = new HashMap<>();
+
+    private final File dir;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private int numEvents;
+
+    /**
+     * Returns the log stored in the given directory.
+     *
+     * @param dir Directory.
+     * @return Event log.
+     */
+    static synchronized EventLog getInstance(File dir) {
+        final String path = dir.getAbsolutePath();
+        EventLog log = LOGS.get(path);
+        if (log == null) {
+            log = new EventLog(dir);
+            LOGS.put(path, log);
+        }
+        return log;
+    }
+
+    private EventLog(File dir) {
+        this.dir = dir;
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+
+                // Left over by a rewrite interrupted before the rename, the segment itself is intact
+                if (name.endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                if (!name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    final long seq = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    final Segment segment = new Segment(seq, file);
+                    segment.numEvents = scan(file);
+                    segments.put(seq, segment);
+                    numEvents += segment.numEvents;
+                } catch (NumberFormatException e) {
+                    SalesforceAnalyticsLogger.w(null, TAG, "Unexpected file in event log: " + name);
+                } catch (IOException e) {
+                    SalesforceAnalyticsLogger.e(null, TAG, "Could not read segment " + name, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of events in the log.
+     */
+    synchronized int size() {
+        return numEvents;
+    }
+
+    /**
+     * Appends events to the log, encrypted together (one frame per segment they go to).
+     *
+     * @param events Events.
+     * @param encryptionKey Encryption key.
+     * @throws IOException if the events could not be written.
+     */
+    synchronized void append(List<InstrumentationEvent> events, String encryptionKey) throws IOException {
+        int start = 0;
+        while (start < events.size()) {
+            Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (segment == null || segment.numEvents >= MAX_EVENTS_PER_SEGMENT) {
+                final long seq = segment == null ? 0 : segment.seq + 1;
+                segment = new Segment(seq, new File(dir, String.format(Locale.US, "%010d", seq) + SEGMENT_SUFFIX));
+                segment.eventIds = new LinkedHashSet<>();
+            }
+            final int end = Math.min(events.size(), start + MAX_EVENTS_PER_SEGMENT - segment.numEvents);
+            final List<InstrumentationEvent> frameEvents = events.subList(start, end);
+            writeFrame(segment.file, frameEvents, encryptionKey, true);
+            segments.put(segment.seq, segment);
+            segment.numEvents += frameEvents.size();
+            numEvents += frameEvents.size();
+            if (segment.eventIds != null) {
+                for (final InstrumentationEvent event : frameEvents) {
+                    segment.eventIds.add(event.getEventId());
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Reads all events, oldest first.
+     *
+     * @param encryptionKey Encryption key.
+     * @return Events.
+     */
+    synchronized List<InstrumentationEvent> readAll(String encryptionKey) {
+        final List<InstrumentationEvent> events = new ArrayList<>();
+        for (final Segment segment : segments.values()) {
+            events.addAll(read(segment, encryptionKey));
+        }
+        return events;
+    }
+
+    /**
+     * Reads the oldest events, a segment at a time.
+     *
+     * @param maxEvents Maximum number of events to read.
+     * @param encryptionKey Encryption key.
+     * @return Events, oldest first.
+     */
+    synchronized List<InstrumentationEvent> readOldest(int maxEvents, String encryptionKey) {
+        final List<InstrumentationEvent> events = new ArrayList<>();
+        for (final Segment segment : segments.values()) {
+            if (events.size() >= maxEvents) {
+                break;
+            }
+            events.addAll(read(segment, encryptionKey));
+        }
+        return events.size() > maxEvents ? new ArrayList<>(events.subList(0, maxEvents)) : events;
+    }
+
+    /**
+     * Reads a single event.
+     *
+     * @param eventId Event ID.
+     * @param encryptionKey Encryption key.
+     * @return Event, null if not found.
+     */
+    synchronized InstrumentationEvent read(String eventId, String encryptionKey) {
+        for (final Segment segment : segments.values()) {
+            if (segment.eventIds != null && !segment.eventIds.contains(eventId)) {
+                continue;
+            }
+            for (final InstrumentationEvent event : read(segment, encryptionKey)) {
+                if (eventId.equals(event.getEventId())) {
+                    return event;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes events. Segments left empty are deleted, others are written again without the deleted events.
+     *
+     * @param eventIds Event IDs.
+     * @param encryptionKey Encryption key.
+     * @return number of events deleted.
+     */
+    synchronized int delete(Collection<String> eventIds, String encryptionKey) {
+        final Set<String> toDelete = new HashSet<>(eventIds);
+        int deleted = 0;
+        for (final Segment segment : new ArrayList<>(segments.values())) {
+            if (toDelete.isEmpty()) {
+                break;
+            }
+            if (segment.eventIds == null) {
+                read(segment, encryptionKey);
+            }
+            final Set<String> remainingIds = new LinkedHashSet<>(segment.eventIds);
+            if (!remainingIds.removeAll(toDelete)) {
+                continue;
+            }
+            final int removed = segment.eventIds.size() - remainingIds.size();
+            toDelete.removeAll(segment.eventIds);
+            if (remainingIds.isEmpty()) {
+                segment.file.delete();
+                segments.remove(segment.seq);
+            } else {
+                final List<InstrumentationEvent> remaining = new ArrayList<>();
+                for (final InstrumentationEvent event : read(segment, encryptionKey)) {
+                    if (remainingIds.contains(event.getEventId())) {
+                        remaining.add(event);
+                    }
+                }
+                final File tmpFile = new File(dir, segment.file.getName() + TMP_SUFFIX);
+                try {
+                    writeFrame(tmpFile, remaining, encryptionKey, false);
+                    if (!tmpFile.renameTo(segment.file)) {
+                        throw new IOException("Could not rename " + tmpFile.getName());
+                    }
+                } catch (IOException e) {
+                    SalesforceAnalyticsLogger.e(null, TAG, "Could not rewrite segment", e);
+                    tmpFile.delete();
+                    continue;
+                }
+                segment.eventIds = remainingIds;
+            }
+            numEvents -= segment.numEvents - remainingIds.size();
+            segment.numEvents = remainingIds.size();
+            deleted += removed;
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes all events.
+     */
+    synchronized void clear() {
+        for (final Segment segment : segments.values()) {
+            segment.file.delete();
+        }
+        segments.clear();
+        numEvents = 0;
+    }
+
+    private List<InstrumentationEvent> read(Segment segment, String encryptionKey) {
+        final List<InstrumentationEvent> events = new ArrayList<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            while (true) {
+                try {
+                    in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                final byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                final String json = Encryptor.decrypt(data, encryptionKey);
+                if (json == null) {
+                    SalesforceAnalyticsLogger.e(null, TAG, "Could not decrypt events");
+                    continue;
+                }
+                final JSONArray array = new JSONArray(json);
+                for (int i = 0; i < array.length(); i++) {
+                    events.add(new InstrumentationEvent(array.getJSONObject(i)));
+                }
+            }
+        } catch (IOException | JSONException e) {
+            SalesforceAnalyticsLogger.e(null, TAG, "Exception occurred while reading events", e);
+        } finally {
+            closeQuietly(in);
+        }
+        final Set<String> eventIds = new LinkedHashSet<>();
+        for (final InstrumentationEvent event : events) {
+            eventIds.add(event.getEventId());
+        }
+        segment.eventIds = eventIds;
+        return events;
+    }
+
+    private static void writeFrame(File file, List<InstrumentationEvent> events, String encryptionKey,
+                                   boolean append) throws IOException {
+        final JSONArray array = new JSONArray();
+        for (final InstrumentationEvent event : events) {
+            array.put(event.toJson());
+        }
+        final byte[] data = Encryptor.encryptBytes(array.toString(), encryptionKey);
+        if (data == null) {
+            throw new IOException("Could not encrypt events");
+        }
+        final FileOutputStream fileOut = new FileOutputStream(file, append);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(events.size());
+            out.writeInt(data.length);
+            out.write(data);
+            out.flush();
+
+            // A rewritten segment replaces the old one, it must be on disk before the rename
+            if (!append) {
+                fileOut.getFD().sync();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Counts the events in a segment from frame headers, dropping a frame only partly written.
+     */
+    private static int scan(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final long length = raf.length();
+            long position = 0;
+            int count = 0;
+            while (position + FRAME_HEADER_SIZE <= length) {
+                raf.seek(position);
+                final int frameEvents = raf.readInt();
+                final int frameLength = raf.readInt();
+                if (frameLength < 0 || position + FRAME_HEADER_SIZE + frameLength > length) {
+                    break;
+                }
+                count += frameEvents;
+                position += FRAME_HEADER_SIZE + frameLength;
+            }
+            if (position < length) {
+                SalesforceAnalyticsLogger.w(null, TAG, "Dropping partly written events in " + file.getName());
+                raf.setLength(position);
+            }
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                SalesforceAnalyticsLogger.w(null, TAG, "Could not close segment", e);
+            }
+        }
+    }
+
+    /**
+     * Segment file
+     */
+    private static class Segment {
+
+        final long seq;
+        final File file;
+        int numEvents;
+
+        // Known once the segment has been read or if it was created in this process
+        Set<String> eventIds;
+
+        Segment(long seq, File file) {
+            this.seq = seq;
+            this.file = file;
+        }
+    }
+}
@@ -31,6 +31,7 @@ import android.text.TextUtils;
 
 import com.salesforce.androidsdk.analytics.model.InstrumentationEvent;
 import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.analytics.transform.WireFormatTransform;
 import com.salesforce.androidsdk.analytics.util.SalesforceAnalyticsLogger;
 
 import org.json.JSONException;
@@ -38,29 +39,35 @@ import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Provides APIs to store events in an encrypted store on the filesystem.
- * Each event is stored in a separate file on the filesystem.
+ * Events are appended to a segmented log (see {@link EventLog}), events stored together
+ * are encrypted together. The wire forms of registered {@link WireFormatTransform}s are
+ * computed when events get stored, and stored with them.
  *
  * @author bhariharan
  */
 public class EventStoreManager {
 
     private static final String TAG = "EventStoreManager";
+    private static final String EVENT_LOG_DIR_PREFIX = "sf__event_log";
 
     private String filenameSuffix;
     private File rootDir;
     private EventFileFilter fileFilter;
+    private EventLog eventLog;
     private Context context;
     private String encryptionKey;
     private boolean isLoggingEnabled = true;
     private int maxEvents = 1000;
+    private final List<WireFormatTransform> wireFormatTransforms = new CopyOnWriteArrayList<>();
 
     /**
      * Parameterized constructor.
@@ -76,11 +83,29 @@ public class EventStoreManager {
         this.encryptionKey = encryptionKey;
         fileFilter = new EventFileFilter(filenameSuffix);
         rootDir = context.getFilesDir();
+        eventLog = EventLog.getInstance(new File(rootDir, EVENT_LOG_DIR_PREFIX + filenameSuffix));
+        migrateEventFiles();
     }
 
     /**
-     * Stores an event to the filesystem. A combination of event's unique ID and
-     * filename suffix is used to generate a unique filename per event.
+     * Registers a transform whose wire form gets computed and stored with each event.
+     *
+     * @param transform Transform.
+     */
+    public void addWireFormatTransform(WireFormatTransform transform) {
+        if (transform == null) {
+            return;
+        }
+        for (final WireFormatTransform registered : wireFormatTransforms) {
+            if (registered.getWireFormatKey().equals(transform.getWireFormatKey())) {
+                return;
+            }
+        }
+        wireFormatTransforms.add(transform);
+    }
+
+    /**
+     * Stores an event to the filesystem.
      *
      * @param event Event to be persisted.
      */
@@ -89,18 +114,7 @@ public class EventStoreManager {
             SalesforceAnalyticsLogger.d(context, TAG, "Invalid event");
             return;
         }
-        if (!shouldStoreEvent()) {
-            return;
-        }
-        final String filename = event.getEventId() + filenameSuffix;
-        FileOutputStream outputStream;
-        try {
-            outputStream = context.openFileOutput(filename, Context.MODE_PRIVATE);
-            outputStream.write(encrypt(event.toJson().toString()).getBytes());
-            outputStream.close();
-        } catch (Exception e) {
-            SalesforceAnalyticsLogger.e(context, TAG, "Exception occurred while saving event to filesystem", e);
-        }
+        storeEvents(Collections.singletonList(event));
     }
 
     /**
@@ -113,11 +127,32 @@ public class EventStoreManager {
             SalesforceAnalyticsLogger.d(context, TAG, "No events to store");
             return;
         }
-        if (!shouldStoreEvent()) {
-            return;
+        final List<InstrumentationEvent> eventsToStore;
+        synchronized (this) {
+            if (!isLoggingEnabled) {
+                return;
+            }
+            final int capacity = maxEvents - eventLog.size();
+            if (capacity <= 0) {
+                return;
+            }
+            eventsToStore = new ArrayList<>(events.size() > capacity ? events.subList(0, capacity) : events);
         }
-        for (final InstrumentationEvent event : events) {
-            storeEvent(event);
+        for (final WireFormatTransform transform : wireFormatTransforms) {
+            final String key = transform.getWireFormatKey();
+            for (final InstrumentationEvent event : eventsToStore) {
+                if (event.getWireForm(key) == null) {
+                    final String wireForm = transform.toWireFormat(event);
+                    if (wireForm != null) {
+                        event.putWireForm(key, wireForm);
+                    }
+                }
+            }
+        }
+        try {
+            eventLog.append(eventsToStore, encryptionKey);
+        } catch (Exception e) {
+            SalesforceAnalyticsLogger.e(context, TAG, "Exception occurred while saving events to filesystem", e);
         }
     }
 
@@ -132,9 +167,7 @@ public class EventStoreManager {
             SalesforceAnalyticsLogger.e(context, TAG, "Invalid event ID supplied: " + eventId);
             return null;
         }
-        final String filename = eventId + filenameSuffix;
-        final File file = new File(rootDir, filename);
-        return fetchEvent(file);
+        return eventLog.read(eventId, encryptionKey);
     }
 
     /**
@@ -143,15 +176,18 @@ public class EventStoreManager {
      * @return List of events.
      */
     public List<InstrumentationEvent> fetchAllEvents() {
-        final List<File> files = getAllFiles();
-        final List<InstrumentationEvent> events = new ArrayList<>();
-        for (final File file : files) {
-            final InstrumentationEvent event = fetchEvent(file);
-            if (event != null) {
-                events.add(event);
-            }
-        }
-        return events;
+        return eventLog.readAll(encryptionKey);
+    }
+
+    /**
+     * Returns the oldest events stored on the filesystem for that unique identifier.
+     * Only the parts of the store holding these events are read.
+     *
+     * @param maxEvents Maximum number of events to return.
+     * @return List of events, oldest first.
+     */
+    public List<InstrumentationEvent> fetchOldestEvents(int maxEvents) {
+        return eventLog.readOldest(maxEvents, encryptionKey);
     }
 
     /**
@@ -165,9 +201,7 @@ public class EventStoreManager {
             SalesforceAnalyticsLogger.e(context, TAG, "Invalid event ID supplied: " + eventId);
             return false;
         }
-        final String filename = eventId + filenameSuffix;
-        final File file = new File(rootDir, filename);
-        return file.delete();
+        return eventLog.delete(Collections.singletonList(eventId), encryptionKey) > 0;
     }
 
     /**
@@ -178,19 +212,14 @@ public class EventStoreManager {
             SalesforceAnalyticsLogger.d(context, TAG, "No events to delete");
             return;
         }
-        for (final String eventId : eventIds) {
-            deleteEvent(eventId);
-        }
+        eventLog.delete(eventIds, encryptionKey);
     }
 
     /**
      * Deletes all the events stored on the filesystem for that unique identifier.
      */
     public void deleteAllEvents() {
-        final List<File> files = getAllFiles();
-        for (final File file : files) {
-            file.delete();
-        }
+        eventLog.clear();
     }
 
     /**
@@ -212,7 +241,11 @@ public class EventStoreManager {
         final List<InstrumentationEvent> storedEvents = fetchAllEvents();
         deleteAllEvents();
         encryptionKey = newKey;
-        storeEvents(storedEvents);
+        try {
+            eventLog.append(storedEvents, encryptionKey);
+        } catch (Exception e) {
+            SalesforceAnalyticsLogger.e(context, TAG, "Exception occurred while re-encrypting events", e);
+        }
         isLoggingEnabled = logEnabledStatus;
     }
 
@@ -259,21 +292,40 @@ public class EventStoreManager {
      * @return Number of stored events.
      */
     public int getNumStoredEvents() {
-        int numFiles = 0;
-        final File[] listOfFiles = rootDir.listFiles();
-        if (listOfFiles != null) {
-            numFiles = listOfFiles.length;
-        }
-        return numFiles;
+        return eventLog.size();
     }
 
-    private boolean shouldStoreEvent() {
+    /**
+     * Moves events stored one per file (by earlier versions) to the event log.
+     */
+    private void migrateEventFiles() {
         final List<File> files = getAllFiles();
-        int fileCount = 0;
-        if (files != null) {
-            fileCount = files.size();
+        if (files.isEmpty()) {
+            return;
+        }
+        final List<InstrumentationEvent> events = new ArrayList<>();
+        final List<File> migratedFiles = new ArrayList<>();
+        for (final File file : files) {
+            final InstrumentationEvent event = fetchEvent(file);
+            if (event != null) {
+                events.add(event);
+                migratedFiles.add(file);
+            }
+        }
+        try {
+            eventLog.append(events, encryptionKey);
+        } catch (Exception e) {
+            SalesforceAnalyticsLogger.e(context, TAG, "Exception occurred while migrating events", e);
+            return;
+        }
+
+        // Files that could not be read are kept, they could still be read with another key
+        for (final File file : migratedFiles) {
+            file.delete();
+        }
+        if (migratedFiles.size() < files.size()) {
+            SalesforceAnalyticsLogger.w(context, TAG, "Could not migrate " + (files.size() - migratedFiles.size()) + " event files");
         }
-        return (isLoggingEnabled && (fileCount < maxEvents));
     }
 
     private InstrumentationEvent fetchEvent(File file) {
@@ -309,18 +361,17 @@ public class EventStoreManager {
     private List<File> getAllFiles() {
         final List<File> files = new ArrayList<>();
         final File[] listOfFiles = rootDir.listFiles();
+        if (listOfFiles == null) {
+            return files;
+        }
         for (final File file : listOfFiles) {
-            if (file != null && fileFilter.accept(rootDir, file.getName())) {
+            if (file != null && file.isFile() && fileFilter.accept(rootDir, file.getName())) {
                 files.add(file);
             }
         }
         return files;
     }
 
-    private String encrypt(String data) {
-        return Encryptor.encrypt(data, encryptionKey);
-    }
-
     private String decrypt(String data) {
         return Encryptor.decrypt(data, encryptionKey);
     }
@@ -37,10 +37,11 @@ import org.json.JSONObject;
 
 /**
  * Represents a transformation of generic event to the AILTN format.
+ * The wire form is the complete log line sent to the AILTN endpoint.
  *
  * @author bhariharan
  */
-public class AILTNTransform implements Transform {
+public class AILTNTransform implements WireFormatTransform {
 
     private static final String TAG = "AILTNTransform";
     private static final String CONNECTION_TYPE_KEY = "connectionType";
@@ -67,6 +68,15 @@ public class AILTNTransform implements Transform {
     private static final String CONTEXT_KEY = "context";
     private static final String DEVICE_ATTRIBUTES_KEY = "deviceAttributes";
     private static final String PERF_EVENT_TYPE = "defs";
+    private static final String WIRE_FORMAT_KEY = "ailtn_" + VERSION_VALUE;
+    private static final String LOG_LINE_PREFIX = "{\"code\":\"ailtn\",\"data\":{\"" + SCHEMA_TYPE_KEY + "\":";
+    private static final String PAYLOAD_PREFIX = ",\"payload\":";
+    private static final String LOG_LINE_SUFFIX = "}}";
+
+    // Device attributes are the same for most events, their serialized form is reused
+    private DeviceAppAttributes internedAppAttributes;
+    private String internedConnectionType;
+    private String internedDeviceAttributes;
 
     @Override
     public JSONObject transform(InstrumentationEvent event) {
@@ -85,6 +95,50 @@ public class AILTNTransform implements Transform {
         return logLine;
     }
 
+    @Override
+    public String getWireFormatKey() {
+        return WIRE_FORMAT_KEY;
+    }
+
+    @Override
+    public String toWireFormat(InstrumentationEvent event) {
+        if (event == null) {
+            return null;
+        }
+        final JSONObject payload = buildPayload(event);
+        if (payload == null) {
+            return null;
+        }
+        final Object schemaType = payload.remove(SCHEMA_TYPE_KEY);
+
+        // Payload is sent as a string, with device attributes spliced in as its last field
+        final String payloadWithoutAttributes = payload.toString();
+        final String payloadString = new StringBuilder(payloadWithoutAttributes.length() + 512)
+                .append(payloadWithoutAttributes, 0, payloadWithoutAttributes.length() - 1)
+                .append(",\"").append(DEVICE_ATTRIBUTES_KEY).append("\":")
+                .append(getDeviceAttributesString(event))
+                .append('}').toString();
+        return new StringBuilder(payloadString.length() + 128)
+                .append(LOG_LINE_PREFIX)
+                .append(JSONObject.quote(String.valueOf(schemaType)))
+                .append(PAYLOAD_PREFIX)
+                .append(JSONObject.quote(payloadString))
+                .append(LOG_LINE_SUFFIX).toString();
+    }
+
+    private synchronized String getDeviceAttributesString(InstrumentationEvent event) {
+        final DeviceAppAttributes appAttributes = event.getDeviceAppAttributes();
+        final String connectionType = event.getConnectionType();
+        if (internedDeviceAttributes == null
+                || !TextUtils.equals(connectionType, internedConnectionType)
+                || (appAttributes == null ? internedAppAttributes != null : !appAttributes.equals(internedAppAttributes))) {
+            internedAppAttributes = appAttributes;
+            internedConnectionType = connectionType;
+            internedDeviceAttributes = buildDeviceAttributes(event).toString();
+        }
+        return internedDeviceAttributes;
+    }
+
     private JSONObject buildDeviceAttributes(InstrumentationEvent event) {
         JSONObject deviceAttributes = new JSONObject();
         try {
@@ -132,7 +132,7 @@ public class SalesforceNetworkPlugin extends ForcePlugin {
                             callbackContext.success(result);
                         }
                         // Some response
-                        else if (response.asBytes().length > 0) {
+                        else if (response.getBodySize() > 0) {
                             // Is it a JSONObject?
                             final JSONObject responseAsJSONObject = parseResponseAsJSONObject(response);
                             if (responseAsJSONObject != null) {
@@ -33,6 +33,7 @@ import com.salesforce.androidsdk.accounts.UserAccount;
 import com.salesforce.androidsdk.accounts.UserAccountManager;
 import com.salesforce.androidsdk.phonegap.util.SalesforceHybridLogger;
 import com.salesforce.androidsdk.smartstore.app.SmartStoreSDKManager;
+import com.salesforce.androidsdk.smartstore.store.AsyncSmartStore;
 import com.salesforce.androidsdk.smartstore.store.DBOpenHelper;
 import com.salesforce.androidsdk.smartstore.store.IndexSpec;
 import com.salesforce.androidsdk.smartstore.store.QuerySpec;
@@ -81,6 +82,7 @@ public class SmartStorePlugin extends ForcePlugin {
 	private static final String TAG = "SmartStorePlugin";
 
 	// Map of cursor id to StoreCursor, per database.
+	// Cursor operations run on the async store reader threads, all accesses go through the synchronized methods below.
 	private static Map<SQLiteDatabase, SparseArray<StoreCursor>> STORE_CURSORS = new HashMap<>();
 
 	private synchronized static SparseArray<StoreCursor> getSmartStoreCursors(SmartStore store) {
@@ -91,6 +93,18 @@ public class SmartStorePlugin extends ForcePlugin {
 		return STORE_CURSORS.get(db);
 	}
 
+	private synchronized static StoreCursor getCursor(SmartStore store, int cursorId) {
+		return getSmartStoreCursors(store).get(cursorId);
+	}
+
+	private synchronized static void putCursor(SmartStore store, StoreCursor storeCursor) {
+		getSmartStoreCursors(store).put(storeCursor.cursorId, storeCursor);
+	}
+
+	private synchronized static void removeCursor(SmartStore store, int cursorId) {
+		getSmartStoreCursors(store).remove(cursorId);
+	}
+
 	/**
 	 * Supported plugin actions that the client can take.
 	 */
@@ -138,40 +152,21 @@ public class SmartStorePlugin extends ForcePlugin {
 
 			@Override
 			public void run() {
-
-				// All smart store action need to be serialized
-				synchronized (this) {
-					try {
-						switch (action) {
-		        		  case pgAlterSoup:             alterSoup(args, callbackContext); break;
-		        		  case pgClearSoup:				clearSoup(args, callbackContext); break;
-		                  case pgCloseCursor:           closeCursor(args, callbackContext); break;
-		                  case pgGetDatabaseSize:       getDatabaseSize(args, callbackContext); break;
-		                  case pgGetSoupIndexSpecs:     getSoupIndexSpecs(args, callbackContext); break;
-		                  case pgGetSoupSpec:           getSoupSpec(args, callbackContext); break;
-		                  case pgMoveCursorToPageIndex: moveCursorToPageIndex(args, callbackContext); break;
-		                  case pgQuerySoup:             querySoup(args, callbackContext); break;
-		                  case pgRegisterSoup:          registerSoup(args, callbackContext); break;
-		                  case pgReIndexSoup:			reIndexSoup(args, callbackContext); break;
-		                  case pgRemoveFromSoup:        removeFromSoup(args, callbackContext); break;
-		                  case pgRemoveSoup:            removeSoup(args, callbackContext); break;
-		                  case pgRetrieveSoupEntries:   retrieveSoupEntries(args, callbackContext); break;
-		                  case pgRunSmartQuery:         runSmartQuery(args, callbackContext); break;
-		                  case pgShowInspector:         showInspector(args, callbackContext); break;
-		                  case pgSoupExists:            soupExists(args, callbackContext); break;
-		                  case pgUpsertSoupEntries:     upsertSoupEntries(args, callbackContext); break;
-						  case pgGetAllGlobalStores:    getAllGlobalStorePrefixes(args, callbackContext); break;
-						  case pgGetAllStores:    		getAllStorePrefixes(args, callbackContext); break;
-						  case pgRemoveStore:    		removeStore(args, callbackContext); break;
-						  case pgRemoveAllGlobalStores: removeAllGlobalStores(args, callbackContext); break;
-						  case pgRemoveAllStores:       removeAllStores(args, callbackContext); break;
-						  default: throw new SmartStoreException("No handler for action " + action);
-						}
-					} catch (Exception e) {
-                        SalesforceHybridLogger.w(TAG, "execute call failed", e);
-						callbackContext.error(e.getMessage());
+				try {
+					switch (action) {
+					  case pgShowInspector:         showInspector(args, callbackContext); break;
+					  case pgGetAllGlobalStores:    getAllGlobalStorePrefixes(args, callbackContext); break;
+					  case pgGetAllStores:    		getAllStorePrefixes(args, callbackContext); break;
+					  case pgRemoveStore:    		removeStore(args, callbackContext); break;
+					  case pgRemoveAllGlobalStores: removeAllGlobalStores(args, callbackContext); break;
+					  case pgRemoveAllStores:       removeAllStores(args, callbackContext); break;
+					  case pgRemoveFromSoup:        removeFromSoup(args, callbackContext); break;
+					  case pgUpsertSoupEntries:     upsertSoupEntries(args, callbackContext); break;
+					  default:                      runStoreAction(action, args, callbackContext, start);
 					}
-                    SalesforceHybridLogger.d(TAG, "Total time for " + action + " -> " + (System.currentTimeMillis() - start));
+				} catch (Exception e) {
+                    SalesforceHybridLogger.w(TAG, "execute call failed", e);
+					callbackContext.error(e.getMessage());
 				}
 			}
 		});
@@ -179,13 +174,78 @@ public class SmartStorePlugin extends ForcePlugin {
     	return true;
     }
 
+	/**
+	 * Run action against a store through its async store
+	 * Actions are serialized with the ones coming from native and react code using the same store
+	 * @param action Action to run
+	 * @param args JSONArray with arguments from JS
+	 * @param callbackContext CallbackContext for plugin
+	 * @param start Time at which the action was received
+	 * @throws Exception
+	 */
+	private void runStoreAction(final Action action, final JSONArray args, final CallbackContext callbackContext, final long start) throws Exception {
+		final SmartStore smartStore = getSmartStore(args.optJSONObject(0));
+		final AsyncSmartStore.Operation<Void> operation = new AsyncSmartStore.Operation<Void>() {
+
+			@Override
+			public Void run(SmartStore store) throws Exception {
+				switch (action) {
+				  case pgAlterSoup:             alterSoup(args, callbackContext); break;
+				  case pgClearSoup:				clearSoup(args, callbackContext); break;
+				  case pgCloseCursor:           closeCursor(args, callbackContext); break;
+				  case pgGetDatabaseSize:       getDatabaseSize(args, callbackContext); break;
+				  case pgGetSoupIndexSpecs:     getSoupIndexSpecs(args, callbackContext); break;
+				  case pgGetSoupSpec:           getSoupSpec(args, callbackContext); break;
+				  case pgMoveCursorToPageIndex: moveCursorToPageIndex(args, callbackContext); break;
+				  case pgQuerySoup:             querySoup(args, callbackContext); break;
+				  case pgRegisterSoup:          registerSoup(args, callbackContext); break;
+				  case pgReIndexSoup:			reIndexSoup(args, callbackContext); break;
+				  case pgRemoveSoup:            removeSoup(args, callbackContext); break;
+				  case pgRetrieveSoupEntries:   retrieveSoupEntries(args, callbackContext); break;
+				  case pgRunSmartQuery:         runSmartQuery(args, callbackContext); break;
+				  case pgSoupExists:            soupExists(args, callbackContext); break;
+				  default: throw new SmartStoreException("No handler for action " + action);
+				}
+				return null;
+			}
+		};
+		final AsyncSmartStore.Callback<Void> callback = new AsyncSmartStore.Callback<Void>() {
+
+			@Override
+			public void onSuccess(Void result) {
+                SalesforceHybridLogger.d(TAG, "Total time for " + action + " -> " + (System.currentTimeMillis() - start));
+			}
+
+			@Override
+			public void onError(Exception e) {
+                SalesforceHybridLogger.w(TAG, "execute call failed", e);
+				callbackContext.error(e.getMessage());
+			}
+		};
+		switch (action) {
+		  case pgCloseCursor:
+		  case pgGetDatabaseSize:
+		  case pgGetSoupIndexSpecs:
+		  case pgGetSoupSpec:
+		  case pgMoveCursorToPageIndex:
+		  case pgQuerySoup:
+		  case pgRetrieveSoupEntries:
+		  case pgRunSmartQuery:
+		  case pgSoupExists:
+			  AsyncSmartStore.getInstance(smartStore).read(operation, callback);
+			  break;
+		  default:
+			  AsyncSmartStore.getInstance(smartStore).exclusiveWrite(operation, callback);
+		}
+	}
+
 	/**
 	 * Native implementation of pgRemoveFromSoup
 	 * @param args JSONArray with arguments from JS
 	 * @param callbackContext CallbackContext for plugin
 	 * @throws Exception
 	 */
-	private void removeFromSoup(JSONArray args, CallbackContext callbackContext) throws Exception {
+	private void removeFromSoup(JSONArray args, final CallbackContext callbackContext) throws Exception {
 
 		// Parse args
 		JSONObject arg0 = args.getJSONObject(0);
@@ -201,16 +261,26 @@ public class SmartStorePlugin extends ForcePlugin {
 			}
 
 			// Run remove
-			smartStore.delete(soupName, soupEntryIds);
+			AsyncSmartStore.getInstance(smartStore).delete(soupName, soupEntryIds, new WriteCallback<Void>(callbackContext) {
+
+				@Override
+				public void onSuccess(Void result) {
+					callbackContext.success();
+				}
+			});
 		}
 		else {
 			QuerySpec querySpec = QuerySpec.fromJSON(soupName, querySpecJson);
 
 			// Run remove
-			smartStore.deleteByQuery(soupName, querySpec);
-		}
+			AsyncSmartStore.getInstance(smartStore).deleteByQuery(soupName, querySpec, new WriteCallback<Void>(callbackContext) {
 
-		callbackContext.success();
+				@Override
+				public void onSuccess(Void result) {
+					callbackContext.success();
+				}
+			});
+		}
 	}
 
 	/**
@@ -253,7 +323,7 @@ public class SmartStorePlugin extends ForcePlugin {
         final SmartStore smartStore = getSmartStore(arg0);
 
 		// Drop cursor from storeCursors map
-		getSmartStoreCursors(smartStore).remove(cursorId);
+		removeCursor(smartStore, cursorId);
 		callbackContext.success();
 	}
 
@@ -273,16 +343,18 @@ public class SmartStorePlugin extends ForcePlugin {
         final SmartStore smartStore = getSmartStore(arg0);
 
 		// Get cursor
-		final StoreCursor storeCursor = getSmartStoreCursors(smartStore).get(cursorId);
+		final StoreCursor storeCursor = getCursor(smartStore, cursorId);
 		if (storeCursor == null) {
 			callbackContext.error("Invalid cursor id");
+			return;
 		}
 
-		// Change page
-		storeCursor.moveToPageIndex(index);
-
-		// Build json result
-		JSONObject result = storeCursor.getData(smartStore);
+		// Change page and build json result (a cursor could be moved by two reader threads at once)
+		final JSONObject result;
+		synchronized (storeCursor) {
+			storeCursor.moveToPageIndex(index);
+			result = storeCursor.getData(smartStore);
+		}
 
 		// Done
 		callbackContext.success(result);
@@ -405,7 +477,7 @@ public class SmartStorePlugin extends ForcePlugin {
 	 * @return
 	 * @throws Exception
 	 */
-	private void upsertSoupEntries(JSONArray args, CallbackContext callbackContext) throws Exception {
+	private void upsertSoupEntries(JSONArray args, final CallbackContext callbackContext) throws Exception {
 
 		// Parse args
 		JSONObject arg0 = args.getJSONObject(0);
@@ -419,21 +491,15 @@ public class SmartStorePlugin extends ForcePlugin {
 			entries.add(entriesJson.getJSONObject(i));
 		}
 
-		// Run upsert
-		synchronized(smartStore.getDatabase()) {
-			smartStore.beginTransaction();
-			try {
-				JSONArray results = new JSONArray();
-				for (JSONObject entry : entries) {
-					results.put(smartStore.upsert(soupName, entry, externalIdPath, false));
-				}
-				smartStore.setTransactionSuccessful();
+		// Run upsert (committed along with other pending writes)
+		AsyncSmartStore.getInstance(smartStore).upsert(soupName, entries, externalIdPath, new WriteCallback<JSONArray>(callbackContext) {
+
+			@Override
+			public void onSuccess(JSONArray results) {
 				PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, results);
 				callbackContext.sendPluginResult(pluginResult);
-			} finally {
-				smartStore.endTransaction();
 			}
-		}
+		});
 	}
 
 	/**
@@ -516,7 +582,7 @@ public class SmartStorePlugin extends ForcePlugin {
 
 		// Build store cursor
 		final StoreCursor storeCursor = new StoreCursor(smartStore, querySpec);
-		getSmartStoreCursors(smartStore).put(storeCursor.cursorId, storeCursor);
+		putCursor(smartStore, storeCursor);
 
 		// Build json result
 		JSONObject result = storeCursor.getData(smartStore);
@@ -744,4 +810,22 @@ public class SmartStorePlugin extends ForcePlugin {
 		PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, jsonArray);
 		callbackContext.sendPluginResult(pluginResult);
 	}
+
+	/**
+	 * Callback for writes going through the async store, reports errors back to JS
+	 */
+	private static abstract class WriteCallback<T> implements AsyncSmartStore.Callback<T> {
+
+		private final CallbackContext callbackContext;
+
+		WriteCallback(CallbackContext callbackContext) {
+			this.callbackContext = callbackContext;
+		}
+
+		@Override
+		public void onError(Exception e) {
+            SalesforceHybridLogger.w(TAG, "execute call failed", e);
+			callbackContext.error(e.getMessage());
+		}
+	}
 }
@@ -38,6 +38,7 @@ import com.salesforce.androidsdk.accounts.UserAccount;
 import com.salesforce.androidsdk.accounts.UserAccountManager;
 import com.salesforce.androidsdk.reactnative.util.SalesforceReactLogger;
 import com.salesforce.androidsdk.smartstore.app.SmartStoreSDKManager;
+import com.salesforce.androidsdk.smartstore.store.AsyncSmartStore;
 import com.salesforce.androidsdk.smartstore.store.DBOpenHelper;
 import com.salesforce.androidsdk.smartstore.store.IndexSpec;
 import com.salesforce.androidsdk.smartstore.store.QuerySpec;
@@ -81,6 +82,7 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 	static final String STORE_NAME = "storeName";
 
 	// Map of cursor id to StoreCursor, per database.
+	// Cursor operations run on the async store reader threads, all accesses go through the synchronized methods below.
 	private static Map<SQLiteDatabase, SparseArray<StoreCursor>> STORE_CURSORS = new HashMap<SQLiteDatabase, SparseArray<StoreCursor>>();
 
 	private synchronized static SparseArray<StoreCursor> getSmartStoreCursors(SmartStore store) {
@@ -91,6 +93,18 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 		return STORE_CURSORS.get(db);
 	}
 
+	private synchronized static StoreCursor getCursor(SmartStore store, int cursorId) {
+		return getSmartStoreCursors(store).get(cursorId);
+	}
+
+	private synchronized static void putCursor(SmartStore store, StoreCursor storeCursor) {
+		getSmartStoreCursors(store).put(storeCursor.cursorId, storeCursor);
+	}
+
+	private synchronized static void removeCursor(SmartStore store, int cursorId) {
+		getSmartStoreCursors(store).remove(cursorId);
+	}
+
     public SmartStoreReactBridge(ReactApplicationContext reactContext) {
         super(reactContext);
     }
@@ -113,24 +127,30 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 		// Parse args
 		String soupName = args.getString(SOUP_NAME);
 
-        // Run remove
+        // Run remove (committed along with other pending writes)
         try {
             final SmartStore smartStore = getSmartStore(args);
             ReadableArray arraySoupEntryIds = (args.isNull(ENTRY_IDS) ? null : args.getArray(ENTRY_IDS));
             ReadableMap mapQuerySpec = (args.isNull(QUERY_SPEC) ? null : args.getMap(QUERY_SPEC));
+            StoreCallback<Void> callback = new StoreCallback<Void>("removeFromSoup", errorCallback) {
+
+                @Override
+                public void onSuccess(Void result) {
+                    successCallback.invoke();
+                }
+            };
             if (arraySoupEntryIds != null) {
                 List ids = ReactBridgeHelper.toJavaList(arraySoupEntryIds);
                 Long[] soupEntryIds = new Long[ids.size()];
                 for (int i = 0; i < ids.size(); i++) {
                     soupEntryIds[i] = ((Double) ids.get(i)).longValue();
                 }
-                smartStore.delete(soupName, soupEntryIds);
+                AsyncSmartStore.getInstance(smartStore).delete(soupName, soupEntryIds, callback);
             } else {
                 JSONObject querySpecJson = new JSONObject(ReactBridgeHelper.toJavaMap(mapQuerySpec));
                 QuerySpec querySpec = QuerySpec.fromJSON(soupName, querySpecJson);
-                smartStore.deleteByQuery(soupName, querySpec);
+                AsyncSmartStore.getInstance(smartStore).deleteByQuery(soupName, querySpec, callback);
             }
-            successCallback.invoke();
         } catch (Exception e) {
 			SalesforceReactLogger.e(TAG, "removeFromSoup call failed", e);
             errorCallback.invoke(e.toString());
@@ -159,8 +179,13 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 			for (int i=0; i<soupEntryIdsFromJs.length; i++) {
 				soupEntryIds[i] = soupEntryIdsFromJs[i].longValue();
 			}
-			JSONArray result = smartStore.retrieve(soupName, soupEntryIds);
-			ReactBridgeHelper.invokeSuccess(successCallback, result);
+			AsyncSmartStore.getInstance(smartStore).retrieve(soupName, soupEntryIds, new StoreCallback<JSONArray>("retrieveSoupEntries", errorCallback) {
+
+				@Override
+				public void onSuccess(JSONArray result) {
+					ReactBridgeHelper.invokeSuccess(successCallback, result);
+				}
+			});
 		} catch (Exception e) {
             SalesforceReactLogger.e(TAG, "retrieveSoupEntries call failed", e);
 			errorCallback.invoke(e.toString());
@@ -179,16 +204,18 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
                             final Callback errorCallback){
 
 		// Parse args
-		Integer cursorId = args.getInt(CURSOR_ID);
-        try {
-            final SmartStore smartStore = getSmartStore(args);
+		final Integer cursorId = args.getInt(CURSOR_ID);
+		runOnStore(args, "closeCursor", true, new AsyncSmartStore.Operation<Void>() {
 
-            // Drop cursor from storeCursors map
-            getSmartStoreCursors(smartStore).remove(cursorId);
-            successCallback.invoke();
-        } catch (Exception e) {
-            errorCallback.invoke(e.toString());
-        }
+			@Override
+			public Void run(SmartStore smartStore) {
+
+				// Drop cursor from storeCursors map
+				removeCursor(smartStore, cursorId);
+				successCallback.invoke();
+				return null;
+			}
+		}, errorCallback);
 	}
 
 	/**
@@ -203,33 +230,30 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
                                       final Callback errorCallback) {
 
 		// Parse args
-		Integer cursorId = args.getInt(CURSOR_ID);
-		Integer index = args.getInt(INDEX);
-        SmartStore smartStore = null;
-        try {
-            smartStore = getSmartStore(args);
-        } catch (Exception e) {
-            errorCallback.invoke(e.toString());
-        }
-
-		// Get cursor
-		final StoreCursor storeCursor = getSmartStoreCursors(smartStore).get(cursorId);
-		if (storeCursor == null) {
-			errorCallback.invoke("Invalid cursor id");
-            return;
-		}
-
-		// Change page
-		storeCursor.moveToPageIndex(index);
+		final Integer cursorId = args.getInt(CURSOR_ID);
+		final Integer index = args.getInt(INDEX);
+		runOnStore(args, "moveCursorToPageIndex", true, new AsyncSmartStore.Operation<Void>() {
+
+			@Override
+			public Void run(SmartStore smartStore) throws JSONException {
+
+				// Get cursor
+				final StoreCursor storeCursor = getCursor(smartStore, cursorId);
+				if (storeCursor == null) {
+					errorCallback.invoke("Invalid cursor id");
+					return null;
+				}
 
-		// Build json result
-		try {
-			JSONObject result = storeCursor.getData(smartStore);
-			ReactBridgeHelper.invokeSuccess(successCallback, result);
-		} catch (JSONException e) {
-            SalesforceReactLogger.e(TAG, "moveCursorToPageIndex call failed", e);
-			errorCallback.invoke(e.toString());
-		}
+				// Change page and build json result (a cursor could be moved by two reader threads at once)
+				final JSONObject result;
+				synchronized (storeCursor) {
+					storeCursor.moveToPageIndex(index);
+					result = storeCursor.getData(smartStore);
+				}
+				ReactBridgeHelper.invokeSuccess(successCallback, result);
+				return null;
+			}
+		}, errorCallback);
 	}
 
 	/**
@@ -244,16 +268,16 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
                            final Callback errorCallback){
 
 		// Parse args
-		String soupName = args.getString(SOUP_NAME);
-        try {
-            final SmartStore smartStore = getSmartStore(args);
-
-            // Run upsert
-            boolean exists = smartStore.hasSoup(soupName);
-            ReactBridgeHelper.invokeSuccess(successCallback, exists);
-        } catch (Exception e) {
-            errorCallback.invoke(e.toString());
-        }
+		final String soupName = args.getString(SOUP_NAME);
+		runOnStore(args, "soupExists", true, new AsyncSmartStore.Operation<Void>() {
+
+			@Override
+			public Void run(SmartStore smartStore) {
+				boolean exists = smartStore.hasSoup(soupName);
+				ReactBridgeHelper.invokeSuccess(successCallback, exists);
+				return null;
+			}
+		}, errorCallback);
 	}
 
 	/**
@@ -269,11 +293,12 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 
 		// Parse args
 		String soupName = args.getString(SOUP_NAME);
-        SmartStore smartStore = null;
+        SmartStore smartStore;
         try {
             smartStore = getSmartStore(args);
         } catch (Exception e) {
             errorCallback.invoke(e.toString());
+            return;
         }
 		List entriesList = ReactBridgeHelper.toJavaList(args.getArray(ENTRIES));
 		String externalIdPath = args.getString(EXTERNAL_ID_PATH);
@@ -282,23 +307,14 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 			entries.add(new JSONObject((Map) entriesList.get(i)));
 		}
 
-		// Run upsert
-		synchronized(smartStore.getDatabase()) {
-			smartStore.beginTransaction();
-			try {
-				JSONArray results = new JSONArray();
-				for (JSONObject entry : entries) {
-					results.put(smartStore.upsert(soupName, entry, externalIdPath, false));
-				}
-				smartStore.setTransactionSuccessful();
+		// Run upsert (committed along with other pending writes)
+		AsyncSmartStore.getInstance(smartStore).upsert(soupName, entries, externalIdPath, new StoreCallback<JSONArray>("upsertSoupEntries", errorCallback) {
+
+			@Override
+			public void onSuccess(JSONArray results) {
 				ReactBridgeHelper.invokeSuccess(successCallback, results);
-			} catch (Exception e) {
-                SalesforceReactLogger.e(TAG, "upsertSoupEntries call failed", e);
-				errorCallback.invoke(e.toString());
-			} finally {
-				smartStore.endTransaction();
 			}
-		}
+		});
 	}
 
 	/**
@@ -313,17 +329,22 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
                              final Callback errorCallback) {
 		try {
 			// Parse args.
-			final SmartStore smartStore = getSmartStore(args);
-			String soupName = args.isNull(SOUP_NAME) ? null : args.getString(SOUP_NAME);
-			IndexSpec[] indexSpecs = getIndexSpecsFromArg(args);
-			SoupSpec soupSpec = getSoupSpecFromArg(args);
-
-			if (soupSpec != null) {
-                smartStore.registerSoupWithSpec(soupSpec, indexSpecs);
-            } else {
-                smartStore.registerSoup(soupName, indexSpecs);
-            }
-			ReactBridgeHelper.invokeSuccess(successCallback, soupName);
+			final String soupName = args.isNull(SOUP_NAME) ? null : args.getString(SOUP_NAME);
+			final IndexSpec[] indexSpecs = getIndexSpecsFromArg(args);
+			final SoupSpec soupSpec = getSoupSpecFromArg(args);
+			runOnStore(args, "registerSoup", false, new AsyncSmartStore.Operation<Void>() {
+
+				@Override
+				public Void run(SmartStore smartStore) {
+					if (soupSpec != null) {
+						smartStore.registerSoupWithSpec(soupSpec, indexSpecs);
+					} else {
+						smartStore.registerSoup(soupName, indexSpecs);
+					}
+					ReactBridgeHelper.invokeSuccess(successCallback, soupName);
+					return null;
+				}
+			}, errorCallback);
 		} catch (Exception e) {
             SalesforceReactLogger.e(TAG, "registerSoup call failed", e);
 			errorCallback.invoke(e.toString());
@@ -344,15 +365,21 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 		// Parse args
 		String soupName = args.getString(SOUP_NAME);
 		try {
-            final SmartStore smartStore = getSmartStore(args);
             JSONObject querySpecJson = new JSONObject(ReactBridgeHelper.toJavaMap(args.getMap(QUERY_SPEC)));
-			QuerySpec querySpec = QuerySpec.fromJSON(soupName, querySpecJson);
+			final QuerySpec querySpec = QuerySpec.fromJSON(soupName, querySpecJson);
 			if (querySpec.queryType == QuerySpec.QueryType.smart) {
 				throw new RuntimeException("Smart queries can only be run through runSmartQuery");
 			}
 
 			// Run query
-			runQuery(smartStore, querySpec, successCallback);
+			runOnStore(args, "querySoup", true, new AsyncSmartStore.Operation<Void>() {
+
+				@Override
+				public Void run(SmartStore smartStore) throws JSONException {
+					runQuery(smartStore, querySpec, successCallback);
+					return null;
+				}
+			}, errorCallback);
 		} catch (Exception e) {
             SalesforceReactLogger.e(TAG, "querySoup call failed", e);
 			errorCallback.invoke(e.toString());
@@ -372,14 +399,20 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 		// Parse args
 		JSONObject querySpecJson = new JSONObject(ReactBridgeHelper.toJavaMap(args.getMap(QUERY_SPEC)));
 		try {
-            final SmartStore smartStore = getSmartStore(args);
-			QuerySpec querySpec = QuerySpec.fromJSON(null, querySpecJson);
+			final QuerySpec querySpec = QuerySpec.fromJSON(null, querySpecJson);
 			if (querySpec.queryType != QuerySpec.QueryType.smart) {
 				throw new RuntimeException("runSmartQuery can only run smart queries");
 			}
 
 			// Run query
-			runQuery(smartStore, querySpec, successCallback);
+			runOnStore(args, "runSmartQuery", true, new AsyncSmartStore.Operation<Void>() {
+
+				@Override
+				public Void run(SmartStore smartStore) throws JSONException {
+					runQuery(smartStore, querySpec, successCallback);
+					return null;
+				}
+			}, errorCallback);
 		} catch (Exception e) {
             SalesforceReactLogger.e(TAG, "runSmartQuery call failed", e);
 			errorCallback.invoke(e.toString());
@@ -397,7 +430,7 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 
 		// Build store cursor
 		final StoreCursor storeCursor = new StoreCursor(smartStore, querySpec);
-		getSmartStoreCursors(smartStore).put(storeCursor.cursorId, storeCursor);
+		putCursor(smartStore, storeCursor);
 
 		// Build json result
 		JSONObject result = storeCursor.getData(smartStore);
@@ -416,18 +449,20 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 	@ReactMethod
 	public void removeSoup(ReadableMap args, final Callback successCallback,
                            final Callback errorCallback) {
-        try {
 
-            // Parse args
-            String soupName = args.getString(SOUP_NAME);
-            final SmartStore smartStore = getSmartStore(args);
+        // Parse args
+        final String soupName = args.getString(SOUP_NAME);
+        runOnStore(args, "removeSoup", false, new AsyncSmartStore.Operation<Void>() {
 
-            // Run remove
-            smartStore.dropSoup(soupName);
-            successCallback.invoke();
-        } catch (Exception e) {
-            errorCallback.invoke(e.toString());
-        }
+            @Override
+            public Void run(SmartStore smartStore) {
+
+                // Run remove
+                smartStore.dropSoup(soupName);
+                successCallback.invoke();
+                return null;
+            }
+        }, errorCallback);
 	}
 
 	/**
@@ -440,18 +475,20 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 	@ReactMethod
 	public void clearSoup(ReadableMap args, final Callback successCallback,
                           final Callback errorCallback) {
-        try {
 
-            // Parse args
-            String soupName = args.getString(SOUP_NAME);
-            final SmartStore smartStore = getSmartStore(args);
+        // Parse args
+        final String soupName = args.getString(SOUP_NAME);
+        runOnStore(args, "clearSoup", false, new AsyncSmartStore.Operation<Void>() {
 
-            // Run clear
-            smartStore.clearSoup(soupName);
-            successCallback.invoke();
-        } catch (Exception e) {
-            errorCallback.invoke(e.toString());
-        }
+            @Override
+            public Void run(SmartStore smartStore) {
+
+                // Run clear
+                smartStore.clearSoup(soupName);
+                successCallback.invoke();
+                return null;
+            }
+        }, errorCallback);
 	}
 
 	/**
@@ -464,15 +501,15 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 	@ReactMethod
 	public void getDatabaseSize(ReadableMap args, final Callback successCallback,
                                 final Callback errorCallback) {
-        try {
+        runOnStore(args, "getDatabaseSize", true, new AsyncSmartStore.Operation<Void>() {
 
-            // Parse args
-            final SmartStore smartStore = getSmartStore(args);
-            int databaseSize = smartStore.getDatabaseSize();
-            ReactBridgeHelper.invokeSuccess(successCallback, databaseSize);
-        } catch (Exception e) {
-            errorCallback.invoke(e.toString());
-        }
+            @Override
+            public Void run(SmartStore smartStore) {
+                int databaseSize = smartStore.getDatabaseSize();
+                ReactBridgeHelper.invokeSuccess(successCallback, databaseSize);
+                return null;
+            }
+        }, errorCallback);
 	}
 
 	/**
@@ -488,18 +525,23 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 		try {
 
 			// Parse args.
-			final SmartStore smartStore = getSmartStore(args);
-			String soupName = args.getString(SOUP_NAME);
-			IndexSpec[] indexSpecs = getIndexSpecsFromArg(args);
-			SoupSpec soupSpec = getSoupSpecFromArg(args);
-			boolean reIndexData = args.getBoolean(RE_INDEX_DATA);
-
-			if (soupSpec != null) {
-				smartStore.alterSoup(soupName, soupSpec, indexSpecs, reIndexData);
-			} else {
-				smartStore.alterSoup(soupName, indexSpecs, reIndexData);
-			}
-			ReactBridgeHelper.invokeSuccess(successCallback, soupName);
+			final String soupName = args.getString(SOUP_NAME);
+			final IndexSpec[] indexSpecs = getIndexSpecsFromArg(args);
+			final SoupSpec soupSpec = getSoupSpecFromArg(args);
+			final boolean reIndexData = args.getBoolean(RE_INDEX_DATA);
+			runOnStore(args, "alterSoup", false, new AsyncSmartStore.Operation<Void>() {
+
+				@Override
+				public Void run(SmartStore smartStore) throws JSONException {
+					if (soupSpec != null) {
+						smartStore.alterSoup(soupName, soupSpec, indexSpecs, reIndexData);
+					} else {
+						smartStore.alterSoup(soupName, indexSpecs, reIndexData);
+					}
+					ReactBridgeHelper.invokeSuccess(successCallback, soupName);
+					return null;
+				}
+			}, errorCallback);
 		} catch (Exception e) {
             SalesforceReactLogger.e(TAG, "alterSoup call failed", e);
 			errorCallback.invoke(e.toString());
@@ -518,17 +560,19 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
                             final Callback errorCallback) {
 
 		// Parse args
-		String soupName = args.getString(SOUP_NAME);
-        try {
-            final SmartStore smartStore = getSmartStore(args);
-            List<String> indexPaths = ReactBridgeHelper.toJavaStringList(args.getArray(PATHS));
+		final String soupName = args.getString(SOUP_NAME);
+		final List<String> indexPaths = ReactBridgeHelper.toJavaStringList(args.getArray(PATHS));
+		runOnStore(args, "reIndexSoup", false, new AsyncSmartStore.Operation<Void>() {
 
-            // Run register
-            smartStore.reIndexSoup(soupName, indexPaths.toArray(new String[0]), true);
-            ReactBridgeHelper.invokeSuccess(successCallback, soupName);
-        } catch (Exception e) {
-            errorCallback.invoke(e.toString());
-        }
+			@Override
+			public Void run(SmartStore smartStore) {
+
+				// Run register
+				smartStore.reIndexSoup(soupName, indexPaths.toArray(new String[0]), true);
+				ReactBridgeHelper.invokeSuccess(successCallback, soupName);
+				return null;
+			}
+		}, errorCallback);
 	}
 
 	/**
@@ -542,26 +586,27 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
 	public void getSoupIndexSpecs(ReadableMap args, final Callback successCallback,
                                   final Callback errorCallback) {
 
-		// Get soup index specs
-		try {
+        // Parse args
+        final String soupName = args.getString(SOUP_NAME);
 
-            // Parse args
-            String soupName = args.getString(SOUP_NAME);
-            final SmartStore smartStore = getSmartStore(args);
-			IndexSpec[] indexSpecs = smartStore.getSoupIndexSpecs(soupName);
-			JSONArray indexSpecsJson = new JSONArray();
-			for (int i = 0; i < indexSpecs.length; i++) {
-				JSONObject indexSpecJson = new JSONObject();
-				IndexSpec indexSpec = indexSpecs[i];
-				indexSpecJson.put(PATH, indexSpec.path);
-				indexSpecJson.put(TYPE, indexSpec.type);
-				indexSpecsJson.put(indexSpecJson);
+		// Get soup index specs
+		runOnStore(args, "getSoupIndexSpecs", true, new AsyncSmartStore.Operation<Void>() {
+
+			@Override
+			public Void run(SmartStore smartStore) throws JSONException {
+				IndexSpec[] indexSpecs = smartStore.getSoupIndexSpecs(soupName);
+				JSONArray indexSpecsJson = new JSONArray();
+				for (int i = 0; i < indexSpecs.length; i++) {
+					JSONObject indexSpecJson = new JSONObject();
+					IndexSpec indexSpec = indexSpecs[i];
+					indexSpecJson.put(PATH, indexSpec.path);
+					indexSpecJson.put(TYPE, indexSpec.type);
+					indexSpecsJson.put(indexSpecJson);
+				}
+				ReactBridgeHelper.invokeSuccess(successCallback, indexSpecsJson);
+				return null;
 			}
-			ReactBridgeHelper.invokeSuccess(successCallback, indexSpecsJson);
-		} catch (Exception e) {
-            SalesforceReactLogger.e(TAG, "getSoupIndexSpecs call failed", e);
-			errorCallback.invoke(e.toString());
-		}
+		}, errorCallback);
 	}
 
     /**
@@ -574,22 +619,74 @@ public class SmartStoreReactBridge extends ReactContextBaseJavaModule {
     @ReactMethod
     public void getSoupSpec(ReadableMap args, final Callback successCallback,
                                   final Callback errorCallback) {
-        try {
 
-            // Parse args.
-            final String soupName = args.getString(SOUP_NAME);
-            final SmartStore smartStore = getSmartStore(args);
+        // Parse args.
+        final String soupName = args.getString(SOUP_NAME);
+        runOnStore(args, "getSoupSpec", true, new AsyncSmartStore.Operation<Void>() {
 
-            // Get soup specs.
-            final SoupSpec soupSpec = smartStore.getSoupSpec(soupName);
-            final JSONObject soupSpecJSON = soupSpec.toJSON();
-            ReactBridgeHelper.invokeSuccess(successCallback, soupSpecJSON);
-        } catch (Exception e) {
-            SalesforceReactLogger.e(TAG, "getSoupSpec call failed", e);
-            errorCallback.invoke(e.toString());
-        }
+            @Override
+            public Void run(SmartStore smartStore) throws JSONException {
+
+                // Get soup specs.
+                final SoupSpec soupSpec = smartStore.getSoupSpec(soupName);
+                final JSONObject soupSpecJSON = soupSpec.toJSON();
+                ReactBridgeHelper.invokeSuccess(successCallback, soupSpecJSON);
+                return null;
+            }
+        }, errorCallback);
     }
 
+	/**
+	 * Run operation through the async store of the store targeted by the call
+	 * Operations are serialized with the ones coming from native and hybrid code using the same store
+	 * @param args arguments passed in bridge call
+	 * @param methodName name of bridge method (for logging)
+	 * @param isRead true to run on a reader thread, false to run alone on the writer thread
+	 * @param operation
+	 * @param errorCallback
+	 */
+	private void runOnStore(ReadableMap args, String methodName, boolean isRead,
+							AsyncSmartStore.Operation<Void> operation, final Callback errorCallback) {
+		try {
+			final AsyncSmartStore asyncStore = AsyncSmartStore.getInstance(getSmartStore(args));
+			StoreCallback<Void> callback = new StoreCallback<Void>(methodName, errorCallback) {
+
+				@Override
+				public void onSuccess(Void result) {
+					// Operation invoked the success callback itself
+				}
+			};
+			if (isRead) {
+				asyncStore.read(operation, callback);
+			} else {
+				asyncStore.exclusiveWrite(operation, callback);
+			}
+		} catch (Exception e) {
+            SalesforceReactLogger.e(TAG, methodName + " call failed", e);
+			errorCallback.invoke(e.toString());
+		}
+	}
+
+	/**
+	 * Callback for operations going through the async store, reports errors back to javascript
+	 */
+	private static abstract class StoreCallback<T> implements AsyncSmartStore.Callback<T> {
+
+		private final String methodName;
+		private final Callback errorCallback;
+
+		StoreCallback(String methodName, Callback errorCallback) {
+			this.methodName = methodName;
+			this.errorCallback = errorCallback;
+		}
+
+		@Override
+		public void onError(Exception e) {
+            SalesforceReactLogger.e(TAG, methodName + " call failed", e);
+			errorCallback.invoke(e.toString());
+		}
+	}
+
 
 	/**
 	 * Native implementation of getAllGlobalStores
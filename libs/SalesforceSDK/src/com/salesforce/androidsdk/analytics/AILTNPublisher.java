@@ -33,6 +33,7 @@ import com.salesforce.androidsdk.rest.ClientManager;
 import com.salesforce.androidsdk.rest.RestClient;
 import com.salesforce.androidsdk.rest.RestRequest;
 import com.salesforce.androidsdk.rest.RestResponse;
+import com.salesforce.androidsdk.rest.StreamingJsonRequestBody;
 import com.salesforce.androidsdk.util.SalesforceSDKLogger;
 
 import org.json.JSONArray;
@@ -40,22 +41,17 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
-import okhttp3.MediaType;
 import okhttp3.RequestBody;
-import okio.Buffer;
-import okio.BufferedSink;
-import okio.GzipSink;
-import okio.Okio;
 
 /**
  * Network publisher for the AILTN endpoint.
+ * Wire forms of {@link com.salesforce.androidsdk.analytics.transform.AILTNTransform} are complete log lines.
  *
  * @author bhariharan
  */
-public class AILTNPublisher implements AnalyticsPublisher {
+public class AILTNPublisher implements WireFormatPublisher {
 
     private static final String TAG = "AILTNPublisher";
     private static final String CODE = "code";
@@ -64,9 +60,6 @@ public class AILTNPublisher implements AnalyticsPublisher {
     private static final String LOG_LINES = "logLines";
     private static final String PAYLOAD = "payload";
     private static final String API_PATH = "/services/data/%s/connect/proxy/app-analytics-logging";
-    private static final String CONTENT_ENCODING = "Content-Encoding";
-    private static final String CONTENT_LENGTH = "Content-Length";
-    private static final String GZIP = "gzip";
 
     @Override
     public boolean publish(JSONArray events) {
@@ -98,14 +91,19 @@ public class AILTNPublisher implements AnalyticsPublisher {
         return publishLogLines(logLines);
     }
 
-    public boolean publishLogLines(JSONArray logLines) {
-        final JSONObject body = new JSONObject();
-        try {
-            body.put(LOG_LINES, logLines);
-        } catch (JSONException e) {
-            SalesforceSDKLogger.e(TAG, "Exception thrown while constructing event payload", e);
-            return false;
+    @Override
+    public boolean publishWireForms(List<String> wireForms) {
+        if (wireForms == null || wireForms.isEmpty()) {
+            return true;
         }
+        return publishBody(StreamingJsonRequestBody.createFromSerialized(null, LOG_LINES, wireForms));
+    }
+
+    public boolean publishLogLines(JSONArray logLines) {
+        return publishBody(StreamingJsonRequestBody.create(null, LOG_LINES, logLines));
+    }
+
+    private boolean publishBody(RequestBody body) {
         RestResponse restResponse = null;
         try {
             final String apiPath = String.format(API_PATH,
@@ -121,17 +119,11 @@ public class AILTNPublisher implements AnalyticsPublisher {
             }
 
             /*
-             * There's no easy way to get content length using GZIP interceptors. Some trickery is
-             * required to achieve this by adding an additional interceptor to determine content length.
-             * See this post for more details: https://github.com/square/okhttp/issues/350#issuecomment-123105641.
+             * Log lines are streamed into the compressor one at a time. The compressed body
+             * has a known content length, which the endpoint requires.
              */
-            final RequestBody requestBody = setContentLength(gzipCompressedBody(RequestBody.create(RestRequest.MEDIA_TYPE_JSON,
-                    body.toString())));
-            final Map<String, String> requestHeaders = new HashMap<>();
-            requestHeaders.put(CONTENT_ENCODING, GZIP);
-            requestHeaders.put(CONTENT_LENGTH, Long.toString(requestBody.contentLength()));
-            final RestRequest restRequest = new RestRequest(RestRequest.RestMethod.POST, apiPath,
-                    requestBody, requestHeaders);
+            final RestRequest restRequest = new RestRequest(RestRequest.RestMethod.POST, apiPath, body);
+            restRequest.setGzipRequestBody(true);
             restResponse = restClient.sendSync(restRequest);
         } catch (ClientManager.AccountInfoNotFoundException e) {
             SalesforceSDKLogger.e(TAG, "Exception thrown while constructing rest client", e);
@@ -143,48 +135,4 @@ public class AILTNPublisher implements AnalyticsPublisher {
         }
         return false;
     }
-
-    private RequestBody setContentLength(final RequestBody requestBody) throws IOException {
-        final Buffer buffer = new Buffer();
-        requestBody.writeTo(buffer);
-        return new RequestBody() {
-
-            @Override
-            public MediaType contentType() {
-                return requestBody.contentType();
-            }
-
-            @Override
-            public long contentLength() {
-                return buffer.size();
-            }
-
-            @Override
-            public void writeTo(BufferedSink sink) throws IOException {
-                sink.write(buffer.snapshot());
-            }
-        };
-    }
-
-    private RequestBody gzipCompressedBody(final RequestBody body) {
-        return new RequestBody() {
-
-            @Override
-            public MediaType contentType() {
-                return body.contentType();
-            }
-
-            @Override
-            public long contentLength() {
-                return -1;
-            }
-
-            @Override
-            public void writeTo(BufferedSink sink) throws IOException {
-                final BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
-                body.writeTo(gzipSink);
-                gzipSink.close();
-            }
-        };
-    }
 }
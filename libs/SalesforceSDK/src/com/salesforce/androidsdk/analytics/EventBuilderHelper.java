@@ -36,11 +36,16 @@ import com.salesforce.androidsdk.util.SalesforceSDKLogger;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A simple helper class to facilitate creation of common types of events.
+ * Events go through an {@link EventSampler} first, which can sample, rate limit or aggregate
+ * them per event name; aggregated events are stored as summaries every
+ * {@link #AGGREGATE_FLUSH_INTERVAL_MILLIS} and before all events get published.
  */
 public class EventBuilderHelper {
 
@@ -48,11 +53,19 @@ public class EventBuilderHelper {
     public static final String START_TIME = "startTime";
     public static final String END_TIME = "endTime";
 
+    /**
+     * Delay between the first aggregated event and the storage of its summary
+     */
+    public static final long AGGREGATE_FLUSH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
     private static final String TAG = "EventBuilderHelper";
     private static boolean enabled = true;
 
     // background executor
-    private static final ExecutorService threadPool = Executors.newFixedThreadPool(2);
+    private static final ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(2);
+
+    private static final EventSampler sampler = new EventSampler();
+    private static final AtomicBoolean flushScheduled = new AtomicBoolean();
 
     /**
      * This method allows event creation/storage to be disabled across the board.
@@ -67,6 +80,25 @@ public class EventBuilderHelper {
         enabled = b;
     }
 
+    /**
+     * Returns the sampler deciding which events get stored, to set policies per event name.
+     *
+     * @return Event sampler.
+     */
+    public static EventSampler getEventSampler() {
+        return sampler;
+    }
+
+    /**
+     * Stores the summaries of the events aggregated so far. Should NOT be called from the main thread.
+     */
+    public static void flushAggregatedEvents() {
+        flushScheduled.set(false);
+        for (final EventSampler.Summary summary : sampler.drainSummaries()) {
+            createAndStore(summary.getName(), summary.getAccount(), summary.getClassName(), summary.getAttributes());
+        }
+    }
+
     /**
      * Creates and stores an analytics event with the supplied parameters.  By default all createAndStoreEvent's are placed
      * into a background thread pool for posting.
@@ -81,7 +113,10 @@ public class EventBuilderHelper {
         // Do nothing if not enabled
         if (!enabled)
             return;
-        
+
+        if (!shouldStore(name, userAccount, className, attributes))
+            return;
+
         // don't run on background if this is a test run
         if (SalesforceSDKManager.getInstance().getIsTestRun()) {
             createAndStore(name, userAccount, className, attributes);
@@ -105,9 +140,37 @@ public class EventBuilderHelper {
      */
     public static void createAndStoreEventSync(String name, UserAccount userAccount, String className,
                                            JSONObject attributes) {
+        if (!enabled || !shouldStore(name, userAccount, className, attributes))
+            return;
         createAndStore(name, userAccount, className, attributes);
     }
 
+    private static boolean shouldStore(String name, UserAccount userAccount, String className,
+            JSONObject attributes) {
+
+        // Summaries are stored later, they must go to the user current when the events happened
+        UserAccount account = userAccount;
+        if (account == null && sampler.isAggregated(name)) {
+            account = UserAccountManager.getInstance().getCurrentUser();
+        }
+        switch (sampler.decide(name, account, className, attributes, System.currentTimeMillis())) {
+            case STORE:
+                return true;
+            case AGGREGATE:
+                if (flushScheduled.compareAndSet(false, true)) {
+                    threadPool.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flushAggregatedEvents();
+                        }
+                    }, AGGREGATE_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
     private static void createAndStore(String name, UserAccount userAccount, String className,
             JSONObject attributes) {
 
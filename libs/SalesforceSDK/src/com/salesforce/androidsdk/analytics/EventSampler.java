@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.analytics;
+
+import com.salesforce.androidsdk.accounts.UserAccount;
+import com.salesforce.androidsdk.util.Histogram;
+import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides which instrumentation events created through {@link EventBuilderHelper} get stored.
+ * Events with no policy are all stored. For the others, a policy can:
+ * <ul>
+ * <li> store a random sample of them, with their sample rate added to their attributes;</li>
+ * <li> store at most a given number of them per time window;</li>
+ * <li> fold them into an in-memory summary (count, numRecords and duration histograms) that
+ * gets stored as a single event when aggregated events are flushed.</li>
+ * </ul>
+ * Summaries are kept in memory until flushed, events aggregated by a process that gets killed are lost.
+ */
+public class EventSampler {
+
+    private static final String TAG = "EventSampler";
+
+    /**
+     * Attributes of summary events
+     */
+    public static final String COUNT = "count";
+    public static final String NUM_RECORDS_HISTOGRAM = "numRecordsHistogram";
+    public static final String DURATION_HISTOGRAM = "durationHistogram";
+    public static final String SUMMARY = "summary";
+
+    /**
+     * Attribute of aggregated events summarized in the numRecords histogram
+     */
+    public static final String NUM_RECORDS = "numRecords";
+
+    /**
+     * Attribute added to sampled events
+     */
+    public static final String SAMPLE_RATE = "sampleRate";
+
+    /**
+     * What to do with an event
+     */
+    public enum Decision {
+        STORE,
+        AGGREGATE,
+        DROP
+    }
+
+    /**
+     * Sampling policy for the events with a given name
+     */
+    public static class Policy {
+
+        final double sampleRate;
+        final int maxEventsPerWindow;
+        final long windowMillis;
+        final boolean aggregate;
+        final String aggregateBy;
+
+        /**
+         * Constructor for a policy storing events individually
+         *
+         * @param sampleRate Fraction of the events stored, between 0 and 1.
+         * @param maxEventsPerWindow Maximum number of events stored per window, 0 for no limit.
+         * @param windowMillis Length of the window in milliseconds.
+         */
+        public Policy(double sampleRate, int maxEventsPerWindow, long windowMillis) {
+            this(sampleRate, maxEventsPerWindow, windowMillis, false, null);
+        }
+
+        private Policy(double sampleRate, int maxEventsPerWindow, long windowMillis, boolean aggregate,
+                       String aggregateBy) {
+            this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+            this.maxEventsPerWindow = maxEventsPerWindow;
+            this.windowMillis = windowMillis;
+            this.aggregate = aggregate;
+            this.aggregateBy = aggregateBy;
+        }
+
+        /**
+         * Returns a policy folding events into summaries.
+         *
+         * @param aggregateBy Attribute whose values get separate summaries, null for a single summary.
+         * @return policy
+         */
+        public static Policy aggregated(String aggregateBy) {
+            return new Policy(1, 0, 0, true, aggregateBy);
+        }
+    }
+
+    private final Map<String, Policy> policies = new HashMap<>();
+    private final Map<String, RateWindow> windows = new HashMap<>();
+    private final Map<String, Aggregate> aggregates = new LinkedHashMap<>();
+    private final Random random;
+
+    /**
+     * Constructor
+     */
+    public EventSampler() {
+        this(new Random());
+    }
+
+    EventSampler(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Sets the policy for the events with the given name.
+     *
+     * @param name Event name.
+     * @param policy Policy, null to store all events with that name.
+     */
+    public synchronized void setPolicy(String name, Policy policy) {
+        if (policy == null) {
+            policies.remove(name);
+        } else {
+            policies.put(name, policy);
+        }
+        windows.remove(name);
+    }
+
+    /**
+     * @param name Event name.
+     * @return policy for the events with the given name, null if they are all stored
+     */
+    public synchronized Policy getPolicy(String name) {
+        return policies.get(name);
+    }
+
+    /**
+     * Decides what to do with an event, folding it into its summary if its policy aggregates.
+     *
+     * @param name Event name.
+     * @param account User account the event gets stored for (resolved by the caller, aggregates are kept per account).
+     * @param className Class name or context where the event was generated.
+     * @param attributes Event attributes, can be null.
+     * @param nowMillis Current time in milliseconds.
+     * @return decision
+     */
+    public synchronized Decision decide(String name, UserAccount account, String className,
+                                        JSONObject attributes, long nowMillis) {
+        final Policy policy = policies.get(name);
+        if (policy == null) {
+            return Decision.STORE;
+        }
+        if (policy.aggregate) {
+            final String groupValue = (policy.aggregateBy != null && attributes != null)
+                    ? attributes.optString(policy.aggregateBy, null) : null;
+            final String key = name + "|" + groupValue + "|" + (account == null ? "" : account.getOrgId() + account.getUserId());
+            Aggregate aggregate = aggregates.get(key);
+            if (aggregate == null) {
+                aggregate = new Aggregate(name, account, className, policy.aggregateBy, groupValue);
+                aggregates.put(key, aggregate);
+            }
+            aggregate.add(attributes, nowMillis);
+            return Decision.AGGREGATE;
+        }
+        if (policy.sampleRate < 1) {
+            if (random.nextDouble() >= policy.sampleRate) {
+                return Decision.DROP;
+            }
+            if (attributes != null) {
+                try {
+                    attributes.put(SAMPLE_RATE, policy.sampleRate);
+                } catch (JSONException e) {
+                    SalesforceSDKLogger.e(TAG, "Exception thrown while adding sample rate", e);
+                }
+            }
+        }
+        if (policy.maxEventsPerWindow > 0) {
+            RateWindow window = windows.get(name);
+            if (window == null || nowMillis - window.start >= policy.windowMillis) {
+                window = new RateWindow(nowMillis);
+                windows.put(name, window);
+            }
+            if (window.count >= policy.maxEventsPerWindow) {
+                return Decision.DROP;
+            }
+            window.count++;
+        }
+        return Decision.STORE;
+    }
+
+    /**
+     * @param name Event name.
+     * @return true if the events with the given name are folded into summaries
+     */
+    public synchronized boolean isAggregated(String name) {
+        final Policy policy = policies.get(name);
+        return policy != null && policy.aggregate;
+    }
+
+    /**
+     * @return true if events have been aggregated since the last drain
+     */
+    public synchronized boolean hasSummaries() {
+        return !aggregates.isEmpty();
+    }
+
+    /**
+     * Returns the summaries of the events aggregated since the last drain, and resets them.
+     *
+     * @return summaries
+     */
+    public synchronized List<Summary> drainSummaries() {
+        final List<Summary> summaries = new ArrayList<>(aggregates.size());
+        for (final Aggregate aggregate : aggregates.values()) {
+            summaries.add(aggregate.toSummary());
+        }
+        aggregates.clear();
+        return summaries;
+    }
+
+    /**
+     * Event summarizing aggregated events
+     */
+    public static class Summary {
+
+        private final String name;
+        private final UserAccount account;
+        private final String className;
+        private final JSONObject attributes;
+
+        Summary(String name, UserAccount account, String className, JSONObject attributes) {
+            this.name = name;
+            this.account = account;
+            this.className = className;
+            this.attributes = attributes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public UserAccount getAccount() {
+            return account;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public JSONObject getAttributes() {
+            return attributes;
+        }
+    }
+
+    private static class RateWindow {
+
+        final long start;
+        int count;
+
+        RateWindow(long start) {
+            this.start = start;
+        }
+    }
+
+    private static class Aggregate {
+
+        private static final long[] DURATION_BOUNDS = {100, 500, 1000, 5000, 10000, 30000, 60000, 300000};
+        private static final long[] NUM_RECORDS_BOUNDS = {0, 10, 100, 1000, 10000, 100000};
+
+        final String name;
+        final UserAccount account;
+        final String className;
+        final String groupBy;
+        final String groupValue;
+        final Histogram durations = new Histogram(DURATION_BOUNDS);
+        final Histogram numRecords = new Histogram(NUM_RECORDS_BOUNDS);
+        long count;
+        long startTime = Long.MAX_VALUE;
+        long endTime;
+
+        Aggregate(String name, UserAccount account, String className, String groupBy, String groupValue) {
+            this.name = name;
+            this.account = account;
+            this.className = className;
+            this.groupBy = groupBy;
+            this.groupValue = groupValue;
+        }
+
+        void add(JSONObject attributes, long nowMillis) {
+            count++;
+            long start = nowMillis;
+            long end = nowMillis;
+            if (attributes != null) {
+                start = attributes.optLong(EventBuilderHelper.START_TIME, nowMillis);
+                end = attributes.optLong(EventBuilderHelper.END_TIME, start);
+                if (attributes.has(EventBuilderHelper.START_TIME) && attributes.has(EventBuilderHelper.END_TIME)) {
+                    durations.add(Math.max(0, end - start));
+                }
+                if (attributes.has(NUM_RECORDS)) {
+                    numRecords.add(attributes.optLong(NUM_RECORDS));
+                }
+            }
+            startTime = Math.min(startTime, start);
+            endTime = Math.max(endTime, end);
+        }
+
+        Summary toSummary() {
+            final JSONObject attributes = new JSONObject();
+            try {
+                attributes.put(SUMMARY, true);
+                attributes.put(COUNT, count);
+                attributes.put(EventBuilderHelper.START_TIME, startTime);
+                attributes.put(EventBuilderHelper.END_TIME, endTime);
+                if (groupBy != null && groupValue != null) {
+                    attributes.put(groupBy, groupValue);
+                }
+                if (durations.getCount() > 0) {
+                    attributes.put(DURATION_HISTOGRAM, toJSON(durations));
+                }
+                if (numRecords.getCount() > 0) {
+                    attributes.put(NUM_RECORDS_HISTOGRAM, toJSON(numRecords));
+                }
+            } catch (JSONException e) {
+                SalesforceSDKLogger.e(TAG, "Exception thrown while building summary", e);
+            }
+            return new Summary(name, account, className, attributes);
+        }
+
+        private static JSONObject toJSON(Histogram histogram) throws JSONException {
+            final JSONObject json = new JSONObject();
+            json.put("count", histogram.getCount());
+            json.put("sum", histogram.getSum());
+            json.put("mean", histogram.getMean());
+            json.put("p50", histogram.getPercentile(50));
+            json.put("p90", histogram.getPercentile(90));
+            json.put("max", histogram.getMax());
+            return json;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.analytics;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when stored events should be published, so that publishing rarely wakes the radio
+ * just for a handful of events. With a connection and pending events, publishing happens when:
+ * <ul>
+ * <li> the network is unmetered or the device is charging;</li>
+ * <li> enough events are pending to fill a batch;</li>
+ * <li> the app used the network recently (e.g. a sync just ran), so the radio is already awake;</li>
+ * <li> nothing was published for longer than the maximum delay.</li>
+ * </ul>
+ * Publishes are at least {@link #MIN_PUBLISH_INTERVAL_MILLIS} apart, and are retried with
+ * exponential backoff after failures.
+ * Once given preferences (see {@link #restore(SharedPreferences)}), the time of the last successful
+ * publish and the failure backoff survive process restarts.
+ */
+public class PublishScheduler {
+
+    /**
+     * Minimum time between two publishes
+     */
+    public static final long MIN_PUBLISH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * How long after network activity the radio is considered awake
+     */
+    public static final long PIGGYBACK_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * Delay before retrying after a first failure, doubled after each consecutive failure
+     */
+    public static final long INITIAL_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Maximum delay before retrying after failures
+     */
+    public static final long MAX_BACKOFF_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private static final long NEVER = Long.MIN_VALUE / 2;
+
+    // Persisted state, times are wall clock times since elapsed realtime restarts with the device
+    private static final String LAST_SUCCESS_KEY = "publish_last_success";
+    private static final String RETRY_AT_KEY = "publish_retry_at";
+    private static final String FAILURES_KEY = "publish_failures";
+
+    /**
+     * Source of monotonic time, replaceable by tests
+     */
+    public interface Clock {
+
+        /**
+         * @return milliseconds since some fixed point, never going backwards
+         */
+        long elapsedRealtime();
+
+        /**
+         * @return wall clock time in milliseconds, used for the state persisted across reboots
+         */
+        long currentTimeMillis();
+    }
+
+    /**
+     * Clock backed by {@link SystemClock#elapsedRealtime()} and {@link System#currentTimeMillis()}
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Device conditions publishing decisions are based on
+     */
+    public static class Conditions {
+
+        final boolean connected;
+        final boolean unmetered;
+        final boolean charging;
+        final int pendingEvents;
+
+        /**
+         * Constructor
+         *
+         * @param connected True - if a network is connected.
+         * @param unmetered True - if the connected network is unmetered.
+         * @param charging True - if the device is plugged in.
+         * @param pendingEvents Number of events waiting to be published.
+         */
+        public Conditions(boolean connected, boolean unmetered, boolean charging, int pendingEvents) {
+            this.connected = connected;
+            this.unmetered = unmetered;
+            this.charging = charging;
+            this.pendingEvents = pendingEvents;
+        }
+
+        /**
+         * Reads the current network and battery conditions of the device.
+         *
+         * @param context Context.
+         * @param pendingEvents Number of events waiting to be published.
+         * @return conditions
+         */
+        public static Conditions read(Context context, int pendingEvents) {
+            final ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            final NetworkInfo networkInfo = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+            final boolean connected = networkInfo != null && networkInfo.isConnected();
+            final boolean unmetered = connected && !connectivityManager.isActiveNetworkMetered();
+
+            // Sticky broadcast, no receiver actually gets registered
+            final Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            final boolean charging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            return new Conditions(connected, unmetered, charging, pendingEvents);
+        }
+    }
+
+    private final Clock clock;
+    private final int minBatchSize;
+    private long maxDelayMillis;
+    private long lastSuccessMillis;
+    private long lastStartMillis = NEVER;
+    private long lastTrafficMillis = NEVER;
+    private long retryAtMillis = NEVER;
+    private int failures;
+    private SharedPreferences prefs;
+
+    /**
+     * Constructor
+     *
+     * @param clock Clock.
+     * @param minBatchSize Number of pending events worth publishing under any network and battery conditions.
+     * @param maxDelayMillis Time after which pending events get published under any conditions.
+     */
+    public PublishScheduler(Clock clock, int minBatchSize, long maxDelayMillis) {
+        this.clock = clock;
+        this.minBatchSize = minBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.lastSuccessMillis = clock.elapsedRealtime();
+    }
+
+    /**
+     * Restores the state saved in the given preferences, and saves it there from now on.
+     * The first time, the max delay starts now and the start time gets saved, so that it doesn't start over
+     * with every process.
+     *
+     * @param prefs Preferences.
+     */
+    public synchronized void restore(SharedPreferences prefs) {
+        this.prefs = prefs;
+        final long now = clock.elapsedRealtime();
+        final long wallNow = clock.currentTimeMillis();
+        if (prefs.contains(LAST_SUCCESS_KEY)) {
+
+            // Wall clock set back: counting from now
+            lastSuccessMillis = now - Math.max(0, wallNow - prefs.getLong(LAST_SUCCESS_KEY, wallNow));
+        } else {
+            lastSuccessMillis = now;
+        }
+        failures = prefs.getInt(FAILURES_KEY, 0);
+        if (prefs.contains(RETRY_AT_KEY)) {
+
+            // Wall clock set back: waiting no longer than the max backoff
+            retryAtMillis = now + Math.min(MAX_BACKOFF_MILLIS, Math.max(0, prefs.getLong(RETRY_AT_KEY, wallNow) - wallNow));
+        } else {
+            retryAtMillis = NEVER;
+        }
+        save();
+    }
+
+    /**
+     * Sets the time after which pending events get published under any conditions.
+     *
+     * @param maxDelayMillis Maximum delay in milliseconds.
+     */
+    public synchronized void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Decides whether events should be published now, and records the start of a publish if so.
+     *
+     * @param conditions Current conditions.
+     * @return True - if a publish should start, False - otherwise.
+     */
+    public synchronized boolean shouldPublish(Conditions conditions) {
+        if (!conditions.connected || conditions.pendingEvents <= 0) {
+            return false;
+        }
+        final long now = clock.elapsedRealtime();
+        if (now < retryAtMillis || now - lastStartMillis < MIN_PUBLISH_INTERVAL_MILLIS) {
+            return false;
+        }
+        final boolean publish = conditions.unmetered
+                || conditions.charging
+                || conditions.pendingEvents >= minBatchSize
+                || now - lastTrafficMillis <= PIGGYBACK_WINDOW_MILLIS
+                || now - lastSuccessMillis >= maxDelayMillis;
+        if (publish) {
+            lastStartMillis = now;
+        }
+        return publish;
+    }
+
+    /**
+     * Records network activity by the app, publishing can piggyback on it for a while.
+     */
+    public synchronized void onNetworkActivity() {
+        lastTrafficMillis = clock.elapsedRealtime();
+    }
+
+    /**
+     * Records a successful publish.
+     */
+    public synchronized void onPublishSucceeded() {
+        lastSuccessMillis = clock.elapsedRealtime();
+        failures = 0;
+        retryAtMillis = NEVER;
+        save();
+    }
+
+    /**
+     * Records a failed publish, the next one is delayed exponentially with consecutive failures.
+     */
+    public synchronized void onPublishFailed() {
+        failures++;
+        retryAtMillis = clock.elapsedRealtime() + getBackoffMillis();
+        save();
+    }
+
+    /**
+     * @return delay before the next publish is allowed after the failures recorded so far
+     */
+    public synchronized long getBackoffMillis() {
+        if (failures == 0) {
+            return 0;
+        }
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < failures && backoff < MAX_BACKOFF_MILLIS; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, MAX_BACKOFF_MILLIS);
+    }
+
+    private void save() {
+        if (prefs == null) {
+            return;
+        }
+        final long offset = clock.currentTimeMillis() - clock.elapsedRealtime();
+        final SharedPreferences.Editor e = prefs.edit();
+        e.putLong(LAST_SUCCESS_KEY, lastSuccessMillis + offset);
+        e.putInt(FAILURES_KEY, failures);
+        if (retryAtMillis == NEVER) {
+            e.remove(RETRY_AT_KEY);
+        } else {
+            e.putLong(RETRY_AT_KEY, retryAtMillis + offset);
+        }
+        e.apply();
+    }
+}
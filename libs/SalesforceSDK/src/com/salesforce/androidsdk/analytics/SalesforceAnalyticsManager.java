@@ -33,26 +33,30 @@ import android.os.Build;
 import android.text.TextUtils;
 
 import com.salesforce.androidsdk.accounts.UserAccount;
+import com.salesforce.androidsdk.accounts.UserAccountManager;
 import com.salesforce.androidsdk.analytics.manager.AnalyticsManager;
 import com.salesforce.androidsdk.analytics.model.DeviceAppAttributes;
 import com.salesforce.androidsdk.analytics.model.InstrumentationEvent;
 import com.salesforce.androidsdk.analytics.store.EventStoreManager;
 import com.salesforce.androidsdk.analytics.transform.AILTNTransform;
 import com.salesforce.androidsdk.analytics.transform.Transform;
+import com.salesforce.androidsdk.analytics.transform.WireFormatTransform;
 import com.salesforce.androidsdk.app.Features;
 import com.salesforce.androidsdk.app.SalesforceSDKManager;
 import com.salesforce.androidsdk.config.AdminSettingsManager;
 import com.salesforce.androidsdk.config.BootConfig;
 import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+import com.salesforce.androidsdk.util.Tracer;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -68,14 +72,25 @@ public class SalesforceAnalyticsManager {
 
     private static final String ANALYTICS_ON_OFF_KEY = "ailtn_enabled";
     private static final String AILTN_POLICY_PREF = "ailtn_policy";
+    private static final String AILTN_PUBLISH_PREF = "ailtn_publish";
     private static final int DEFAULT_PUBLISH_FREQUENCY_IN_HOURS = 8;
+    private static final int PUBLISH_CHECK_INTERVAL_IN_MINUTES = 15;
     private static final String TAG = "AnalyticsManager";
     private static final String UNAUTH_INSTANCE_KEY = "_no_user";
 
+    /**
+     * Maximum number of events sent in a single publish request
+     */
+    public static final int PUBLISH_BATCH_SIZE = 100;
+
     private static Map<String, SalesforceAnalyticsManager> INSTANCES;
     private static boolean sPublishHandlerActive;
     private static ScheduledFuture sScheduler;
     private static int sPublishFrequencyInHours = DEFAULT_PUBLISH_FREQUENCY_IN_HOURS;
+    private static final ScheduledExecutorService sPublishExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static final PublishScheduler sPublishScheduler = new PublishScheduler(PublishScheduler.SYSTEM_CLOCK,
+            PUBLISH_BATCH_SIZE, TimeUnit.HOURS.toMillis(DEFAULT_PUBLISH_FREQUENCY_IN_HOURS));
+    private static boolean sPublishStateRestored;
 
     private AnalyticsManager analyticsManager;
     private EventStoreManager eventStoreManager;
@@ -83,6 +98,9 @@ public class SalesforceAnalyticsManager {
     private boolean enabled;
     private Map<Class<? extends Transform>, Class<? extends AnalyticsPublisher>> remotes;
 
+    // Publishing does not lock the manager, so that events can be captured while it is in progress
+    private final Object publishLock = new Object();
+
     /**
      * Returns the instance of this class associated with an unauthenticated user context.
      *
@@ -185,16 +203,14 @@ public class SalesforceAnalyticsManager {
     }
 
     /**
-     * Sets the publish frequency, in hours.
+     * Sets the publish frequency, in hours. Events are published earlier when conditions are
+     * favorable, see {@link PublishScheduler}; this is the longest they wait once connected.
      *
      * @param publishFrequencyInHours Publish frequency, in hours.
      */
     public static synchronized void setPublishFrequencyInHours(int publishFrequencyInHours) {
         sPublishFrequencyInHours = publishFrequencyInHours;
-        if (sScheduler != null) {
-            sScheduler.cancel(false);
-            sScheduler = createPublishHandler();
-        }
+        sPublishScheduler.setMaxDelayMillis(TimeUnit.HOURS.toMillis(publishFrequencyInHours));
     }
 
     /**
@@ -206,6 +222,23 @@ public class SalesforceAnalyticsManager {
         return sPublishFrequencyInHours;
     }
 
+    /**
+     * Lets publishing piggyback on network activity of the app (e.g. a sync that just ran),
+     * while the radio is awake anyway.
+     */
+    public static void onNetworkActivity() {
+        sPublishScheduler.onNetworkActivity();
+        if (sPublishHandlerActive) {
+            sPublishExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    checkPublishConditions();
+                }
+            });
+        }
+    }
+
     /**
      * Returns an instance of event store manager.
      *
@@ -266,73 +299,56 @@ public class SalesforceAnalyticsManager {
 
     /**
      * Publishes all stored events to all registered network endpoints after
-     * applying the required event format transforms. Stored events will be
-     * deleted if publishing was successful for all registered endpoints.
+     * applying the required event format transforms. Events are read from the
+     * store, published and deleted in batches of {@value #PUBLISH_BATCH_SIZE},
+     * publishing stops at the first batch that fails for any registered endpoint.
+     * Events stored while publishing is in progress are left for the next publish.
+     * Summaries of aggregated events and tracing stats are stored first, see {@link EventBuilderHelper#flushAggregatedEvents()}
+     * and {@link Tracer#exportToAnalytics()}.
      * This method should NOT be called from the main thread.
      */
-    public synchronized void publishAllEvents() {
-        final List<InstrumentationEvent> events = eventStoreManager.fetchAllEvents();
-        publishEvents(events);
+    public void publishAllEvents() {
+        EventBuilderHelper.flushAggregatedEvents();
+        Tracer.exportToAnalytics();
+        synchronized (publishLock) {
+            final Map<Transform, AnalyticsPublisher> publishers = createPublishers();
+            int remaining = eventStoreManager.getNumStoredEvents();
+            while (remaining > 0) {
+                final List<InstrumentationEvent> batch = eventStoreManager.fetchOldestEvents(Math.min(remaining, PUBLISH_BATCH_SIZE));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                if (!publishBatch(batch, publishers)) {
+                    getPublishScheduler().onPublishFailed();
+                    return;
+                }
+                remaining -= batch.size();
+            }
+            getPublishScheduler().onPublishSucceeded();
+        }
     }
 
     /**
      * Publishes a list of events to all registered network endpoints after
      * applying the required event format transforms. Stored events will be
      * deleted if publishing was successful for all registered endpoints.
+     * Events are published in batches of {@value #PUBLISH_BATCH_SIZE}.
      * This method should NOT be called from the main thread.
      *
      * @param events List of events.
      */
-    public synchronized void publishEvents(List<InstrumentationEvent> events) {
+    public void publishEvents(List<InstrumentationEvent> events) {
         if (events == null || events.size() == 0) {
             return;
         }
-        final List<String> eventsIds = new ArrayList<>();
-        boolean success = true;
-        final Set<Class<? extends Transform>> remoteKeySet = remotes.keySet();
-        for (final Class<? extends Transform> transformClass : remoteKeySet) {
-            Transform transformer = null;
-            try {
-                transformer = transformClass.newInstance();
-            } catch (Exception e) {
-                SalesforceSDKLogger.e(TAG, "Exception thrown while instantiating class", e);
-            }
-            if (transformer != null) {
-                final JSONArray eventsJSONArray = new JSONArray();
-                for (final InstrumentationEvent event : events) {
-                    eventsIds.add(event.getEventId());
-                    final JSONObject eventJSON = transformer.transform(event);
-                    if (eventJSON != null) {
-                        eventsJSONArray.put(eventJSON);
-                    }
-                }
-                AnalyticsPublisher networkPublisher = null;
-                try {
-                    networkPublisher = remotes.get(transformClass).newInstance();
-                } catch (Exception e) {
-                    SalesforceSDKLogger.e(TAG, "Exception thrown while instantiating class", e);
-                }
-                if (networkPublisher != null) {
-                    boolean networkSuccess = networkPublisher.publish(eventsJSONArray);
-
-                    /*
-                     * Updates the success flag only if all previous requests have been
-                     * successful. This ensures that the operation is marked success only
-                     * if all publishers are successful.
-                     */
-                    if (success) {
-                        success = networkSuccess;
-                    }
+        synchronized (publishLock) {
+            final Map<Transform, AnalyticsPublisher> publishers = createPublishers();
+            for (int i = 0; i < events.size(); i += PUBLISH_BATCH_SIZE) {
+                if (!publishBatch(events.subList(i, Math.min(events.size(), i + PUBLISH_BATCH_SIZE)), publishers)) {
+                    return;
                 }
             }
         }
-
-        /*
-         * Deletes events from the event store if the network publishing was successful.
-         */
-        if (success) {
-            eventStoreManager.deleteEvents(eventsIds);
-        }
     }
 
     /**
@@ -343,7 +359,7 @@ public class SalesforceAnalyticsManager {
      *
      * @param event Event.
      */
-    public synchronized void publishEvent(InstrumentationEvent event) {
+    public void publishEvent(InstrumentationEvent event) {
         if (event == null) {
             return;
         }
@@ -365,6 +381,91 @@ public class SalesforceAnalyticsManager {
             return;
         }
         remotes.put(transformer, publisher);
+        registerWireFormatTransform(transformer);
+    }
+
+    /**
+     * Lets the event store compute the wire form of the given transform when events are stored.
+     */
+    private void registerWireFormatTransform(Class<? extends Transform> transformer) {
+        if (WireFormatTransform.class.isAssignableFrom(transformer)) {
+            try {
+                eventStoreManager.addWireFormatTransform((WireFormatTransform) transformer.newInstance());
+            } catch (Exception e) {
+                SalesforceSDKLogger.e(TAG, "Exception thrown while instantiating class", e);
+            }
+        }
+    }
+
+    /**
+     * Instantiates the transform and publisher of each registered remote, once per publish.
+     */
+    private Map<Transform, AnalyticsPublisher> createPublishers() {
+        final Map<Transform, AnalyticsPublisher> publishers = new LinkedHashMap<>();
+        for (final Map.Entry<Class<? extends Transform>, Class<? extends AnalyticsPublisher>> remote : remotes.entrySet()) {
+            try {
+                publishers.put(remote.getKey().newInstance(), remote.getValue().newInstance());
+            } catch (Exception e) {
+                SalesforceSDKLogger.e(TAG, "Exception thrown while instantiating class", e);
+            }
+        }
+        return publishers;
+    }
+
+    /**
+     * Publishes a batch of events to all publishers, and deletes them from the event store
+     * if publishing was successful for all of them.
+     *
+     * @return True - if publishing was successful for all publishers, False - otherwise.
+     */
+    private boolean publishBatch(List<InstrumentationEvent> events, Map<Transform, AnalyticsPublisher> publishers) {
+        boolean success = true;
+        for (final Map.Entry<Transform, AnalyticsPublisher> publisher : publishers.entrySet()) {
+
+            // Wire forms cached when the events were stored are sent as they are
+            if (publisher.getKey() instanceof WireFormatTransform && publisher.getValue() instanceof WireFormatPublisher) {
+                final WireFormatTransform transform = (WireFormatTransform) publisher.getKey();
+                final String key = transform.getWireFormatKey();
+                final List<String> wireForms = new ArrayList<>(events.size());
+                for (final InstrumentationEvent event : events) {
+                    String wireForm = event.getWireForm(key);
+                    if (wireForm == null) {
+                        wireForm = transform.toWireFormat(event);
+                    }
+                    if (wireForm != null) {
+                        wireForms.add(wireForm);
+                    }
+                }
+                if (!((WireFormatPublisher) publisher.getValue()).publishWireForms(wireForms)) {
+                    success = false;
+                }
+                continue;
+            }
+            final JSONArray eventsJSONArray = new JSONArray();
+            for (final InstrumentationEvent event : events) {
+                final JSONObject eventJSON = publisher.getKey().transform(event);
+                if (eventJSON != null) {
+                    eventsJSONArray.put(eventJSON);
+                }
+            }
+
+            // The batch is only marked published if all publishers are successful
+            if (!publisher.getValue().publish(eventsJSONArray)) {
+                success = false;
+            }
+        }
+
+        /*
+         * Deletes events from the event store if the network publishing was successful.
+         */
+        if (success) {
+            final List<String> eventsIds = new ArrayList<>();
+            for (final InstrumentationEvent event : events) {
+                eventsIds.add(event.getEventId());
+            }
+            eventStoreManager.deleteEvents(eventsIds);
+        }
+        return success;
     }
 
     private SalesforceAnalyticsManager(UserAccount account) {
@@ -376,8 +477,9 @@ public class SalesforceAnalyticsManager {
         analyticsManager = new AnalyticsManager(filenameSuffix, sdkManager.getAppContext(),
                 SalesforceSDKManager.getEncryptionKey(), deviceAppAttributes);
         eventStoreManager = analyticsManager.getEventStoreManager();
-        remotes = new HashMap<>();
+        remotes = new ConcurrentHashMap<>();
         remotes.put(AILTNTransform.class, AILTNPublisher.class);
+        registerWireFormatTransform(AILTNTransform.class);
 
         // Reads the existing analytics policy and sets it upon initialization.
         readAnalyticsPolicy();
@@ -447,15 +549,45 @@ public class SalesforceAnalyticsManager {
         e.commit();
     }
 
+    /**
+     * Returns the publish scheduler, with its state restored from the last process.
+     */
+    private static synchronized PublishScheduler getPublishScheduler() {
+        if (!sPublishStateRestored) {
+            final Context context = SalesforceSDKManager.getInstance().getAppContext();
+            sPublishScheduler.restore(context.getSharedPreferences(AILTN_PUBLISH_PREF, Context.MODE_PRIVATE));
+            sPublishStateRestored = true;
+        }
+        return sPublishScheduler;
+    }
+
     private static ScheduledFuture createPublishHandler() {
-        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        final Runnable publishRunnable = new Runnable() {
+        final Runnable checkRunnable = new Runnable() {
 
             @Override
             public void run() {
-                AnalyticsPublisherService.startActionPublish(SalesforceSDKManager.getInstance().getAppContext());
+                checkPublishConditions();
             }
         };
-        return scheduler.scheduleAtFixedRate(publishRunnable, 0, sPublishFrequencyInHours, TimeUnit.HOURS);
+        return sPublishExecutor.scheduleAtFixedRate(checkRunnable, 0, PUBLISH_CHECK_INTERVAL_IN_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Starts a publish of the current user's events if the publish scheduler says so.
+     */
+    private static void checkPublishConditions() {
+        try {
+            final UserAccount account = UserAccountManager.getInstance().getCurrentUser();
+            if (account == null) {
+                return;
+            }
+            final int pendingEvents = getInstance(account).eventStoreManager.getNumStoredEvents();
+            final Context context = SalesforceSDKManager.getInstance().getAppContext();
+            if (getPublishScheduler().shouldPublish(PublishScheduler.Conditions.read(context, pendingEvents))) {
+                AnalyticsPublisherService.startActionPublish(context);
+            }
+        } catch (Exception e) {
+            SalesforceSDKLogger.e(TAG, "Exception thrown while checking publish conditions", e);
+        }
     }
 }
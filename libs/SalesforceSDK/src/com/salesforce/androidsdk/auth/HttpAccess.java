@@ -180,5 +180,23 @@ public class HttpAccess {
                     .build();
             return chain.proceed(requestWithUserAgent);
         }
+
+        // Interceptors adding the same user agent are interchangeable (see RestClient.getOkHttpClient(Interceptor...))
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final UserAgentInterceptor other = (UserAgentInterceptor) o;
+            return userAgent == null ? other.userAgent == null : userAgent.equals(other.userAgent);
+        }
+
+        @Override
+        public int hashCode() {
+            return userAgent == null ? 0 : userAgent.hashCode();
+        }
     }
 }
@@ -0,0 +1,629 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import com.salesforce.androidsdk.accounts.UserAccount;
+import com.salesforce.androidsdk.analytics.EventBuilderHelper;
+import com.salesforce.androidsdk.util.Histogram;
+import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Collects network metrics for the calls made by a RestClient.
+ * <ul>
+ * <li> Latency histograms (dns, connect, tls, time to first byte, body read, total) and byte counts
+ * are aggregated per {@link EndpointFamily}.</li>
+ * <li> The last calls are kept in a bounded ring buffer.</li>
+ * <li> Summaries can optionally be forwarded to analytics as instrumentation events.</li>
+ * </ul>
+ * RestClient keeps one instance per user, installed both as event listener factory and as first application interceptor.
+ * As an interceptor, it records each call exactly once, when the body of the final response is consumed or closed
+ * (retries, token refreshes and cache hits included). Calls that don't go through it are recorded when OkHttp ends them.
+ */
+public class NetworkMetrics implements EventListener.Factory, Interceptor {
+
+    private static final String TAG = "NetworkMetrics";
+
+    /**
+     * Name of the instrumentation events carrying summaries
+     */
+    public static final String SUMMARY_EVENT_NAME = "networkMetrics";
+
+    /**
+     * Default number of calls kept in the ring buffer
+     */
+    public static final int DEFAULT_MAX_RECENT_CALLS = 100;
+
+    /**
+     * Families of endpoints metrics are aggregated by
+     */
+    public enum EndpointFamily {
+        QUERY,
+        COMPOSITE,
+        SOBJECTS,
+        CHATTER_FILES,
+        OTHER;
+
+        /**
+         * @param path Path of the request.
+         * @return family of the endpoint
+         */
+        public static EndpointFamily fromPath(String path) {
+            if (path == null) {
+                return OTHER;
+            }
+            if (path.contains("/composite")) {
+                return COMPOSITE;
+            }
+            if (path.contains("/query") || path.contains("/search")) {
+                return QUERY;
+            }
+            if (path.contains("/connect/files") || path.contains("/chatter/files")) {
+                return CHATTER_FILES;
+            }
+            if (path.contains("/sobjects")) {
+                return SOBJECTS;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Phases of a call latencies are measured for
+     */
+    public enum Phase {
+        DNS,
+        CONNECT,
+        TLS,
+        TIME_TO_FIRST_BYTE,
+        BODY_READ,
+        TOTAL
+    }
+
+    private final int maxRecentCalls;
+    private final ArrayDeque<CallMetrics> recentCalls;
+    private final Map<EndpointFamily, EndpointStats> stats = new EnumMap<>(EndpointFamily.class);
+    private final Map<EndpointFamily, EndpointStats> statsSinceSummary = new EnumMap<>(EndpointFamily.class);
+    private final Map<Call, CallListener> listeners = new WeakHashMap<>();
+    private int callsSinceSummary;
+    private UserAccount analyticsAccount;
+    private int callsPerSummary;
+
+    /**
+     * Constructor
+     *
+     * @param maxRecentCalls Number of calls kept in the ring buffer.
+     */
+    public NetworkMetrics(int maxRecentCalls) {
+        this.maxRecentCalls = maxRecentCalls;
+        this.recentCalls = new ArrayDeque<>(maxRecentCalls);
+    }
+
+    /**
+     * Forwards a summary to analytics every given number of calls.
+     *
+     * @param account User account to record the events for, null for the current user.
+     * @param callsPerSummary Number of calls per summary, 0 to stop forwarding.
+     */
+    public synchronized void setAnalyticsForwarding(UserAccount account, int callsPerSummary) {
+        this.analyticsAccount = account;
+        this.callsPerSummary = callsPerSummary;
+        this.callsSinceSummary = 0;
+        statsSinceSummary.clear();
+    }
+
+    /**
+     * @param family Endpoint family.
+     * @return copy of the stats for the given endpoint family
+     */
+    public synchronized EndpointStats getStats(EndpointFamily family) {
+        final EndpointStats familyStats = stats.get(family);
+        return familyStats != null ? new EndpointStats(familyStats) : new EndpointStats();
+    }
+
+    /**
+     * @return last calls, oldest first
+     */
+    public synchronized List<CallMetrics> getRecentCalls() {
+        return new ArrayList<>(recentCalls);
+    }
+
+    /**
+     * Clears all metrics.
+     */
+    public synchronized void reset() {
+        recentCalls.clear();
+        stats.clear();
+        statsSinceSummary.clear();
+        callsSinceSummary = 0;
+    }
+
+    /**
+     * @return stats of all endpoint families as JSON
+     */
+    public synchronized JSONObject toJSON() {
+        return toJSON(stats);
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        final CallListener listener = new CallListener();
+        synchronized (listeners) {
+            listeners.put(call, listener);
+        }
+        return listener;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final CallListener listener;
+        synchronized (listeners) {
+            listener = listeners.remove(chain.call());
+        }
+        if (listener == null) {
+            return chain.proceed(chain.request());
+        }
+        listener.intercepted = true;
+        final Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            listener.done(chain.call(), true);
+            throw e;
+        }
+        listener.statusCode = response.code();
+        if (response.body() == null) {
+            listener.done(chain.call(), false);
+            return response;
+        }
+        return response.newBuilder().body(new RecordingResponseBody(response.body(), chain.call(), listener)).build();
+    }
+
+    void record(CallMetrics callMetrics) {
+        JSONObject summary = null;
+        UserAccount account = null;
+        synchronized (this) {
+            if (maxRecentCalls > 0) {
+                if (recentCalls.size() == maxRecentCalls) {
+                    recentCalls.removeFirst();
+                }
+                recentCalls.addLast(callMetrics);
+            }
+            getOrCreate(stats, callMetrics.family).add(callMetrics);
+            if (callsPerSummary > 0) {
+                getOrCreate(statsSinceSummary, callMetrics.family).add(callMetrics);
+                if (++callsSinceSummary >= callsPerSummary) {
+                    summary = toJSON(statsSinceSummary);
+                    account = analyticsAccount;
+                    statsSinceSummary.clear();
+                    callsSinceSummary = 0;
+                }
+            }
+        }
+
+        // Storing the event outside the lock, calls completing meanwhile are not held up
+        if (summary != null) {
+            EventBuilderHelper.createAndStoreEvent(SUMMARY_EVENT_NAME, account, TAG, summary);
+        }
+    }
+
+    private static EndpointStats getOrCreate(Map<EndpointFamily, EndpointStats> map, EndpointFamily family) {
+        EndpointStats familyStats = map.get(family);
+        if (familyStats == null) {
+            familyStats = new EndpointStats();
+            map.put(family, familyStats);
+        }
+        return familyStats;
+    }
+
+    private static JSONObject toJSON(Map<EndpointFamily, EndpointStats> map) {
+        final JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<EndpointFamily, EndpointStats> entry : map.entrySet()) {
+                json.put(entry.getKey().name().toLowerCase(), entry.getValue().toJSON());
+            }
+        } catch (JSONException e) {
+            SalesforceSDKLogger.e(TAG, "Exception thrown while building metrics summary", e);
+        }
+        return json;
+    }
+
+    /**
+     * Metrics of a single call. Durations are in milliseconds, -1 when the phase did not happen
+     * (e.g. no dns lookup or connect for a pooled connection, no network at all for a cache hit).
+     */
+    public static class CallMetrics {
+
+        public final EndpointFamily family;
+        public final String method;
+        public final String path;
+        public final int statusCode;
+        public final boolean failed;
+        public final long requestBytes;
+        public final long responseBytes;
+        private final long[] durations;
+
+        CallMetrics(EndpointFamily family, String method, String path, int statusCode, boolean failed,
+                    long requestBytes, long responseBytes, long[] durations) {
+            this.family = family;
+            this.method = method;
+            this.path = path;
+            this.statusCode = statusCode;
+            this.failed = failed;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.durations = durations;
+        }
+
+        /**
+         * @param phase Phase.
+         * @return duration of the given phase in milliseconds, -1 if it did not happen
+         */
+        public long getDuration(Phase phase) {
+            return durations[phase.ordinal()];
+        }
+    }
+
+    /**
+     * Aggregated metrics of an endpoint family
+     */
+    public static class EndpointStats {
+
+        private final Map<Phase, LatencyHistogram> histograms = new EnumMap<>(Phase.class);
+        private long callCount;
+        private long failureCount;
+        private long requestBytes;
+        private long responseBytes;
+
+        EndpointStats() {
+            for (Phase phase : Phase.values()) {
+                histograms.put(phase, new LatencyHistogram());
+            }
+        }
+
+        EndpointStats(EndpointStats other) {
+            for (Phase phase : Phase.values()) {
+                histograms.put(phase, new LatencyHistogram(other.histograms.get(phase)));
+            }
+            callCount = other.callCount;
+            failureCount = other.failureCount;
+            requestBytes = other.requestBytes;
+            responseBytes = other.responseBytes;
+        }
+
+        void add(CallMetrics callMetrics) {
+            callCount++;
+            if (callMetrics.failed) {
+                failureCount++;
+            }
+            requestBytes += callMetrics.requestBytes;
+            responseBytes += callMetrics.responseBytes;
+            for (Phase phase : Phase.values()) {
+                final long duration = callMetrics.getDuration(phase);
+                if (duration >= 0) {
+                    histograms.get(phase).add(duration);
+                }
+            }
+        }
+
+        public long getCallCount() {
+            return callCount;
+        }
+
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        public long getRequestBytes() {
+            return requestBytes;
+        }
+
+        public long getResponseBytes() {
+            return responseBytes;
+        }
+
+        public LatencyHistogram getHistogram(Phase phase) {
+            return histograms.get(phase);
+        }
+
+        JSONObject toJSON() throws JSONException {
+            final JSONObject json = new JSONObject();
+            json.put("calls", callCount);
+            json.put("failures", failureCount);
+            json.put("requestBytes", requestBytes);
+            json.put("responseBytes", responseBytes);
+            for (Phase phase : Phase.values()) {
+                final LatencyHistogram histogram = histograms.get(phase);
+                if (histogram.getCount() > 0) {
+                    json.put(phase.name().toLowerCase(), histogram.toJSON());
+                }
+            }
+            return json;
+        }
+    }
+
+    /**
+     * Histogram of latencies in milliseconds
+     */
+    public static class LatencyHistogram extends Histogram {
+
+        /**
+         * Upper bounds (inclusive) of the buckets in milliseconds, the last bucket has no upper bound
+         */
+        public static final long[] BUCKET_BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+        LatencyHistogram() {
+            super(BUCKET_BOUNDS);
+        }
+
+        LatencyHistogram(LatencyHistogram other) {
+            super(other);
+        }
+
+        JSONObject toJSON() throws JSONException {
+            final JSONObject json = new JSONObject();
+            json.put("count", getCount());
+            json.put("mean", getMean());
+            json.put("p50", getPercentile(50));
+            json.put("p90", getPercentile(90));
+            json.put("max", getMax());
+            return json;
+        }
+    }
+
+    /**
+     * Response body recording the call once it has been read to the end or closed
+     */
+    private static class RecordingResponseBody extends ResponseBody {
+
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        RecordingResponseBody(ResponseBody delegate, Call call, CallListener listener) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new RecordingSource(delegate.source(), call, listener));
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+
+    private static class RecordingSource extends ForwardingSource {
+
+        private final Call call;
+        private final CallListener listener;
+
+        RecordingSource(Source delegate, Call call, CallListener listener) {
+            super(delegate);
+            this.call = call;
+            this.listener = listener;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            try {
+                final long read = super.read(sink, byteCount);
+                if (read == -1) {
+                    listener.done(call, false);
+                }
+                return read;
+            } catch (IOException e) {
+                listener.done(call, true);
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                listener.done(call, false);
+            }
+        }
+    }
+
+    /**
+     * Listener timing a single call (retries and token refreshes included)
+     */
+    private class CallListener extends EventListener {
+
+        private final long[] durations = new long[Phase.values().length];
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestHeadersStart;
+        private long responseBodyStart;
+        private long requestBytes;
+        private long responseBytes;
+        private volatile int statusCode;
+        private volatile boolean intercepted; // recorded by the interceptor rather than by callEnd / callFailed
+        private boolean recorded;
+
+        CallListener() {
+            for (int i = 0; i < durations.length; i++) {
+                durations[i] = -1;
+            }
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            addDuration(Phase.DNS, dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            addDuration(Phase.TLS, secureConnectStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            addDuration(Phase.CONNECT, connectStart);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+            addDuration(Phase.CONNECT, connectStart);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+
+            // Byte counts are the ones of the last attempt, like time to first byte and body read
+            requestHeadersStart = System.nanoTime();
+            requestBytes = 0;
+            responseBytes = 0;
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestBytes += byteCount;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+
+            // Only the last attempt counts, earlier ones were retried or replayed
+            durations[Phase.TIME_TO_FIRST_BYTE.ordinal()] = toMillis(requestHeadersStart);
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            statusCode = response.code();
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            responseBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            responseBytes += byteCount;
+            durations[Phase.BODY_READ.ordinal()] = toMillis(responseBodyStart);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+
+            // Fired once per attempt, and not at all for cache hits: the interceptor records those calls instead
+            if (!intercepted) {
+                done(call, false);
+            }
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            if (!intercepted) {
+                done(call, true);
+            }
+        }
+
+        synchronized void done(Call call, boolean failed) {
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            durations[Phase.TOTAL.ordinal()] = toMillis(callStart);
+            final Request request = call.request();
+            final String path = request.url().encodedPath();
+            record(new CallMetrics(EndpointFamily.fromPath(path), request.method(), path, statusCode,
+                    failed, requestBytes, responseBytes, durations));
+        }
+
+        private void addDuration(Phase phase, long start) {
+            final int index = phase.ordinal();
+            durations[index] = Math.max(durations[index], 0) + toMillis(start);
+        }
+
+        private long toMillis(long start) {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+}
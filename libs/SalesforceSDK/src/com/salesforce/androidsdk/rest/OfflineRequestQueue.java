@@ -0,0 +1,850 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+
+import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.auth.HttpAccess;
+import com.salesforce.androidsdk.rest.RestRequest.RestEndpoint;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+import com.squareup.tape.QueueFile;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+
+/**
+ * Durable queue of requests made while offline.
+ * Requests are written (encrypted) to a file and replayed in order once the network comes back.
+ * Consecutive requests to the same API version are replayed in batch requests of up to 25.
+ * A PATCH of a record still waiting for an earlier PATCH of the same record is merged into it.
+ * A request can depend on requests queued before it: if one of them fails, it is dropped.
+ * Results are handed to registered listeners and broadcast with {@link #ACTION_REQUEST_COMPLETED}.
+ * Once started, a replay stopped by an unavailable server or a network error is retried with exponential backoff.
+ */
+public class OfflineRequestQueue {
+
+    /**
+     * Action of the intent broadcast after a queued request completed or was dropped
+     */
+    public static final String ACTION_REQUEST_COMPLETED = "com.salesforce.androidsdk.rest.OFFLINE_REQUEST_COMPLETED";
+
+    /**
+     * Extras of the intent broadcast after a queued request completed or was dropped
+     */
+    public static final String EXTRA_REQUEST_ID = "requestId";
+    public static final String EXTRA_STATUS_CODE = "statusCode";
+    public static final String EXTRA_SUCCESS = "success";
+
+    private static final String TAG = "OfflineRequestQueue";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String BATCH_PROCESSING_HALTED = "BATCH_PROCESSING_HALTED";
+
+    // Retries of replays stopped by the server being unavailable or a network error
+    static final long INITIAL_RETRY_DELAY_MILLIS = 10 * 1000;
+    static final long MAX_RETRY_DELAY_MILLIS = 10 * 60 * 1000;
+
+    // How long close() waits for a replay in progress
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    // Keys in persisted entries
+    private static final String ID = "id";
+    private static final String METHOD = "method";
+    private static final String ENDPOINT = "endpoint";
+    private static final String PATH = "path";
+    private static final String BODY = "body";
+    private static final String HEADERS = "headers";
+    private static final String DEPENDS_ON = "dependsOn";
+
+    /**
+     * Listener notified of the outcome of queued requests.
+     * NB: methods run on the replay thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the server answered a queued request, successfully or not.
+         *
+         * @param requestId Id returned when the request was queued.
+         * @param request Request sent.
+         * @param response Response received (already consumed).
+         */
+        void onCompleted(String requestId, RestRequest request, RestResponse response);
+
+        /**
+         * Called when a queued request is dropped without being sent.
+         *
+         * @param requestId Id returned when the request was queued.
+         * @param request Request dropped.
+         * @param exception Reason.
+         */
+        void onFailed(String requestId, RestRequest request, Exception exception);
+    }
+
+    private final Context context;
+    private final RestClient restClient;
+    private final HttpAccess httpAccess;
+    private final String encryptionKey;
+    private final QueueFile queueFile;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> sendingIds = new HashSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private Future<?> scheduledReplay;
+    private ScheduledFuture<?> scheduledRetry;
+    private long retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+    private BroadcastReceiver connectivityReceiver;
+    private boolean closed;
+
+    /**
+     * Constructor, reads back the requests queued in the given file.
+     *
+     * @param context Context used to watch connectivity and send broadcasts, can be null.
+     * @param restClient Rest client used to replay requests.
+     * @param httpAccess Used to find out whether the network is available.
+     * @param file File requests are persisted in.
+     * @param encryptionKey Key used to encrypt persisted requests.
+     * @throws IOException if the file can't be opened.
+     */
+    public OfflineRequestQueue(Context context, RestClient restClient, HttpAccess httpAccess,
+                               File file, String encryptionKey) throws IOException {
+        this.context = context;
+        this.restClient = restClient;
+        this.httpAccess = httpAccess;
+        this.encryptionKey = encryptionKey;
+        final File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        queueFile = new QueueFile(file);
+        queueFile.forEach(new QueueFile.ElementReader() {
+
+            @Override
+            public void read(InputStream in, int length) throws IOException {
+                final byte[] bytes = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    final int count = in.read(bytes, read, length - read);
+                    if (count < 0) {
+                        throw new IOException("Truncated entry");
+                    }
+                    read += count;
+                }
+                try {
+                    entries.add(Entry.fromJSON(new JSONObject(Encryptor.decrypt(bytes, OfflineRequestQueue.this.encryptionKey))));
+                } catch (Exception e) {
+
+                    // Keeping the file and memory in sync, the entry gets dropped at replay
+                    SalesforceSDKLogger.e(TAG, "Could not read queued request", e);
+                    entries.add(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a listener.
+     *
+     * @param listener Listener.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener Listener.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a request with no dependencies.
+     *
+     * @param request Request, its body must be JSON (or empty).
+     * @return id of the queued request.
+     * @throws IOException if the request could not be persisted.
+     */
+    public String enqueue(RestRequest request) throws IOException {
+        return enqueue(request, null);
+    }
+
+    /**
+     * Queues a request. A PATCH may be merged into an earlier PATCH of the same path that was not sent yet,
+     * in which case the id of the earlier request is returned.
+     *
+     * @param request Request, its body must be JSON (or empty).
+     * @param dependsOn Ids of queued requests that must succeed before this one is sent.
+     *                  Ids no longer in the queue are ignored.
+     * @return id of the queued request.
+     * @throws IOException if the request could not be persisted.
+     */
+    public String enqueue(RestRequest request, List<String> dependsOn) throws IOException {
+        if (request.getRequestBody() != null && request.getRequestBodyAsJson() == null) {
+            throw new IllegalArgumentException("Only requests with a JSON body can be queued");
+        }
+        final String id;
+        final boolean started;
+        synchronized (this) {
+            ensureOpen();
+            final Set<String> queuedIds = new HashSet<>();
+            for (Entry entry : entries) {
+                if (entry != null) {
+                    queuedIds.add(entry.id);
+                }
+            }
+            final List<String> dependencies = new ArrayList<>();
+            if (dependsOn != null) {
+                for (String dependency : dependsOn) {
+                    if (queuedIds.contains(dependency) && !dependencies.contains(dependency)) {
+                        dependencies.add(dependency);
+                    }
+                }
+            }
+            final int compactIndex = findCompactionTarget(request, dependencies);
+            if (compactIndex >= 0) {
+                final Entry previous = entries.get(compactIndex);
+                final Entry merged = previous.mergeWith(request);
+                entries.set(compactIndex, merged);
+                try {
+                    rewrite();
+                } catch (IOException e) {
+                    entries.set(compactIndex, previous);
+                    throw e;
+                }
+                id = merged.id;
+            } else {
+                final Entry entry = new Entry(UUID.randomUUID().toString(), request, dependencies);
+                queueFile.add(toBytes(entry));
+                entries.add(entry);
+                id = entry.id;
+            }
+            started = connectivityReceiver != null;
+        }
+        if (started) {
+            replay();
+        }
+        return id;
+    }
+
+    /**
+     * @return number of requests waiting to be sent.
+     */
+    public synchronized int getPendingCount() {
+        return entries.size();
+    }
+
+    /**
+     * Drops all queued requests, without notifying listeners.
+     *
+     * @throws IOException if the file could not be cleared.
+     */
+    public synchronized void discard() throws IOException {
+        ensureOpen();
+        entries.clear();
+        queueFile.clear();
+    }
+
+    /**
+     * Starts replaying queued requests, now and whenever connectivity comes back.
+     */
+    public synchronized void start() {
+        if (closed || connectivityReceiver != null) {
+            return;
+        }
+        connectivityReceiver = new BroadcastReceiver() {
+
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (httpAccess.hasNetwork()) {
+                    replay();
+                }
+            }
+        };
+        if (context != null) {
+            context.registerReceiver(connectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+        replay();
+    }
+
+    /**
+     * Stops watching connectivity and cancels pending retries, a replay in progress runs to completion.
+     */
+    public synchronized void stop() {
+        if (scheduledRetry != null) {
+            scheduledRetry.cancel(false);
+            scheduledRetry = null;
+        }
+        if (connectivityReceiver == null) {
+            return;
+        }
+        if (context != null) {
+            try {
+                context.unregisterReceiver(connectivityReceiver);
+            } catch (IllegalArgumentException e) {
+                SalesforceSDKLogger.w(TAG, "Connectivity receiver was not registered", e);
+            }
+        }
+        connectivityReceiver = null;
+    }
+
+    /**
+     * Stops replaying, waits (briefly) for a replay in progress, then closes the file.
+     * The queue can't be used afterwards, this must be called before the file is deleted or reopened.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            stop();
+            closed = true;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                SalesforceSDKLogger.w(TAG, "Replay still running while closing queue");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                queueFile.close();
+            } catch (IOException e) {
+                SalesforceSDKLogger.e(TAG, "Could not close queue file", e);
+            }
+        }
+    }
+
+    /**
+     * Sends queued requests, in order, until the queue is empty, the network goes away or the server
+     * is unavailable. Calls made while a replay is waiting to run are folded into it.
+     *
+     * @return future completing once the replay is done.
+     */
+    public synchronized Future<?> replay() {
+        if (closed) {
+            final FutureTask<Void> done = new FutureTask<>(new Runnable() {
+
+                @Override
+                public void run() {
+                }
+            }, null);
+            done.run();
+            return done;
+        }
+        if (scheduledReplay == null) {
+            scheduledReplay = executor.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (OfflineRequestQueue.this) {
+                        scheduledReplay = null;
+                    }
+                    final boolean interrupted = drain();
+                    synchronized (OfflineRequestQueue.this) {
+                        if (interrupted) {
+                            scheduleRetry();
+                        } else {
+                            retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+                        }
+                    }
+                }
+            });
+        }
+        return scheduledReplay;
+    }
+
+    /**
+     * @return delay before the next retry of an interrupted replay.
+     */
+    synchronized long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    /**
+     * Schedules a replay after the current backoff delay, then doubles it.
+     * Nothing else would trigger a replay while the network stays up.
+     */
+    private void scheduleRetry() {
+        if (closed || connectivityReceiver == null || scheduledRetry != null) {
+            return;
+        }
+        SalesforceSDKLogger.i(TAG, "Retrying replay in " + retryDelayMillis + " ms");
+        scheduledRetry = executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (OfflineRequestQueue.this) {
+                    scheduledRetry = null;
+                }
+                replay();
+            }
+        }, retryDelayMillis, TimeUnit.MILLISECONDS);
+        retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * @return True - if the replay was stopped by the server being unavailable or a network error.
+     */
+    private boolean drain() {
+        boolean canBatch = true;
+        while (httpAccess.hasNetwork()) {
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+            }
+            final List<Entry> run = nextRun(canBatch);
+            if (run.isEmpty()) {
+                return false;
+            }
+            try {
+                final boolean keepGoing;
+                if (run.size() == 1) {
+                    keepGoing = sendAlone(run.get(0));
+                } else {
+                    final Boolean batchOutcome = sendBatch(run);
+                    if (batchOutcome == null) {
+
+                        // Batch endpoint unusable, requests go one by one for the rest of this replay
+                        canBatch = false;
+                        keepGoing = true;
+                    } else {
+                        keepGoing = batchOutcome;
+                    }
+                }
+                if (!keepGoing) {
+                    return true;
+                }
+            } catch (IOException e) {
+                SalesforceSDKLogger.w(TAG, "Replay interrupted, queued requests kept", e);
+                return true;
+            } finally {
+                synchronized (this) {
+                    for (Entry entry : run) {
+                        sendingIds.remove(entry.id);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the requests to send next from the head of the queue, dropping unreadable entries.
+     */
+    private List<Entry> nextRun(boolean canBatch) {
+        final List<Entry> run = new ArrayList<>();
+        synchronized (this) {
+            while (!entries.isEmpty() && entries.get(0) == null) {
+                try {
+                    removeHead();
+                } catch (IOException e) {
+                    SalesforceSDKLogger.e(TAG, "Could not drop unreadable request", e);
+                    return run;
+                }
+            }
+            if (entries.isEmpty()) {
+                return run;
+            }
+            final Entry head = entries.get(0);
+            run.add(head);
+            final String apiVersion = canBatch ? head.getApiVersion() : null;
+            if (apiVersion != null) {
+                final Set<String> runIds = new HashSet<>();
+                runIds.add(head.id);
+                for (int i = 1; i < entries.size() && run.size() < RequestBatcher.MAX_BATCH_SIZE; i++) {
+                    final Entry entry = entries.get(i);
+
+                    // A dependency inside the batch would not stop its dependents from going through
+                    if (entry == null || !apiVersion.equals(entry.getApiVersion())
+                            || !Collections.disjoint(entry.dependsOn, runIds)) {
+                        break;
+                    }
+                    run.add(entry);
+                    runIds.add(entry.id);
+                }
+            }
+            for (Entry entry : run) {
+                sendingIds.add(entry.id);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * @return True - if the replay should go on, False - if the server is unavailable.
+     */
+    private boolean sendAlone(Entry entry) throws IOException {
+        final RestRequest request = entry.toRestRequest();
+        final Response response = restClient.newCall(request).execute();
+        if (isTransient(response.code())) {
+            response.close();
+            return false;
+        }
+        final RestResponse restResponse = new RestResponse(response);
+        restResponse.consumeQuietly();
+        complete(entry, request, restResponse);
+        return true;
+    }
+
+    /**
+     * @return True - if the replay should go on, False - if the server is unavailable,
+     * null - if the batch request itself was rejected.
+     */
+    private Boolean sendBatch(List<Entry> run) throws IOException {
+        final List<RestRequest> requests = new ArrayList<>();
+        for (Entry entry : run) {
+            requests.add(entry.toRestRequest());
+        }
+        final RestRequest batchRequest;
+        try {
+            batchRequest = RestRequest.getBatchRequest(run.get(0).getApiVersion(), true, requests);
+        } catch (JSONException e) {
+            SalesforceSDKLogger.e(TAG, "Could not build batch request", e);
+            return null;
+        }
+        SalesforceSDKLogger.d(TAG, "Replaying " + run.size() + " requests in a batch");
+        final Response batchResponse = restClient.newCall(batchRequest).execute();
+        final JSONArray results;
+        try {
+            if (isTransient(batchResponse.code())) {
+                return false;
+            }
+            if (!batchResponse.isSuccessful()) {
+                SalesforceSDKLogger.w(TAG, "Batch request failed with status " + batchResponse.code());
+                return null;
+            }
+            results = new JSONObject(batchResponse.body().string()).getJSONArray(RequestBatcher.RESULTS);
+            if (results.length() != run.size()) {
+                SalesforceSDKLogger.w(TAG, "Batch response has " + results.length() + " results for " + run.size() + " requests");
+                return null;
+            }
+        } catch (JSONException e) {
+            SalesforceSDKLogger.w(TAG, "Could not parse batch response", e);
+            return null;
+        } finally {
+            batchResponse.close();
+        }
+        for (int i = 0; i < run.size(); i++) {
+            final JSONObject result = results.optJSONObject(i);
+
+            // Sub requests after a failed one are not processed by the server: they stay queued
+            if (isHalted(result)) {
+                return true;
+            }
+            final RestRequest request = requests.get(i);
+            final Response response = RequestBatcher.buildSubResponse(restClient.buildRequest(request), result, batchResponse);
+            if (isTransient(response.code())) {
+                response.close();
+                return false;
+            }
+            final RestResponse restResponse = new RestResponse(response);
+            restResponse.consumeQuietly();
+            complete(run.get(i), request, restResponse);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a request answered by the server, along with the requests depending on it if it failed,
+     * then notifies listeners.
+     */
+    private void complete(Entry entry, RestRequest request, RestResponse response) throws IOException {
+        final List<Entry> dropped = new ArrayList<>();
+        synchronized (this) {
+            if (!entries.isEmpty() && entries.get(0) == entry) {
+                removeHead();
+            }
+            if (!response.isSuccess()) {
+                final Set<String> failedIds = new HashSet<>();
+                failedIds.add(entry.id);
+                for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); ) {
+                    final Entry queued = iterator.next();
+                    if (queued != null && !sendingIds.contains(queued.id) && !Collections.disjoint(queued.dependsOn, failedIds)) {
+                        failedIds.add(queued.id);
+                        dropped.add(queued);
+                        iterator.remove();
+                    }
+                }
+                if (!dropped.isEmpty()) {
+                    rewrite();
+                }
+            }
+        }
+        for (Listener listener : listeners) {
+            listener.onCompleted(entry.id, request, response);
+        }
+        broadcast(entry.id, response.getStatusCode(), response.isSuccess());
+        for (Entry droppedEntry : dropped) {
+            final Exception exception = new IOException("Request " + droppedEntry.id + " depends on a request that failed");
+            final RestRequest droppedRequest = droppedEntry.toRestRequest();
+            for (Listener listener : listeners) {
+                listener.onFailed(droppedEntry.id, droppedRequest, exception);
+            }
+            broadcast(droppedEntry.id, -1, false);
+        }
+    }
+
+    private void broadcast(String requestId, int statusCode, boolean success) {
+        if (context == null) {
+            return;
+        }
+        final Intent intent = new Intent(ACTION_REQUEST_COMPLETED);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra(EXTRA_REQUEST_ID, requestId);
+        intent.putExtra(EXTRA_STATUS_CODE, statusCode);
+        intent.putExtra(EXTRA_SUCCESS, success);
+        context.sendBroadcast(intent);
+    }
+
+    /**
+     * Returns the index of the queued PATCH the given request can be merged into, -1 if none.
+     * Only the last queued request for the path qualifies, provided it is not being sent,
+     * nothing queued after it depends on it, and it has the same dependencies.
+     */
+    private int findCompactionTarget(RestRequest request, List<String> dependencies) {
+        if (request.getMethod() != RestMethod.PATCH) {
+            return -1;
+        }
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            final Entry entry = entries.get(i);
+            if (entry == null || !entry.path.equals(request.getPath())) {
+                continue;
+            }
+            if (entry.method != RestMethod.PATCH || entry.endpoint != request.getEndpoint()
+                    || !entry.headers.equals(toHeaders(request.getAdditionalHttpHeaders()))
+                    || !new HashSet<>(entry.dependsOn).equals(new HashSet<>(dependencies))
+                    || sendingIds.contains(entry.id)) {
+                return -1;
+            }
+            for (int j = i + 1; j < entries.size(); j++) {
+                final Entry later = entries.get(j);
+                if (later != null && later.dependsOn.contains(entry.id)) {
+                    return -1;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Offline request queue is closed");
+        }
+    }
+
+    private void removeHead() throws IOException {
+        ensureOpen();
+        queueFile.remove();
+        entries.remove(0);
+    }
+
+    private void rewrite() throws IOException {
+        ensureOpen();
+        final List<byte[]> data = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry != null) {
+                data.add(toBytes(entry));
+            }
+        }
+        queueFile.clear();
+        for (byte[] bytes : data) {
+            queueFile.add(bytes);
+        }
+        entries.removeAll(Collections.singleton((Entry) null));
+    }
+
+    private byte[] toBytes(Entry entry) throws IOException {
+        final byte[] bytes;
+        try {
+            bytes = Encryptor.encryptBytes(entry.toJSON().toString(), encryptionKey);
+        } catch (JSONException e) {
+            throw new IOException("Could not serialize request", e);
+        }
+        if (bytes == null) {
+            throw new IOException("Could not encrypt request");
+        }
+        return bytes;
+    }
+
+    private static boolean isTransient(int statusCode) {
+        return statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR || statusCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    private static boolean isHalted(JSONObject result) {
+        return result != null && result.optInt("statusCode") == HttpURLConnection.HTTP_PRECON_FAILED
+                && result.toString().contains(BATCH_PROCESSING_HALTED);
+    }
+
+    private static Map<String, String> toHeaders(Map<String, String> headers) {
+        return headers == null ? new HashMap<String, String>() : new HashMap<>(headers);
+    }
+
+    /**
+     * Queued request, as persisted
+     */
+    private static class Entry {
+
+        final String id;
+        final RestMethod method;
+        final RestEndpoint endpoint;
+        final String path;
+        final JSONObject body;
+        final Map<String, String> headers;
+        final List<String> dependsOn;
+
+        Entry(String id, RestRequest request, List<String> dependsOn) {
+            this(id, request.getMethod(), request.getEndpoint(), request.getPath(),
+                    request.getRequestBodyAsJson(), toHeaders(request.getAdditionalHttpHeaders()), dependsOn);
+        }
+
+        Entry(String id, RestMethod method, RestEndpoint endpoint, String path, JSONObject body,
+              Map<String, String> headers, List<String> dependsOn) {
+            this.id = id;
+            this.method = method;
+            this.endpoint = endpoint;
+            this.path = path;
+            this.body = body;
+            this.headers = headers;
+            this.dependsOn = dependsOn;
+        }
+
+        /**
+         * @return entry sending the fields of this PATCH, overwritten by the fields of the given one
+         */
+        Entry mergeWith(RestRequest patch) {
+            final JSONObject merged = new JSONObject();
+            try {
+                for (JSONObject fields : new JSONObject[] {body, patch.getRequestBodyAsJson()}) {
+                    if (fields == null) {
+                        continue;
+                    }
+                    final Iterator<String> keys = fields.keys();
+                    while (keys.hasNext()) {
+                        final String key = keys.next();
+                        merged.put(key, fields.get(key));
+                    }
+                }
+            } catch (JSONException e) {
+
+                // Keys come from the objects being iterated
+                throw new IllegalStateException(e);
+            }
+            return new Entry(id, method, endpoint, path, merged, headers, dependsOn);
+        }
+
+        /**
+         * @return api version if this request can go in a batch request, null otherwise
+         */
+        String getApiVersion() {
+            if (endpoint != RestEndpoint.INSTANCE || !headers.isEmpty() || !path.startsWith(RestRequest.SERVICES_DATA)) {
+                return null;
+            }
+            return RequestBatcher.getApiVersion(toRestRequest());
+        }
+
+        RestRequest toRestRequest() {
+            return new RestRequest(method, endpoint, path, body, headers.isEmpty() ? null : headers);
+        }
+
+        JSONObject toJSON() throws JSONException {
+            final JSONObject json = new JSONObject();
+            json.put(ID, id);
+            json.put(METHOD, method.name());
+            json.put(ENDPOINT, endpoint.name());
+            json.put(PATH, path);
+            if (body != null) {
+                json.put(BODY, body);
+            }
+            json.put(HEADERS, new JSONObject(headers));
+            json.put(DEPENDS_ON, new JSONArray(dependsOn));
+            return json;
+        }
+
+        static Entry fromJSON(JSONObject json) throws JSONException {
+            final Map<String, String> headers = new HashMap<>();
+            final JSONObject headersJson = json.getJSONObject(HEADERS);
+            final Iterator<String> names = headersJson.keys();
+            while (names.hasNext()) {
+                final String name = names.next();
+                headers.put(name, headersJson.getString(name));
+            }
+            final List<String> dependsOn = new ArrayList<>();
+            final JSONArray dependsOnJson = json.getJSONArray(DEPENDS_ON);
+            for (int i = 0; i < dependsOnJson.length(); i++) {
+                dependsOn.add(dependsOnJson.getString(i));
+            }
+            return new Entry(json.getString(ID), RestMethod.valueOf(json.getString(METHOD)),
+                    RestEndpoint.valueOf(json.getString(ENDPOINT)), json.getString(PATH),
+                    json.optJSONObject(BODY), headers, dependsOn);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import com.salesforce.androidsdk.rest.RestClient.AsyncRequestCallback;
+import com.salesforce.androidsdk.rest.RestRequest.Priority;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Packs GET requests sent asynchronously within a short window into composite batch requests.
+ * Each caller gets its own RestResponse built from its sub-response.
+ * Only requests a batch can carry unchanged are batched (see {@link #isBatchable(RestRequest)}).
+ */
+class RequestBatcher {
+
+    private static final String TAG = "RequestBatcher";
+
+    /**
+     * Maximum number of sub requests in a batch request
+     */
+    static final int MAX_BATCH_SIZE = 25;
+
+    static final String RESULTS = "results";
+    private static final String STATUS_CODE = "statusCode";
+    private static final String RESULT = "result";
+
+    private final RestClient restClient;
+    private final long windowMillis;
+    private final Map<String, List<BatchedCall>> apiVersionToPending = new HashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Constructor
+     *
+     * @param restClient Rest client sending the batch requests.
+     * @param windowMillis How long to wait for more requests after the first one.
+     */
+    RequestBatcher(RestClient restClient, long windowMillis) {
+        this.restClient = restClient;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param restRequest Request.
+     * @return True - if the request can go in a batch request, False - otherwise.
+     */
+    static boolean isBatchable(RestRequest restRequest) {
+        final Map<String, String> headers = restRequest.getAdditionalHttpHeaders();
+        return restRequest.getMethod() == RestMethod.GET
+                && restRequest.getEndpoint() == RestRequest.RestEndpoint.INSTANCE
+                && restRequest.getPath().startsWith(RestRequest.SERVICES_DATA)
+                && getApiVersion(restRequest) != null
+                && (headers == null || headers.isEmpty())
+                && restRequest.getCachePolicy() == RestRequest.CachePolicy.IGNORE_CACHE;
+    }
+
+    /**
+     * Adds a request to the next batch.
+     *
+     * @param restRequest Request.
+     * @param callback Callback.
+     * @return call that can be used to cancel the request
+     */
+    Call enqueue(RestRequest restRequest, AsyncRequestCallback callback) {
+        final String apiVersion = getApiVersion(restRequest);
+        final BatchedCall call = new BatchedCall(restRequest, callback);
+        List<BatchedCall> full = null;
+        synchronized (apiVersionToPending) {
+            List<BatchedCall> pending = apiVersionToPending.get(apiVersion);
+            if (pending == null) {
+                pending = new ArrayList<>();
+                apiVersionToPending.put(apiVersion, pending);
+                scheduleFlush(apiVersion, pending);
+            }
+            pending.add(call);
+            if (pending.size() == MAX_BATCH_SIZE) {
+                apiVersionToPending.remove(apiVersion);
+                full = pending;
+            }
+        }
+        if (full != null) {
+            send(apiVersion, full);
+        }
+        return call;
+    }
+
+    /**
+     * Stops the scheduler, pending requests get sent right away.
+     */
+    void shutdown() {
+        final Map<String, List<BatchedCall>> pending;
+        synchronized (apiVersionToPending) {
+            pending = new HashMap<>(apiVersionToPending);
+            apiVersionToPending.clear();
+        }
+        scheduler.shutdown();
+        for (Map.Entry<String, List<BatchedCall>> entry : pending.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void scheduleFlush(final String apiVersion, final List<BatchedCall> pending) {
+        scheduler.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (apiVersionToPending) {
+
+                    // Already sent if it filled up before the window closed
+                    if (apiVersionToPending.get(apiVersion) != pending) {
+                        return;
+                    }
+                    apiVersionToPending.remove(apiVersion);
+                }
+                send(apiVersion, pending);
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(String apiVersion, List<BatchedCall> calls) {
+        final List<BatchedCall> live = new ArrayList<>();
+        for (BatchedCall call : calls) {
+            if (!call.isCanceled()) {
+                live.add(call);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+
+        // No point in batching a single request
+        if (live.size() == 1) {
+            live.get(0).sendAlone();
+            return;
+        }
+        final List<RestRequest> requests = new ArrayList<>();
+        Priority priority = Priority.LOW;
+        for (BatchedCall call : live) {
+            requests.add(call.restRequest);
+            if (call.restRequest.getPriority().compareTo(priority) < 0) {
+                priority = call.restRequest.getPriority();
+            }
+        }
+        final RestRequest batchRequest;
+        try {
+            batchRequest = RestRequest.getBatchRequest(apiVersion, false, requests);
+        } catch (JSONException e) {
+            SalesforceSDKLogger.e(TAG, "Could not build batch request, sending requests one by one", e);
+            for (BatchedCall call : live) {
+                call.sendAlone();
+            }
+            return;
+        }
+        batchRequest.setPriority(priority);
+        SalesforceSDKLogger.d(TAG, "Sending " + live.size() + " requests in a batch");
+        restClient.newCall(batchRequest).enqueue(new Callback() {
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                for (BatchedCall batchedCall : live) {
+                    batchedCall.deliverError(e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                fanOut(live, response);
+            }
+        });
+    }
+
+    private void fanOut(List<BatchedCall> calls, Response batchResponse) {
+        final JSONArray results;
+        try {
+            if (!batchResponse.isSuccessful()) {
+                throw new IOException("Batch request failed with status " + batchResponse.code());
+            }
+            results = new JSONObject(batchResponse.body().string()).getJSONArray(RESULTS);
+            if (results.length() != calls.size()) {
+                throw new IOException("Batch response has " + results.length() + " results for " + calls.size() + " requests");
+            }
+        } catch (IOException | JSONException e) {
+
+            // Batch endpoint unusable, the requests may still go through on their own
+            SalesforceSDKLogger.w(TAG, "Batch failed, sending requests one by one", e);
+            for (BatchedCall call : calls) {
+                call.sendAlone();
+            }
+            return;
+        } finally {
+            batchResponse.close();
+        }
+        for (int i = 0; i < calls.size(); i++) {
+            final BatchedCall call = calls.get(i);
+            call.deliverResponse(buildSubResponse(call.request(), results.optJSONObject(i), batchResponse));
+        }
+    }
+
+    /**
+     * Builds the response of a sub request from its entry in the results of a batch response.
+     *
+     * @param request Sub request.
+     * @param result Entry for the sub request in the results of the batch response.
+     * @param batchResponse Batch response.
+     * @return response of the sub request
+     */
+    static Response buildSubResponse(Request request, JSONObject result, Response batchResponse) {
+        final int statusCode = result != null ? result.optInt(STATUS_CODE, HttpURLConnection.HTTP_INTERNAL_ERROR)
+                : HttpURLConnection.HTTP_INTERNAL_ERROR;
+        final Object body = result != null ? result.opt(RESULT) : null;
+        final String bodyStr = body == null || body == JSONObject.NULL ? "" : body.toString();
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(statusCode)
+                .message("")
+                .body(ResponseBody.create(RestRequest.MEDIA_TYPE_JSON, bodyStr))
+                .sentRequestAtMillis(batchResponse.sentRequestAtMillis())
+                .receivedResponseAtMillis(batchResponse.receivedResponseAtMillis())
+                .build();
+    }
+
+    /**
+     * @param restRequest Request.
+     * @return api version in the path of the request (e.g. v42.0), null if none
+     */
+    static String getApiVersion(RestRequest restRequest) {
+        final String path = restRequest.getPath();
+        final int start = RestRequest.SERVICES_DATA.length();
+        final int end = path.indexOf('/', start);
+        if (end <= start) {
+            return null;
+        }
+        final String apiVersion = path.substring(start, end);
+        return apiVersion.startsWith("v") ? apiVersion : null;
+    }
+
+    /**
+     * Call standing for a request waiting to be batched or in a batch in flight
+     */
+    private class BatchedCall implements Call {
+
+        private final RestRequest restRequest;
+        private final AsyncRequestCallback callback;
+        private final Request request;
+        private volatile boolean canceled;
+        private volatile Call aloneCall;
+
+        BatchedCall(RestRequest restRequest, AsyncRequestCallback callback) {
+            this.restRequest = restRequest;
+            this.callback = callback;
+            this.request = restClient.buildRequest(restRequest);
+        }
+
+        void sendAlone() {
+            if (canceled) {
+                return;
+            }
+            aloneCall = restClient.getOkHttpClient().newCall(request);
+            aloneCall.enqueue(new Callback() {
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    deliverError(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    deliverResponse(response);
+                }
+            });
+        }
+
+        void deliverResponse(Response response) {
+            if (canceled) {
+                response.close();
+                deliverError(new IOException("Canceled"));
+                return;
+            }
+            callback.onSuccess(restRequest, new RestResponse(response));
+        }
+
+        void deliverError(Exception e) {
+            callback.onError(e);
+        }
+
+        @Override
+        public Request request() {
+            return request;
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            throw new IllegalStateException("Already Executed");
+        }
+
+        @Override
+        public void enqueue(Callback responseCallback) {
+            throw new IllegalStateException("Already Executed");
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            final Call call = aloneCall;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public Call clone() {
+            return restClient.getOkHttpClient().newCall(request);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import com.salesforce.androidsdk.rest.RestRequest.Priority;
+import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Interceptor that retries failed requests and limits the number of requests in flight per host.
+ * <ul>
+ * <li> Retries are driven by the {@link RetryPolicy} of the {@link RestRequest} if it has one, by the interceptor's otherwise.</li>
+ * <li> Requests waiting for a host go out by {@link Priority} (first come first served within a priority),
+ * so interactive requests jump ahead of background sync traffic, whether they are sent synchronously or asynchronously.</li>
+ * <li> A request stays in flight until its response body is read to the end or closed.</li>
+ * </ul>
+ */
+public class ResilienceInterceptor implements Interceptor {
+
+    private static final String TAG = "ResilienceInterceptor";
+
+    /**
+     * Default maximum number of requests in flight per host
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 10;
+
+    // Waits between attempts are cut in slices, so that a canceled call stops waiting promptly
+    private static final long MAX_SLEEP_SLICE_MILLIS = 250;
+
+    private final Map<String, HostPermits> hostToPermits = new HashMap<>();
+    private volatile RetryPolicy retryPolicy;
+    private volatile int maxRequestsPerHost;
+
+    /**
+     * Constructor
+     *
+     * @param retryPolicy Retry policy for requests that don't have their own.
+     * @param maxRequestsPerHost Maximum number of requests in flight per host.
+     */
+    public ResilienceInterceptor(RetryPolicy retryPolicy, int maxRequestsPerHost) {
+        this.retryPolicy = retryPolicy;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * @return retry policy for requests that don't have their own
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy retry policy for requests that don't have their own
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return maximum number of requests in flight per host
+     */
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * @param maxRequestsPerHost maximum number of requests in flight per host (applies to hosts not seen yet)
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * @param host host
+     * @return number of requests in flight for the given host
+     */
+    public int getInFlightCount(String host) {
+        return getHostPermits(host).getInFlightCount();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        final Object tag = request.tag();
+        final RestRequest restRequest = tag instanceof RestRequest ? (RestRequest) tag : null;
+        final RetryPolicy policy = restRequest != null && restRequest.getRetryPolicy() != null ? restRequest.getRetryPolicy() : retryPolicy;
+        final Priority priority = restRequest != null ? restRequest.getPriority() : Priority.NORMAL;
+        final HostPermits permits = getHostPermits(request.url().host());
+        for (int retry = 0; ; retry++) {
+            Response response = null;
+            IOException exception = null;
+            permits.acquire(priority);
+            final Permit permit = new Permit(permits);
+            try {
+                response = holdUntilClosed(chain.proceed(request), permit);
+            } catch (IOException e) {
+                exception = e;
+            } finally {
+                if (response == null) {
+                    permit.release();
+                }
+            }
+
+            // Done or giving up
+            final boolean retryable = retry < policy.getMaxRetries() && !chain.call().isCanceled() && (response != null
+                    ? policy.shouldRetry(request, response) : policy.shouldRetry(request, exception));
+            final long delayMillis = retryable ? policy.getDelayMillis(retry + 1, response) : -1;
+            if (delayMillis < 0) {
+                if (exception != null) {
+                    throw exception;
+                }
+                return response;
+            }
+            SalesforceSDKLogger.i(TAG, "Retrying " + request.method() + " " + request.url().encodedPath() + " in " + delayMillis + " ms, "
+                    + (response != null ? "got " + response.code() : "got " + exception));
+            if (response != null) {
+                response.close();
+            }
+            final long retryAt = System.currentTimeMillis() + delayMillis;
+            for (long remaining = delayMillis; remaining > 0; remaining = retryAt - System.currentTimeMillis()) {
+                if (chain.call().isCanceled()) {
+                    throw new IOException("Canceled");
+                }
+                try {
+                    Thread.sleep(Math.min(remaining, MAX_SLEEP_SLICE_MILLIS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to retry");
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the permit until the response body is done with, so that large downloads count against the host limit
+     */
+    private static Response holdUntilClosed(Response response, Permit permit) {
+        final ResponseBody body = response.body();
+        if (body == null) {
+            permit.release();
+            return response;
+        }
+        return response.newBuilder().body(new PermitResponseBody(body, permit)).build();
+    }
+
+    private HostPermits getHostPermits(String host) {
+        synchronized (hostToPermits) {
+            HostPermits permits = hostToPermits.get(host);
+            if (permits == null) {
+                permits = new HostPermits(maxRequestsPerHost);
+                hostToPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * Permits to send requests to a host, handed out by priority
+     */
+    static class HostPermits {
+
+        private final int maxInFlight;
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+        private int inFlight;
+        private long sequence;
+
+        HostPermits(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        synchronized int getInFlightCount() {
+            return inFlight;
+        }
+
+        synchronized void acquire(Priority priority) throws InterruptedIOException {
+            if (inFlight < maxInFlight && waiters.isEmpty()) {
+                inFlight++;
+                return;
+            }
+            final Waiter waiter = new Waiter(priority, sequence++);
+            waiters.add(waiter);
+            while (!waiter.granted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    if (waiter.granted) {
+                        release();
+                    } else {
+                        waiters.remove(waiter);
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to send request");
+                }
+            }
+        }
+
+        synchronized void release() {
+            final Waiter next = waiters.poll();
+            if (next != null) {
+
+                // Permit goes straight to the next waiter, in flight count is unchanged
+                next.granted = true;
+                notifyAll();
+            } else {
+                inFlight--;
+            }
+        }
+    }
+
+    /**
+     * Permit held by one attempt, released only once
+     */
+    private static class Permit {
+
+        private final HostPermits permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(HostPermits permits) {
+            this.permits = permits;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+
+    private static class PermitResponseBody extends ResponseBody {
+
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        PermitResponseBody(ResponseBody delegate, Permit permit) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new PermitSource(delegate.source(), permit));
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+
+    private static class PermitSource extends ForwardingSource {
+
+        private final Permit permit;
+
+        PermitSource(Source delegate, Permit permit) {
+            super(delegate);
+            this.permit = permit;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            final long read = super.read(sink, byteCount);
+            if (read == -1) {
+                permit.release();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                permit.release();
+            }
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+
+        final Priority priority;
+        final long sequence;
+        boolean granted;
+
+        Waiter(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            final int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.rest.RestRequest.CachePolicy;
+import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.ByteString;
+
+/**
+ * Interceptor that keeps an encrypted on-disk cache of GET responses.
+ * Only requests built from a {@link RestRequest} whose cache policy is not {@link CachePolicy#IGNORE_CACHE} go through the cache.
+ * Cached responses are revalidated with If-None-Match / If-Modified-Since, a 304 from the server is answered with the cached body.
+ * Least recently used entries get evicted once the cache grows past its maximum size.
+ */
+public class ResponseCacheInterceptor implements Interceptor {
+
+    private static final String TAG = "ResponseCacheInterceptor";
+
+    /**
+     * Default maximum size of the cache of one user
+     */
+    public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024;
+
+    // Headers
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String CACHE_CONTROL = "Cache-Control";
+    private static final String NO_STORE = "no-store";
+
+    // Entries are written to a temporary file first
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // Keys in cache entries
+    private static final String CODE = "code";
+    private static final String MESSAGE = "message";
+    private static final String HEADERS = "headers";
+    private static final String BODY = "body";
+
+    private final File directory;
+    private final long maxSize;
+    private final String encryptionKey;
+
+    // Entry file name to entry size, least recently used first (null until first read from disk)
+    private LinkedHashMap<String, Long> entries;
+    private long size;
+
+    // Statistics
+    private int requestCount;
+    private int networkCount;
+    private int hitCount;
+
+    /**
+     * Constructor
+     *
+     * @param directory Directory where the cache entries are stored.
+     * @param maxSize Maximum size in bytes of the cache entries.
+     * @param encryptionKey Key used to encrypt the cache entries.
+     */
+    public ResponseCacheInterceptor(File directory, long maxSize, String encryptionKey) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.encryptionKey = encryptionKey;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        final CachePolicy cachePolicy = getCachePolicy(request);
+        if (cachePolicy == CachePolicy.IGNORE_CACHE || !"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+        synchronized (this) {
+            requestCount++;
+        }
+        final String key = getKey(request);
+        final JSONObject cached = get(key);
+
+        // Using cached response without contacting the server
+        if (cached != null && cachePolicy == CachePolicy.RETURN_CACHE_ELSE_LOAD) {
+            synchronized (this) {
+                hitCount++;
+            }
+            return buildResponse(request, cached, null);
+        }
+
+        // Asking server whether cached response is still valid
+        Request networkRequest = request;
+        if (cached != null) {
+            final Headers cachedHeaders = toHeaders(cached);
+            final Request.Builder builder = request.newBuilder();
+            final String etag = cachedHeaders.get(ETAG);
+            final String lastModified = cachedHeaders.get(LAST_MODIFIED);
+            if (etag != null && request.header(IF_NONE_MATCH) == null) {
+                builder.header(IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null && request.header(IF_MODIFIED_SINCE) == null) {
+                builder.header(IF_MODIFIED_SINCE, lastModified);
+            }
+            networkRequest = builder.build();
+        }
+        final Response response = chain.proceed(networkRequest);
+        synchronized (this) {
+            networkCount++;
+        }
+        if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+            response.close();
+            synchronized (this) {
+                hitCount++;
+            }
+            return buildResponse(request, cached, response);
+        }
+        if (response.code() == HttpURLConnection.HTTP_OK && isCacheable(response) && fitsInEntry(response.body())) {
+            final ResponseBody body = response.body();
+            final MediaType contentType = body.contentType();
+            final byte[] bytes = body.bytes();
+            put(key, response, bytes);
+            return response.newBuilder().body(ResponseBody.create(contentType, bytes)).build();
+        }
+
+        // Cached response is gone or can no longer be cached (server errors leave it alone)
+        if (cached != null && (response.isSuccessful() || response.code() == HttpURLConnection.HTTP_NOT_FOUND)) {
+            remove(key);
+        }
+        return response;
+    }
+
+    /**
+     * @return number of requests that went through the cache
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return number of requests that went through the cache and were sent to the server
+     */
+    public synchronized int getNetworkCount() {
+        return networkCount;
+    }
+
+    /**
+     * @return number of requests that were answered with a cached body (with or without revalidation)
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return size in bytes of the cache entries
+     */
+    public synchronized long getSize() {
+        loadEntries();
+        return size;
+    }
+
+    /**
+     * Removes all the cache entries
+     */
+    public synchronized void evictAll() {
+        loadEntries();
+        for (String fileName : entries.keySet()) {
+            new File(directory, fileName).delete();
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    private CachePolicy getCachePolicy(Request request) {
+        final Object tag = request.tag();
+        return tag instanceof RestRequest ? ((RestRequest) tag).getCachePolicy() : CachePolicy.IGNORE_CACHE;
+    }
+
+    private String getKey(Request request) {
+        return ByteString.encodeUtf8(request.url().toString()).md5().hex();
+    }
+
+    private boolean isCacheable(Response response) {
+        if (response.body() == null) {
+            return false;
+        }
+        final String cacheControl = response.header(CACHE_CONTROL);
+        return cacheControl == null || !cacheControl.contains(NO_STORE);
+    }
+
+    /**
+     * Bodies of unknown length are buffered up to the maximum entry size, larger ones bypass the cache
+     * (the buffered bytes stay in the body's source, so the caller still gets the whole body)
+     */
+    private boolean fitsInEntry(ResponseBody body) throws IOException {
+        final long maxEntrySize = maxSize / 2;
+        final long contentLength = body.contentLength();
+        if (contentLength != -1) {
+            return contentLength <= maxEntrySize;
+        }
+        return !body.source().request(maxEntrySize + 1);
+    }
+
+    private Response buildResponse(Request request, JSONObject cached, Response networkResponse) {
+        final Headers.Builder headersBuilder = toHeaders(cached).newBuilder();
+
+        // Fresher validators from the 304 response
+        if (networkResponse != null) {
+            for (String name : Arrays.asList(ETAG, LAST_MODIFIED)) {
+                final String value = networkResponse.header(name);
+                if (value != null) {
+                    headersBuilder.set(name, value);
+                }
+            }
+        }
+        final Headers headers = headersBuilder.build();
+        final String contentType = headers.get("Content-Type");
+        final byte[] body = ByteString.decodeBase64(cached.optString(BODY)).toByteArray();
+        return new Response.Builder()
+                .request(request)
+                .protocol(networkResponse != null ? networkResponse.protocol() : Protocol.HTTP_1_1)
+                .code(cached.optInt(CODE))
+                .message(cached.optString(MESSAGE))
+                .headers(headers)
+                .body(ResponseBody.create(contentType == null ? null : MediaType.parse(contentType), body))
+                .build();
+    }
+
+    private Headers toHeaders(JSONObject cached) {
+        final Headers.Builder builder = new Headers.Builder();
+        final JSONArray headers = cached.optJSONArray(HEADERS);
+        if (headers != null) {
+            for (int i = 0; i < headers.length() - 1; i += 2) {
+                builder.add(headers.optString(i), headers.optString(i + 1));
+            }
+        }
+        return builder.build();
+    }
+
+    private synchronized JSONObject get(String key) {
+        loadEntries();
+        if (entries.get(key) == null) {
+            return null;
+        }
+        final File file = new File(directory, key);
+        try {
+            final String decrypted = Encryptor.decrypt(readFile(file), encryptionKey);
+            if (decrypted == null) {
+                throw new IOException("Could not decrypt cache entry");
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return new JSONObject(decrypted);
+        } catch (IOException | JSONException e) {
+            SalesforceSDKLogger.w(TAG, "Dropping unreadable cache entry", e);
+            remove(key);
+            return null;
+        }
+    }
+
+    private void put(String key, Response response, byte[] body) {
+        File tmpFile = null;
+        try {
+            final JSONArray headers = new JSONArray();
+            for (int i = 0; i < response.headers().size(); i++) {
+                headers.put(response.headers().name(i));
+                headers.put(response.headers().value(i));
+            }
+            final JSONObject entry = new JSONObject();
+            entry.put(CODE, response.code());
+            entry.put(MESSAGE, response.message());
+            entry.put(HEADERS, headers);
+            entry.put(BODY, ByteString.of(body).base64());
+            final byte[] encrypted = Encryptor.encryptBytes(entry.toString(), encryptionKey);
+            if (encrypted == null) {
+                return;
+            }
+            directory.mkdirs();
+
+            // Writing outside of the lock, the entry only shows up once renamed
+            tmpFile = File.createTempFile(key, TMP_SUFFIX, directory);
+            writeFile(tmpFile, encrypted);
+            commit(key, tmpFile, encrypted.length);
+        } catch (IOException | JSONException e) {
+            SalesforceSDKLogger.w(TAG, "Could not store cache entry", e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            remove(key);
+        }
+    }
+
+    private synchronized void commit(String key, File tmpFile, long entrySize) throws IOException {
+        loadEntries();
+        if (!tmpFile.renameTo(new File(directory, key))) {
+            throw new IOException("Could not rename cache entry");
+        }
+        final Long previousSize = entries.remove(key);
+        size += entrySize - (previousSize == null ? 0 : previousSize);
+        entries.put(key, entrySize);
+        trimToSize();
+    }
+
+    private synchronized void remove(String key) {
+        loadEntries();
+        final Long entrySize = entries.remove(key);
+        if (entrySize != null) {
+            size -= entrySize;
+        }
+        new File(directory, key).delete();
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            new File(directory, eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Reads existing entries from disk, least recently used first
+     */
+    private void loadEntries() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        size = 0;
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+
+                @Override
+                public int compare(File f1, File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (File file : files) {
+
+                // Left over by an interrupted write
+                if (file.getName().endsWith(TMP_SUFFIX)) {
+                    file.delete();
+                } else if (file.isFile()) {
+                    entries.put(file.getName(), file.length());
+                    size += file.length();
+                }
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new IOException("Truncated cache entry");
+                }
+                offset += read;
+            }
+        }
+        return bytes;
+    }
+
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+}
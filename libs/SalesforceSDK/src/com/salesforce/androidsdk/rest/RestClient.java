@@ -34,19 +34,29 @@ import com.salesforce.androidsdk.util.SalesforceSDKLogger;
 
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
@@ -66,10 +76,19 @@ public class RestClient {
 	private static final String COMMUNITY_ID = "communityId";
 	private static final String COMMUNITY_URL = "communityUrl";
 	private static final String TAG = "RestClient";
+	private static final String CONTENT_ENCODING = "Content-Encoding";
+	private static final String RESPONSE_CACHE_DIR = "sf__response_cache";
+	private static final String OFFLINE_REQUESTS_DIR = "sf__offline_requests";
 
 	private static Map<String, OAuthRefreshInterceptor> OAUTH_REFRESH_INTERCEPTORS = new HashMap<>();
 	private static Map<String, OkHttpClient.Builder> OK_CLIENT_BUILDERS = new HashMap<>();
     private static Map<String, OkHttpClient> OK_CLIENTS = new HashMap<>();
+    private static Map<String, ResponseCacheInterceptor> RESPONSE_CACHES = new HashMap<>();
+    private static Map<String, ResilienceInterceptor> RESILIENCE_INTERCEPTORS = new HashMap<>();
+    private static Map<String, NetworkMetrics> NETWORK_METRICS = new HashMap<>();
+    private static Map<String, Map<List<Interceptor>, OkHttpClient>> DERIVED_CLIENTS = new HashMap<>(); // guarded by RestClient.class
+    private static final int MAX_DERIVED_CLIENTS_PER_USER = 8;
+    private static Map<String, OfflineRequestQueue> OFFLINE_QUEUES = new HashMap<>();
 
 	private ClientInfo clientInfo;
     private HttpAccess httpAccessor;
@@ -77,6 +96,7 @@ public class RestClient {
     private OAuthRefreshInterceptor oAuthRefreshInterceptor;
 	private OkHttpClient.Builder okHttpClientBuilder;
 	private OkHttpClient okHttpClient;
+    private volatile RequestBatcher requestBatcher;
 
 	/**
 	 * AuthTokenProvider interface.
@@ -153,11 +173,34 @@ public class RestClient {
 		String userId = userAccount != null ? userAccount.getUserId() : null;
 		String cacheKey = computeCacheKey(orgId, userId);
 		OAUTH_REFRESH_INTERCEPTORS.remove(cacheKey);
+		RESILIENCE_INTERCEPTORS.remove(cacheKey);
+		NETWORK_METRICS.remove(cacheKey);
 		OK_CLIENT_BUILDERS.remove(cacheKey);
+		DERIVED_CLIENTS.remove(cacheKey);
 		OkHttpClient client = OK_CLIENTS.remove(cacheKey);
 		if (client != null) {
 			client.dispatcher().cancelAll();
 		}
+
+		// Cached responses belong to the user
+		ResponseCacheInterceptor responseCache = RESPONSE_CACHES.remove(cacheKey);
+		if (responseCache == null) {
+			responseCache = createResponseCache(cacheKey);
+		}
+		if (responseCache != null) {
+			responseCache.evictAll();
+		}
+
+		// So are requests waiting for the network
+		// The queue is closed before its file is deleted, a replay in progress must not write to it
+		OfflineRequestQueue offlineQueue = OFFLINE_QUEUES.remove(cacheKey);
+		if (offlineQueue != null) {
+			offlineQueue.close();
+		}
+		final File offlineRequestsFile = getOfflineRequestsFile(cacheKey);
+		if (offlineRequestsFile != null && offlineRequestsFile.exists()) {
+			offlineRequestsFile.delete();
+		}
 	}
 
 	/**
@@ -165,8 +208,16 @@ public class RestClient {
 	 */
 	public synchronized static void clearCaches() {
 		OAUTH_REFRESH_INTERCEPTORS.clear();
+		RESILIENCE_INTERCEPTORS.clear();
+		NETWORK_METRICS.clear();
 		OK_CLIENT_BUILDERS.clear();
 		OK_CLIENTS.clear();
+		DERIVED_CLIENTS.clear();
+		RESPONSE_CACHES.clear();
+		for (OfflineRequestQueue offlineQueue : OFFLINE_QUEUES.values()) {
+			offlineQueue.close();
+		}
+		OFFLINE_QUEUES.clear();
     }
 
 	private String getCacheKey() {
@@ -203,13 +254,144 @@ public class RestClient {
 
 		// If none cached, create new one
 		if (okHttpClientBuilder == null) {
-			okHttpClientBuilder = httpAccessor.getOkHttpClientBuilder()
-					.addInterceptor(getOAuthRefreshInterceptor());
+			okHttpClientBuilder = httpAccessor.getOkHttpClientBuilder();
+
+			// Metrics go first, so that each call is recorded once whether it was retried or served from the cache
+			okHttpClientBuilder.addInterceptor(getNetworkMetrics());
+
+			// Response cache goes next, so cache hits don't need authentication
+			ResponseCacheInterceptor responseCache = getResponseCache();
+			if (responseCache != null) {
+				okHttpClientBuilder.addInterceptor(responseCache);
+			}
+
+			// Retries get authenticated again, per host limits apply to sync and async calls alike
+			okHttpClientBuilder.addInterceptor(getResilienceInterceptor());
+			okHttpClientBuilder.addInterceptor(getOAuthRefreshInterceptor());
+
+			// Per host limits are enforced by the resilience interceptor, so that waiting requests go out by priority
+			Dispatcher dispatcher = new Dispatcher();
+			dispatcher.setMaxRequestsPerHost(dispatcher.getMaxRequests());
+			okHttpClientBuilder.dispatcher(dispatcher);
+			okHttpClientBuilder.eventListenerFactory(getNetworkMetrics());
 			OK_CLIENT_BUILDERS.put(getCacheKey(), okHttpClientBuilder);
 		}
 		this.okHttpClientBuilder = okHttpClientBuilder;
 	}
 
+	/**
+	 * Returns the interceptor doing retries and per host limits for this user account.
+	 *
+	 * @return resilience interceptor.
+	 */
+	public synchronized ResilienceInterceptor getResilienceInterceptor() {
+		final String cacheKey = getCacheKey();
+		ResilienceInterceptor resilienceInterceptor = RESILIENCE_INTERCEPTORS.get(cacheKey);
+
+		// If none cached, create new one
+		if (resilienceInterceptor == null) {
+			resilienceInterceptor = new ResilienceInterceptor(RetryPolicy.NO_RETRY,
+					ResilienceInterceptor.DEFAULT_MAX_REQUESTS_PER_HOST);
+			RESILIENCE_INTERCEPTORS.put(cacheKey, resilienceInterceptor);
+		}
+		return resilienceInterceptor;
+	}
+
+	/**
+	 * Returns the network metrics collected for this user account.
+	 *
+	 * @return network metrics.
+	 */
+	public synchronized NetworkMetrics getNetworkMetrics() {
+		final String cacheKey = getCacheKey();
+		NetworkMetrics networkMetrics = NETWORK_METRICS.get(cacheKey);
+
+		// If none cached, create new one
+		if (networkMetrics == null) {
+			networkMetrics = new NetworkMetrics(NetworkMetrics.DEFAULT_MAX_RECENT_CALLS);
+			NETWORK_METRICS.put(cacheKey, networkMetrics);
+		}
+		return networkMetrics;
+	}
+
+	/**
+	 * Sets the retry policy used for requests that don't have their own.
+	 * Requests are not retried unless a policy is set, e.g. {@link RetryPolicy#DEFAULT}.
+	 *
+	 * @param retryPolicy Retry policy, {@link RetryPolicy#NO_RETRY} to make a single attempt.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		getResilienceInterceptor().setRetryPolicy(retryPolicy);
+	}
+
+	/**
+	 * Returns the HTTP response cache associated with this user account.
+	 *
+	 * @return response cache or null if the SDK has not been initialized.
+	 */
+	public synchronized ResponseCacheInterceptor getResponseCache() {
+		final String cacheKey = getCacheKey();
+		ResponseCacheInterceptor responseCache = RESPONSE_CACHES.get(cacheKey);
+
+		// If none cached, create new one
+		if (responseCache == null) {
+			responseCache = createResponseCache(cacheKey);
+			if (responseCache != null) {
+				RESPONSE_CACHES.put(cacheKey, responseCache);
+			}
+		}
+		return responseCache;
+	}
+
+	private static ResponseCacheInterceptor createResponseCache(String cacheKey) {
+		if (!SalesforceSDKManager.hasInstance() || SalesforceSDKManager.getInstance().getAppContext() == null) {
+			return null;
+		}
+		final File directory = new File(new File(SalesforceSDKManager.getInstance().getAppContext().getCacheDir(),
+				RESPONSE_CACHE_DIR), cacheKey);
+		return new ResponseCacheInterceptor(directory, ResponseCacheInterceptor.DEFAULT_MAX_SIZE,
+				SalesforceSDKManager.getEncryptionKey());
+	}
+
+	/**
+	 * Returns the queue of requests to replay when the network is available, for this user account.
+	 * The queue is started (it replays right away and whenever connectivity comes back).
+	 *
+	 * @return offline request queue or null if the SDK has not been initialized or the queue could not be opened.
+	 */
+	public OfflineRequestQueue getOfflineRequestQueue() {
+		final String cacheKey = getCacheKey();
+		synchronized (RestClient.class) {
+			OfflineRequestQueue offlineQueue = OFFLINE_QUEUES.get(cacheKey);
+
+			// If none cached, create new one
+			if (offlineQueue == null) {
+				final File file = getOfflineRequestsFile(cacheKey);
+				if (file == null) {
+					return null;
+				}
+				try {
+					offlineQueue = new OfflineRequestQueue(SalesforceSDKManager.getInstance().getAppContext(),
+							this, httpAccessor, file, SalesforceSDKManager.getEncryptionKey());
+				} catch (IOException e) {
+					SalesforceSDKLogger.e(TAG, "Failed to open offline requests", e);
+					return null;
+				}
+				OFFLINE_QUEUES.put(cacheKey, offlineQueue);
+				offlineQueue.start();
+			}
+			return offlineQueue;
+		}
+	}
+
+	private static File getOfflineRequestsFile(String cacheKey) {
+		if (!SalesforceSDKManager.hasInstance() || SalesforceSDKManager.getInstance().getAppContext() == null) {
+			return null;
+		}
+		return new File(new File(SalesforceSDKManager.getInstance().getAppContext().getFilesDir(),
+				OFFLINE_REQUESTS_DIR), cacheKey);
+	}
+
 	/**
 	 * Sets the OkHttpclient associated with this user account. The OkHttpclient
 	 * are cached in a map and reused as and when a user account
@@ -218,9 +400,13 @@ public class RestClient {
 	public synchronized void setOkHttpClient(OkHttpClient okHttpClient) {
 		final String cacheKey = getCacheKey();
 
-		// If a valid client passed in, caches it.
+		// If a valid client passed in, caches it (clients derived from the previous one are stale).
+		// Derived clients are guarded by the class lock, like in getOkHttpClient(Interceptor...) and clearCaches.
 		if (okHttpClient != null) {
 			OK_CLIENTS.put(cacheKey, okHttpClient);
+			synchronized (RestClient.class) {
+				DERIVED_CLIENTS.remove(cacheKey);
+			}
 		}
 		okHttpClient = OK_CLIENTS.get(cacheKey);
 
@@ -317,10 +503,18 @@ public class RestClient {
      * @return
      */
     public Request buildRequest(RestRequest restRequest) {
+        RequestBody requestBody = restRequest.getRequestBody();
+        final boolean gzip = requestBody != null && restRequest.getGzipRequestBody();
+        if (gzip) {
+            requestBody = new GzipRequestBody(requestBody);
+        }
         final Request.Builder builder =  new Request.Builder()
                 .url(HttpUrl.get(oAuthRefreshInterceptor.clientInfo.resolveUrl(restRequest)))
-                .method(restRequest.getMethod().toString(), restRequest.getRequestBody());
-        oAuthRefreshInterceptor.setShouldRefreshOn403(restRequest.getShouldRefreshOn403());
+                .method(restRequest.getMethod().toString(), requestBody)
+                .tag(restRequest);
+        if (gzip) {
+            builder.header(CONTENT_ENCODING, GzipRequestBody.GZIP);
+        }
 
         // Adding additional headers
         final Map<String, String> additionalHttpHeaders = restRequest.getAdditionalHttpHeaders();
@@ -340,8 +534,11 @@ public class RestClient {
 	 * @return okHttp Call object (through which you can cancel the request or get the request back)
 	 */
     public Call sendAsync(final RestRequest restRequest, final AsyncRequestCallback callback) {
-	    Request request = buildRequest(restRequest);
-		Call call = okHttpClient.newCall(request);
+        final RequestBatcher batcher = requestBatcher;
+        if (batcher != null && RequestBatcher.isBatchable(restRequest)) {
+            return batcher.enqueue(restRequest, callback);
+        }
+		Call call = newCall(restRequest);
 		call.enqueue(new Callback() {
 
             @Override
@@ -357,6 +554,28 @@ public class RestClient {
 		return call;
 	}
 
+    Call newCall(RestRequest restRequest) {
+        return okHttpClient.newCall(buildRequest(restRequest));
+    }
+
+    /**
+     * Turns on automatic batching: GET requests sent with sendAsync within the given window
+     * are packed into batch requests (up to 25 at a time) and each callback gets its own response.
+     * Only requests without additional headers or cache policy are batched.
+     * Requests sent with sendSync are never batched.
+     *
+     * @param windowMillis How long to wait for more requests after the first one, 0 to turn batching off.
+     */
+    public synchronized void setAutoBatching(long windowMillis) {
+        if (requestBatcher != null) {
+            requestBatcher.shutdown();
+            requestBatcher = null;
+        }
+        if (windowMillis > 0) {
+            requestBatcher = new RequestBatcher(this, windowMillis);
+        }
+    }
+
 	/**
 	 * Send the given restRequest synchronously and return a RestResponse
 	 * Note: Cannot be used by code on the UI thread (use sendAsync instead).
@@ -380,14 +599,49 @@ public class RestClient {
      */
     public RestResponse sendSync(RestRequest restRequest, Interceptor... interceptors) throws IOException {
         Request request = buildRequest(restRequest);
+        Response response = getOkHttpClient(interceptors).newCall(request).execute();
+        return new RestResponse(response);
+    }
 
-        // builder that shares the same connection pool, dispatcher, and configuration with the original client
-        OkHttpClient.Builder clientBuilder = getOkHttpClient().newBuilder();
-        for (Interceptor interceptor : interceptors) {
-            clientBuilder.addNetworkInterceptor(interceptor);
+    /**
+     * Returns a client that shares the connection pool, dispatcher and configuration of this client's
+     * and has the given network interceptors added.
+     * Derived clients are cached per interceptor list (interceptors are compared with equals),
+     * so interceptors that can be shared should implement equals and hashCode.
+     *
+     * @param interceptors Network interceptor(s) to add.
+     * @return derived client, or this client's if no interceptors are given.
+     */
+    public OkHttpClient getOkHttpClient(Interceptor... interceptors) {
+        final OkHttpClient baseClient = getOkHttpClient();
+        if (interceptors == null || interceptors.length == 0) {
+            return baseClient;
+        }
+        final List<Interceptor> key = Arrays.asList(interceptors);
+        final String cacheKey = getCacheKey();
+        synchronized (RestClient.class) {
+            Map<List<Interceptor>, OkHttpClient> derivedClients = DERIVED_CLIENTS.get(cacheKey);
+            if (derivedClients == null) {
+                derivedClients = new LinkedHashMap<List<Interceptor>, OkHttpClient>(MAX_DERIVED_CLIENTS_PER_USER, 0.75f, true) {
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<List<Interceptor>, OkHttpClient> eldest) {
+                        return size() > MAX_DERIVED_CLIENTS_PER_USER;
+                    }
+                };
+                DERIVED_CLIENTS.put(cacheKey, derivedClients);
+            }
+            OkHttpClient derivedClient = derivedClients.get(key);
+            if (derivedClient == null) {
+                final OkHttpClient.Builder clientBuilder = baseClient.newBuilder();
+                for (Interceptor interceptor : interceptors) {
+                    clientBuilder.addNetworkInterceptor(interceptor);
+                }
+                derivedClient = clientBuilder.build();
+                derivedClients.put(key, derivedClient);
+            }
+            return derivedClient;
         }
-        Response response = clientBuilder.build().newCall(request).execute();
-        return new RestResponse(response);
     }
 
 	/**
@@ -621,13 +875,18 @@ public class RestClient {
 
     /**
      * Network interceptor that does oauth refresh and request retry when access token has expired.
+     * Refreshes are single-flight: while one is in progress, other requests that got a 401 wait for it
+     * and get replayed with its outcome. A request sent with a token that has since been replaced
+     * gets replayed right away with the current token.
      */
     public static class OAuthRefreshInterceptor implements Interceptor {
 
         private final AuthTokenProvider authTokenProvider;
         private String authToken;
-        private ClientInfo clientInfo;
-        private boolean shouldRefreshOn403 = true;
+        private int authTokenVersion; // incremented every time authToken is replaced
+        private FutureTask<Void> inFlightRefresh; // refresh in progress if any
+        private volatile ClientInfo clientInfo;
+        private volatile boolean shouldRefreshOn403 = true;
 
         /**
          * Constructs a SalesforceHttpInterceptor with the given clientInfo, authToken and authTokenProvider.
@@ -650,10 +909,16 @@ public class RestClient {
         @Override
         public Response intercept(Chain chain) throws IOException {
             Request request = chain.request();
-            request = buildAuthenticatedRequest(request);
+            final String usedAuthToken;
+            final int usedAuthTokenVersion;
+            synchronized (this) {
+                usedAuthToken = authToken;
+                usedAuthTokenVersion = authTokenVersion;
+            }
+            request = buildAuthenticatedRequest(request, usedAuthToken);
             Response response = chain.proceed(request);
 			int responseCode = response.code();
-			boolean refreshRequired = shouldRefreshOn403 ? (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED
+			boolean refreshRequired = getShouldRefreshOn403(request) ? (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED
                     || responseCode == HttpURLConnection.HTTP_FORBIDDEN) : (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED);
 
 			/*
@@ -661,9 +926,15 @@ public class RestClient {
 			 * return 403 as the error code when an instance split or migration occurs.
 			 */
             if (refreshRequired) {
-                refreshAccessToken();
-                if (getAuthToken() != null) {
-                    request = buildAuthenticatedRequest(request);
+                try {
+                    refreshAccessToken(usedAuthTokenVersion);
+                } catch (IOException | RuntimeException e) {
+                    response.close();
+                    throw e;
+                }
+                final String newAuthToken = getAuthToken();
+                if (newAuthToken != null) {
+                    request = buildAuthenticatedRequest(request, newAuthToken);
 					HttpUrl currentInstanceUrl = HttpUrl.get(clientInfo.getInstanceUrl());
 					if (currentInstanceUrl != null && currentInstanceUrl.host() != null) {
 
@@ -673,6 +944,9 @@ public class RestClient {
 							request = adjustHostInRequest(request, currentInstanceUrl.host());
 						}
 					}
+
+                    // The 401 is only discarded once it is replaced by the retried response
+                    response.close();
                     response = chain.proceed(request);
                 }
             }
@@ -690,6 +964,7 @@ public class RestClient {
 
         /**
          * Sets whether the SDK should attempt to refresh tokens if the service returns HTTP 403.
+         * Only applies to requests not built from a RestRequest, which carries its own setting.
          *
          * @param shouldRefreshOn403 True - if the SDK should refresh on HTTP 403, False - otherwise.
          */
@@ -697,6 +972,11 @@ public class RestClient {
             this.shouldRefreshOn403 = shouldRefreshOn403;
         }
 
+        private boolean getShouldRefreshOn403(Request request) {
+            final Object tag = request.tag();
+            return tag instanceof RestRequest ? ((RestRequest) tag).getShouldRefreshOn403() : shouldRefreshOn403;
+        }
+
 		/**
 		 * Build new request which has the new host. This is essential in case of instance migration
 		 *
@@ -717,11 +997,12 @@ public class RestClient {
 		/**
          * Build new request which has authentication header
          * @param request
+         * @param authToken
          * @return
          */
-        private Request buildAuthenticatedRequest(Request request) {
+        private Request buildAuthenticatedRequest(Request request, String authToken) {
             Request.Builder builder = request.newBuilder();
-            setAuthHeader(builder);
+            setAuthHeader(builder, authToken);
             return builder.build();
         }
 
@@ -736,8 +1017,9 @@ public class RestClient {
          * Set auth header
          *
          * @param builder
+         * @param authToken
          */
-        private void setAuthHeader(Request.Builder builder) {
+        private void setAuthHeader(Request.Builder builder, String authToken) {
             if (authToken != null) { //Add Auth token to each request if authorized
                 OAuth2.addAuthorizationHeader(builder, authToken);
             }
@@ -750,6 +1032,7 @@ public class RestClient {
          */
         private synchronized void setAuthToken(String newAuthToken) {
             authToken = newAuthToken;
+            authTokenVersion++;
         }
 
         /**
@@ -771,6 +1054,53 @@ public class RestClient {
             }
         }
 
+        /**
+         * Swaps the access token of the given version for a new one.
+         * Does nothing if that token was already replaced. Waits for the refresh in progress if there is one.
+         *
+         * @param usedAuthTokenVersion Version of the access token that was rejected by the server.
+         */
+        private void refreshAccessToken(int usedAuthTokenVersion) throws IOException {
+            final FutureTask<Void> refresh;
+            boolean owner = false;
+            synchronized (this) {
+                if (usedAuthTokenVersion != authTokenVersion) {
+                    return;
+                }
+                if (inFlightRefresh == null) {
+                    inFlightRefresh = new FutureTask<>(new Callable<Void>() {
+
+                        @Override
+                        public Void call() throws Exception {
+                            refreshAccessToken();
+                            return null;
+                        }
+                    });
+                    owner = true;
+                }
+                refresh = inFlightRefresh;
+            }
+            if (owner) {
+                refresh.run();
+                synchronized (this) {
+                    inFlightRefresh = null;
+                }
+            }
+            try {
+                refresh.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for token refresh");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("Could not refresh token", cause);
+            }
+        }
+
         /**
          * Swaps the existing access token for a new one.
          */
@@ -785,9 +1115,6 @@ public class RestClient {
                     throw new RefreshTokenRevokedException("Could not refresh token");
                 }
 
-                // Use new token
-                setAuthToken(newAuthToken);
-
                 // Check if the instanceUrl changed
                 String instanceUrl = authTokenProvider.getInstanceUrl();
                 if (!clientInfo.instanceUrl.toString().equalsIgnoreCase(instanceUrl)) {
@@ -805,6 +1132,9 @@ public class RestClient {
                         SalesforceSDKLogger.w(TAG, "Invalid server URL", ex);
                     }
                 }
+
+                // Use new token (once the instance url is current, since waiting requests get replayed against it)
+                setAuthToken(newAuthToken);
             }
         }
 
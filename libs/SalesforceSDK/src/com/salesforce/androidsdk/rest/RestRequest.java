@@ -126,6 +126,48 @@ public class RestRequest {
 		GET, POST, PUT, DELETE, HEAD, PATCH
 	}
 
+    /**
+     * Enumeration for the ways a request can use the HTTP response cache of its RestClient.
+     */
+    public enum CachePolicy {
+
+        /**
+         * Neither read from nor write to the cache.
+         */
+        IGNORE_CACHE,
+
+        /**
+         * Revalidate the cached response with the server (ETag / Last-Modified) and use it if it has not changed.
+         */
+        REVALIDATE,
+
+        /**
+         * Use the cached response without contacting the server, load from the server if there is none.
+         */
+        RETURN_CACHE_ELSE_LOAD
+    }
+
+    /**
+     * Enumeration for the priorities of requests waiting to be sent to a busy host (highest first).
+     */
+    public enum Priority {
+
+        /**
+         * Requests a user is waiting on.
+         */
+        HIGH,
+
+        /**
+         * Default priority.
+         */
+        NORMAL,
+
+        /**
+         * Background traffic such as sync.
+         */
+        LOW
+    }
+
     /**
      * Enumeration for all REST API endpoints.
      */
@@ -173,6 +215,10 @@ public class RestRequest {
 	private final Map<String, String> additionalHttpHeaders;
 	private final JSONObject requestBodyAsJson; // needed for composite and batch requests
     private boolean shouldRefreshOn403 = true;
+    private CachePolicy cachePolicy = CachePolicy.IGNORE_CACHE;
+    private boolean gzipRequestBody;
+    private Priority priority = Priority.NORMAL;
+    private RetryPolicy retryPolicy;
 
     /**
      * Generic constructor for arbitrary requests without a body.
@@ -346,6 +392,79 @@ public class RestRequest {
         this.shouldRefreshOn403 = shouldRefreshOn403;
     }
 
+    /**
+     * Returns how the request uses the HTTP response cache.
+     *
+     * @return Cache policy, {@link CachePolicy#IGNORE_CACHE} unless set otherwise.
+     */
+    public synchronized CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * Sets how the request uses the HTTP response cache. Only GET requests are ever cached.
+     *
+     * @param cachePolicy Cache policy.
+     */
+    public synchronized void setCachePolicy(CachePolicy cachePolicy) {
+        this.cachePolicy = cachePolicy;
+    }
+
+    /**
+     * Returns whether the request body gets gzip compressed when sent.
+     *
+     * @return True - if the body is sent with Content-Encoding gzip, False - otherwise.
+     */
+    public synchronized boolean getGzipRequestBody() {
+        return gzipRequestBody;
+    }
+
+    /**
+     * Sets whether the request body gets gzip compressed when sent (Content-Encoding: gzip).
+     * Worth it for large JSON payloads, the Salesforce REST API accepts compressed requests.
+     *
+     * @param gzipRequestBody True - to compress the body, False - otherwise.
+     */
+    public synchronized void setGzipRequestBody(boolean gzipRequestBody) {
+        this.gzipRequestBody = gzipRequestBody;
+    }
+
+    /**
+     * Returns the priority of the request when waiting to be sent to a busy host.
+     *
+     * @return Priority, {@link Priority#NORMAL} unless set otherwise.
+     */
+    public synchronized Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of the request when waiting to be sent to a busy host.
+     *
+     * @param priority Priority.
+     */
+    public synchronized void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the retry policy of the request.
+     *
+     * @return Retry policy, or null to use the one of the RestClient.
+     */
+    public synchronized RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the retry policy of the request.
+     *
+     * @param retryPolicy Retry policy, or null to use the one of the RestClient.
+     */
+    public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
 	/**
 	 * Request to get information about the user making the request.
 	 * @return RestRequest object that requests user info.
@@ -384,7 +503,7 @@ public class RestRequest {
      * @see <a href="http://www.salesforce.com/us/developer/docs/api_rest/Content/resources_describeGlobal.htm">http://www.salesforce.com/us/developer/docs/api_rest/Content/resources_describeGlobal.htm</a>
 	 */
 	public static RestRequest getRequestForDescribeGlobal(String apiVersion) {
-		return new RestRequest(RestMethod.GET, RestAction.DESCRIBE_GLOBAL.getPath(apiVersion));
+		return withCachePolicy(new RestRequest(RestMethod.GET, RestAction.DESCRIBE_GLOBAL.getPath(apiVersion)), CachePolicy.REVALIDATE);
 	}
 
 	/**
@@ -396,7 +515,7 @@ public class RestRequest {
 	 * @see <a href="http://www.salesforce.com/us/developer/docs/api_rest/Content/resources_sobject_basic_info.htm">http://www.salesforce.com/us/developer/docs/api_rest/Content/resources_sobject_basic_info.htm</a>
 	 */
 	public static RestRequest getRequestForMetadata(String apiVersion, String objectType) {
-        return new RestRequest(RestMethod.GET, RestAction.METADATA.getPath(apiVersion, objectType));
+        return withCachePolicy(new RestRequest(RestMethod.GET, RestAction.METADATA.getPath(apiVersion, objectType)), CachePolicy.REVALIDATE);
 	}
 
 	/**
@@ -408,7 +527,7 @@ public class RestRequest {
      * @see <a href="http://www.salesforce.com/us/developer/docs/api_rest/Content/resources_sobject_describe.htm">http://www.salesforce.com/us/developer/docs/api_rest/Content/resources_sobject_describe.htm</a>
 	 */
 	public static RestRequest getRequestForDescribe(String apiVersion, String objectType) {
-        return new RestRequest(RestMethod.GET, RestAction.DESCRIBE.getPath(apiVersion, objectType));
+        return withCachePolicy(new RestRequest(RestMethod.GET, RestAction.DESCRIBE.getPath(apiVersion, objectType)), CachePolicy.REVALIDATE);
 	}
 	
 	/**
@@ -594,7 +713,7 @@ public class RestRequest {
             path.append("?layoutType=");
             path.append(layoutType);
         }
-		return new RestRequest(RestMethod.GET, path.toString());
+		return withCachePolicy(new RestRequest(RestMethod.GET, path.toString()), CachePolicy.REVALIDATE);
 	}
 
     /**
@@ -677,11 +796,15 @@ public class RestRequest {
      * @see <a href="https://developer.salesforce.com/docs/atlas.en-us.api_rest.meta/api_rest/resources_composite_sobject_tree.htm">https://developer.salesforce.com/docs/atlas.en-us.api_rest.meta/api_rest/resources_composite_sobject_tree.htm</a>
      */
     public static RestRequest getRequestForSObjectTree(String apiVersion, String objectType, List<SObjectTree> objectTrees) throws JSONException {
-        JSONArray jsonTrees = new JSONArray();
-        for (SObjectTree objectTree : objectTrees) {
-            jsonTrees.put(objectTree.asJSON());
-        }
-        RequestBody body = RequestBody.create(MEDIA_TYPE_JSON, JSONObjectHelper.makeJSONObject(RECORDS, jsonTrees).toString());
+
+        // Trees are turned into JSON one at a time as the body gets written
+        RequestBody body = new StreamingJsonRequestBody<>(null, RECORDS, objectTrees, new StreamingJsonRequestBody.Converter<SObjectTree>() {
+
+            @Override
+            public Object toJSON(SObjectTree objectTree) throws JSONException {
+                return objectTree.asJSON();
+            }
+        });
         return new RestRequest(RestMethod.POST, RestAction.SOBJECT_TREE.getPath(apiVersion, objectType), body);
     }
 
@@ -702,6 +825,18 @@ public class RestRequest {
         }
     }
 
+    /**
+     * Helper method for setting the cache policy of a request built by a factory method.
+     *
+     * @param request Request.
+     * @param cachePolicy Cache policy.
+     * @return The request.
+     */
+    private static RestRequest withCachePolicy(RestRequest request, CachePolicy cachePolicy) {
+        request.setCachePolicy(cachePolicy);
+        return request;
+    }
+
     /**
      * Helper class for getRequestForSObjectTree.
      */
@@ -26,6 +26,8 @@
  */
 package com.salesforce.androidsdk.rest;
 
+import android.util.JsonReader;
+
 import com.salesforce.androidsdk.util.SalesforceSDKLogger;
 
 import org.json.JSONArray;
@@ -34,6 +36,7 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
@@ -42,6 +45,7 @@ import java.util.Map;
 import okhttp3.MediaType;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
 
 /**
  * RestResponse: Class to represent any REST response.
@@ -54,9 +58,9 @@ public class RestResponse {
 
 	private final Response response;
 
-	// Populated when "consume" is called
+	// Populated when "consume" is called: the body is held once, in a buffer
 	private boolean consumed;
-	private byte[] responseAsBytes;
+	private Buffer responseBuffer;
 	private Charset responseCharSet;
 
 	// Lazily computed
@@ -108,19 +112,16 @@ public class RestResponse {
 	 * Must be called before returning control to the UI thread
 	 * @throws IOException
 	 */
-	public void consume() throws IOException {
+	public synchronized void consume() throws IOException {
 		if (!consumed && response != null) {
 			try {
 				ResponseBody body = response.body();
+				responseBuffer = new Buffer();
 				if (body != null) {
 					MediaType mType = body.contentType();
-					responseAsBytes = body.bytes();
 					responseCharSet = mType == null || mType.charset() == null ? StandardCharsets.UTF_8 : mType.charset();
-					if (responseAsBytes != null && responseAsBytes.length > 0) {
-						responseAsString = new String(responseAsBytes, responseCharSet);
-					}
+					body.source().readAll(responseBuffer);
 				} else {
-					responseAsBytes = new byte[0];
 					responseCharSet = StandardCharsets.UTF_8;
 				}
 			} finally {
@@ -143,14 +144,43 @@ public class RestResponse {
 	}
 
 	/**
+	 * Drops the response content and everything built from it (string, JSON).
+	 * Afterwards accessors behave as if the response had been streamed: empty content.
+	 */
+	public synchronized void release() {
+		if (!consumed && response != null) {
+			response.close();
+		}
+		consumed = true;
+		responseBuffer = new Buffer();
+		if (responseCharSet == null) {
+			responseCharSet = StandardCharsets.UTF_8;
+		}
+		responseAsString = null;
+		responseAsJSONObject = null;
+		responseAsJSONArray = null;
+	}
+
+	/**
+	 * @return number of bytes in the response content
+	 * @throws IOException
+	 */
+	public synchronized long getBodySize() throws IOException {
+		ensureConsumed();
+		return responseBuffer.size();
+	}
+
+	/**
+	 * Each call returns a new array (the content is only held once, in a buffer).
+	 *
 	 * @return byte[] for entire response
 	 * @throws IOException
 	 */
-	public byte[] asBytes() throws IOException {
-		if (responseAsBytes == null) {
-			consume();
-		}
-		return responseAsBytes;
+	public synchronized byte[] asBytes() throws IOException {
+		ensureConsumed();
+
+		// Clone shares the buffer's segments, only the returned array gets allocated
+		return responseBuffer.clone().readByteArray();
 	}
 
 	/**
@@ -167,38 +197,39 @@ public class RestResponse {
 	 * @return string for entire response
 	 * @throws IOException
 	 */
-	public String asString() throws IOException {
+	public synchronized String asString() throws IOException {
 		if (responseAsString == null) {
-			byte[] bytes = asBytes(); // will also compute responseCharSet
-			responseAsString = new String(bytes, responseCharSet);
+			responseAsString = decode();
 		}
 		return responseAsString;
 	}
 
 	/**
 	 * JSONObject is built the first time the method is called.
+	 * The string it is parsed from is not kept unless {@link #asString()} was called.
 	 *
 	 * @return JSONObject for response
 	 * @throws JSONException
 	 * @throws IOException
 	 */
-	public JSONObject asJSONObject() throws JSONException, IOException {
+	public synchronized JSONObject asJSONObject() throws JSONException, IOException {
 		if (responseAsJSONObject == null) {
-			responseAsJSONObject = new JSONObject(asString());
+			responseAsJSONObject = new JSONObject(responseAsString != null ? responseAsString : decode());
 		}
 		return responseAsJSONObject;
 	}
 
 	/**
 	 * JSONArray is built the first time the method is called.
+	 * The string it is parsed from is not kept unless {@link #asString()} was called.
 	 *
 	 * @return JSONObject for response
 	 * @throws JSONException
 	 * @throws IOException
 	 */
-	public JSONArray asJSONArray() throws JSONException, IOException {
+	public synchronized JSONArray asJSONArray() throws JSONException, IOException {
 		if (responseAsJSONArray == null) {
-			responseAsJSONArray = new JSONArray(asString());
+			responseAsJSONArray = new JSONArray(responseAsString != null ? responseAsString : decode());
 		}
 		return responseAsJSONArray;
 	}
@@ -217,12 +248,12 @@ public class RestResponse {
 	 * @return an {@link InputStream} from the response content
 	 * @throws IOException if the stream could not be created or has already been consumed
 	 */
-	public InputStream asInputStream() throws IOException {
+	public synchronized InputStream asInputStream() throws IOException {
 		if (consumed) {
 			throw new IOException("Content has been consumed");
 		}
 		else {
-			responseAsBytes = new byte[0];
+			responseBuffer = new Buffer();
 			responseCharSet = StandardCharsets.UTF_8;
 			InputStream stream = response.body().byteStream();
 			consumed = true;
@@ -230,10 +261,42 @@ public class RestResponse {
 		}
 	}
 
+	/**
+	 * Streams the response content as JSON tokens, so large responses can be processed
+	 * without building the whole JSON tree. Same rules as {@link #asInputStream()} apply:
+	 * the reader <strong>must</strong> be closed, and other accessors return empty content afterwards.
+	 *
+	 * @return a {@link JsonReader} over the response content
+	 * @throws IOException if the stream could not be created or has already been consumed
+	 */
+	public synchronized JsonReader asJsonReader() throws IOException {
+		final ResponseBody body = response.body();
+		final MediaType mType = body == null ? null : body.contentType();
+		final Charset charset = mType == null || mType.charset() == null ? StandardCharsets.UTF_8 : mType.charset();
+		return new JsonReader(new InputStreamReader(asInputStream(), charset));
+	}
+
+	private void ensureConsumed() throws IOException {
+		if (responseBuffer == null) {
+			consume();
+		}
+		if (responseBuffer == null) {
+			responseBuffer = new Buffer();
+			responseCharSet = StandardCharsets.UTF_8;
+		}
+	}
+
+	private String decode() throws IOException {
+		ensureConsumed();
+		return responseBuffer.clone().readString(responseCharSet);
+	}
+
 	@Override
-	public String toString() {
+	public synchronized String toString() {
 		try {
-			return asString();
+
+			// Not cached, logging a response should not keep a copy of its content around
+			return responseAsString != null ? responseAsString : decode();
 		} catch (Exception e) {
             SalesforceSDKLogger.e(TAG, "Exception thrown while converting to string", e);
 			return ((response == null) ? "" : response.toString());
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import javax.net.ssl.SSLException;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Decides whether and when a failed request gets sent again.
+ * The default implementation retries:
+ * <ul>
+ * <li> 503 (service unavailable), 429 (too many requests) and REQUEST_LIMIT_EXCEEDED responses, for any method,
+ * since the server did not process the request;</li>
+ * <li> timeouts, dropped connections and other transient network errors for idempotent methods only;</li>
+ * <li> failures to connect for any method, since the request never left the device.</li>
+ * </ul>
+ * Delays grow exponentially with random jitter, a Retry-After header from the server takes precedence.
+ * Subclass to change what gets retried.
+ * <p>
+ * Retries are opt-in: RestClient makes a single attempt unless a policy is set with
+ * {@link RestClient#setRetryPolicy(RetryPolicy)} or {@link RestRequest#setRetryPolicy(RetryPolicy)}.
+ * Waits between attempts block the thread sending the request (the OkHttp dispatcher thread for
+ * asynchronous requests), keep maxBackoffMillis small for interactive traffic.
+ */
+public class RetryPolicy {
+
+    /**
+     * Policy that never retries
+     */
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(0, 0, 0);
+
+    /**
+     * Policy suggested for clients opting into retries: up to 3 retries, at most 5 seconds apart
+     * (a request can be held up to about 10 seconds on top of its attempts)
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 1000, 5000);
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final String REQUEST_LIMIT_EXCEEDED = "REQUEST_LIMIT_EXCEEDED";
+    private static final long MAX_PEEKED_BYTES = 4096;
+    private static final List<String> IDEMPOTENT_METHODS = Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS");
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Random random = new Random();
+
+    /**
+     * Constructor
+     *
+     * @param maxRetries Maximum number of times a request is sent again.
+     * @param initialBackoffMillis Delay before the first retry (before jitter).
+     * @param maxBackoffMillis Maximum delay before a retry, also caps Retry-After.
+     */
+    public RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * @return maximum number of times a request is sent again
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns whether a request should be sent again after getting the given response.
+     *
+     * @param request Request sent.
+     * @param response Response received.
+     * @return True - if the request should be retried, False - otherwise.
+     * @throws IOException
+     */
+    public boolean shouldRetry(Request request, Response response) throws IOException {
+        final int code = response.code();
+        if (code == HttpURLConnection.HTTP_UNAVAILABLE || code == HTTP_TOO_MANY_REQUESTS) {
+            return true;
+        }
+        return code == HttpURLConnection.HTTP_FORBIDDEN
+                && response.peekBody(MAX_PEEKED_BYTES).string().contains(REQUEST_LIMIT_EXCEEDED);
+    }
+
+    /**
+     * Returns whether a request should be sent again after failing with the given exception.
+     *
+     * @param request Request sent.
+     * @param e Exception thrown.
+     * @return True - if the request should be retried, False - otherwise.
+     */
+    public boolean shouldRetry(Request request, IOException e) {
+        if (e instanceof ConnectException || e instanceof NoRouteToHostException) {
+            return true;
+        }
+        if (!isIdempotent(request)) {
+            return false;
+        }
+        if (e instanceof SocketTimeoutException) {
+            return true;
+        }
+
+        // Failures that would happen again
+        return !(e instanceof InterruptedIOException || e instanceof UnknownHostException
+                || e instanceof SSLException || e instanceof ProtocolException
+                || e instanceof RestClient.RefreshTokenRevokedException);
+    }
+
+    /**
+     * Returns how long to wait before sending a request again.
+     *
+     * @param retry Number of the retry about to happen (starting at 1).
+     * @param response Response received, null if the request failed with an exception.
+     * @return Delay in milliseconds, or a negative value to give up (e.g. server asks to wait too long).
+     */
+    public long getDelayMillis(int retry, Response response) {
+        final Long retryAfterMillis = response != null ? parseRetryAfter(response.header(RETRY_AFTER)) : null;
+        if (retryAfterMillis != null) {
+            return retryAfterMillis <= maxBackoffMillis ? retryAfterMillis : -1;
+        }
+
+        // Exponential backoff with jitter: half the delay is fixed, the other half is random
+        final long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry - 1, 30));
+        final long jitter;
+        synchronized (random) {
+            jitter = (long) (random.nextDouble() * (backoff / 2));
+        }
+        return backoff / 2 + jitter;
+    }
+
+    /**
+     * @param request Request.
+     * @return True - if sending the request twice has the same effect as sending it once.
+     */
+    protected boolean isIdempotent(Request request) {
+        return IDEMPOTENT_METHODS.contains(request.method());
+    }
+
+    private Long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return null;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                final Date date;
+                synchronized (RestRequest.HTTP_DATE_FORMAT) {
+                    date = RestRequest.HTTP_DATE_FORMAT.parse(retryAfter.trim());
+                }
+                return Math.max(0, date.getTime() - System.currentTimeMillis());
+            } catch (ParseException pe) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * JSON request body of the form {..., "arrayKey": [element1, element2, ...]} written one element at a time.
+ * Elements are only converted to JSON as they get written, so the whole payload never sits in memory.
+ * The elements are iterated every time the body is written (e.g. when the request gets replayed after a token refresh).
+ *
+ * @param <T> type of the elements
+ */
+public class StreamingJsonRequestBody<T> extends RequestBody {
+
+    /**
+     * Converts an element to JSON when it gets written
+     *
+     * @param <T> type of the elements
+     */
+    public interface Converter<T> {
+        Object toJSON(T element) throws JSONException;
+    }
+
+    private final JSONObject envelope;
+    private final String arrayKey;
+    private final Iterable<T> elements;
+    private final Converter<T> converter;
+
+    /**
+     * Constructor
+     *
+     * @param envelope Fields written before the array. Can be null.
+     * @param arrayKey Key of the array.
+     * @param elements Elements of the array.
+     * @param converter Converter of elements to JSON.
+     */
+    public StreamingJsonRequestBody(JSONObject envelope, String arrayKey, Iterable<T> elements, Converter<T> converter) {
+        this.envelope = envelope;
+        this.arrayKey = arrayKey;
+        this.elements = elements;
+        this.converter = converter;
+    }
+
+    /**
+     * Body for elements that are already JSON objects
+     *
+     * @param envelope Fields written before the array. Can be null.
+     * @param arrayKey Key of the array.
+     * @param elements Elements of the array.
+     * @return request body
+     */
+    public static StreamingJsonRequestBody<JSONObject> create(JSONObject envelope, String arrayKey, Iterable<JSONObject> elements) {
+        return new StreamingJsonRequestBody<>(envelope, arrayKey, elements, new Converter<JSONObject>() {
+
+            @Override
+            public Object toJSON(JSONObject element) {
+                return element;
+            }
+        });
+    }
+
+    /**
+     * Body for elements already in a JSON array (saves building the string of the whole payload)
+     *
+     * @param envelope Fields written before the array. Can be null.
+     * @param arrayKey Key of the array.
+     * @param elements Elements of the array.
+     * @return request body
+     */
+    public static StreamingJsonRequestBody<Integer> create(JSONObject envelope, String arrayKey, final JSONArray elements) {
+        final List<Integer> indices = new ArrayList<>(elements.length());
+        for (int i = 0; i < elements.length(); i++) {
+            indices.add(i);
+        }
+        return new StreamingJsonRequestBody<>(envelope, arrayKey, indices, new Converter<Integer>() {
+
+            @Override
+            public Object toJSON(Integer index) throws JSONException {
+                return elements.get(index);
+            }
+        });
+    }
+
+    /**
+     * Body for elements that are already serialized JSON, written as they are
+     *
+     * @param envelope Fields written before the array. Can be null.
+     * @param arrayKey Key of the array.
+     * @param serializedElements Serialized JSON of the elements of the array.
+     * @return request body
+     */
+    public static StreamingJsonRequestBody<String> createFromSerialized(JSONObject envelope, String arrayKey, Iterable<String> serializedElements) {
+        return new StreamingJsonRequestBody<>(envelope, arrayKey, serializedElements, new Converter<String>() {
+
+            @Override
+            public Object toJSON(String element) {
+                return new SerializedJson(element);
+            }
+        });
+    }
+
+    @Override
+    public MediaType contentType() {
+        return RestRequest.MEDIA_TYPE_JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try {
+
+            // Envelope without its closing brace
+            if (envelope == null || envelope.length() == 0) {
+                sink.writeUtf8("{");
+            } else {
+                final String envelopeStr = envelope.toString();
+                sink.writeUtf8(envelopeStr, 0, envelopeStr.length() - 1).writeUtf8(",");
+            }
+            sink.writeUtf8(JSONObject.quote(arrayKey)).writeUtf8(":[");
+            boolean first = true;
+            for (T element : elements) {
+                if (!first) {
+                    sink.writeUtf8(",");
+                }
+                first = false;
+                final Object json = converter.toJSON(element);
+                sink.writeUtf8(json instanceof String ? JSONObject.quote((String) json) : String.valueOf(json));
+            }
+            sink.writeUtf8("]}");
+        } catch (JSONException e) {
+            throw new IOException("Could not write request body", e);
+        }
+    }
+
+    /**
+     * JSON that is already serialized, written without quoting
+     */
+    private static class SerializedJson {
+
+        private final String json;
+
+        SerializedJson(String json) {
+            this.json = json;
+        }
+
+        @Override
+        public String toString() {
+            return json;
+        }
+    }
+}
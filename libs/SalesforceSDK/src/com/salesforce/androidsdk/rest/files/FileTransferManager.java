@@ -0,0 +1,689 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest.files;
+
+import com.salesforce.androidsdk.rest.RestClient;
+import com.salesforce.androidsdk.rest.RestRequest;
+import com.salesforce.androidsdk.util.SalesforceSDKLogger;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Downloads and uploads files without holding their content in memory.
+ * <ul>
+ * <li> Downloads stream to a partial file next to the destination and resume with a Range request
+ * after a network error, or when started again for the same destination (e.g. after the app got killed).</li>
+ * <li> Large downloads can be fetched in chunks over parallel connections, completed chunks are remembered across restarts.</li>
+ * <li> Downloads can be verified against the MD5 checksum returned by the files API.</li>
+ * <li> Uploads stream the file and report progress. They are not resumable, the files API has no support for it.</li>
+ * <li> Transfers run on a bounded pool: a limited number run at once, a limited number wait in line,
+ * more get rejected with a {@link RejectedExecutionException}.</li>
+ * </ul>
+ */
+public class FileTransferManager {
+
+    private static final String TAG = "FileTransferManager";
+
+    public static final int DEFAULT_MAX_CONCURRENT_TRANSFERS = 2;
+    public static final int DEFAULT_MAX_QUEUED_TRANSFERS = 32;
+    public static final int DEFAULT_PARALLEL_CHUNKS = 3;
+    public static final long DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int MAX_ATTEMPTS = 3;
+
+    static final String PART_SUFFIX = ".part";
+    static final String CHUNKS_SUFFIX = ".chunks";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final String RANGE = "Range";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    // Ranges apply to the encoded entity, transparent gzip decoding would make offsets of partial files meaningless
+    private static final String IDENTITY_ENCODING = "identity";
+
+    /**
+     * Receives the progress of a transfer. Called from the thread doing the transfer.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param bytesTransferred Bytes transferred so far (including bytes transferred before a resume).
+         * @param totalBytes Total bytes, -1 if unknown.
+         */
+        void onProgress(long bytesTransferred, long totalBytes);
+    }
+
+    private final RestClient restClient;
+    private final ExecutorService transferExecutor;
+    private final ExecutorService chunkExecutor;
+
+    /**
+     * Constructor using default limits
+     *
+     * @param restClient Rest client.
+     */
+    public FileTransferManager(RestClient restClient) {
+        this(restClient, DEFAULT_MAX_CONCURRENT_TRANSFERS, DEFAULT_MAX_QUEUED_TRANSFERS, DEFAULT_PARALLEL_CHUNKS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param restClient Rest client.
+     * @param maxConcurrentTransfers Maximum number of transfers running at once.
+     * @param maxQueuedTransfers Maximum number of transfers waiting to run.
+     * @param parallelChunks Number of chunks downloaded at once (shared by all chunked downloads).
+     */
+    public FileTransferManager(RestClient restClient, int maxConcurrentTransfers, int maxQueuedTransfers, int parallelChunks) {
+        this.restClient = restClient;
+        this.transferExecutor = new ThreadPoolExecutor(maxConcurrentTransfers, maxConcurrentTransfers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(maxQueuedTransfers));
+        this.chunkExecutor = Executors.newFixedThreadPool(parallelChunks);
+    }
+
+    /**
+     * Downloads a file, resuming a previous partial download of the same destination if any.
+     *
+     * @param request Request for the file content (e.g. {@link FileRequests#fileContents(String, String)}).
+     * @param destination File to download to.
+     * @param md5 Expected MD5 checksum (hex), null to skip verification.
+     * @param listener Progress listener, can be null.
+     * @return transfer, giving the destination once done
+     * @throws RejectedExecutionException if too many transfers are waiting already
+     */
+    public Transfer<File> download(final RestRequest request, final File destination, final String md5,
+                                   final ProgressListener listener) {
+        final Transfer<File> transfer = new Transfer<>();
+        transfer.start(new Callable<File>() {
+
+            @Override
+            public File call() throws Exception {
+                final File part = getPartFile(destination);
+                downloadToPart(transfer, request, part, listener);
+                return complete(part, destination, md5);
+            }
+        });
+        return transfer;
+    }
+
+    /**
+     * Downloads a file in chunks over parallel connections.
+     * Falls back to a single connection download if the server does not support ranges.
+     *
+     * @param request Request for the file content (e.g. {@link FileRequests#fileContents(String, String)}).
+     * @param destination File to download to.
+     * @param chunkSize Size of the chunks in bytes.
+     * @param md5 Expected MD5 checksum (hex), null to skip verification.
+     * @param listener Progress listener, can be null.
+     * @return transfer, giving the destination once done
+     * @throws RejectedExecutionException if too many transfers are waiting already
+     */
+    public Transfer<File> downloadInChunks(final RestRequest request, final File destination, final long chunkSize,
+                                           final String md5, final ProgressListener listener) {
+        final Transfer<File> transfer = new Transfer<>();
+        transfer.start(new Callable<File>() {
+
+            @Override
+            public File call() throws Exception {
+                final File part = getPartFile(destination);
+                downloadChunksToPart(transfer, request, part, chunkSize, listener);
+                return complete(part, destination, md5);
+            }
+        });
+        return transfer;
+    }
+
+    /**
+     * Uploads a new file (see {@link FileRequests#uploadFile(File, String, String, String, String)}).
+     *
+     * @param file File to upload.
+     * @param name The name of this file.
+     * @param title The title of this file.
+     * @param description A description of the file.
+     * @param mimeType The mime-type of the file, if known.
+     * @param listener Progress listener, can be null.
+     * @return transfer, giving the file details returned by the server once done
+     * @throws RejectedExecutionException if too many transfers are waiting already
+     */
+    public Transfer<JSONObject> upload(final File file, final String name, final String title, final String description,
+                                       final String mimeType, final ProgressListener listener) {
+        final Transfer<JSONObject> transfer = new Transfer<>();
+        transfer.start(new Callable<JSONObject>() {
+
+            @Override
+            public JSONObject call() throws Exception {
+                final RestRequest uploadRequest = FileRequests.uploadFile(file, name, title, description, mimeType);
+                final RequestBody body = listener == null ? uploadRequest.getRequestBody()
+                        : new ProgressRequestBody(uploadRequest.getRequestBody(), listener);
+                final RestRequest request = new RestRequest(uploadRequest.getMethod(), uploadRequest.getEndpoint(),
+                        uploadRequest.getPath(), body, uploadRequest.getAdditionalHttpHeaders());
+                try (Response response = transfer.execute(restClient, restClient.buildRequest(request))) {
+                    if (!response.isSuccessful()) {
+                        throw new TransferFailedException("Upload failed with status " + response.code());
+                    }
+                    return new JSONObject(response.body().string());
+                }
+            }
+        });
+        return transfer;
+    }
+
+    /**
+     * Stops running transfers and rejects new ones.
+     */
+    public void shutdown() {
+        transferExecutor.shutdownNow();
+        chunkExecutor.shutdownNow();
+    }
+
+    /**
+     * @param destination Destination of a download.
+     * @return file holding the bytes downloaded so far
+     */
+    static File getPartFile(File destination) {
+        return new File(destination.getPath() + PART_SUFFIX);
+    }
+
+    /**
+     * @param part Partial file of a download.
+     * @return file listing the chunks of the partial file completed by a chunked download
+     */
+    static File getChunkLogFile(File part) {
+        return new File(part.getPath() + CHUNKS_SUFFIX);
+    }
+
+    /**
+     * @param file File.
+     * @return MD5 checksum of the file content (hex)
+     * @throws IOException
+     */
+    public static String computeMd5(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            final StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 not available", e);
+        }
+    }
+
+    private void downloadToPart(Transfer<?> transfer, RestRequest restRequest, File part, ProgressListener listener) throws IOException {
+
+        // A partial file left by a chunked download is sized to the full length, its length is not the number of bytes downloaded
+        final File chunkLogFile = getChunkLogFile(part);
+        if (chunkLogFile.exists()) {
+            SalesforceSDKLogger.i(TAG, "Discarding partial file of a chunked download, downloading on a single connection");
+            deleteQuietly(part);
+            deleteQuietly(chunkLogFile);
+        }
+        for (int attempt = 1; ; attempt++) {
+            final long offset = part.exists() ? part.length() : 0;
+            final Request.Builder builder = restClient.buildRequest(restRequest).newBuilder()
+                    .header(ACCEPT_ENCODING, IDENTITY_ENCODING);
+            if (offset > 0) {
+                builder.header(RANGE, "bytes=" + offset + "-");
+            }
+            try (Response response = transfer.execute(restClient, builder.build())) {
+                if (response.code() == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+
+                    // Nothing left to download if the partial file has all the bytes
+                    if (parseTotal(response.header(CONTENT_RANGE)) == offset) {
+                        return;
+                    }
+                    deleteQuietly(part);
+                    continue;
+                }
+                if (!response.isSuccessful()) {
+                    throw new TransferFailedException("Download failed with status " + response.code());
+                }
+                final boolean resuming = response.code() == HttpURLConnection.HTTP_PARTIAL && offset > 0;
+                if (resuming && parseStart(response.header(CONTENT_RANGE)) != offset) {
+                    SalesforceSDKLogger.w(TAG, "Unexpected range " + response.header(CONTENT_RANGE)
+                            + " for offset " + offset + ", restarting download");
+                    deleteQuietly(part);
+                    continue;
+                }
+                final long start = resuming ? offset : 0;
+                final long total = resuming ? parseTotal(response.header(CONTENT_RANGE)) : response.body().contentLength();
+                final BufferedSink sink = Okio.buffer(resuming ? Okio.appendingSink(part) : Okio.sink(part));
+                try {
+                    copy(response.body().source(), sink, start, total, listener);
+                } finally {
+                    sink.close();
+                }
+                return;
+            } catch (IOException e) {
+                if (transfer.isCancelled() || attempt >= MAX_ATTEMPTS || e instanceof InterruptedIOException
+                        || e instanceof TransferFailedException) {
+                    throw e;
+                }
+                SalesforceSDKLogger.w(TAG, "Download interrupted, resuming at byte " + part.length(), e);
+            }
+        }
+    }
+
+    private void downloadChunksToPart(final Transfer<?> transfer, final RestRequest restRequest, final File part,
+                                      final long chunkSize, final ProgressListener listener) throws Exception {
+
+        // Probing for the total size (and range support)
+        final long total;
+        final Request probe = restClient.buildRequest(restRequest).newBuilder()
+                .header(ACCEPT_ENCODING, IDENTITY_ENCODING).header(RANGE, "bytes=0-0").build();
+        try (Response response = transfer.execute(restClient, probe)) {
+            total = response.code() == HttpURLConnection.HTTP_PARTIAL ? parseTotal(response.header(CONTENT_RANGE)) : -1;
+        }
+        if (total <= 0) {
+            SalesforceSDKLogger.i(TAG, "Ranges not supported, downloading on a single connection");
+            downloadToPart(transfer, restRequest, part, listener);
+            return;
+        }
+
+        // Chunks completed before a restart are kept if the partial file is the right size
+        // The chunk log is created before the partial file is sized, so that single connection downloads know not to resume from it
+        final ChunkLog chunkLog = new ChunkLog(getChunkLogFile(part));
+        if (!chunkLog.exists() || !part.exists() || part.length() != total) {
+            chunkLog.reset();
+            try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+                file.setLength(total);
+            }
+        }
+        final Set<Integer> completedChunks = chunkLog.read();
+        final int chunkCount = (int) ((total + chunkSize - 1) / chunkSize);
+        final AtomicLong transferred = new AtomicLong();
+        for (int chunk : completedChunks) {
+            transferred.addAndGet(Math.min(chunkSize, total - chunk * chunkSize));
+        }
+        final List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            if (completedChunks.contains(i)) {
+                continue;
+            }
+            final int chunk = i;
+            futures.add(chunkExecutor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    final long start = chunk * chunkSize;
+                    final long end = Math.min(start + chunkSize, total) - 1;
+                    downloadChunk(transfer, restRequest, part, start, end, total, transferred, listener);
+                    chunkLog.add(chunk);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        chunkLog.delete();
+    }
+
+    private void downloadChunk(Transfer<?> transfer, RestRequest restRequest, File part, long start, long end, long total,
+                               AtomicLong transferred, ProgressListener listener) throws IOException {
+        long position = start;
+        for (int attempt = 1; ; attempt++) {
+            final Request request = restClient.buildRequest(restRequest).newBuilder()
+                    .header(ACCEPT_ENCODING, IDENTITY_ENCODING)
+                    .header(RANGE, "bytes=" + position + "-" + end).build();
+            try (Response response = transfer.execute(restClient, request);
+                 RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+                if (response.code() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new TransferFailedException("Chunk download failed with status " + response.code());
+                }
+                if (parseStart(response.header(CONTENT_RANGE)) != position) {
+                    throw new TransferFailedException("Unexpected range " + response.header(CONTENT_RANGE)
+                            + " for chunk starting at byte " + position);
+                }
+                file.seek(position);
+                final BufferedSource source = response.body().source();
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while (position <= end && (read = source.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                    file.write(buffer, 0, read);
+                    position += read;
+                    final long done = transferred.addAndGet(read);
+                    if (listener != null) {
+                        listener.onProgress(done, total);
+                    }
+                }
+                if (position <= end) {
+                    throw new IOException("Chunk ended early at byte " + position);
+                }
+                return;
+            } catch (IOException e) {
+                if (transfer.isCancelled() || attempt >= MAX_ATTEMPTS || e instanceof InterruptedIOException
+                        || e instanceof TransferFailedException) {
+                    throw e;
+                }
+                SalesforceSDKLogger.w(TAG, "Chunk download interrupted, resuming at byte " + position, e);
+            }
+        }
+    }
+
+    private static File complete(File part, File destination, String md5) throws IOException {
+        if (md5 != null) {
+            final String actualMd5 = computeMd5(part);
+            if (!md5.equalsIgnoreCase(actualMd5)) {
+
+                // Corrupt content can't be resumed from
+                deleteQuietly(part);
+                throw new TransferFailedException("Checksum mismatch, expected " + md5 + " got " + actualMd5);
+            }
+        }
+        if (destination.exists() && !destination.delete()) {
+            throw new IOException("Could not replace " + destination);
+        }
+        if (!part.renameTo(destination)) {
+            throw new IOException("Could not move download to " + destination);
+        }
+        return destination;
+    }
+
+    private static void copy(BufferedSource source, BufferedSink sink, long start, long total,
+                             ProgressListener listener) throws IOException {
+        final Buffer buffer = new Buffer();
+        long done = start;
+        long read;
+        while ((read = source.read(buffer, BUFFER_SIZE)) != -1) {
+            sink.write(buffer, read);
+            done += read;
+            if (listener != null) {
+                listener.onProgress(done, total);
+            }
+        }
+        sink.flush();
+    }
+
+    /**
+     * @param contentRange Content-Range header (e.g. "bytes 200-1000/67589" or "bytes * /67589").
+     * @return total size, -1 if unknown
+     */
+    static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        final int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param contentRange Content-Range header value (e.g. "bytes 200-1000/67589").
+     * @return first byte position, or -1 if not available
+     */
+    static long parseStart(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        final int space = contentRange.indexOf(' ');
+        final int dash = contentRange.indexOf('-', space + 1);
+        if (space < 0 || dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(space + 1, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            SalesforceSDKLogger.w(TAG, "Could not delete " + file);
+        }
+    }
+
+    /**
+     * Handle on a transfer: get() blocks until it is done, cancel() also aborts the requests in progress.
+     *
+     * @param <T> result type
+     */
+    public class Transfer<T> implements Future<T> {
+
+        private final Set<Call> calls = new HashSet<>();
+        private FutureTask<T> task;
+
+        private void start(Callable<T> callable) {
+            task = new FutureTask<>(callable);
+            transferExecutor.execute(task);
+        }
+
+        private Response execute(RestClient client, Request request) throws IOException {
+            final Call call = client.getOkHttpClient().newCall(request);
+            synchronized (calls) {
+                if (isCancelled()) {
+                    throw new InterruptedIOException("Canceled");
+                }
+                calls.add(call);
+            }
+            try {
+                return call.execute();
+            } finally {
+                synchronized (calls) {
+                    calls.remove(call);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = task.cancel(mayInterruptIfRunning);
+            synchronized (calls) {
+                for (Call call : calls) {
+                    call.cancel();
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return task.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(timeout, unit);
+        }
+    }
+
+    /**
+     * Thrown when a transfer fails in a way resuming would not fix (error status, checksum mismatch)
+     */
+    public static class TransferFailedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public TransferFailedException(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * Completed chunks of a download, one index per line, appended as chunks complete
+     */
+    private static class ChunkLog {
+
+        private final File file;
+
+        ChunkLog(File file) {
+            this.file = file;
+        }
+
+        synchronized Set<Integer> read() throws IOException {
+            final Set<Integer> chunks = new HashSet<>();
+            if (file.exists()) {
+                try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+                    String line;
+                    while ((line = source.readUtf8Line()) != null) {
+                        try {
+                            chunks.add(Integer.parseInt(line.trim()));
+                        } catch (NumberFormatException e) {
+
+                            // Partially written line, chunk will be downloaded again
+                        }
+                    }
+                }
+            }
+            return chunks;
+        }
+
+        synchronized void add(int chunk) throws IOException {
+            try (BufferedSink sink = Okio.buffer(Okio.appendingSink(file))) {
+                sink.writeUtf8(Integer.toString(chunk)).writeUtf8("\n");
+            }
+        }
+
+        synchronized boolean exists() {
+            return file.exists();
+        }
+
+        synchronized void reset() throws IOException {
+            Okio.sink(file).close();
+        }
+
+        synchronized void delete() {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Request body reporting how many bytes have been written
+     */
+    static class ProgressRequestBody extends RequestBody {
+
+        private final RequestBody body;
+        private final ProgressListener listener;
+
+        ProgressRequestBody(RequestBody body, ProgressListener listener) {
+            this.body = body;
+            this.listener = listener;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return body.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            final long total = contentLength();
+            final Sink countingSink = new ForwardingSink(sink) {
+
+                private long written;
+
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    written += byteCount;
+                    listener.onProgress(written, total);
+                }
+            };
+            final BufferedSink bufferedSink = Okio.buffer(countingSink);
+            body.writeTo(bufferedSink);
+            bufferedSink.flush();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.util;
+
+import android.os.Process;
+
+import com.salesforce.androidsdk.analytics.EventBuilderHelper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Low overhead tracing of hot paths (e.g. SmartStore operations and syncs).
+ * Spans are timed with {@link System#nanoTime()} and recorded in a buffer owned by the
+ * thread that ended them, so threads never contend with each other:
+ * <pre>
+ * final Tracer.Span span = Tracer.begin("SmartStore.upsert");
+ * try {
+ *     ...
+ * } finally {
+ *     span.end();
+ * }
+ * </pre>
+ * Tracing is off by default, {@link #begin(String)} then only costs a volatile read.
+ * Each thread keeps its last {@link #BUFFER_CAPACITY} spans and a histogram of durations per span name.
+ * Buffers of threads that died are dropped when a new thread starts tracing or stats get exported,
+ * only their stats are kept (their spans no longer show up in trace files).
+ * The histograms can be exported to analytics as a single event, and the spans written to a trace file
+ * in the Trace Event format (viewable in chrome://tracing or Perfetto).
+ */
+public class Tracer {
+
+    private static final String TAG = "Tracer";
+
+    /**
+     * Name of the instrumentation events carrying tracing summaries
+     */
+    public static final String SUMMARY_EVENT_NAME = "tracingSummary";
+
+    /**
+     * Number of spans kept per thread for trace files
+     */
+    public static final int BUFFER_CAPACITY = 4096;
+
+    private static final Span NOOP_SPAN = new Span(null, 0);
+    private static final List<ThreadBuffer> BUFFERS = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<ThreadBuffer> BUFFER = new ThreadLocal<ThreadBuffer>() {
+
+        @Override
+        protected ThreadBuffer initialValue() {
+            dropDeadThreadBuffers();
+            final ThreadBuffer buffer = new ThreadBuffer(Process.myTid(), Thread.currentThread());
+            BUFFERS.add(buffer);
+            return buffer;
+        }
+    };
+
+    // Stats of threads that died, not exported yet
+    private static final Map<String, Stats> DEAD_THREAD_STATS = new HashMap<>();
+    private static volatile boolean enabled;
+
+    /**
+     * Turns tracing on or off.
+     *
+     * @param enable True to record spans.
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * @return true if spans are being recorded
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a span, to be ended on the same thread.
+     *
+     * @param name Span name, should be a constant.
+     * @return span
+     */
+    public static Span begin(String name) {
+        return enabled ? new Span(name, System.nanoTime()) : NOOP_SPAN;
+    }
+
+    /**
+     * Returns the durations recorded so far, per span name, merged across threads.
+     *
+     * @return stats by span name
+     */
+    public static Map<String, Stats> getStats() {
+        final Map<String, Stats> merged = new TreeMap<>();
+        for (final ThreadBuffer buffer : BUFFERS) {
+            buffer.mergeStatsInto(merged, false);
+        }
+        synchronized (DEAD_THREAD_STATS) {
+            mergeStats(DEAD_THREAD_STATS, merged);
+        }
+        return merged;
+    }
+
+    /**
+     * @return stats of all span names as JSON
+     */
+    public static JSONObject getSummary() {
+        return toJSON(getStats());
+    }
+
+    private static JSONObject toJSON(Map<String, Stats> stats) {
+        final JSONObject json = new JSONObject();
+        try {
+            for (final Map.Entry<String, Stats> entry : stats.entrySet()) {
+                json.put(entry.getKey(), entry.getValue().toJSON());
+            }
+        } catch (JSONException e) {
+            SalesforceSDKLogger.e(TAG, "Exception thrown while building tracing summary", e);
+        }
+        return json;
+    }
+
+    /**
+     * Stores the stats recorded since the last export as a single analytics event, then resets them.
+     * Should NOT be called from the main thread.
+     */
+    public static void exportToAnalytics() {
+        dropDeadThreadBuffers();
+        final Map<String, Stats> stats = new TreeMap<>();
+        for (final ThreadBuffer buffer : BUFFERS) {
+            buffer.mergeStatsInto(stats, true);
+        }
+        synchronized (DEAD_THREAD_STATS) {
+            mergeStats(DEAD_THREAD_STATS, stats);
+            DEAD_THREAD_STATS.clear();
+        }
+        if (stats.isEmpty()) {
+            return;
+        }
+        final JSONObject summary = toJSON(stats);
+        EventBuilderHelper.createAndStoreEventSync(SUMMARY_EVENT_NAME, null, TAG, summary);
+    }
+
+    /**
+     * Writes the spans kept by all threads to a file in the Trace Event format.
+     *
+     * @param file File to write.
+     * @throws IOException If the file could not be written.
+     */
+    public static void writeTraceFile(File file) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("{\"traceEvents\":[");
+            boolean first = true;
+            final int pid = Process.myPid();
+            for (final ThreadBuffer buffer : BUFFERS) {
+                first = buffer.writeTraceEvents(writer, pid, first);
+            }
+            writer.write("]}");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Clears all recorded spans and stats.
+     */
+    public static void reset() {
+        for (final ThreadBuffer buffer : BUFFERS) {
+            buffer.reset();
+        }
+        synchronized (DEAD_THREAD_STATS) {
+            DEAD_THREAD_STATS.clear();
+        }
+    }
+
+    /**
+     * @return number of threads whose spans are kept
+     */
+    static int getBufferCount() {
+        return BUFFERS.size();
+    }
+
+    /**
+     * Drops the buffers (about 80KB each) of threads that died, keeping their stats for the next export.
+     */
+    static void dropDeadThreadBuffers() {
+        for (final ThreadBuffer buffer : BUFFERS) {
+            if (!buffer.isThreadAlive()) {
+                synchronized (DEAD_THREAD_STATS) {
+                    buffer.mergeStatsInto(DEAD_THREAD_STATS, true);
+                }
+                BUFFERS.remove(buffer);
+            }
+        }
+    }
+
+    private static void mergeStats(Map<String, Stats> from, Map<String, Stats> into) {
+        for (final Map.Entry<String, Stats> entry : from.entrySet()) {
+            Stats mergedStats = into.get(entry.getKey());
+            if (mergedStats == null) {
+                mergedStats = new Stats();
+                into.put(entry.getKey(), mergedStats);
+            }
+            mergedStats.merge(entry.getValue());
+        }
+    }
+
+    /**
+     * A timed section of code
+     */
+    public static class Span {
+
+        private final String name;
+        private final long startNanos;
+
+        private Span(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Ends this span and records it.
+         */
+        public void end() {
+            if (name != null) {
+                BUFFER.get().record(name, startNanos, System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    /**
+     * Durations recorded for a span name
+     */
+    public static class Stats {
+
+        /**
+         * Upper bounds (inclusive) of the buckets in microseconds, the last bucket has no upper bound
+         */
+        public static final long[] BUCKET_BOUNDS = {10, 50, 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000};
+
+        // Bucketed in microseconds, totals kept in nanoseconds
+        private final Histogram micros = new Histogram(BUCKET_BOUNDS);
+        private long totalNanos;
+        private long maxNanos;
+
+        void add(long nanos) {
+            micros.add(TimeUnit.NANOSECONDS.toMicros(nanos));
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        void merge(Stats other) {
+            micros.merge(other.micros);
+            totalNanos += other.totalNanos;
+            maxNanos = Math.max(maxNanos, other.maxNanos);
+        }
+
+        public long getCount() {
+            return micros.getCount();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @param percentile Percentile between 0 and 100.
+         * @return estimate in microseconds (see {@link Histogram#getPercentile(double)})
+         */
+        public long getPercentileMicros(double percentile) {
+            return micros.getPercentile(percentile);
+        }
+
+        JSONObject toJSON() throws JSONException {
+            final long count = getCount();
+            final JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("totalMs", TimeUnit.NANOSECONDS.toMillis(totalNanos));
+            json.put("meanUs", count > 0 ? TimeUnit.NANOSECONDS.toMicros(totalNanos / count) : 0);
+            json.put("p50Us", getPercentileMicros(50));
+            json.put("p90Us", getPercentileMicros(90));
+            json.put("p99Us", getPercentileMicros(99));
+            json.put("maxUs", TimeUnit.NANOSECONDS.toMicros(maxNanos));
+            return json;
+        }
+    }
+
+    /**
+     * Spans and stats of one thread. Only that thread records into it, so its lock is uncontended
+     * except while exporting.
+     */
+    private static class ThreadBuffer {
+
+        private final int tid;
+        private final String threadName;
+        private final WeakReference<Thread> thread;
+        private final String[] names = new String[BUFFER_CAPACITY];
+        private final long[] starts = new long[BUFFER_CAPACITY];
+        private final long[] durations = new long[BUFFER_CAPACITY];
+        private final Map<String, Stats> stats = new HashMap<>();
+        private int next;
+        private int size;
+
+        ThreadBuffer(int tid, Thread thread) {
+            this.tid = tid;
+            this.threadName = thread.getName();
+            this.thread = new WeakReference<>(thread);
+        }
+
+        boolean isThreadAlive() {
+            final Thread owner = thread.get();
+            return owner != null && owner.isAlive();
+        }
+
+        synchronized void record(String name, long startNanos, long durationNanos) {
+            names[next] = name;
+            starts[next] = startNanos;
+            durations[next] = durationNanos;
+            next = (next + 1) % BUFFER_CAPACITY;
+            size = Math.min(size + 1, BUFFER_CAPACITY);
+            Stats nameStats = stats.get(name);
+            if (nameStats == null) {
+                nameStats = new Stats();
+                stats.put(name, nameStats);
+            }
+            nameStats.add(durationNanos);
+        }
+
+        synchronized void mergeStatsInto(Map<String, Stats> merged, boolean clear) {
+            mergeStats(stats, merged);
+            if (clear) {
+                stats.clear();
+            }
+        }
+
+        synchronized boolean writeTraceEvents(Writer writer, int pid, boolean first) throws IOException {
+            if (size > 0 && first) {
+                writeThreadName(writer, pid);
+                first = false;
+            } else if (size > 0) {
+                writer.write(',');
+                writeThreadName(writer, pid);
+            }
+            final int oldest = (next - size + BUFFER_CAPACITY) % BUFFER_CAPACITY;
+            for (int i = 0; i < size; i++) {
+                final int index = (oldest + i) % BUFFER_CAPACITY;
+                writer.write(",{\"name\":");
+                writer.write(JSONObject.quote(names[index]));
+                writer.write(",\"ph\":\"X\",\"ts\":");
+                writer.write(Long.toString(TimeUnit.NANOSECONDS.toMicros(starts[index])));
+                writer.write(",\"dur\":");
+                writer.write(Long.toString(TimeUnit.NANOSECONDS.toMicros(durations[index])));
+                writer.write(",\"pid\":");
+                writer.write(Integer.toString(pid));
+                writer.write(",\"tid\":");
+                writer.write(Integer.toString(tid));
+                writer.write('}');
+            }
+            return first;
+        }
+
+        private void writeThreadName(Writer writer, int pid) throws IOException {
+            writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":");
+            writer.write(Integer.toString(pid));
+            writer.write(",\"tid\":");
+            writer.write(Integer.toString(tid));
+            writer.write(",\"args\":{\"name\":");
+            writer.write(JSONObject.quote(threadName));
+            writer.write("}}");
+        }
+
+        synchronized void reset() {
+            stats.clear();
+            next = 0;
+            size = 0;
+        }
+    }
+}
@@ -581,6 +581,12 @@ public class AlterSoupLongOperation extends LongOperation {
 					c.close();
 				}
 			}
+		} else if (oldSoupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE) && newSoupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE)) {
+			// External to external storage, blobs layout might be changing
+			boolean segmented = newSoupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS);
+			if (segmented != oldSoupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS)) {
+				((DBOpenHelper) store.dbOpenHelper).convertExternalBlobsLayout(soupTableName, segmented);
+			}
 		} else if (!oldSoupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE) && newSoupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE)) {
 			// Internal to external storage
 			Cursor c = null;
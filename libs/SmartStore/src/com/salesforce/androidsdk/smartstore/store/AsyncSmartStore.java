@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous front end for a SmartStore.
+ *
+ * Writes run on a single writer thread, in the order they were submitted. Consecutive writes
+ * that are waiting on the writer are committed together in one transaction (group commit).
+ * With {@link #setGroupCommit(long, int)}, the writer can also hold a group open for a short window
+ * to coalesce writes arriving from several callers, trading a little latency for fewer commits.
+ * A write's future only completes once the shared transaction is committed, so callers that need
+ * durability can simply block on it.
+ * Reads run on a small pool of reader threads so they don't wait behind queued writes.
+ *
+ * Results are delivered through the returned future and the optional callback,
+ * which is invoked on the thread that ran the operation.
+ */
+public class AsyncSmartStore {
+
+    private static final String TAG = "AsyncSmartStore";
+
+    // Number of reader threads
+    static final int READ_POOL_SIZE = 2;
+
+    // Default maximum number of writes committed in one transaction
+    static final int DEFAULT_MAX_GROUP_SIZE = 64;
+
+    // Idle threads are let go after that delay
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // Map of database to async store
+    private static Map<SQLiteDatabase, AsyncSmartStore> INSTANCES = new HashMap<>();
+
+    /**
+     * Operation to run against the store
+     */
+    public interface Operation<T> {
+        T run(SmartStore store) throws Exception;
+    }
+
+    /**
+     * Callback for operation result
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+        void onError(Exception exception);
+    }
+
+    private final SmartStore store;
+    private final ThreadPoolExecutor writer;
+    private final ThreadPoolExecutor readers;
+    private final BlockingQueue<Task<?>> pendingWrites = new LinkedBlockingQueue<>();
+
+    // Group commit settings
+    private volatile long groupCommitWindowMillis = 0;
+    private volatile int maxGroupSize = DEFAULT_MAX_GROUP_SIZE;
+
+    // Group commit metrics
+    private final AtomicLong committedGroupCount = new AtomicLong();
+    private final AtomicLong committedWriteCount = new AtomicLong();
+    private final AtomicInteger largestGroupSize = new AtomicInteger();
+
+    /**
+     * Returns the async store for the given store, all front ends share the same instance per database
+     *
+     * @param store
+     * @return
+     */
+    public static synchronized AsyncSmartStore getInstance(SmartStore store) {
+        final SQLiteDatabase db = store.getDatabase();
+        removeClosedInstances();
+        AsyncSmartStore asyncStore = INSTANCES.get(db);
+        if (asyncStore == null) {
+            asyncStore = new AsyncSmartStore(store);
+            INSTANCES.put(db, asyncStore);
+        }
+        return asyncStore;
+    }
+
+    /**
+     * Removes the async stores of the database at the given path and stops their threads.
+     * Called when the database is closed or deleted.
+     *
+     * @param dbPath
+     */
+    public static synchronized void removeInstances(String dbPath) {
+        final Iterator<Map.Entry<SQLiteDatabase, AsyncSmartStore>> iterator = INSTANCES.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<SQLiteDatabase, AsyncSmartStore> entry = iterator.next();
+            if (dbPath.equals(entry.getKey().getPath())) {
+                entry.getValue().shutdown();
+                iterator.remove();
+            }
+        }
+    }
+
+    // Drops async stores whose database got closed without going through removeInstances
+    private static void removeClosedInstances() {
+        final Iterator<Map.Entry<SQLiteDatabase, AsyncSmartStore>> iterator = INSTANCES.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<SQLiteDatabase, AsyncSmartStore> entry = iterator.next();
+            if (!entry.getKey().isOpen()) {
+                entry.getValue().shutdown();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting operations, the ones already submitted still run
+     */
+    private void shutdown() {
+        writer.shutdown();
+        readers.shutdown();
+    }
+
+    AsyncSmartStore(SmartStore store) {
+        this.store = store;
+        this.writer = newExecutor(1);
+        this.readers = newExecutor(READ_POOL_SIZE);
+    }
+
+    private static ThreadPoolExecutor newExecutor(int size) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Configure group commit
+     *
+     * @param windowMillis how long the writer waits for more writes once a group is started (0 to only group writes already queued)
+     * @param maxGroupSize maximum number of writes committed in one transaction
+     */
+    public void setGroupCommit(long windowMillis, int maxGroupSize) {
+        if (windowMillis < 0 || maxGroupSize < 1) {
+            throw new IllegalArgumentException("Invalid group commit settings: window " + windowMillis + "ms, max group size " + maxGroupSize);
+        }
+        this.groupCommitWindowMillis = windowMillis;
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    /**
+     * @return number of transactions committed for writes (exclusive writes not included)
+     */
+    public long getCommittedGroupCount() {
+        return committedGroupCount.get();
+    }
+
+    /**
+     * @return number of writes committed (exclusive writes not included)
+     */
+    public long getCommittedWriteCount() {
+        return committedWriteCount.get();
+    }
+
+    /**
+     * @return average number of writes per committed transaction
+     */
+    public double getAverageGroupSize() {
+        long groups = committedGroupCount.get();
+        return groups == 0 ? 0 : (double) committedWriteCount.get() / groups;
+    }
+
+    /**
+     * @return largest number of writes committed in one transaction
+     */
+    public int getLargestGroupSize() {
+        return largestGroupSize.get();
+    }
+
+    /**
+     * @return the underlying store
+     */
+    public SmartStore getStore() {
+        return store;
+    }
+
+    /**
+     * Run read operation on a reader thread
+     *
+     * @param operation
+     * @param callback can be null
+     * @return future for the result
+     */
+    public <T> Future<T> read(Operation<T> operation, Callback<T> callback) {
+        Task<T> task = new Task<>(operation, callback, false);
+        readers.execute(task);
+        return task;
+    }
+
+    /**
+     * Run write operation on the writer thread, in a transaction possibly shared with other writes.
+     * If any write of a group fails, the group is rolled back and its writes are replayed in one transaction each,
+     * so the operation must be safe to run again from scratch and should not commit on its own.
+     *
+     * @param operation
+     * @param callback can be null
+     * @return future for the result, only completed once the write is committed
+     */
+    public <T> Future<T> write(Operation<T> operation, Callback<T> callback) {
+        return enqueue(new Task<>(operation, callback, false));
+    }
+
+    /**
+     * Run write operation alone on the writer thread, for operations that manage their own transactions
+     * (e.g. registering or altering a soup)
+     *
+     * @param operation
+     * @param callback can be null
+     * @return future for the result
+     */
+    public <T> Future<T> exclusiveWrite(Operation<T> operation, Callback<T> callback) {
+        return enqueue(new Task<>(operation, callback, true));
+    }
+
+    /**
+     * Run query on a reader thread
+     *
+     * @param querySpec
+     * @param pageIndex
+     * @param callback can be null
+     * @return
+     */
+    public Future<JSONArray> query(final QuerySpec querySpec, final int pageIndex, Callback<JSONArray> callback) {
+        return read(new Operation<JSONArray>() {
+            @Override
+            public JSONArray run(SmartStore store) throws Exception {
+                return store.query(querySpec, pageIndex);
+            }
+        }, callback);
+    }
+
+    /**
+     * Retrieve soup elements on a reader thread
+     *
+     * @param soupName
+     * @param soupEntryIds
+     * @param callback can be null
+     * @return
+     */
+    public Future<JSONArray> retrieve(final String soupName, final Long[] soupEntryIds, Callback<JSONArray> callback) {
+        return read(new Operation<JSONArray>() {
+            @Override
+            public JSONArray run(SmartStore store) throws Exception {
+                return store.retrieve(soupName, soupEntryIds);
+            }
+        }, callback);
+    }
+
+    /**
+     * Upsert soup elements on the writer thread
+     *
+     * @param soupName
+     * @param soupElts
+     * @param externalIdPath
+     * @param callback can be null
+     * @return future for the upserted soup elements
+     */
+    public Future<JSONArray> upsert(final String soupName, final List<JSONObject> soupElts, final String externalIdPath, Callback<JSONArray> callback) {
+        // Remembering which elements are new, a replay must not mistake them for updates
+        final boolean[] isNew = new boolean[soupElts.size()];
+        for (int i = 0; i < isNew.length; i++) {
+            isNew[i] = !soupElts.get(i).has(SmartStore.SOUP_ENTRY_ID);
+        }
+        return write(new Operation<JSONArray>() {
+            @Override
+            public JSONArray run(SmartStore store) throws Exception {
+                JSONArray results = new JSONArray();
+                for (int i = 0; i < isNew.length; i++) {
+                    JSONObject soupElt = soupElts.get(i);
+                    if (isNew[i]) {
+                        soupElt.remove(SmartStore.SOUP_ENTRY_ID);
+                    }
+                    results.put(store.upsert(soupName, soupElt, externalIdPath, false));
+                }
+                return results;
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete soup elements on the writer thread
+     *
+     * @param soupName
+     * @param soupEntryIds
+     * @param callback can be null
+     * @return
+     */
+    public Future<Void> delete(final String soupName, final Long[] soupEntryIds, Callback<Void> callback) {
+        return write(new Operation<Void>() {
+            @Override
+            public Void run(SmartStore store) throws Exception {
+                store.delete(soupName, soupEntryIds, false);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete soup elements matching query on the writer thread
+     *
+     * @param soupName
+     * @param querySpec
+     * @param callback can be null
+     * @return
+     */
+    public Future<Void> deleteByQuery(final String soupName, final QuerySpec querySpec, Callback<Void> callback) {
+        return write(new Operation<Void>() {
+            @Override
+            public Void run(SmartStore store) throws Exception {
+                store.deleteByQuery(soupName, querySpec, false);
+                return null;
+            }
+        }, callback);
+    }
+
+    private <T> Future<T> enqueue(Task<T> task) {
+        pendingWrites.add(task);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                drainWrites();
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Runs all pending writes (on the writer thread)
+     * Consecutive writes are grouped, exclusive writes run on their own
+     */
+    private void drainWrites() {
+        List<Task<?>> group = new ArrayList<>();
+        long groupDeadline = 0;
+        while (true) {
+            Task<?> task = pendingWrites.poll();
+
+            // Holding the group open for writes that are about to arrive
+            if (task == null && !group.isEmpty() && groupCommitWindowMillis > 0) {
+                long remaining = groupDeadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    try {
+                        task = pendingWrites.poll(remaining, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            if (task == null) {
+                break;
+            }
+            if (task.exclusive) {
+                commitGroup(group);
+                group.clear();
+                task.run();
+            } else {
+                if (group.isEmpty()) {
+                    groupDeadline = System.currentTimeMillis() + groupCommitWindowMillis;
+                }
+                group.add(task);
+                if (group.size() >= maxGroupSize) {
+                    commitGroup(group);
+                    group.clear();
+                }
+            }
+        }
+        commitGroup(group);
+    }
+
+    private void commitGroup(List<Task<?>> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        try {
+            runInTransaction(group);
+            recordGroupCommit(group.size());
+            for (Task<?> task : group) {
+                task.commit();
+            }
+        } catch (Exception e) {
+            if (group.size() == 1) {
+                group.get(0).fail(e);
+            } else {
+                // Everything got rolled back, replaying writes one by one so that only the failing one reports an error
+                SmartStoreLogger.w(TAG, "Group commit of " + group.size() + " writes failed, replaying them one by one", e);
+                for (Task<?> task : group) {
+                    commitGroup(Collections.<Task<?>>singletonList(task));
+                }
+            }
+        } catch (Error e) {
+            // Not replaying after an error (e.g. out of memory), failing the whole group so that no future is left pending
+            SmartStoreLogger.e(TAG, "Group commit of " + group.size() + " writes failed with an error", e);
+            for (Task<?> task : group) {
+                task.fail(e);
+            }
+        }
+    }
+
+    // Only called from the writer thread
+    private void recordGroupCommit(int groupSize) {
+        committedGroupCount.incrementAndGet();
+        committedWriteCount.addAndGet(groupSize);
+        if (groupSize > largestGroupSize.get()) {
+            largestGroupSize.set(groupSize);
+        }
+        SmartStoreLogger.d(TAG, "Committed " + groupSize + " writes in one transaction");
+    }
+
+    private void runInTransaction(List<Task<?>> group) throws Exception {
+        final SQLiteDatabase db = store.getDatabase();
+        synchronized (db) {
+            db.beginTransaction();
+            try {
+                for (Task<?> task : group) {
+                    task.execute();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Operation submitted to the async store
+     */
+    private class Task<T> extends FutureTask<T> {
+        final Operation<T> operation;
+        final Callback<T> callback;
+        final boolean exclusive;
+        private T result;
+
+        Task(final Operation<T> operation, Callback<T> callback, boolean exclusive) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return operation.run(store);
+                }
+            });
+            this.operation = operation;
+            this.callback = callback;
+            this.exclusive = exclusive;
+        }
+
+        /**
+         * Runs the operation without completing the future (done in {@link #commit()} once the transaction is committed)
+         */
+        void execute() throws Exception {
+            result = operation.run(store);
+        }
+
+        void commit() {
+            set(result);
+        }
+
+        void fail(Throwable e) {
+            setException(e);
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+            T value = null;
+            Exception error = null;
+            try {
+                value = get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                error = cause instanceof Exception ? (Exception) cause : e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                if (error == null) {
+                    callback.onSuccess(value);
+                } else {
+                    callback.onError(error);
+                }
+            } catch (RuntimeException e) {
+                SmartStoreLogger.e(TAG, "Callback failed", e);
+            }
+        }
+    }
+}
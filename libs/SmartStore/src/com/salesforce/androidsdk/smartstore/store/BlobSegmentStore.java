@@ -0,0 +1,568 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Segmented layout for the external storage of a soup (see {@link SoupSpec#FEATURE_EXTERNAL_STORAGE_SEGMENTS}).
+ *
+ * Instead of one file per soup element, (encrypted) blobs are appended to segment files.
+ * An index file (append-only log of id / segment / offset / length records) gives the location of each blob.
+ * Segments are read through memory mappings, and batched reads are sorted by location to be sequential.
+ * Segments in which most of the bytes belong to deleted or overwritten blobs are compacted in the background.
+ */
+public class BlobSegmentStore {
+
+    private static final String TAG = "BlobSegmentStore";
+
+    static final String INDEX_FILE = "segments.idx";
+    static final String SEGMENT_PREFIX = "segment_";
+    private static final String INDEX_TMP_FILE = INDEX_FILE + ".tmp";
+    private static final int INDEX_RECORD_SIZE = 8 + 4 + 8 + 4; // id, segment, offset, length
+    private static final int TOMBSTONE = -1;
+
+    // Segment rotation and compaction thresholds
+    private static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+
+    // One instance per blobs directory
+    private static final Map<String, BlobSegmentStore> INSTANCES = new HashMap<>();
+
+    // Compactions run in the background
+    private static final ExecutorService COMPACTION_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final File dir;
+    private final Map<Long, Location> index = new HashMap<>();
+    private final Map<Integer, Long> segmentSizes = new HashMap<>();
+    private final Map<Integer, Long> segmentLiveBytes = new HashMap<>();
+    private final Map<Integer, MappedByteBuffer> mappedSegments = new HashMap<>();
+    private int activeSegment;
+    private RandomAccessFile activeSegmentFile;
+    private DataOutputStream indexOut;
+    private long indexRecords;
+    private boolean compactionScheduled;
+    private boolean closed;
+
+    /**
+     * Returns the segment store for the given blobs directory, loading its index if needed.
+     *
+     * @param dir Blobs directory of the soup.
+     * @return BlobSegmentStore instance.
+     */
+    public static synchronized BlobSegmentStore getInstance(File dir) {
+        String key = dir.getAbsolutePath();
+        BlobSegmentStore instance = INSTANCES.get(key);
+        if (instance == null) {
+            instance = new BlobSegmentStore(dir);
+            INSTANCES.put(key, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Closes and forgets the segment stores for the given directory and its sub directories.
+     *
+     * @param dir Directory about to be deleted.
+     */
+    public static synchronized void removeInstances(File dir) {
+        String prefix = dir.getAbsolutePath();
+        Iterator<Map.Entry<String, BlobSegmentStore>> it = INSTANCES.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, BlobSegmentStore> entry = it.next();
+            if (entry.getKey().equals(prefix) || entry.getKey().startsWith(prefix + File.separator)) {
+                entry.getValue().close();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param dir Blobs directory of the soup.
+     * @return True if the directory uses the segmented layout.
+     */
+    public static boolean isSegmented(File dir) {
+        return new File(dir, INDEX_FILE).exists();
+    }
+
+    private BlobSegmentStore(File dir) {
+        this.dir = dir;
+        load();
+    }
+
+    /**
+     * Creates the index file (which marks the directory as using the segmented layout).
+     *
+     * @return True if successful.
+     */
+    public synchronized boolean create() {
+        try {
+            dir.mkdirs();
+            File indexFile = new File(dir, INDEX_FILE);
+            return indexFile.exists() || indexFile.createNewFile();
+        } catch (IOException e) {
+            SmartStoreLogger.e(TAG, "Exception occurred while creating segment index", e);
+            return false;
+        }
+    }
+
+    /**
+     * Appends a blob to the active segment (previous version if any becomes garbage).
+     *
+     * @param id Soup entry id.
+     * @param data Encrypted blob.
+     * @return True if successful.
+     */
+    public synchronized boolean put(long id, byte[] data) {
+        if (closed) {
+            SmartStoreLogger.w(TAG, "Segment store closed, could not append blob " + id);
+            return false;
+        }
+        try {
+            Location location = append(data);
+            writeIndexRecord(id, location);
+            setLocation(id, location);
+            maybeScheduleCompaction();
+            return true;
+        } catch (IOException e) {
+            SmartStoreLogger.e(TAG, "Exception occurred while appending blob " + id, e);
+            return false;
+        }
+    }
+
+    /**
+     * @param id Soup entry id.
+     * @return Encrypted blob or null if not found.
+     */
+    public synchronized byte[] get(long id) {
+        Location location = index.get(id);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return read(location);
+        } catch (IOException e) {
+            SmartStoreLogger.e(TAG, "Exception occurred while reading blob " + id, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads several blobs, in segment / offset order so that reads are sequential.
+     *
+     * @param ids Soup entry ids.
+     * @return Map of soup entry id to encrypted blob (missing blobs are absent).
+     */
+    public synchronized Map<Long, byte[]> getAll(Collection<Long> ids) {
+        List<Map.Entry<Long, Location>> locations = new ArrayList<>();
+        for (Long id : ids) {
+            Location location = index.get(id);
+            if (location != null) {
+                locations.add(new AbstractMap.SimpleEntry<>(id, location));
+            }
+        }
+        Collections.sort(locations, new Comparator<Map.Entry<Long, Location>>() {
+            @Override
+            public int compare(Map.Entry<Long, Location> a, Map.Entry<Long, Location> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        Map<Long, byte[]> result = new LinkedHashMap<>();
+        for (Map.Entry<Long, Location> entry : locations) {
+            try {
+                result.put(entry.getKey(), read(entry.getValue()));
+            } catch (IOException e) {
+                SmartStoreLogger.e(TAG, "Exception occurred while reading blob " + entry.getKey(), e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param id Soup entry id.
+     * @return True if the blob existed.
+     */
+    public synchronized boolean remove(long id) {
+        if (closed || !index.containsKey(id)) {
+            return false;
+        }
+        try {
+            writeIndexRecord(id, null);
+            setLocation(id, null);
+            maybeScheduleCompaction();
+            return true;
+        } catch (IOException e) {
+            SmartStoreLogger.e(TAG, "Exception occurred while removing blob " + id, e);
+            return false;
+        }
+    }
+
+    /**
+     * @return Soup entry ids of all the blobs stored.
+     */
+    public synchronized Set<Long> getIds() {
+        return new HashSet<>(index.keySet());
+    }
+
+    /**
+     * Rewrites the live blobs of segments that are mostly garbage into the active segment
+     * then deletes those segments and rewrites the index.
+     *
+     * @param force True to compact every segment regardless of its garbage ratio.
+     */
+    public synchronized void compact(boolean force) {
+        compactionScheduled = false;
+        if (closed) {
+            // Directory may have been deleted or converted back to one file per blob
+            return;
+        }
+        try {
+            Set<Integer> segmentsToCompact = new HashSet<>();
+            for (Map.Entry<Integer, Long> entry : segmentSizes.entrySet()) {
+                int segment = entry.getKey();
+                if (segment == activeSegment && !force) {
+                    continue;
+                }
+                long size = entry.getValue();
+                long live = getOrZero(segmentLiveBytes, segment);
+                if (force || (size > 0 && (size - live) >= size * COMPACTION_GARBAGE_RATIO)) {
+                    segmentsToCompact.add(segment);
+                }
+            }
+            if (segmentsToCompact.isEmpty()) {
+                return;
+            }
+            if (segmentsToCompact.contains(activeSegment)) {
+                rotate();
+            }
+
+            // Moving live blobs out of compacted segments
+            for (Map.Entry<Long, Location> entry : new ArrayList<>(index.entrySet())) {
+                if (segmentsToCompact.contains(entry.getValue().segment)) {
+                    setLocation(entry.getKey(), append(read(entry.getValue())));
+                }
+            }
+
+            // Index is rewritten before segments are deleted
+            rewriteIndex();
+            for (int segment : segmentsToCompact) {
+                mappedSegments.remove(segment);
+                segmentSizes.remove(segment);
+                segmentLiveBytes.remove(segment);
+                getSegmentFile(segment).delete();
+            }
+        } catch (IOException e) {
+            SmartStoreLogger.e(TAG, "Exception occurred while compacting segments", e);
+        }
+    }
+
+    /**
+     * Re-encrypts every blob with a new key.
+     *
+     * @param oldKey Old encryption key.
+     * @param newKey New encryption key.
+     */
+    public synchronized void reEncrypt(String oldKey, String newKey) {
+        if (closed) {
+            return;
+        }
+        try {
+            // One blob at a time, in location order so that reads are sequential
+            List<Map.Entry<Long, Location>> locations = new ArrayList<>(index.entrySet());
+            Collections.sort(locations, new Comparator<Map.Entry<Long, Location>>() {
+                @Override
+                public int compare(Map.Entry<Long, Location> a, Map.Entry<Long, Location> b) {
+                    return a.getValue().compareTo(b.getValue());
+                }
+            });
+
+            // Re-encrypted blobs can span several new segments, only the old ones get deleted
+            Set<Integer> oldSegments = new HashSet<>(segmentSizes.keySet());
+            rotate();
+            for (Map.Entry<Long, Location> entry : locations) {
+                String blob = Encryptor.decrypt(read(entry.getValue()), oldKey);
+                byte[] data = blob == null ? null : Encryptor.encryptBytes(blob, newKey);
+                if (data != null) {
+                    setLocation(entry.getKey(), append(data));
+                }
+            }
+            rewriteIndex();
+            for (int segment : oldSegments) {
+                mappedSegments.remove(segment);
+                segmentSizes.remove(segment);
+                segmentLiveBytes.remove(segment);
+                getSegmentFile(segment).delete();
+            }
+        } catch (IOException e) {
+            SmartStoreLogger.e(TAG, "Exception occurred while re-encrypting segments", e);
+        }
+    }
+
+    /**
+     * Closes open files and drops memory mappings.
+     */
+    public synchronized void close() {
+        closed = true;
+        mappedSegments.clear();
+        closeQuietly();
+    }
+
+    private void load() {
+        File indexFile = new File(dir, INDEX_FILE);
+        if (indexFile.exists()) {
+            long records = indexFile.length() / INDEX_RECORD_SIZE;
+
+            // Dropping a partial record left by a crash, appends would be misaligned otherwise
+            if (indexFile.length() != records * INDEX_RECORD_SIZE) {
+                try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+                    file.setLength(records * INDEX_RECORD_SIZE);
+                } catch (IOException e) {
+                    SmartStoreLogger.e(TAG, "Exception occurred while truncating segment index", e);
+                }
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                for (long i = 0; i < records; i++) {
+                    long id = in.readLong();
+                    int segment = in.readInt();
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (length == TOMBSTONE) {
+                        index.remove(id);
+                    } else {
+                        index.put(id, new Location(segment, offset, length));
+                    }
+                }
+                indexRecords = records;
+            } catch (IOException e) {
+                SmartStoreLogger.e(TAG, "Exception occurred while loading segment index", e);
+            }
+        }
+        String[] fileNames = dir.list();
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.startsWith(SEGMENT_PREFIX)) {
+                    int segment = Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length()));
+                    segmentSizes.put(segment, new File(dir, fileName).length());
+                    activeSegment = Math.max(activeSegment, segment);
+                }
+            }
+        }
+        for (Location location : index.values()) {
+            segmentLiveBytes.put(location.segment, getOrZero(segmentLiveBytes, location.segment) + location.length);
+        }
+    }
+
+    private Location append(byte[] data) throws IOException {
+        long activeSize = getOrZero(segmentSizes, activeSegment);
+        if (activeSize > 0 && activeSize + data.length > MAX_SEGMENT_SIZE) {
+            rotate();
+            activeSize = 0;
+        }
+        if (activeSegmentFile == null) {
+            activeSegmentFile = new RandomAccessFile(getSegmentFile(activeSegment), "rw");
+        }
+        activeSegmentFile.seek(activeSize);
+        activeSegmentFile.write(data);
+        segmentSizes.put(activeSegment, activeSize + data.length);
+        return new Location(activeSegment, activeSize, data.length);
+    }
+
+    private void rotate() throws IOException {
+        if (activeSegmentFile != null) {
+            activeSegmentFile.close();
+            activeSegmentFile = null;
+        }
+        activeSegment++;
+    }
+
+    private byte[] read(Location location) throws IOException {
+        MappedByteBuffer mapped = mappedSegments.get(location.segment);
+        if (mapped == null || mapped.capacity() < location.offset + location.length) {
+            try (RandomAccessFile file = new RandomAccessFile(getSegmentFile(location.segment), "r")) {
+                FileChannel channel = file.getChannel();
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mappedSegments.put(location.segment, mapped);
+        }
+        byte[] data = new byte[location.length];
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) location.offset);
+        view.get(data);
+        return data;
+    }
+
+    private void writeIndexRecord(long id, Location location) throws IOException {
+        if (indexOut == null) {
+            indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, INDEX_FILE), true)));
+        }
+        indexOut.writeLong(id);
+        indexOut.writeInt(location == null ? TOMBSTONE : location.segment);
+        indexOut.writeLong(location == null ? TOMBSTONE : location.offset);
+        indexOut.writeInt(location == null ? TOMBSTONE : location.length);
+        indexOut.flush();
+        indexRecords++;
+    }
+
+    private void rewriteIndex() throws IOException {
+        if (indexOut != null) {
+            indexOut.close();
+            indexOut = null;
+        }
+        File tmpFile = new File(dir, INDEX_TMP_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile, false)))) {
+            for (Map.Entry<Long, Location> entry : index.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeInt(entry.getValue().segment);
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().length);
+            }
+        }
+        if (!tmpFile.renameTo(new File(dir, INDEX_FILE))) {
+            throw new IOException("Could not replace segment index");
+        }
+        indexRecords = index.size();
+    }
+
+    private void setLocation(long id, Location location) {
+        Location previous = location == null ? index.remove(id) : index.put(id, location);
+        if (previous != null) {
+            segmentLiveBytes.put(previous.segment, getOrZero(segmentLiveBytes, previous.segment) - previous.length);
+        }
+        if (location != null) {
+            segmentLiveBytes.put(location.segment, getOrZero(segmentLiveBytes, location.segment) + location.length);
+        }
+    }
+
+    private void maybeScheduleCompaction() {
+        if (compactionScheduled) {
+            return;
+        }
+        boolean needed = indexRecords > 2 * Math.max(index.size(), 1024); // index log mostly made of stale records
+        for (Map.Entry<Integer, Long> entry : segmentSizes.entrySet()) {
+            int segment = entry.getKey();
+            long size = entry.getValue();
+            if (segment != activeSegment && size > 0
+                    && (size - getOrZero(segmentLiveBytes, segment)) >= size * COMPACTION_GARBAGE_RATIO) {
+                needed = true;
+                break;
+            }
+        }
+        if (needed) {
+            compactionScheduled = true;
+            COMPACTION_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact(false);
+                    synchronized (BlobSegmentStore.this) {
+                        try {
+                            if (!closed && indexRecords > index.size()) {
+                                rewriteIndex();
+                            }
+                        } catch (IOException e) {
+                            SmartStoreLogger.e(TAG, "Exception occurred while rewriting segment index", e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (activeSegmentFile != null) {
+                activeSegmentFile.close();
+            }
+            if (indexOut != null) {
+                indexOut.close();
+            }
+        } catch (IOException e) {
+            SmartStoreLogger.e(TAG, "Exception occurred while closing segment files", e);
+        }
+        activeSegmentFile = null;
+        indexOut = null;
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(dir, SEGMENT_PREFIX + segment);
+    }
+
+    private static <K> long getOrZero(Map<K, Long> map, K key) {
+        Long value = map.get(key);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Location of a blob in a segment
+     */
+    private static class Location implements Comparable<Location> {
+        final int segment;
+        final long offset;
+        final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Location other) {
+            if (segment != other.segment) {
+                return segment < other.segment ? -1 : 1;
+            }
+            return offset < other.offset ? -1 : (offset == other.offset ? 0 : 1);
+        }
+    }
+}
@@ -118,6 +118,9 @@ public class DBHelper {
 	// Last explain query plan
 	private JSONObject lastExplainQueryPlan;
 
+	// Boolean to turn projection of non-indexed select paths on or off
+	private boolean projectUnindexedPaths;
+
 	/**
 	 * @param soupName
 	 * @param tableName
@@ -591,6 +594,22 @@ public class DBHelper {
 		return lastExplainQueryPlan;
 	}
 
+	/**
+	 * If turned on, non-indexed paths referenced in the select clause of a smart sql query are extracted
+	 * from the stored soup element during the read (instead of failing)
+	 * @param projectUnindexedPaths true to turn projection on and false to turn off
+	 */
+	public void setProjectUnindexedPaths(boolean projectUnindexedPaths) {
+		this.projectUnindexedPaths = projectUnindexedPaths;
+	}
+
+	/**
+	 * @return true if non-indexed select paths are extracted from the stored soup element
+	 */
+	public boolean getProjectUnindexedPaths() {
+		return projectUnindexedPaths;
+	}
+
 
    protected String getSoupTableNameFromDb(SQLiteDatabase db, String soupName) {
        Cursor cursor = null;
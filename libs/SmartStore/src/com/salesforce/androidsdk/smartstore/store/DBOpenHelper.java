@@ -50,9 +50,13 @@ import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Helper class to manage SmartStore's database creation and version management.
@@ -62,7 +66,8 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	// 1 --> up until 2.3
 	// 2 --> starting at 2.3 (new meta data table long_operations_status)
 	// 3 --> starting at 4.3 (soup_names table changes to soup_attr)
-	public static final int DB_VERSION = 3;
+	// 4 --> starting at 6.2 (new soup feature for segmented external storage)
+	public static final int DB_VERSION = 4;
 	public static final String DEFAULT_DB_NAME = "smartstore";
 	public static final String SOUP_ELEMENT_PREFIX = "soupelt_";
 	private static final String TAG = "DBOpenHelper";
@@ -73,6 +78,12 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	private static String dataDir;
 	private String dbName;
 
+	// Cache of soup table name to boolean indicating if its external blobs are packed into segments
+	private final Map<String, Boolean> soupTableNameToUsesBlobSegments = new ConcurrentHashMap<>();
+
+	// Cache of soup table name to total size of its external blob files (one file per blob layout only), kept up to date on write and delete
+	private final ConcurrentMap<String, AtomicLong> soupTableNameToBlobsSize = new ConcurrentHashMap<>();
+
 	/*
 	 * Cache for the helper instances
 	 */
@@ -267,6 +278,12 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 			SmartStore.updateTableNameAndAddColumns(db, SmartStore.SOUP_NAMES_TABLE,
 													SmartStore.SOUP_ATTRS_TABLE, new String[] { SoupSpec.FEATURE_EXTERNAL_STORAGE });
 		}
+
+		if (oldVersion < 4) {
+			// DB versions before 4 did not have the segmented external storage feature
+			SmartStore.updateTableNameAndAddColumns(db, SmartStore.SOUP_ATTRS_TABLE,
+													null, new String[] { SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS });
+		}
 	}
 
 	@Override
@@ -321,7 +338,8 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 			dbName.append(DB_NAME_SUFFIX);
 			final String fullDBName = dbName.toString();
 
-			// Close and remove the helper from the cache if it exists.
+			// Stop the async store and close and remove the helper from the cache if it exists.
+			AsyncSmartStore.removeInstances(ctx.getDatabasePath(fullDBName).getPath());
 			final DBOpenHelper helper = openHelpers.get(fullDBName);
 			if (helper != null) {
 				helper.close();
@@ -342,6 +360,7 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 			// Delete external blobs directory
 			StringBuilder blobsDbPath = new StringBuilder(ctx.getApplicationInfo().dataDir);
 			blobsDbPath.append("/databases/").append(fullDBName).append(EXTERNAL_BLOBS_SUFFIX);
+			BlobSegmentStore.removeInstances(new File(blobsDbPath.toString()));
 			removeAllFiles(new File(blobsDbPath.toString()));
 		} catch (Exception e) {
             SmartStoreLogger.e(TAG, "Exception occurred while attemption to delete database", e);
@@ -495,8 +514,8 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	 *
 	 * @return Size of all files in all subdirectories.
 	 */
-	public int getSizeOfDir(File subDir) {
-		int size = 0;
+	public long getSizeOfDir(File subDir) {
+		long size = 0;
 		if (subDir == null) {
 			// Top level directory
 			subDir = new File(getExternalSoupBlobsPath(null));
@@ -516,6 +535,56 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 		return size;
 	}
 
+	/**
+	 * Determines size of the external blobs of the given soup.
+	 * With one file per blob, the directory is only walked the first time, the size is then maintained as blobs get written and removed.
+	 *
+	 * @param soupTableName Soup name to which the blobs belong.
+	 *
+	 * @return Size in bytes of the external blobs of the soup.
+	 */
+	public long getExternalBlobsSize(String soupTableName) {
+		File blobsDirectory = new File(getExternalSoupBlobsPath(soupTableName));
+		if (usesBlobSegments(soupTableName)) {
+			// Only a few segment files
+			return getSizeOfDir(blobsDirectory);
+		}
+		AtomicLong size = soupTableNameToBlobsSize.get(soupTableName);
+		if (size == null) {
+			AtomicLong computedSize = new AtomicLong(getSizeOfDir(blobsDirectory));
+			size = soupTableNameToBlobsSize.putIfAbsent(soupTableName, computedSize);
+			if (size == null) {
+				size = computedSize;
+			}
+		}
+		return size.get();
+	}
+
+	/**
+	 * Determines size of the external blobs of all soups.
+	 *
+	 * @return Size in bytes of all external blobs.
+	 */
+	public long getExternalBlobsSize() {
+		long size = 0;
+		File[] blobsDirectories = new File(getExternalSoupBlobsPath(null)).listFiles();
+		if (blobsDirectories != null) {
+			for (File blobsDirectory : blobsDirectories) {
+				if (blobsDirectory.isDirectory()) {
+					size += getExternalBlobsSize(blobsDirectory.getName());
+				}
+			}
+		}
+		return size;
+	}
+
+	private void updateExternalBlobsSize(String soupTableName, long delta) {
+		AtomicLong size = soupTableNameToBlobsSize.get(soupTableName);
+		if (size != null) {
+			size.addAndGet(delta);
+		}
+	}
+
 	/**
 	 * Removes all files and folders in the given directory recursively as well as removes itself.
 	 *
@@ -550,10 +619,90 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	 * @return True if directory was created, false otherwise.
 	 */
 	public boolean createExternalBlobsDirectory(String soupTableName) {
+		soupTableNameToBlobsSize.remove(soupTableName);
 		File blobsDirectory = new File(getExternalSoupBlobsPath(soupTableName));
 		return blobsDirectory.mkdirs();
 	}
 
+	/**
+	 * Creates the folder for external blobs for the given soup name.
+	 *
+	 * @param soupTableName Soup for which to create the external blobs folder
+	 * @param segmented True to pack blobs into segment files (see {@link BlobSegmentStore}), false to use one file per blob
+	 *
+	 * @return True if directory was created, false otherwise.
+	 */
+	public boolean createExternalBlobsDirectory(String soupTableName, boolean segmented) {
+		boolean created = createExternalBlobsDirectory(soupTableName);
+		if (segmented) {
+			created &= getBlobSegmentStore(soupTableName).create();
+		}
+		soupTableNameToUsesBlobSegments.remove(soupTableName);
+		return created;
+	}
+
+	/**
+	 * Determines if the external blobs of the given soup are packed into segment files.
+	 *
+	 * @param soupTableName Soup name to which the blobs belong.
+	 *
+	 * @return True if blobs are stored in segments, false if they are stored one file per blob.
+	 */
+	public boolean usesBlobSegments(String soupTableName) {
+		Boolean usesBlobSegments = soupTableNameToUsesBlobSegments.get(soupTableName);
+		if (usesBlobSegments == null) {
+			usesBlobSegments = BlobSegmentStore.isSegmented(new File(getExternalSoupBlobsPath(soupTableName)));
+			soupTableNameToUsesBlobSegments.put(soupTableName, usesBlobSegments);
+		}
+		return usesBlobSegments;
+	}
+
+	private BlobSegmentStore getBlobSegmentStore(String soupTableName) {
+		return BlobSegmentStore.getInstance(new File(getExternalSoupBlobsPath(soupTableName)));
+	}
+
+	/**
+	 * Moves the external blobs of the given soup between the one file per blob layout and the segmented layout.
+	 *
+	 * @param soupTableName Soup name to which the blobs belong.
+	 * @param segmented True to move blobs into segments, false to move them out of segments.
+	 */
+	public void convertExternalBlobsLayout(String soupTableName, boolean segmented) {
+		File blobsDirectory = new File(getExternalSoupBlobsPath(soupTableName));
+		if (segmented) {
+			BlobSegmentStore segmentStore = getBlobSegmentStore(soupTableName);
+			segmentStore.create();
+			File[] blobs = blobsDirectory.listFiles();
+			if (blobs != null) {
+				for (File blob : blobs) {
+					if (blob.getName().startsWith(SOUP_ELEMENT_PREFIX)) {
+						long soupEntryId = Long.parseLong(blob.getName().substring(SOUP_ELEMENT_PREFIX.length()));
+						byte[] data = readFile(blob);
+						if (data != null && segmentStore.put(soupEntryId, data)) {
+							blob.delete();
+						}
+					}
+				}
+			}
+		} else if (usesBlobSegments(soupTableName)) {
+			BlobSegmentStore segmentStore = getBlobSegmentStore(soupTableName);
+			for (long soupEntryId : segmentStore.getIds()) {
+				writeFile(getSoupBlobFile(soupTableName, soupEntryId), segmentStore.get(soupEntryId));
+			}
+			BlobSegmentStore.removeInstances(blobsDirectory);
+			File[] files = blobsDirectory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (!file.getName().startsWith(SOUP_ELEMENT_PREFIX)) {
+						file.delete();
+					}
+				}
+			}
+		}
+		soupTableNameToUsesBlobSegments.remove(soupTableName);
+		soupTableNameToBlobsSize.remove(soupTableName);
+	}
+
 	/**
 	 * Removes the folder for external blobs for the given soup name.
 	 *
@@ -563,6 +712,9 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	 */
 	public boolean removeExternalBlobsDirectory(String soupTableName) {
 		if (dataDir != null) {
+			BlobSegmentStore.removeInstances(new File(getExternalSoupBlobsPath(soupTableName)));
+			soupTableNameToUsesBlobSegments.remove(soupTableName);
+			soupTableNameToBlobsSize.remove(soupTableName);
 			return removeAllFiles(new File(getExternalSoupBlobsPath(soupTableName)));
 		} else {
 			return false;
@@ -583,6 +735,10 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 			File[] tables = dir.listFiles();
 			if (tables != null) {
 				for (File table : tables) {
+					if (BlobSegmentStore.isSegmented(table)) {
+						BlobSegmentStore.getInstance(table).reEncrypt(oldKey, newKey);
+						continue;
+					}
 					File[] blobs = table.listFiles();
 					if (blobs != null) {
 						for (File blob : blobs) {
@@ -635,15 +791,18 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	 * @return True if operation was successful, false otherwise.
 	 */
 	public boolean saveSoupBlobFromString(String soupTableName, long soupEntryId, String soupEltStr, String encryptionKey) {
+		byte[] data = Encryptor.encryptBytes(soupEltStr, encryptionKey);
+		if (data == null) {
+			return false;
+		}
+		if (usesBlobSegments(soupTableName)) {
+			return getBlobSegmentStore(soupTableName).put(soupEntryId, data);
+		}
 		File file = getSoupBlobFile(soupTableName, soupEntryId);
-		try (FileOutputStream outputStream = new FileOutputStream(file, false)) {
-			byte[] data = Encryptor.encryptBytes(soupEltStr, encryptionKey);
-			if (data != null) {
-				outputStream.write(data);
-				return true;
-			}
-		} catch (IOException ex) {
-            SmartStoreLogger.e(TAG, "Exception occurred while attempting to write external soup blob", ex);
+		long previousLength = file.length();
+		if (writeFile(file, data)) {
+			updateExternalBlobsSize(soupTableName, data.length - previousLength);
+			return true;
 		}
 		return false;
 	}
@@ -680,16 +839,47 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	 * @return The blob from file storage represented as String. Returns null if there was an error.
 	 */
 	public String loadSoupBlobAsString(String soupTableName, long soupEntryId, String encryptionKey) {
-		File file = getSoupBlobFile(soupTableName, soupEntryId);
-		try (FileInputStream f = new FileInputStream(file)) {
-			DataInputStream data = new DataInputStream(f);
-			byte[] bytes = new byte[(int) file.length()];
-			data.readFully(bytes);
-			return Encryptor.decrypt(bytes, encryptionKey);
-		} catch (IOException ex) {
-            SmartStoreLogger.e(TAG, "Exception occurred while attempting to read external soup blob", ex);
+		byte[] bytes;
+		if (usesBlobSegments(soupTableName)) {
+			bytes = getBlobSegmentStore(soupTableName).get(soupEntryId);
+		} else {
+			bytes = readFile(getSoupBlobFile(soupTableName, soupEntryId));
 		}
-		return null;
+		return bytes == null ? null : Encryptor.decrypt(bytes, encryptionKey);
+	}
+
+	/**
+	 * Retrieves the soup blobs for the given soup entry ids from file storage.
+	 * With the segmented layout, blobs are read sequentially in the order they are laid out in the segments.
+	 *
+	 * @param soupTableName Soup name to which the blobs belong.
+	 * @param soupEntryIds Entry ids for the requested soup blobs.
+	 * @param encryptionKey Key with which to decrypt the data.
+	 *
+	 * @return Map of soup entry id to blob represented as JSON. Blobs that could not be read are absent.
+	 */
+	public Map<Long, JSONObject> loadSoupBlobs(String soupTableName, Collection<Long> soupEntryIds, String encryptionKey) {
+		Map<Long, JSONObject> result = new HashMap<>();
+		if (usesBlobSegments(soupTableName)) {
+			for (Map.Entry<Long, byte[]> entry : getBlobSegmentStore(soupTableName).getAll(soupEntryIds).entrySet()) {
+				try {
+					String soupBlobString = Encryptor.decrypt(entry.getValue(), encryptionKey);
+					if (soupBlobString != null) {
+						result.put(entry.getKey(), new JSONObject(soupBlobString));
+					}
+				} catch (JSONException ex) {
+					SmartStoreLogger.e(TAG, "Exception occurred while attempting to read external soup blob", ex);
+				}
+			}
+		} else {
+			for (long soupEntryId : soupEntryIds) {
+				JSONObject soupBlob = loadSoupBlob(soupTableName, soupEntryId, encryptionKey);
+				if (soupBlob != null) {
+					result.put(soupEntryId, soupBlob);
+				}
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -703,9 +893,21 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	public boolean removeSoupBlob(String soupTableName, Long[] soupEntryIds) {
 		File file;
 		boolean success = true;
+		if (usesBlobSegments(soupTableName)) {
+			BlobSegmentStore segmentStore = getBlobSegmentStore(soupTableName);
+			for (long soupEntryId : soupEntryIds) {
+				success &= segmentStore.remove(soupEntryId);
+			}
+			return success;
+		}
 		for (long soupEntryId : soupEntryIds) {
 			file = getSoupBlobFile(soupTableName, soupEntryId);
-			success &= file.delete();
+			long length = file.length();
+			if (file.delete()) {
+				updateExternalBlobsSize(soupTableName, -length);
+			} else {
+				success = false;
+			}
 		}
 		return success;
 	}
@@ -721,4 +923,29 @@ public class DBOpenHelper extends SQLiteOpenHelper {
 	public File getSoupBlobFile(String soupTableName, long soupEntryId) {
 		return new File(getExternalSoupBlobsPath(soupTableName), SOUP_ELEMENT_PREFIX + soupEntryId);
 	}
+
+	private static byte[] readFile(File file) {
+		try (FileInputStream f = new FileInputStream(file)) {
+			DataInputStream data = new DataInputStream(f);
+			byte[] bytes = new byte[(int) file.length()];
+			data.readFully(bytes);
+			return bytes;
+		} catch (IOException ex) {
+            SmartStoreLogger.e(TAG, "Exception occurred while attempting to read external soup blob", ex);
+		}
+		return null;
+	}
+
+	private static boolean writeFile(File file, byte[] data) {
+		if (data == null) {
+			return false;
+		}
+		try (FileOutputStream outputStream = new FileOutputStream(file, false)) {
+			outputStream.write(data);
+			return true;
+		} catch (IOException ex) {
+            SmartStoreLogger.e(TAG, "Exception occurred while attempting to write external soup blob", ex);
+		}
+		return false;
+	}
 }
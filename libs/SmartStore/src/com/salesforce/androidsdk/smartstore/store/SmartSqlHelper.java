@@ -26,6 +26,8 @@
  */
 package com.salesforce.androidsdk.smartstore.store;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -44,6 +46,8 @@ import com.salesforce.androidsdk.smartstore.store.SmartStore.SmartStoreException
 public class SmartSqlHelper  {
 
 	public static final Pattern SOUP_PATH_PATTERN = Pattern.compile("\\{([^}]+)\\}");
+	public static final String EXTERNAL_PROJECTION_PREFIX = SoupSpec.FEATURE_EXTERNAL_STORAGE + "_projection:";
+	public static final String SOUP_PROJECTION_PREFIX = SmartStore.SOUP_COL + "_projection:";
 	private static Map<SQLiteDatabase, SmartSqlHelper> INSTANCES;
 
 	/**
@@ -73,6 +77,9 @@ public class SmartSqlHelper  {
 	 * NB: only select's are allowed
 	 *     only indexed path can be referenced (alternatively you can do {soupName:_soupEntryId} or {soupName:_soupLastModifiedDate}
 	 *     to get an entire soup element back, do {soupName:_soup}
+	 *     if projection of non-indexed paths is turned on (see {@link DBHelper#setProjectUnindexedPaths(boolean)}),
+	 *     non-indexed paths can be referenced in the select clause: they are extracted from the soup element
+	 *     with a {@link SoupFieldExtractor} when the row is read
 	 *
 	 * @param db
 	 * @param smartSql
@@ -86,6 +93,10 @@ public class SmartSqlHelper  {
 			throw new SmartSqlException("Only SELECT are supported");
 		}
 
+		// Non-indexed paths can only be projected in select clauses (including the ones of sub queries)
+		boolean projectUnindexedPaths = DBHelper.getInstance(db).getProjectUnindexedPaths();
+		boolean[] inSelectClause = projectUnindexedPaths ? computeSelectClauses(smartSql) : null;
+
 		// Replacing {soupName} and {soupName:path}
 		StringBuffer sql = new StringBuffer();
 		Matcher matcher = SOUP_PATH_PATTERN.matcher(smartSql);
@@ -128,6 +139,11 @@ public class SmartSqlHelper  {
 				else if (path.equals(SmartStore.SOUP_LAST_MODIFIED_DATE)) {
 					matcher.appendReplacement(sql, tableQualifier + SmartStore.LAST_MODIFIED_COL);
 				}
+				// {soupName:path} with path not indexed in select clause
+				else if (projectUnindexedPaths && inSelectClause[position] && !isIndexedPath(db, soupName, path)) {
+					String projection = getProjectionForPathForSmartSql(soupTableName, tableQualifier, path, useExternalStorage);
+					matcher.appendReplacement(sql, Matcher.quoteReplacement(projection));
+				}
 				// {soupName:path}
 				else {
 					String columnName = getColumnNameForPathForSmartSql(db, soupName, path, position);
@@ -161,6 +177,81 @@ public class SmartSqlHelper  {
 		return columnName;
 	}
 
+	/**
+	 * Flags the characters of the smart sql that are in a select clause, i.e. between a select and its from
+	 * at the same parenthesis level (so that wrapped queries like select count(*) from (select ... from ...)
+	 * have their inner select clause flagged too)
+	 */
+	private static boolean[] computeSelectClauses(String smartSql) {
+		String smartSqlLowerCase = smartSql.toLowerCase(Locale.getDefault());
+		int length = smartSqlLowerCase.length();
+		boolean[] inSelectClause = new boolean[length];
+		Deque<Boolean> enclosingStates = new ArrayDeque<>();
+		boolean inSelect = false;
+		int i = 0;
+		while (i < length) {
+			char c = smartSqlLowerCase.charAt(i);
+
+			// Literals and soup/path references can't contain keywords or parenthesis
+			if (c == '\'' || c == '{') {
+				int end = smartSqlLowerCase.indexOf(c == '{' ? '}' : '\'', i + 1);
+				end = end < 0 ? length : end + 1;
+				for (int j = i; j < end; j++) {
+					inSelectClause[j] = inSelect;
+				}
+				i = end;
+				continue;
+			}
+			if (c == '(') {
+				enclosingStates.push(inSelect);
+				inSelect = false;
+			} else if (c == ')') {
+				inSelect = !enclosingStates.isEmpty() && enclosingStates.pop();
+			} else if (isKeywordAt(smartSqlLowerCase, i, "select")) {
+				inSelect = true;
+			} else if (isKeywordAt(smartSqlLowerCase, i, "from")) {
+				inSelect = false;
+			}
+			inSelectClause[i] = inSelect;
+			i++;
+		}
+		return inSelectClause;
+	}
+
+	private static boolean isKeywordAt(String sql, int position, String keyword) {
+		int end = position + keyword.length();
+		return sql.startsWith(keyword, position)
+				&& (position == 0 || !isIdentifierChar(sql.charAt(position - 1)))
+				&& (end == sql.length() || !isIdentifierChar(sql.charAt(end)));
+	}
+
+	private static boolean isIdentifierChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	private boolean isIndexedPath(SQLiteDatabase db, String soupName, String path) {
+		for (IndexSpec indexSpec : DBHelper.getInstance(db).getIndexSpecs(db, soupName)) {
+			if (indexSpec.path.equals(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Soup stored in db: soup is returned in a column named soup_projection:soupTableName:path
+	 * Soup stored externally: soup entry id is returned in a column named externalStorage_projection:soupTableName:path
+	 * In both cases the value is extracted by SmartStore when reading the row (same results as SmartStore.project,
+	 * and json1 support is not needed)
+	 */
+	private String getProjectionForPathForSmartSql(String soupTableName, String tableQualifier, String path, boolean useExternalStorage) {
+		if (useExternalStorage) {
+			return String.format("%s%s as '%s%s:%s'", tableQualifier, SmartStore.ID_COL, EXTERNAL_PROJECTION_PREFIX, soupTableName, path.replace("'", "''"));
+		} else {
+			return String.format("%s%s as '%s%s:%s'", tableQualifier, SmartStore.SOUP_COL, SOUP_PROJECTION_PREFIX, soupTableName, path.replace("'", "''"));
+		}
+	}
+
 	private String getSoupTableNameForSmartSql(SQLiteDatabase db, String soupName, int position) {
 		String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 		if (soupTableName == null) {
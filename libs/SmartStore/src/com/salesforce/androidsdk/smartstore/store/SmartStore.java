@@ -37,6 +37,7 @@ import com.salesforce.androidsdk.smartstore.store.LongOperation.LongOperationTyp
 import com.salesforce.androidsdk.smartstore.store.QuerySpec.QueryType;
 import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
 import com.salesforce.androidsdk.util.JSONObjectHelper;
+import com.salesforce.androidsdk.util.Tracer;
 
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteOpenHelper;
@@ -47,6 +48,8 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -66,6 +69,15 @@ public class SmartStore  {
     public static final int DEFAULT_PAGE_SIZE = 10;
 	private static final String TAG = "SmartStore";
 
+	// Tracing span names
+	public static final String TRACE_QUERY = "SmartStore.query";
+	public static final String TRACE_CREATE = "SmartStore.create";
+	public static final String TRACE_UPDATE = "SmartStore.update";
+	public static final String TRACE_UPSERT = "SmartStore.upsert";
+	public static final String TRACE_FTS = "SmartStore.fts";
+	public static final String TRACE_EXTERNAL_BLOB_WRITE = "SmartStore.externalBlobWrite";
+	public static final String TRACE_LOCK_WAIT = "SmartStore.lockWait";
+
 	/**
 	 * Table to keep track of soup names.
 	 *
@@ -126,6 +138,12 @@ public class SmartStore  {
 	// background executor
 	private final ExecutorService threadPool = Executors.newFixedThreadPool(1);
 
+	// Size of a soup's tables (soup table, its indexes and fts tables) - requires sqlcipher to be built with the dbstat virtual table
+	private static final String TABLE_BYTES_SELECT = "SELECT sum(pgsize) FROM dbstat WHERE name IN (SELECT name FROM sqlite_master WHERE tbl_name = ? OR tbl_name GLOB ?)";
+
+	// Set to false the first time dbstat turns out to be unavailable
+	private volatile boolean dbstatAvailable = true;
+
 	/**
      * Changes the encryption key on the smartstore.
      *
@@ -250,17 +268,89 @@ public class SmartStore  {
 		return DBHelper.getInstance(getDatabase()).getLastExplainQueryPlan();
 	}
 
+	/**
+	 * If turned on, non-indexed paths can be used in select paths of query specs and in the select clause of smart sql queries
+	 * Values are extracted from the stored soup elements during the read (streaming extraction from the soup column
+	 * or from the blob for soups using external storage) instead of returning whole soup elements
+	 * @param projectUnindexedPaths true to turn projection on and false to turn off
+	 */
+	public void setProjectUnindexedPaths(boolean projectUnindexedPaths) {
+		DBHelper.getInstance(getDatabase()).setProjectUnindexedPaths(projectUnindexedPaths);
+	}
+
 	/**
      * Get database size
+     * NB: capped at Integer.MAX_VALUE, use {@link #getStorageSize()} to get the actual size
      */
     public int getDatabaseSize() {
-    	int size =  (int) (new File(getDatabase().getPath()).length()); // XXX That cast will be trouble if the file is more than 2GB
-    	if (dbOpenHelper instanceof DBOpenHelper) {
-    		size += ((DBOpenHelper) dbOpenHelper).getSizeOfDir(null);
-    	}
-    	return size;
+    	return (int) Math.min(getStorageSize(), Integer.MAX_VALUE);
     }
 
+	/**
+	 * Get storage size (database file and external blobs)
+	 * External blobs sizes are maintained as blobs are written and deleted, their directories are only walked once
+	 * @return size in bytes
+	 */
+	public long getStorageSize() {
+		long size = new File(getDatabase().getPath()).length();
+		if (dbOpenHelper instanceof DBOpenHelper) {
+			size += ((DBOpenHelper) dbOpenHelper).getExternalBlobsSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Get storage used by a soup
+	 * @param soupName
+	 * @return number of entries, size of tables and size of external blobs for the soup
+	 */
+	public SoupStorageStats getSoupStorageStats(String soupName) {
+		final SQLiteDatabase db = getDatabase();
+		synchronized(db) {
+			String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
+			if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
+			long rowCount = DBHelper.getInstance(db).countRawCountQuery(db, String.format("SELECT count(*) FROM %s", soupTableName));
+			long tableBytes = getTableBytes(db, soupTableName);
+			long externalBlobsBytes = 0;
+			if (usesExternalStorage(soupName) && dbOpenHelper instanceof DBOpenHelper) {
+				externalBlobsBytes = ((DBOpenHelper) dbOpenHelper).getExternalBlobsSize(soupTableName);
+			}
+			return new SoupStorageStats(soupName, rowCount, tableBytes, externalBlobsBytes);
+		}
+	}
+
+	/**
+	 * Get storage used by all soups
+	 * @return storage stats for each soup
+	 */
+	public List<SoupStorageStats> getAllSoupStorageStats() {
+		final SQLiteDatabase db = getDatabase();
+		synchronized(db) {
+			List<SoupStorageStats> allStats = new ArrayList<>();
+			for (String soupName : getAllSoupNames()) {
+				allStats.add(getSoupStorageStats(soupName));
+			}
+			return allStats;
+		}
+	}
+
+	private long getTableBytes(SQLiteDatabase db, String soupTableName) {
+		if (!dbstatAvailable) {
+			return SoupStorageStats.UNKNOWN;
+		}
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery(TABLE_BYTES_SELECT, new String[] { soupTableName, soupTableName + FTS_SUFFIX + "*" });
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} catch (Exception e) {
+			SmartStoreLogger.w(TAG, "dbstat is not available, soup table sizes can't be computed", e);
+			dbstatAvailable = false;
+			return SoupStorageStats.UNKNOWN;
+		} finally {
+			safeClose(cursor);
+		}
+	}
+
     /**
      * Start transaction
 	 * NB: to avoid deadlock, caller should have synchronized(store.getDatabase()) around the whole transaction
@@ -314,6 +404,8 @@ public class SmartStore  {
 				throw new SmartStoreException("No indexSpecs specified for soup: " + soupName);
 			if (IndexSpec.hasJSON1(indexSpecs) && soupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE))
 				throw new SmartStoreException("Can't have JSON1 index specs in externally stored soup:" + soupName);
+			if (soupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS) && !soupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE))
+				throw new SmartStoreException("Can't have segmented external storage without external storage in soup:" + soupName);
 			if (hasSoup(soupName)) return; // soup already exist - do nothing
 
 			// First get a table name
@@ -472,7 +564,8 @@ public class SmartStore  {
             }
 
             if (usesExternalStorage(soupName) && dbOpenHelper instanceof DBOpenHelper) {
-                ((DBOpenHelper) dbOpenHelper).createExternalBlobsDirectory(soupTableName);
+                ((DBOpenHelper) dbOpenHelper).createExternalBlobsDirectory(soupTableName,
+                        soupSpec.getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS));
             }
 
             db.setTransactionSuccessful();
@@ -686,6 +779,10 @@ public class SmartStore  {
 				}
 				if (dbOpenHelper instanceof DBOpenHelper) {
 					((DBOpenHelper) dbOpenHelper).removeExternalBlobsDirectory(soupTableName);
+					if (usesExternalStorage(soupName)) {
+						((DBOpenHelper) dbOpenHelper).createExternalBlobsDirectory(soupTableName,
+								getSoupSpec(soupName).getFeatures().contains(SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS));
+					}
 				}
 			} finally {
 				db.setTransactionSuccessful();
@@ -797,8 +894,19 @@ public class SmartStore  {
      * @throws JSONException
 	 */
 	public JSONArray query(QuerySpec querySpec, int pageIndex) throws JSONException {
+		final Tracer.Span span = Tracer.begin(TRACE_QUERY);
+		try {
+			return queryInternal(querySpec, pageIndex);
+		} finally {
+			span.end();
+		}
+	}
+
+	private JSONArray queryInternal(QuerySpec querySpec, int pageIndex) throws JSONException {
 		final SQLiteDatabase db = getDatabase();
+		final Tracer.Span lockSpan = Tracer.begin(TRACE_LOCK_WAIT);
     	synchronized(db) {
+    		lockSpan.end();
 			QueryType qt = querySpec.queryType;
 	    	String sql = convertSmartSql(querySpec.smartSql);
 
@@ -810,6 +918,11 @@ public class SmartStore  {
 	    	try {
 	    		cursor = DBHelper.getInstance(db).limitRawQuery(db, sql, limit, querySpec.getArgs());
 	            JSONArray results = new JSONArray();
+	            int externalStorageColumn = cursor.getColumnIndex(SoupSpec.FEATURE_EXTERNAL_STORAGE);
+	            if (qt != QueryType.smart && querySpec.selectPaths == null && externalStorageColumn >= 0) {
+	            	// Whole soup elements from external storage: loading the page of blobs in one batch
+	            	return getSoupBlobsFromRows(cursor, externalStorageColumn);
+	            }
 	            if (cursor.moveToFirst()) {
 	                do {
 	                	// Smart queries
@@ -837,6 +950,30 @@ public class SmartStore  {
 	}
 
 
+	/**
+	 * Return JSONArray of soup elements stored externally for all rows of cursor
+	 * @param cursor
+	 * @param externalStorageColumn index of column containing the soup table name
+	 * @return
+	 */
+	private JSONArray getSoupBlobsFromRows(Cursor cursor, int externalStorageColumn) {
+		JSONArray results = new JSONArray();
+		if (!cursor.moveToFirst()) {
+			return results;
+		}
+		String soupTableName = cursor.getString(externalStorageColumn);
+		int soupEntryIdColumn = cursor.getColumnIndex(SmartStore.SOUP_ENTRY_ID);
+		List<Long> soupEntryIds = new ArrayList<>();
+		do {
+			soupEntryIds.add(cursor.getLong(soupEntryIdColumn));
+		} while (cursor.moveToNext());
+		Map<Long, JSONObject> soupBlobs = ((DBOpenHelper) dbOpenHelper).loadSoupBlobs(soupTableName, soupEntryIds, encryptionKey);
+		for (Long soupEntryId : soupEntryIds) {
+			results.put(soupBlobs.get(soupEntryId));
+		}
+		return results;
+	}
+
 	/**
 	 * Return JSONArray for one row of data from cursor
 	 * @param cursor
@@ -846,10 +983,41 @@ public class SmartStore  {
 	private JSONArray getDataFromRow(Cursor cursor) throws JSONException {
 		JSONArray row = new JSONArray();
 		int columnCount = cursor.getColumnCount();
+		Map<String, Map<String, Object>> projections = null;
 		for (int i=0; i<columnCount; i++) {
             int valueType = cursor.getType(i);
 			String columnName = cursor.getColumnName(i);
-            if (valueType == Cursor.FIELD_TYPE_NULL) {
+            if (columnName.startsWith(SmartSqlHelper.EXTERNAL_PROJECTION_PREFIX) && valueType == Cursor.FIELD_TYPE_INTEGER) {
+                // Non-indexed path of soup using external storage: value is extracted from the blob
+                if (projections == null) {
+                    projections = new HashMap<>();
+                }
+                String[] tableAndPath = columnName.substring(SmartSqlHelper.EXTERNAL_PROJECTION_PREFIX.length()).split(":", 2);
+                long soupEntryId = cursor.getLong(i);
+                String blobKey = tableAndPath[0] + ":" + soupEntryId;
+                Map<String, Object> projection = projections.get(blobKey);
+                if (projection == null) {
+                    projection = extractProjectedPaths(cursor, tableAndPath[0], soupEntryId);
+                    projections.put(blobKey, projection);
+                }
+                row.put(projection.get(tableAndPath[1]));
+            }
+            else if (columnName.startsWith(SmartSqlHelper.SOUP_PROJECTION_PREFIX) && valueType == Cursor.FIELD_TYPE_STRING) {
+                // Non-indexed path of soup stored in db: value is extracted from the soup column
+                if (projections == null) {
+                    projections = new HashMap<>();
+                }
+                String[] tableAndPath = columnName.substring(SmartSqlHelper.SOUP_PROJECTION_PREFIX.length()).split(":", 2);
+                String soupEltStr = cursor.getString(i);
+                String soupKey = tableAndPath[0] + ":" + soupEltStr;
+                Map<String, Object> projection = projections.get(soupKey);
+                if (projection == null) {
+                    projection = extractProjectedPaths(cursor, tableAndPath[0], soupEltStr);
+                    projections.put(soupKey, projection);
+                }
+                row.put(projection.get(tableAndPath[1]));
+            }
+            else if (valueType == Cursor.FIELD_TYPE_NULL) {
                 row.put(null);
             }
             else if (valueType == Cursor.FIELD_TYPE_STRING) {
@@ -878,6 +1046,53 @@ public class SmartStore  {
 		return row;
 	}
 
+	/**
+	 * Extract in one pass all the paths projected from the blob of a given soup element in the current row
+	 * @param cursor
+	 * @param soupTableName
+	 * @param soupEntryId
+	 * @return map of path to value
+	 * @throws JSONException
+	 */
+	private Map<String, Object> extractProjectedPaths(Cursor cursor, String soupTableName, long soupEntryId) throws JSONException {
+		String prefix = SmartSqlHelper.EXTERNAL_PROJECTION_PREFIX + soupTableName + ":";
+		List<String> paths = new ArrayList<>();
+		for (int i=0; i<cursor.getColumnCount(); i++) {
+			String columnName = cursor.getColumnName(i);
+			if (columnName.startsWith(prefix) && cursor.getType(i) == Cursor.FIELD_TYPE_INTEGER && cursor.getLong(i) == soupEntryId) {
+				paths.add(columnName.substring(prefix.length()));
+			}
+		}
+		String soupEltStr = null;
+		if (dbOpenHelper instanceof DBOpenHelper) {
+			soupEltStr = ((DBOpenHelper) dbOpenHelper).loadSoupBlobAsString(soupTableName, soupEntryId, encryptionKey);
+		}
+		if (soupEltStr == null) {
+			return new HashMap<>();
+		}
+		return new SoupFieldExtractor(paths).extract(soupEltStr);
+	}
+
+	/**
+	 * Extract in one pass all the paths projected from the soup column of a given soup element in the current row
+	 * @param cursor
+	 * @param soupTableName
+	 * @param soupEltStr
+	 * @return map of path to value
+	 * @throws JSONException
+	 */
+	private Map<String, Object> extractProjectedPaths(Cursor cursor, String soupTableName, String soupEltStr) throws JSONException {
+		String prefix = SmartSqlHelper.SOUP_PROJECTION_PREFIX + soupTableName + ":";
+		List<String> paths = new ArrayList<>();
+		for (int i=0; i<cursor.getColumnCount(); i++) {
+			String columnName = cursor.getColumnName(i);
+			if (columnName.startsWith(prefix) && cursor.getType(i) == Cursor.FIELD_TYPE_STRING && soupEltStr.equals(cursor.getString(i))) {
+				paths.add(columnName.substring(prefix.length()));
+			}
+		}
+		return new SoupFieldExtractor(paths).extract(soupEltStr);
+	}
+
 	/**
 	 * @param querySpec
 	 * @return count of results for a query
@@ -926,8 +1141,19 @@ public class SmartStore  {
      * @throws JSONException
      */
     public JSONObject create(String soupName, JSONObject soupElt, boolean handleTx) throws JSONException {
+		final Tracer.Span span = Tracer.begin(TRACE_CREATE);
+		try {
+			return createInternal(soupName, soupElt, handleTx);
+		} finally {
+			span.end();
+		}
+	}
+
+	private JSONObject createInternal(String soupName, JSONObject soupElt, boolean handleTx) throws JSONException {
     	final SQLiteDatabase db = getDatabase();
+		final Tracer.Span lockSpan = Tracer.begin(TRACE_LOCK_WAIT);
     	synchronized(db) {
+    		lockSpan.end();
 	        String soupTableName = DBHelper.getInstance(db).getSoupTableName(db, soupName);
 	        if (soupTableName == null) throw new SmartStoreException("Soup: " + soupName + " does not exist");
 	        IndexSpec[] indexSpecs = DBHelper.getInstance(db).getIndexSpecs(db, soupName);
@@ -956,17 +1182,27 @@ public class SmartStore  {
 
 				// Fts
 				if (success && hasFTS(soupName)) {
-					String soupTableNameFts = soupTableName + FTS_SUFFIX;
-					ContentValues contentValuesFts = new ContentValues();
-					contentValuesFts.put(ROWID_COL, soupEntryId);
-					projectIndexedPaths(soupElt, contentValuesFts, indexSpecs, TypeGroup.value_extracted_to_fts_column);
-					// InsertHelper not working against virtual fts table
-					db.insert(soupTableNameFts, null, contentValuesFts);
+					final Tracer.Span ftsSpan = Tracer.begin(TRACE_FTS);
+					try {
+						String soupTableNameFts = soupTableName + FTS_SUFFIX;
+						ContentValues contentValuesFts = new ContentValues();
+						contentValuesFts.put(ROWID_COL, soupEntryId);
+						projectIndexedPaths(soupElt, contentValuesFts, indexSpecs, TypeGroup.value_extracted_to_fts_column);
+						// InsertHelper not working against virtual fts table
+						db.insert(soupTableNameFts, null, contentValuesFts);
+					} finally {
+						ftsSpan.end();
+					}
 				}
 
 	            // Add to external storage if applicable
 	            if (success && usesExternalStorage(soupName) && dbOpenHelper instanceof DBOpenHelper) {
-					success = ((DBOpenHelper) dbOpenHelper).saveSoupBlob(soupTableName, soupEntryId, soupElt, encryptionKey);
+					final Tracer.Span blobSpan = Tracer.begin(TRACE_EXTERNAL_BLOB_WRITE);
+					try {
+						success = ((DBOpenHelper) dbOpenHelper).saveSoupBlob(soupTableName, soupEntryId, soupElt, encryptionKey);
+					} finally {
+						blobSpan.end();
+					}
 	            }
 
 	            // Commit if successful
@@ -1058,8 +1294,9 @@ public class SmartStore  {
 
 	        JSONArray result = new JSONArray();
 	        if (usesExternalStorage(soupName) && dbOpenHelper instanceof DBOpenHelper) {
+		        Map<Long, JSONObject> soupBlobs = ((DBOpenHelper) dbOpenHelper).loadSoupBlobs(soupTableName, Arrays.asList(soupEntryIds), encryptionKey);
 		        for (long soupEntryId : soupEntryIds) {
-			        JSONObject raw = ((DBOpenHelper) dbOpenHelper).loadSoupBlob(soupTableName, soupEntryId, encryptionKey);
+			        JSONObject raw = soupBlobs.get(soupEntryId);
 			        if (raw != null) {
 				        result.put(raw);
 			        }
@@ -1112,8 +1349,19 @@ public class SmartStore  {
      * @throws JSONException
      */
     public JSONObject update(String soupName, JSONObject soupElt, long soupEntryId, boolean handleTx) throws JSONException {
+		final Tracer.Span span = Tracer.begin(TRACE_UPDATE);
+		try {
+			return updateInternal(soupName, soupElt, soupEntryId, handleTx);
+		} finally {
+			span.end();
+		}
+	}
+
+	private JSONObject updateInternal(String soupName, JSONObject soupElt, long soupEntryId, boolean handleTx) throws JSONException {
     	final SQLiteDatabase db = getDatabase();
+		final Tracer.Span lockSpan = Tracer.begin(TRACE_LOCK_WAIT);
     	synchronized(db) {
+    		lockSpan.end();
 			try {
 				if (handleTx) {
 					db.beginTransaction();
@@ -1143,15 +1391,25 @@ public class SmartStore  {
 
 				// Fts
 				if (success && hasFTS(soupName)) {
-					String soupTableNameFts = soupTableName + FTS_SUFFIX;
-					ContentValues contentValuesFts = new ContentValues();
-					projectIndexedPaths(soupElt, contentValuesFts, indexSpecs, TypeGroup.value_extracted_to_fts_column);
-					success = DBHelper.getInstance(db).update(db, soupTableNameFts, contentValuesFts, ROWID_PREDICATE, soupEntryId + "") == 1;
+					final Tracer.Span ftsSpan = Tracer.begin(TRACE_FTS);
+					try {
+						String soupTableNameFts = soupTableName + FTS_SUFFIX;
+						ContentValues contentValuesFts = new ContentValues();
+						projectIndexedPaths(soupElt, contentValuesFts, indexSpecs, TypeGroup.value_extracted_to_fts_column);
+						success = DBHelper.getInstance(db).update(db, soupTableNameFts, contentValuesFts, ROWID_PREDICATE, soupEntryId + "") == 1;
+					} finally {
+						ftsSpan.end();
+					}
 				}
 
 				// Add to external storage if applicable
 				if (success && usesExternalStorage(soupName) && dbOpenHelper instanceof DBOpenHelper) {
-					success = ((DBOpenHelper) dbOpenHelper).saveSoupBlob(soupTableName, soupEntryId, soupElt, encryptionKey);
+					final Tracer.Span blobSpan = Tracer.begin(TRACE_EXTERNAL_BLOB_WRITE);
+					try {
+						success = ((DBOpenHelper) dbOpenHelper).saveSoupBlob(soupTableName, soupEntryId, soupElt, encryptionKey);
+					} finally {
+						blobSpan.end();
+					}
 				}
 
 				if (success) {
@@ -1209,8 +1467,19 @@ public class SmartStore  {
      * @throws JSONException
      */
     public JSONObject upsert(String soupName, JSONObject soupElt, String externalIdPath, boolean handleTx) throws JSONException {
+		final Tracer.Span span = Tracer.begin(TRACE_UPSERT);
+		try {
+			return upsertInternal(soupName, soupElt, externalIdPath, handleTx);
+		} finally {
+			span.end();
+		}
+	}
+
+	private JSONObject upsertInternal(String soupName, JSONObject soupElt, String externalIdPath, boolean handleTx) throws JSONException {
     	final SQLiteDatabase db = getDatabase();
+		final Tracer.Span lockSpan = Tracer.begin(TRACE_LOCK_WAIT);
     	synchronized(db) {
+    		lockSpan.end();
 	        long entryId = -1;
 	        if (externalIdPath.equals(SOUP_ENTRY_ID)) {
 	            if (soupElt.has(SOUP_ENTRY_ID)) {
@@ -1469,7 +1738,7 @@ public class SmartStore  {
 		return project(soup, pathElements, 0);
     }
 
-	private static Object project(Object jsonObj, String[] pathElements, int index) {
+	static Object project(Object jsonObj, String[] pathElements, int index) {
 		Object result = null;
 		if (index == pathElements.length) {
 			return jsonObj;
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts a set of paths from a serialized soup element in a single streaming pass.
+ * Only the values found at the requested paths get materialized, the rest of the document is skipped.
+ * Results are identical to what {@link SmartStore#project(JSONObject, String)} returns on the parsed document.
+ */
+public class SoupFieldExtractor {
+
+    private final PathNode root = new PathNode(0);
+
+    /**
+     * @param paths paths to extract
+     */
+    public SoupFieldExtractor(Collection<String> paths) {
+        for (String path : paths) {
+            String[] pathElements = path.split("[.]");
+            PathNode node = root;
+            for (String pathElement : pathElements) {
+                PathNode child = node.children.get(pathElement);
+                if (child == null) {
+                    child = new PathNode(node.depth + 1);
+                    node.children.put(pathElement, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+            root.addPath(path, pathElements);
+        }
+    }
+
+    /**
+     * @param soupEltStr serialized soup element
+     * @return map of path to projected value (paths with no value are absent)
+     * @throws JSONException
+     */
+    public Map<String, Object> extract(String soupEltStr) throws JSONException {
+        try (JsonReader reader = new JsonReader(new StringReader(soupEltStr))) {
+            return extract(reader, root);
+        } catch (IOException | IllegalStateException e) {
+            throw new JSONException("Could not extract paths: " + e.getMessage());
+        }
+    }
+
+    private Map<String, Object> extract(JsonReader reader, PathNode node) throws IOException, JSONException {
+        Map<String, Object> results = new HashMap<>();
+
+        // A requested path ends here: materialize the value and project the deeper paths from it
+        if (node.terminal) {
+            Object value = readValue(reader);
+            for (Map.Entry<String, String[]> entry : node.paths.entrySet()) {
+                Object result = SmartStore.project(value, entry.getValue(), node.depth);
+                if (result != null && result != JSONObject.NULL) {
+                    results.put(entry.getKey(), result);
+                }
+            }
+            return results;
+        }
+
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                PathNode child = node.children.get(reader.nextName());
+                if (child != null) {
+                    results.putAll(extract(reader, child));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } else if (token == JsonToken.BEGIN_ARRAY) {
+            // Same as SmartStore.project: path is applied to every element of the array
+            Map<String, JSONArray> arrays = new HashMap<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                for (Map.Entry<String, Object> entry : extract(reader, node).entrySet()) {
+                    JSONArray array = arrays.get(entry.getKey());
+                    if (array == null) {
+                        array = new JSONArray();
+                        arrays.put(entry.getKey(), array);
+                    }
+                    array.put(entry.getValue());
+                }
+            }
+            reader.endArray();
+            results.putAll(arrays);
+        } else {
+            reader.skipValue();
+        }
+        return results;
+    }
+
+    private Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject obj = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    obj.put(name, readValue(reader));
+                }
+                reader.endObject();
+                return obj;
+            case BEGIN_ARRAY:
+                JSONArray arr = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    arr.put(readValue(reader));
+                }
+                reader.endArray();
+                return arr;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return readNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                throw new JSONException("Unexpected token: " + reader.peek());
+        }
+    }
+
+    /**
+     * Parse number the way org.json does
+     */
+    private Object readNumber(String raw) {
+        if (raw.indexOf('.') < 0 && raw.indexOf('e') < 0 && raw.indexOf('E') < 0) {
+            try {
+                long longValue = Long.parseLong(raw);
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return Double.valueOf(raw);
+    }
+
+    /**
+     * Node in the tree of requested paths
+     */
+    private static class PathNode {
+        final int depth;
+        final Map<String, PathNode> children = new HashMap<>();
+        final Map<String, String[]> paths = new HashMap<>(); // requested paths going through this node
+        boolean terminal;
+
+        PathNode(int depth) {
+            this.depth = depth;
+        }
+
+        void addPath(String path, String[] pathElements) {
+            paths.put(path, pathElements);
+            if (depth < pathElements.length) {
+                children.get(pathElements[depth]).addPath(path, pathElements);
+            }
+        }
+    }
+}
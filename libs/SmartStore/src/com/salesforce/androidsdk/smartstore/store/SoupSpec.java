@@ -40,9 +40,11 @@ import org.json.JSONObject;
 public class SoupSpec {
     /** Soup features **/
     public static final String FEATURE_EXTERNAL_STORAGE = "externalStorage";
+    /** Packs external storage blobs into segment files, requires {@link #FEATURE_EXTERNAL_STORAGE} **/
+    public static final String FEATURE_EXTERNAL_STORAGE_SEGMENTS = "externalStorageSegments";
 
     /** List of all possible features for building soup_attrs table **/
-    public static final String[] ALL_FEATURES = { FEATURE_EXTERNAL_STORAGE };
+    public static final String[] ALL_FEATURES = { FEATURE_EXTERNAL_STORAGE, FEATURE_EXTERNAL_STORAGE_SEGMENTS };
 
     private String soupName;
     private List<String> features;
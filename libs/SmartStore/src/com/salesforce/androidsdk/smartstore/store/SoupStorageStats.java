@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartstore.store;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Storage used by a soup: number of entries, size of its tables and indexes, size of its external blobs.
+ */
+public class SoupStorageStats {
+
+    /** Returned by {@link #getTableBytes()} when sqlcipher was built without the dbstat virtual table **/
+    public static final long UNKNOWN = -1;
+
+    // Keys for json
+    public static final String SOUP_NAME = "soupName";
+    public static final String ROW_COUNT = "rowCount";
+    public static final String TABLE_BYTES = "tableBytes";
+    public static final String EXTERNAL_BLOBS_BYTES = "externalBlobsBytes";
+
+    private final String soupName;
+    private final long rowCount;
+    private final long tableBytes;
+    private final long externalBlobsBytes;
+
+    public SoupStorageStats(String soupName, long rowCount, long tableBytes, long externalBlobsBytes) {
+        this.soupName = soupName;
+        this.rowCount = rowCount;
+        this.tableBytes = tableBytes;
+        this.externalBlobsBytes = externalBlobsBytes;
+    }
+
+    /**
+     * @return Name of the soup.
+     */
+    public String getSoupName() {
+        return soupName;
+    }
+
+    /**
+     * @return Number of entries in the soup.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Bytes used in the database file by the soup table, its indexes and its full-text search tables, or {@link #UNKNOWN}.
+     */
+    public long getTableBytes() {
+        return tableBytes;
+    }
+
+    /**
+     * @return Bytes used by the soup entries kept in external storage.
+     */
+    public long getExternalBlobsBytes() {
+        return externalBlobsBytes;
+    }
+
+    /**
+     * @return Total bytes used by the soup, or {@link #UNKNOWN} if table size is unknown.
+     */
+    public long getTotalBytes() {
+        return tableBytes == UNKNOWN ? UNKNOWN : tableBytes + externalBlobsBytes;
+    }
+
+    /**
+     * @return The JSON representation of these stats.
+     * @throws JSONException
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put(SOUP_NAME, soupName);
+        result.put(ROW_COUNT, rowCount);
+        result.put(TABLE_BYTES, tableBytes);
+        result.put(EXTERNAL_BLOBS_BYTES, externalBlobsBytes);
+        return result;
+    }
+}
@@ -53,6 +53,7 @@ import com.salesforce.androidsdk.smartstore.store.DBOpenHelper;
 import com.salesforce.androidsdk.smartstore.store.QuerySpec;
 import com.salesforce.androidsdk.smartstore.store.SmartSqlHelper;
 import com.salesforce.androidsdk.smartstore.store.SmartStore;
+import com.salesforce.androidsdk.smartstore.store.SoupStorageStats;
 import com.salesforce.androidsdk.smartstore.util.SmartStoreLogger;
 import com.salesforce.androidsdk.util.JSONObjectHelper;
 
@@ -61,6 +62,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -306,6 +308,32 @@ public class SmartStoreInspectorActivity extends Activity implements AdapterView
 		runQuery();
 	}
 
+	/**
+	 * Called when "Storage" button is clicked
+	 * Shows entries, table size and external blobs size for each soup, followed by the total storage size
+	 *
+	 * @param v
+	 */
+	public void onStorageClick(View v) {
+		try {
+			JSONArray result = new JSONArray();
+			result.put(new JSONArray(Arrays.asList(SoupStorageStats.SOUP_NAME, SoupStorageStats.ROW_COUNT,
+					SoupStorageStats.TABLE_BYTES, SoupStorageStats.EXTERNAL_BLOBS_BYTES)));
+			for (SoupStorageStats stats : smartStore.getAllSoupStorageStats()) {
+				JSONArray row = new JSONArray();
+				row.put(stats.getSoupName());
+				row.put(stats.getRowCount());
+				row.put(stats.getTableBytes());
+				row.put(stats.getExternalBlobsBytes());
+				result.put(row);
+			}
+			result.put(new JSONArray(Arrays.asList(getString(R.string.sf__inspector_storage_total), "", "", smartStore.getStorageSize())));
+			showResult(result);
+		} catch (Exception e) {
+			showAlert(e.getClass().getSimpleName(), e.getMessage());
+		}
+	}
+
 	/**
 	 * Helper method that builds query spec from typed query, runs it and
 	 * updates result grid
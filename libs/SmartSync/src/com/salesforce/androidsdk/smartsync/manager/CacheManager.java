@@ -27,6 +27,7 @@
 package com.salesforce.androidsdk.smartsync.manager;
 
 import android.text.TextUtils;
+import android.util.LruCache;
 
 import com.salesforce.androidsdk.accounts.UserAccount;
 import com.salesforce.androidsdk.smartstore.app.SmartStoreSDKManager;
@@ -47,13 +48,17 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class provides APIs to store and retrieve Salesforce object
  * metadata, object layouts and MRU objects from a simple cache.
+ * Lists read or written are kept in a bounded in memory cache in front of
+ * the smart store cache, along with the time they were cached.
  *
  * @author bhariharan
  * @deprecated Will be removed in Mobile SDK 7.0. Use {@link SyncManager} instead for synching data.
@@ -67,13 +72,20 @@ public class CacheManager {
     private static final String SOUP_OF_SOUPS = "master_soup";
     private static final String SOUP_NAMES_KEY = "soup_names";
 
+    /**
+     * Default maximum number of records (objects, object types or layouts) kept in memory.
+     */
+    public static final int DEFAULT_MAX_IN_MEMORY_RECORDS = 5000;
+
     private static Map<String, CacheManager> INSTANCES;
 
     private final SmartStore smartStore;
 
-    private Map<String, List<SalesforceObjectType>> objectTypeCacheMap;
-    private Map<String, List<SalesforceObject>> objectCacheMap;
-    private Map<String, List<SalesforceObjectTypeLayout>> objectTypeLayoutCacheMap;
+    private final LruCache<String, CacheEntry<?>> inMemoryCache;
+
+    // Counted here rather than by the LruCache, since an entry of another type is a miss
+    private final AtomicInteger inMemoryHits = new AtomicInteger();
+    private final AtomicInteger inMemoryMisses = new AtomicInteger();
 
     /**
      * This enum defines different possible cache policies.
@@ -229,7 +241,39 @@ public class CacheManager {
 
     private CacheManager(UserAccount account, String communityId) {
         smartStore = SmartSyncSDKManager.getInstance().getSmartStore(account, communityId);
-        resetInMemoryCache();
+        inMemoryCache = new LruCache<String, CacheEntry<?>>(DEFAULT_MAX_IN_MEMORY_RECORDS) {
+
+            @Override
+            protected int sizeOf(String key, CacheEntry<?> entry) {
+                return Math.max(1, entry.data.size());
+            }
+        };
+    }
+
+    /**
+     * Sets the maximum number of records (objects, object types or layouts) kept in memory.
+     * Least recently used lists are evicted first.
+     *
+     * @param maxRecords Maximum number of records.
+     * @deprecated Will be removed in Mobile SDK 7.0.
+     */
+    @Deprecated
+    public void setMaxInMemoryRecords(int maxRecords) {
+        inMemoryCache.resize(maxRecords);
+    }
+
+    /**
+     * Returns hit, miss and eviction counts of the in memory cache.
+     *
+     * @return In memory cache stats.
+     * @deprecated Will be removed in Mobile SDK 7.0.
+     */
+    @Deprecated
+    public InMemoryStats getInMemoryStats() {
+        synchronized (inMemoryCache) {
+            return new InMemoryStats(inMemoryHits.get(), inMemoryMisses.get(),
+                    inMemoryCache.evictionCount(), inMemoryCache.size(), inMemoryCache.maxSize());
+        }
     }
 
     /**
@@ -265,7 +309,7 @@ public class CacheManager {
         if (doesCacheExist(cacheType)) {
             smartStore.dropSoup(cacheType);
             removeSoupNameFromMasterSoup(cacheType);
-            resetInMemoryCache();
+            removeFromInMemoryCache(cacheType);
         }
     }
 
@@ -322,14 +366,17 @@ public class CacheManager {
             if (!doesCacheExist(cacheType)) {
                 return 0;
             }
-            final QuerySpec querySpec = QuerySpec.buildExactQuerySpec(cacheType,
-            		CACHE_KEY, cacheKey, null, null, 1);
-            final JSONArray results = smartStore.query(querySpec, 0);
-            if (results != null && results.length() > 0) {
-                final JSONObject jObj = results.optJSONObject(0);
-                if (jObj != null) {
-                    return jObj.optLong(SmartStore.SOUP_LAST_MODIFIED_DATE);
-                }
+
+            // Checks in memory cache first.
+            final CacheEntry<?> entry = inMemoryCache.get(getInMemoryKey(cacheType, cacheKey));
+            if (entry != null) {
+                inMemoryHits.incrementAndGet();
+                return entry.cachedTime;
+            }
+            inMemoryMisses.incrementAndGet();
+            final JSONObject jObj = readCacheRecord(cacheType, cacheKey);
+            if (jObj != null) {
+                return jObj.optLong(SmartStore.SOUP_LAST_MODIFIED_DATE);
             }
         } catch (IllegalStateException e) {
             SmartSyncLogger.e(TAG, "Exception occurred while attempting to read last cached time", e);
@@ -362,42 +409,32 @@ public class CacheManager {
         }
 
         // Checks in memory cache first.
-        if (objectTypeCacheMap != null) {
-            final List<SalesforceObjectType> cachedObjTypes = objectTypeCacheMap.get(cacheKey);
-            if (cachedObjTypes != null && cachedObjTypes.size() > 0) {
-                return cachedObjTypes;
-            }
+        final String key = getInMemoryKey(cacheType, cacheKey);
+        final List<SalesforceObjectType> cachedObjTypes = readInMemory(key, SalesforceObjectType.class);
+        if (cachedObjTypes != null) {
+            return cachedObjTypes;
         }
 
         // Falls back on smart store cache if in memory cache is empty.
         try {
-            final QuerySpec querySpec = QuerySpec.buildExactQuerySpec(cacheType,
-            		CACHE_KEY, cacheKey, null, null, 1);
-            final JSONArray results = smartStore.query(querySpec, 0);
-            if (results != null && results.length() > 0) {
-            	final JSONObject jObj = results.optJSONObject(0);
-                if (jObj != null) {
-                    final JSONArray res = jObj.optJSONArray(CACHE_DATA);
-                    if (res != null && res.length() > 0) {
-                    	final List<SalesforceObjectType> cachedList = new ArrayList<SalesforceObjectType>();
-                        for (int j = 0; j < res.length(); j++) {
-                            final JSONObject sfObj = res.optJSONObject(j);
-                            if (sfObj != null) {
-                                cachedList.add(new SalesforceObjectType(sfObj));
-                            }
-                        }
-                        if (cachedList.size() > 0) {
-
-                            // Inserts or updates data in memory cache.
-                            if (objectTypeCacheMap != null) {
-                                if (objectTypeCacheMap.get(cacheKey) != null) {
-                                    objectTypeCacheMap.remove(cacheKey);
-                                }
-                                objectTypeCacheMap.put(cacheKey, cachedList);
-                            }
-                            return cachedList;
+            final JSONObject jObj = readCacheRecord(cacheType, cacheKey);
+            if (jObj != null) {
+                final JSONArray res = jObj.optJSONArray(CACHE_DATA);
+                if (res != null && res.length() > 0) {
+                    final List<SalesforceObjectType> cachedList = new ArrayList<SalesforceObjectType>();
+                    for (int j = 0; j < res.length(); j++) {
+                        final JSONObject sfObj = res.optJSONObject(j);
+                        if (sfObj != null) {
+                            cachedList.add(new SalesforceObjectType(sfObj));
                         }
                     }
+                    if (cachedList.size() > 0) {
+
+                        // Inserts data in memory cache, unless the key holds data of another type.
+                        writeInMemoryUnlessOtherType(key, SalesforceObjectType.class, cachedList,
+                                jObj.optLong(SmartStore.SOUP_LAST_MODIFIED_DATE));
+                        return cachedList;
+                    }
                 }
             }
         } catch (JSONException e) {
@@ -428,42 +465,32 @@ public class CacheManager {
         }
 
         // Checks in memory cache first.
-        if (objectCacheMap != null) {
-            final List<SalesforceObject> cachedObjs = objectCacheMap.get(cacheKey);
-            if (cachedObjs != null && cachedObjs.size() > 0) {
-                return cachedObjs;
-            }
+        final String key = getInMemoryKey(cacheType, cacheKey);
+        final List<SalesforceObject> cachedObjs = readInMemory(key, SalesforceObject.class);
+        if (cachedObjs != null) {
+            return cachedObjs;
         }
 
         // Falls back on smart store cache if in memory cache is empty.
         try {
-            final QuerySpec querySpec = QuerySpec.buildExactQuerySpec(cacheType,
-            		CACHE_KEY, cacheKey, null, null, 1);
-            final JSONArray results = smartStore.query(querySpec, 0);
-            if (results != null && results.length() > 0) {
-            	final JSONObject jObj = results.optJSONObject(0);
-                if (jObj != null) {
-                    final JSONArray res = jObj.optJSONArray(CACHE_DATA);
-                    if (res != null && res.length() > 0) {
-                        final List<SalesforceObject> cachedList = new ArrayList<SalesforceObject>();
-                        for (int j = 0; j < res.length(); j++) {
-                            final JSONObject sfObj = res.optJSONObject(j);
-                            if (sfObj != null) {
-                                cachedList.add(new SalesforceObject(sfObj));
-                            }
-                        }
-                        if (cachedList.size() > 0) {
-
-                            // Inserts or updates data in memory cache.
-                            if (objectCacheMap != null) {
-                                if (objectCacheMap.get(cacheKey) != null) {
-                                    objectCacheMap.remove(cacheKey);
-                                }
-                                objectCacheMap.put(cacheKey, cachedList);
-                            }
-                            return cachedList;
+            final JSONObject jObj = readCacheRecord(cacheType, cacheKey);
+            if (jObj != null) {
+                final JSONArray res = jObj.optJSONArray(CACHE_DATA);
+                if (res != null && res.length() > 0) {
+                    final List<SalesforceObject> cachedList = new ArrayList<SalesforceObject>();
+                    for (int j = 0; j < res.length(); j++) {
+                        final JSONObject sfObj = res.optJSONObject(j);
+                        if (sfObj != null) {
+                            cachedList.add(new SalesforceObject(sfObj));
                         }
                     }
+                    if (cachedList.size() > 0) {
+
+                        // Inserts data in memory cache, unless the key holds data of another type.
+                        writeInMemoryUnlessOtherType(key, SalesforceObject.class, cachedList,
+                                jObj.optLong(SmartStore.SOUP_LAST_MODIFIED_DATE));
+                        return cachedList;
+                    }
                 }
             }
         } catch (JSONException e) {
@@ -494,47 +521,37 @@ public class CacheManager {
         }
 
         // Checks in memory cache first.
-        if (objectTypeLayoutCacheMap != null) {
-            final List<SalesforceObjectTypeLayout> cachedObjs = objectTypeLayoutCacheMap.get(cacheKey);
-            if (cachedObjs != null && cachedObjs.size() > 0) {
-                return cachedObjs;
-            }
+        final String key = getInMemoryKey(cacheType, cacheKey);
+        final List<SalesforceObjectTypeLayout> cachedObjs = readInMemory(key, SalesforceObjectTypeLayout.class);
+        if (cachedObjs != null) {
+            return cachedObjs;
         }
 
         // Falls back on smart store cache if in memory cache is empty.
         try {
-            final QuerySpec querySpec = QuerySpec.buildExactQuerySpec(cacheType,
-            		CACHE_KEY, cacheKey, null, null, 1);
-            final JSONArray results = smartStore.query(querySpec, 0);
-            if (results != null && results.length() > 0) {
-            	final JSONObject jObj = results.optJSONObject(0);
-                if (jObj != null) {
-                    final JSONArray res = jObj.optJSONArray(CACHE_DATA);
-                    if (res != null && res.length() > 0) {
-                        final List<SalesforceObjectTypeLayout> cachedList = new ArrayList<SalesforceObjectTypeLayout>();
-                        for (int j = 0; j < res.length(); j++) {
-                            final JSONObject sfObj = res.optJSONObject(j);
-                            if (sfObj != null) {
-                                final JSONObject rawData = sfObj.optJSONObject("rawData");
-                                final String type = sfObj.optString("type");
-                                if (rawData != null && type != null &&
-                                		!Constants.EMPTY_STRING.equals(type)) {
-                                    cachedList.add(new SalesforceObjectTypeLayout(type, rawData));
-                                }
-                            }
-                        }
-                        if (cachedList.size() > 0) {
-
-                            // Inserts or updates data in memory cache.
-                            if (objectTypeLayoutCacheMap != null) {
-                                if (objectTypeLayoutCacheMap.get(cacheKey) != null) {
-                                    objectTypeLayoutCacheMap.remove(cacheKey);
-                                }
-                                objectTypeLayoutCacheMap.put(cacheKey, cachedList);
+            final JSONObject jObj = readCacheRecord(cacheType, cacheKey);
+            if (jObj != null) {
+                final JSONArray res = jObj.optJSONArray(CACHE_DATA);
+                if (res != null && res.length() > 0) {
+                    final List<SalesforceObjectTypeLayout> cachedList = new ArrayList<SalesforceObjectTypeLayout>();
+                    for (int j = 0; j < res.length(); j++) {
+                        final JSONObject sfObj = res.optJSONObject(j);
+                        if (sfObj != null) {
+                            final JSONObject rawData = sfObj.optJSONObject("rawData");
+                            final String type = sfObj.optString("type");
+                            if (rawData != null && type != null &&
+                                    !Constants.EMPTY_STRING.equals(type)) {
+                                cachedList.add(new SalesforceObjectTypeLayout(type, rawData));
                             }
-                            return cachedList;
                         }
                     }
+                    if (cachedList.size() > 0) {
+
+                        // Inserts data in memory cache, unless the key holds data of another type.
+                        writeInMemoryUnlessOtherType(key, SalesforceObjectTypeLayout.class, cachedList,
+                                jObj.optLong(SmartStore.SOUP_LAST_MODIFIED_DATE));
+                        return cachedList;
+                    }
                 }
             }
         } catch (JSONException e) {
@@ -563,15 +580,8 @@ public class CacheManager {
             return;
         }
 
-        // Inserts or updates data in memory cache.
-        if (objectTypeCacheMap != null) {
-            if (objectTypeCacheMap.get(cacheKey) != null) {
-                objectTypeCacheMap.remove(cacheKey);
-            }
-            objectTypeCacheMap.put(cacheKey, objectTypes);
-        }
-
         // Inserts or updates data in smart store.
+        long cachedTime = 0;
         final JSONArray data = new JSONArray();
         for (final SalesforceObjectType objectType : objectTypes) {
             if (objectType != null) {
@@ -583,13 +593,17 @@ public class CacheManager {
             try {
                 object.put(CACHE_KEY, cacheKey);
                 object.put(CACHE_DATA, data);
-                upsertData(cacheType, object, cacheKey);
+                cachedTime = upsertData(cacheType, object, cacheKey);
             } catch (JSONException e) {
                 SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
             } catch (SmartStoreException e) {
                 SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
             }
         }
+
+        // Inserts or updates data in memory cache.
+        writeInMemory(getInMemoryKey(cacheType, cacheKey), SalesforceObjectType.class, objectTypes,
+                cachedTime > 0 ? cachedTime : System.currentTimeMillis());
     }
 
     /**
@@ -610,15 +624,8 @@ public class CacheManager {
             return;
         }
 
-        // Inserts or updates data in memory cache.
-        if (objectTypeLayoutCacheMap != null) {
-            if (objectTypeLayoutCacheMap.get(cacheKey) != null) {
-                objectTypeLayoutCacheMap.remove(cacheKey);
-            }
-            objectTypeLayoutCacheMap.put(cacheKey, objects);
-        }
-
         // Inserts or updates data in smart store.
+        long cachedTime = 0;
         final JSONArray data = new JSONArray();
         for (final SalesforceObjectTypeLayout object : objects) {
             if (object != null) {
@@ -637,13 +644,17 @@ public class CacheManager {
             try {
                 obj.put(CACHE_KEY, cacheKey);
                 obj.put(CACHE_DATA, data);
-                upsertData(cacheType, obj, cacheKey);
+                cachedTime = upsertData(cacheType, obj, cacheKey);
             } catch (JSONException e) {
                 SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
             } catch (SmartStoreException e) {
                 SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
             }
         }
+
+        // Inserts or updates data in memory cache.
+        writeInMemory(getInMemoryKey(cacheType, cacheKey), SalesforceObjectTypeLayout.class, objects,
+                cachedTime > 0 ? cachedTime : System.currentTimeMillis());
     }
 
     /**
@@ -664,15 +675,8 @@ public class CacheManager {
             return;
         }
 
-        // Inserts or updates data in memory cache.
-        if (objectCacheMap != null) {
-            if (objectCacheMap.get(cacheKey) != null) {
-                objectCacheMap.remove(cacheKey);
-            }
-            objectCacheMap.put(cacheKey, objects);
-        }
-
         // Inserts or updates data in smart store.
+        long cachedTime = 0;
         final JSONArray data = new JSONArray();
         for (final SalesforceObject object : objects) {
             if (object != null) {
@@ -684,13 +688,17 @@ public class CacheManager {
             try {
                 obj.put(CACHE_KEY, cacheKey);
                 obj.put(CACHE_DATA, data);
-                upsertData(cacheType, obj, cacheKey);
+                cachedTime = upsertData(cacheType, obj, cacheKey);
             } catch (JSONException e) {
                 SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
             } catch (SmartStoreException e) {
                 SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
             }
         }
+
+        // Inserts or updates data in memory cache.
+        writeInMemory(getInMemoryKey(cacheType, cacheKey), SalesforceObject.class, objects,
+                cachedTime > 0 ? cachedTime : System.currentTimeMillis());
     }
 
     SmartStore getSmartStore() {
@@ -717,20 +725,65 @@ public class CacheManager {
     	smartStore.registerSoup(SOUP_OF_SOUPS, indexSpecs);
     }
 
-    private void upsertData(String soupName, JSONObject object, String cacheKey) {
+    /**
+     * Upserts a cache record.
+     *
+     * @return Last modified date of the record stored, 0 if it could not be stored.
+     */
+    private long upsertData(String soupName, JSONObject object, String cacheKey) {
         if (soupName == null || object == null ||
         		Constants.EMPTY_STRING.equals(soupName)) {
-            return;
+            return 0;
         }
         registerSoup(soupName, cacheKey);
         try {
-            smartStore.upsert(soupName, object, cacheKey);
+            final JSONObject stored = smartStore.upsert(soupName, object, cacheKey);
             addSoupNameToMasterSoup(soupName);
+            return stored.optLong(SmartStore.SOUP_LAST_MODIFIED_DATE);
         } catch (JSONException e) {
             SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
         } catch (SmartStoreException e) {
             SmartSyncLogger.e(TAG, "Exception occurred while attempting to cache data", e);
         }
+        return 0;
+    }
+
+    private JSONObject readCacheRecord(String cacheType, String cacheKey) throws JSONException {
+        final QuerySpec querySpec = QuerySpec.buildExactQuerySpec(cacheType,
+                CACHE_KEY, cacheKey, null, null, 1);
+        final JSONArray results = smartStore.query(querySpec, 0);
+        if (results != null && results.length() > 0) {
+            return results.optJSONObject(0);
+        }
+        return null;
+    }
+
+    private static String getInMemoryKey(String cacheType, String cacheKey) {
+        return cacheType + ":" + cacheKey;
+    }
+
+    private <T> List<T> readInMemory(String key, Class<T> type) {
+        final CacheEntry<?> entry = inMemoryCache.get(key);
+        final List<T> data = entry == null ? null : entry.getData(type);
+        if (data == null) {
+            inMemoryMisses.incrementAndGet();
+        } else {
+            inMemoryHits.incrementAndGet();
+        }
+        return data;
+    }
+
+    private <T> void writeInMemoryUnlessOtherType(String key, Class<T> type, List<T> data, long cachedTime) {
+        synchronized (inMemoryCache) {
+            final CacheEntry<?> entry = inMemoryCache.get(key);
+            if (entry == null || entry.type == type) {
+                inMemoryCache.put(key, new CacheEntry<T>(type, data, cachedTime));
+            }
+        }
+    }
+
+    private <T> void writeInMemory(String key, Class<T> type, List<T> data, long cachedTime) {
+        inMemoryCache.put(key, new CacheEntry<T>(type, data, cachedTime));
     }
 
     private boolean doesMasterSoupContainSoup(String soupName) {
@@ -818,10 +871,17 @@ public class CacheManager {
     	clearMasterSoup();
     }
 
+    private void removeFromInMemoryCache(String cacheType) {
+        final String prefix = getInMemoryKey(cacheType, Constants.EMPTY_STRING);
+        for (final String key : inMemoryCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                inMemoryCache.remove(key);
+            }
+        }
+    }
+
     private void resetInMemoryCache() {
-        objectCacheMap = new HashMap<String, List<SalesforceObject>>();
-        objectTypeCacheMap = new HashMap<String, List<SalesforceObjectType>>();
-        objectTypeLayoutCacheMap = new HashMap<String, List<SalesforceObjectTypeLayout>>();
+        inMemoryCache.evictAll();
     }
 
     private void cleanCache() {
@@ -832,4 +892,77 @@ public class CacheManager {
         	clearAllSoups();
         }
     }
+
+    /**
+     * A list of records kept in memory, along with the time it was cached.
+     */
+    private static class CacheEntry<T> {
+
+        final Class<T> type;
+        final List<T> data;
+        final long cachedTime;
+
+        CacheEntry(Class<T> type, List<T> data, long cachedTime) {
+            this.type = type;
+            this.data = Collections.unmodifiableList(new ArrayList<T>(data));
+            this.cachedTime = cachedTime;
+        }
+
+        /**
+         * Returns a copy of the cached records, so callers can still modify the list they get back.
+         */
+        @SuppressWarnings("unchecked")
+        <U> List<U> getData(Class<U> expectedType) {
+            return type == expectedType ? new ArrayList<U>((List<U>) data) : null;
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counts of the in memory cache.
+     *
+     * @deprecated Will be removed in Mobile SDK 7.0.
+     */
+    @Deprecated
+    public static class InMemoryStats {
+
+        private final int hitCount;
+        private final int missCount;
+        private final int evictionCount;
+        private final int size;
+        private final int maxSize;
+
+        InMemoryStats(int hitCount, int missCount, int evictionCount, int size, int maxSize) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        public int getHitCount() {
+            return hitCount;
+        }
+
+        public int getMissCount() {
+            return missCount;
+        }
+
+        public int getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * @return Number of records currently in memory.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return Maximum number of records kept in memory.
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.smartsync.manager;
+
+import com.salesforce.androidsdk.smartstore.store.SmartStore;
+import com.salesforce.androidsdk.smartsync.target.SyncDownTarget;
+import com.salesforce.androidsdk.smartsync.target.SyncTarget;
+import com.salesforce.androidsdk.smartsync.util.SmartSyncLogger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes single cached records (layouts, metadata) in the background for the
+ * {@link com.salesforce.androidsdk.smartsync.util.Constants.Mode#STALE_WHILE_REVALIDATE} mode.
+ * Refreshes run on their own small thread pool, not on the sync manager's queue, so they don't wait
+ * behind record syncs. Concurrent refreshes of the same record are merged into one server call,
+ * and the record is only written if its content changed. Callers served from the cache are only called back
+ * if the content changed, callers that got nothing from the cache are always called back.
+ */
+class CacheRevalidator {
+
+    private static final String TAG = "CacheRevalidator";
+    private static final int MAX_THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Fields added to records by SmartStore and sync targets, ignored when comparing content
+     */
+    private static final String[] LOCAL_FIELDS = {
+            SmartStore.SOUP_ENTRY_ID,
+            SmartStore.SOUP_CREATED_DATE,
+            SmartStore.SOUP_LAST_MODIFIED_DATE,
+            SyncTarget.LOCAL,
+            SyncTarget.LOCALLY_CREATED,
+            SyncTarget.LOCALLY_UPDATED,
+            SyncTarget.LOCALLY_DELETED,
+            SyncTarget.LAST_ERROR,
+            SyncTarget.SYNC_ID
+    };
+
+    private static final ExecutorService EXECUTOR;
+    static {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        EXECUTOR = executor;
+    }
+
+    private static final Map<String, List<PendingCallback>> IN_FLIGHT = new HashMap<>();
+
+    /**
+     * Fetches a record from the server and saves it if it differs from the cached copy.
+     * If a refresh of the same record is already running, the callback is attached to it instead.
+     *
+     * @param syncManager Sync manager.
+     * @param target Sync down target returning the record.
+     * @param soupName Soup name.
+     * @param recordId ID of the record.
+     * @param cachedRecord Cached copy of the record (already returned to the caller), null if not cached.
+     * @param callback Callback triggered if the record changed, or always if there was no cached copy.
+     */
+    static void revalidate(final SyncManager syncManager, final SyncDownTarget target,
+                           final String soupName, String recordId, final JSONObject cachedRecord,
+                           RevalidateCallback callback) {
+        final String key = syncManager.getSmartStore().getDatabase().getPath() + ":" + soupName + ":" + recordId;
+        final PendingCallback pendingCallback = new PendingCallback(callback, cachedRecord != null);
+        synchronized (IN_FLIGHT) {
+            final List<PendingCallback> callbacks = IN_FLIGHT.get(key);
+            if (callbacks != null) {
+                callbacks.add(pendingCallback);
+                return;
+            }
+            final List<PendingCallback> newCallbacks = new ArrayList<>();
+            newCallbacks.add(pendingCallback);
+            IN_FLIGHT.put(key, newCallbacks);
+        }
+        EXECUTOR.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                boolean changed = false;
+                try {
+                    changed = refresh(syncManager, target, soupName, cachedRecord);
+                } catch (Exception e) {
+                    SmartSyncLogger.e(TAG, "Exception occurred while refreshing cached record", e);
+                }
+                final List<PendingCallback> callbacks;
+                synchronized (IN_FLIGHT) {
+                    callbacks = IN_FLIGHT.remove(key);
+                }
+
+                // Callers that got nothing from the cache are waiting for an answer, even if it is null
+                for (final PendingCallback pendingCallback : callbacks) {
+                    if (changed || !pendingCallback.servedFromCache) {
+                        pendingCallback.callback.onRefreshed();
+                    }
+                }
+            }
+        });
+    }
+
+    private static boolean refresh(SyncManager syncManager, SyncDownTarget target,
+                                   String soupName, JSONObject cachedRecord) throws Exception {
+        final JSONArray records = target.startFetch(syncManager, 0);
+        if (records == null || records.length() == 0 || records.optJSONObject(0) == null) {
+            return false;
+        }
+        if (cachedRecord != null && hasSameContent(cachedRecord, records.getJSONObject(0))) {
+            return false;
+        }
+        target.saveRecordsToLocalStore(syncManager, soupName, records, -1);
+        return true;
+    }
+
+    static boolean hasSameContent(JSONObject cachedRecord, JSONObject serverRecord) throws JSONException {
+        final JSONObject strippedRecord = new JSONObject(cachedRecord.toString());
+        for (final String field : LOCAL_FIELDS) {
+            strippedRecord.remove(field);
+        }
+        return strippedRecord.toString().equals(serverRecord.toString());
+    }
+
+    /**
+     * Callback waiting for a refresh, with whether its caller was served from the cache.
+     */
+    private static class PendingCallback {
+
+        final RevalidateCallback callback;
+        final boolean servedFromCache;
+
+        PendingCallback(RevalidateCallback callback, boolean servedFromCache) {
+            this.callback = callback;
+            this.servedFromCache = servedFromCache;
+        }
+    }
+
+    /**
+     * Callback interface for background refreshes.
+     */
+    interface RevalidateCallback {
+
+        /**
+         * Triggered after the refresh if the record changed, or if the caller was not served from the cache
+         * (whatever the outcome of the refresh). The callback should read the record from the cache,
+         * which returns null if the refresh failed and nothing was cached.
+         */
+        void onRefreshed();
+    }
+}
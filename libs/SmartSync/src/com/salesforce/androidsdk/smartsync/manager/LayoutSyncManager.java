@@ -42,6 +42,8 @@ import com.salesforce.androidsdk.smartsync.util.SyncOptions;
 import com.salesforce.androidsdk.smartsync.util.SyncState;
 
 import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -191,6 +193,9 @@ public class LayoutSyncManager {
             case SERVER_FIRST:
                 fetchFromServer(objectType, layoutType, syncCallback);
                 break;
+            case STALE_WHILE_REVALIDATE:
+                fetchAndRevalidate(objectType, layoutType, syncCallback);
+                break;
         }
     }
 
@@ -219,27 +224,56 @@ public class LayoutSyncManager {
         }
     }
 
+    private void fetchAndRevalidate(final String objectType, final String layoutType,
+                                    final LayoutSyncCallback syncCallback) {
+        JSONObject cachedLayout = null;
+        try {
+            cachedLayout = readFromCache(objectType, layoutType);
+        } catch (Exception e) {
+            SmartSyncLogger.e(TAG, "Exception occurred while reading layout data from the cache", e);
+        }
+        if (cachedLayout != null) {
+            onSyncComplete(objectType, syncCallback, Layout.fromJSON(cachedLayout));
+        }
+        CacheRevalidator.revalidate(syncManager, new LayoutSyncDownTarget(objectType, layoutType),
+                SOUP_NAME, String.format(LayoutSyncDownTarget.ID_FIELD_VALUE, objectType, layoutType),
+                cachedLayout, new CacheRevalidator.RevalidateCallback() {
+
+            @Override
+            public void onRefreshed() {
+                fetchFromCache(objectType, layoutType, syncCallback, false);
+            }
+        });
+    }
+
     private void fetchFromCache(String objectType, String layoutType,
                                 LayoutSyncCallback syncCallback, boolean fallbackOnServer) {
-        final QuerySpec querySpec = QuerySpec.buildSmartQuerySpec(String.format(QUERY,
-                objectType, layoutType), 1);
         try {
-            final JSONArray results = smartStore.query(querySpec, 0);
-            if (results == null || results.length() == 0) {
+            final JSONObject layout = readFromCache(objectType, layoutType);
+            if (layout == null) {
                 if (fallbackOnServer) {
                     fetchFromServer(objectType, layoutType, syncCallback);
                 } else {
                     onSyncComplete(objectType, syncCallback, null);
                 }
             } else {
-                onSyncComplete(objectType, syncCallback,
-                        Layout.fromJSON(results.optJSONArray(0).optJSONObject(0)));
+                onSyncComplete(objectType, syncCallback, Layout.fromJSON(layout));
             }
         } catch (Exception e) {
             SmartSyncLogger.e(TAG, "Exception occurred while reading layout data from the cache", e);
         }
     }
 
+    private JSONObject readFromCache(String objectType, String layoutType) throws JSONException {
+        final QuerySpec querySpec = QuerySpec.buildSmartQuerySpec(String.format(QUERY,
+                objectType, layoutType), 1);
+        final JSONArray results = smartStore.query(querySpec, 0);
+        if (results == null || results.length() == 0) {
+            return null;
+        }
+        return results.optJSONArray(0).optJSONObject(0);
+    }
+
     private void onSyncComplete(String objectType, LayoutSyncCallback syncCallback, Layout layout) {
         if (syncCallback != null) {
             syncCallback.onSyncComplete(objectType, layout);
@@ -42,6 +42,8 @@ import com.salesforce.androidsdk.smartsync.util.SyncOptions;
 import com.salesforce.androidsdk.smartsync.util.SyncState;
 
 import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -190,6 +192,9 @@ public class MetadataSyncManager {
             case SERVER_FIRST:
                 fetchFromServer(objectType, syncCallback);
                 break;
+            case STALE_WHILE_REVALIDATE:
+                fetchAndRevalidate(objectType, syncCallback);
+                break;
         }
     }
 
@@ -217,26 +222,54 @@ public class MetadataSyncManager {
         }
     }
 
+    private void fetchAndRevalidate(final String objectType, final MetadataSyncCallback syncCallback) {
+        JSONObject cachedMetadata = null;
+        try {
+            cachedMetadata = readFromCache(objectType);
+        } catch (Exception e) {
+            SmartSyncLogger.e(TAG, "Exception occurred while reading metadata from the cache", e);
+        }
+        if (cachedMetadata != null) {
+            onSyncComplete(syncCallback, Metadata.fromJSON(cachedMetadata));
+        }
+        CacheRevalidator.revalidate(syncManager, new MetadataSyncDownTarget(objectType),
+                SOUP_NAME, objectType, cachedMetadata, new CacheRevalidator.RevalidateCallback() {
+
+            @Override
+            public void onRefreshed() {
+                fetchFromCache(objectType, syncCallback, false);
+            }
+        });
+    }
+
     private void fetchFromCache(String objectType, MetadataSyncCallback syncCallback,
                                 boolean fallbackOnServer) {
-        final QuerySpec querySpec = QuerySpec.buildSmartQuerySpec(String.format(QUERY,
-                objectType), 1);
         try {
-            final JSONArray results = smartStore.query(querySpec, 0);
-            if (results == null || results.length() == 0) {
+            final JSONObject metadata = readFromCache(objectType);
+            if (metadata == null) {
                 if (fallbackOnServer) {
                     fetchFromServer(objectType, syncCallback);
                 } else {
                     onSyncComplete(syncCallback, null);
                 }
             } else {
-                onSyncComplete(syncCallback, Metadata.fromJSON(results.optJSONArray(0).optJSONObject(0)));
+                onSyncComplete(syncCallback, Metadata.fromJSON(metadata));
             }
         } catch (Exception e) {
             SmartSyncLogger.e(TAG, "Exception occurred while reading metadata from the cache", e);
         }
     }
 
+    private JSONObject readFromCache(String objectType) throws JSONException {
+        final QuerySpec querySpec = QuerySpec.buildSmartQuerySpec(String.format(QUERY,
+                objectType), 1);
+        final JSONArray results = smartStore.query(querySpec, 0);
+        if (results == null || results.length() == 0) {
+            return null;
+        }
+        return results.optJSONArray(0).optJSONObject(0);
+    }
+
     private void onSyncComplete(MetadataSyncCallback syncCallback, Metadata metadata) {
         if (syncCallback != null) {
             syncCallback.onSyncComplete(metadata);
@@ -28,6 +28,8 @@ package com.salesforce.androidsdk.smartsync.manager;
 
 import com.salesforce.androidsdk.accounts.UserAccount;
 import com.salesforce.androidsdk.analytics.EventBuilderHelper;
+import com.salesforce.androidsdk.analytics.EventSampler;
+import com.salesforce.androidsdk.analytics.SalesforceAnalyticsManager;
 import com.salesforce.androidsdk.app.SalesforceSDKManager;
 import com.salesforce.androidsdk.auth.HttpAccess;
 import com.salesforce.androidsdk.rest.ApiVersionStrings;
@@ -46,6 +48,7 @@ import com.salesforce.androidsdk.smartsync.util.SyncOptions;
 import com.salesforce.androidsdk.smartsync.util.SyncState;
 import com.salesforce.androidsdk.smartsync.util.SyncState.MergeMode;
 import com.salesforce.androidsdk.util.JSONObjectHelper;
+import com.salesforce.androidsdk.util.Tracer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -71,6 +74,13 @@ public class SyncManager {
 
     // For user agent
     private static final String SMART_SYNC = "SmartSync";
+    private static final String SYNC_TARGET = "syncTarget";
+    private static final String CLEAN_RESYNC_GHOSTS = "cleanResyncGhosts";
+
+    // Tracing span names
+    public static final String TRACE_SYNC_DOWN = "SyncManager.syncDown";
+    public static final String TRACE_SYNC_UP = "SyncManager.syncUp";
+    public static final String TRACE_NETWORK = "SyncManager.network";
 
     // Static member
     private static Map<String, SyncManager> INSTANCES = new HashMap<String, SyncManager>();
@@ -81,6 +91,7 @@ public class SyncManager {
     private final ExecutorService threadPool = Executors.newFixedThreadPool(1);
 	private SmartStore smartStore;
 	private RestClient restClient;
+    private final HttpAccess.UserAgentInterceptor userAgentInterceptor;
 
     /**
      * Private constructor
@@ -90,9 +101,26 @@ public class SyncManager {
         apiVersion = ApiVersionStrings.getVersionNumber(SalesforceSDKManager.getInstance().getAppContext());
         this.smartStore = smartStore;
         this.restClient = restClient;
+        this.userAgentInterceptor = new HttpAccess.UserAgentInterceptor(SalesforceSDKManager.getInstance().getUserAgent(SMART_SYNC));
         SyncState.setupSyncsSoupIfNeeded(smartStore);
     }
 
+    /**
+     * Turns the aggregation of sync events on or off (off by default).
+     * When on, syncDown, syncUp and cleanResyncGhosts events are summarized per sync target
+     * (see {@link EventSampler}) instead of being stored one by one, which helps apps syncing very often.
+     * Summaries are kept in memory for up to {@link EventBuilderHelper#AGGREGATE_FLUSH_INTERVAL_MILLIS}.
+     *
+     * @param aggregate True - to summarize sync events, False - to store them one by one.
+     */
+    public static void setAggregateSyncEvents(boolean aggregate) {
+        final EventSampler sampler = EventBuilderHelper.getEventSampler();
+        final EventSampler.Policy policy = aggregate ? EventSampler.Policy.aggregated(SYNC_TARGET) : null;
+        sampler.setPolicy(SyncState.Type.syncDown.name(), policy);
+        sampler.setPolicy(SyncState.Type.syncUp.name(), policy);
+        sampler.setPolicy(CLEAN_RESYNC_GHOSTS, policy);
+    }
+
     /**
      * Returns the instance of this class associated with current user.
      *
@@ -347,13 +375,18 @@ public class SyncManager {
             @Override
             public void run() {
                 try {
-                    switch (sync.getType()) {
-                        case syncDown:
-                            syncDown(sync, callback);
-                            break;
-                        case syncUp:
-                            syncUp(sync, callback);
-                            break;
+                    final Tracer.Span span = Tracer.begin(sync.getType() == SyncState.Type.syncDown ? TRACE_SYNC_DOWN : TRACE_SYNC_UP);
+                    try {
+                        switch (sync.getType()) {
+                            case syncDown:
+                                syncDown(sync, callback);
+                                break;
+                            case syncUp:
+                                syncUp(sync, callback);
+                                break;
+                        }
+                    } finally {
+                        span.end();
                     }
                     updateSync(sync, SyncState.Status.DONE, 100, callback);
                 } catch (RestClient.RefreshTokenRevokedException re) {
@@ -459,8 +492,8 @@ public class SyncManager {
                         try {
                             attributes.put("numRecords", localIdSize);
                             attributes.put("syncId", sync.getId());
-                            attributes.put("syncTarget", target.getClass().getName());
-                            EventBuilderHelper.createAndStoreEventSync("cleanResyncGhosts", null, TAG, attributes);
+                            attributes.put(SYNC_TARGET, target.getClass().getName());
+                            EventBuilderHelper.createAndStoreEventSync(CLEAN_RESYNC_GHOSTS, null, TAG, attributes);
                         } catch (JSONException e) {
                             SmartSyncLogger.e(TAG, "Unexpected JSON error for cleanResyncGhosts sync tag: " + sync.getId(), e);
                         }
@@ -513,7 +546,7 @@ public class SyncManager {
                             attributes.put("numRecords", totalSize);
                         }
                         attributes.put("syncId", sync.getId());
-                        attributes.put("syncTarget", sync.getTarget().getClass().getName());
+                        attributes.put(SYNC_TARGET, sync.getTarget().getClass().getName());
                         attributes.put(EventBuilderHelper.START_TIME, sync.getStartTime());
                         attributes.put(EventBuilderHelper.END_TIME, sync.getEndTime());
                     } catch (JSONException e) {
@@ -521,6 +554,9 @@ public class SyncManager {
                     }
                     EventBuilderHelper.createAndStoreEvent(sync.getType().name(), null, TAG, attributes);
                     runningSyncIds.remove(sync.getId());
+
+                    // The radio is awake after a sync, a good time to publish analytics
+                    SalesforceAnalyticsManager.onNetworkActivity();
                     break;
             }
             sync.save(smartStore);
@@ -716,8 +752,15 @@ public class SyncManager {
 	 */
 	public RestResponse sendSyncWithSmartSyncUserAgent(RestRequest restRequest) throws IOException {
         SmartSyncLogger.d(TAG, "sendSyncWithSmartSyncUserAgent called with request: ", restRequest);
-        RestResponse restResponse = restClient.sendSync(restRequest, new HttpAccess.UserAgentInterceptor(SalesforceSDKManager.getInstance().getUserAgent(SMART_SYNC)));
-        return restResponse;
+
+        // Sync is background traffic: requests from the UI go first
+        restRequest.setPriority(RestRequest.Priority.LOW);
+        final Tracer.Span span = Tracer.begin(TRACE_NETWORK);
+        try {
+            return restClient.sendSync(restRequest, userAgentInterceptor);
+        } finally {
+            span.end();
+        }
     }
 
     /**
@@ -37,6 +37,7 @@ import com.salesforce.androidsdk.smartsync.util.Constants;
 import com.salesforce.androidsdk.smartsync.util.ParentInfo;
 import com.salesforce.androidsdk.smartsync.util.SOQLBuilder;
 import com.salesforce.androidsdk.util.JSONObjectHelper;
+import com.salesforce.androidsdk.util.Tracer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -315,6 +316,11 @@ public class ParentChildrenSyncDownTarget extends SoqlSyncDownTarget {
     @Override
     public void saveRecordsToLocalStore(SyncManager syncManager, String soupName, JSONArray records, long syncId) throws JSONException {
         // NB: method is called during sync down so for this target records contain parent and children
-        ParentChildrenSyncTargetHelper.saveRecordTreesToLocalStore(syncManager, this, parentInfo, childrenInfo, records, syncId);
+        final Tracer.Span span = Tracer.begin(TRACE_SAVE_RECORDS);
+        try {
+            ParentChildrenSyncTargetHelper.saveRecordTreesToLocalStore(syncManager, this, parentInfo, childrenInfo, records, syncId);
+        } finally {
+            span.end();
+        }
     }
 }
@@ -515,6 +515,7 @@ public class ParentChildrenSyncUpTarget extends SyncUpTarget implements Advanced
 
     protected Map<String, JSONObject> sendCompositeRequest(SyncManager syncManager, boolean allOrNone, LinkedHashMap<String, RestRequest> refIdToRequests) throws JSONException, IOException {
         RestRequest compositeRequest = RestRequest.getCompositeRequest(syncManager.apiVersion, allOrNone, refIdToRequests);
+        compositeRequest.setGzipRequestBody(true);
         RestResponse compositeResponse = syncManager.sendSyncWithSmartSyncUserAgent(compositeRequest);
         if (!compositeResponse.isSuccess()) {
             throw new SyncManager.SmartSyncException("sendCompositeRequest:" + compositeResponse.toString());
@@ -34,6 +34,7 @@ import com.salesforce.androidsdk.smartsync.manager.SyncManager;
 import com.salesforce.androidsdk.smartsync.util.Constants;
 import com.salesforce.androidsdk.smartsync.util.SmartSyncLogger;
 import com.salesforce.androidsdk.util.JSONObjectHelper;
+import com.salesforce.androidsdk.util.Tracer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -70,6 +71,9 @@ public abstract class SyncTarget {
 
     private static final String TAG = "SyncTarget";
 
+    // Tracing span name
+    public static final String TRACE_SAVE_RECORDS = "SyncTarget.saveRecordsToLocalStore";
+
     // Page size used when reading from smartstore
     private static final int PAGE_SIZE = 2000;
 
@@ -213,8 +217,11 @@ public abstract class SyncTarget {
      * @throws JSONException
      */
     public void saveRecordsToLocalStore(SyncManager syncManager, String soupName, JSONArray records, long syncId) throws JSONException {
+        final Tracer.Span span = Tracer.begin(TRACE_SAVE_RECORDS);
         SmartStore smartStore = syncManager.getSmartStore();
+        final Tracer.Span lockSpan = Tracer.begin(SmartStore.TRACE_LOCK_WAIT);
         synchronized(smartStore.getDatabase()) {
+            lockSpan.end();
             try {
                 smartStore.beginTransaction();
                 for (int i = 0; i < records.length(); i++) {
@@ -226,6 +233,7 @@ public abstract class SyncTarget {
             }
             finally {
                 smartStore.endTransaction();
+                span.end();
             }
         }
     }
@@ -110,10 +110,13 @@ public class Constants {
      * CACHE_FIRST - Fetches data from the cache and falls back on the server if no data is available.
      * SERVER_FIRST - Fetches data from the server and falls back on the cache if the server doesn't
      * return data. The data fetched from the server is automatically cached.
+     * STALE_WHILE_REVALIDATE - Returns cached data right away (if any) and refreshes it from the server
+     * in the background, data is returned again only if it changed.
      */
     public enum Mode {
         CACHE_ONLY,
         CACHE_FIRST,
-        SERVER_FIRST
+        SERVER_FIRST,
+        STALE_WHILE_REVALIDATE
     }
 }
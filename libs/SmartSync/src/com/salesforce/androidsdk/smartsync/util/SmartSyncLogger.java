@@ -77,8 +77,7 @@ public class SmartSyncLogger {
      * @param obj Object to be logged.
      */
     public static void e(String tag, String msg, Object obj) {
-        final String objStr = toString(obj);
-        e(tag, msg + ": " + objStr);
+        log(SalesforceLogger.Level.ERROR, tag, msg, obj);
     }
 
     /**
@@ -110,8 +109,7 @@ public class SmartSyncLogger {
      * @param obj Object to be logged.
      */
     public static void w(String tag, String msg, Object obj) {
-        final String objStr = toString(obj);
-        w(tag, msg + ": " + objStr);
+        log(SalesforceLogger.Level.WARN, tag, msg, obj);
     }
 
     /**
@@ -143,8 +141,7 @@ public class SmartSyncLogger {
      * @param obj Object to be logged.
      */
     public static void i(String tag, String msg, Object obj) {
-        final String objStr = toString(obj);
-        i(tag, msg + ": " + objStr);
+        log(SalesforceLogger.Level.INFO, tag, msg, obj);
     }
 
     /**
@@ -176,8 +173,7 @@ public class SmartSyncLogger {
      * @param obj Object to be logged.
      */
     public static void d(String tag, String msg, Object obj) {
-        final String objStr = toString(obj);
-        d(tag, msg + ": " + objStr);
+        log(SalesforceLogger.Level.DEBUG, tag, msg, obj);
     }
 
     /**
@@ -209,8 +205,7 @@ public class SmartSyncLogger {
      * @param obj Object to be logged.
      */
     public static void v(String tag, String msg, Object obj) {
-        final String objStr = toString(obj);
-        v(tag, msg + ": " + objStr);
+        log(SalesforceLogger.Level.VERBOSE, tag, msg, obj);
     }
 
     /**
@@ -222,6 +217,17 @@ public class SmartSyncLogger {
         getLogger().setLogLevel(level);
     }
 
+    /**
+     * Logs a message followed by an object, the object is only turned
+     * into a string if the log line is going to be logged.
+     */
+    private static void log(SalesforceLogger.Level level, String tag, String msg, Object obj) {
+        final SalesforceLogger logger = getLogger();
+        if (logger.isLoggable(level)) {
+            logger.log(level, tag, msg + ": " + toString(obj));
+        }
+    }
+
     private static SalesforceLogger getLogger() {
         return SalesforceLogger.getLogger(COMPONENT_NAME,
                 SalesforceSDKManager.getInstance().getAppContext());
@@ -30,6 +30,9 @@ import android.content.Context;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.squareup.tape.QueueFile;
 
 import junit.framework.Assert;
 
@@ -38,8 +41,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for FileLogger.
@@ -55,6 +61,8 @@ public class FileLoggerTest {
     private static final String TEST_LOG_LINE_2 = "This is test log line 2!";
     private static final String TEST_LOG_LINE_3 = "This is test log line 3!";
     private static final String TEST_LOG_LINE_4 = "This is test log line 4!";
+    private static final String TEST_UNICODE_LOG_LINE = "Test log line \u00e9\u4e2d\ud83d\ude00!";
+    private static final String TAG = "FileLoggerTest";
     private static final int DEFAULT_MAX_SIZE = 10000;
 
     private Context targetContext;
@@ -342,4 +350,142 @@ public class FileLoggerTest {
         size = fileLogger.getSize();
         Assert.assertEquals("Log file should have no entries", 0, size);
     }
+
+    /**
+     * Test for reading back log lines that are not plain ASCII.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadNonAsciiLogLine() throws Exception {
+        fileLogger.addLogLine(TEST_UNICODE_LOG_LINE);
+        final String logLineRead = fileLogger.readLogLine();
+        Assert.assertEquals("Incorrect log line read", TEST_UNICODE_LOG_LINE, logLineRead);
+        final List<String> logLinesRead = fileLogger.readAndRemoveFileAsList();
+        Assert.assertEquals("Incorrect log line read", TEST_UNICODE_LOG_LINE, logLinesRead.get(0));
+    }
+
+    /**
+     * Test for writing a batch larger than max size.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteBatchLargerThanMaxSize() throws Exception {
+        fileLogger.addLogLine(TEST_LOG_LINE_1);
+        fileLogger.setMaxSize(2);
+        fileLogger.addLogLines(new String[] {TEST_LOG_LINE_2, TEST_LOG_LINE_3, TEST_LOG_LINE_4});
+        Assert.assertEquals("Log file should have 2 entries", 2, fileLogger.getSize());
+        final String[] logLinesRead = fileLogger.readAndRemoveFileAsArray();
+        Assert.assertEquals("Log line read is different from expected log line", TEST_LOG_LINE_3, logLinesRead[0]);
+        Assert.assertEquals("Log line read is different from expected log line", TEST_LOG_LINE_4, logLinesRead[1]);
+    }
+
+    /**
+     * Test for oldest log lines being dropped to stay within max bytes.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteAfterMaxBytesReached() throws Exception {
+        final int lineBytes = 4 + TEST_LOG_LINE_1.length();
+        fileLogger.setMaxBytes(2 * lineBytes);
+        fileLogger.addLogLines(new String[] {TEST_LOG_LINE_1, TEST_LOG_LINE_2, TEST_LOG_LINE_3});
+        Assert.assertEquals("Log file should have 2 entries", 2, fileLogger.getSize());
+        fileLogger.addLogLine(TEST_LOG_LINE_4);
+        Assert.assertEquals("Log file should have 2 entries", 2, fileLogger.getSize());
+        final String[] logLinesRead = fileLogger.readAndRemoveFileAsArray();
+        Assert.assertEquals("Log line read is different from expected log line", TEST_LOG_LINE_3, logLinesRead[0]);
+        Assert.assertEquals("Log line read is different from expected log line", TEST_LOG_LINE_4, logLinesRead[1]);
+    }
+
+    /**
+     * Test for log lines surviving many cycles of writes and removals.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWriteAndRemoveCycles() throws Exception {
+        final List<String> logLines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            logLines.add(TEST_LOG_LINE_1 + i);
+        }
+        for (int cycle = 0; cycle < 10; cycle++) {
+            fileLogger.addLogLines(logLines);
+            final List<String> logLinesRead = fileLogger.readAndRemoveLogLinesAsList(900);
+            Assert.assertEquals("Incorrect log line read", TEST_LOG_LINE_1 + (cycle * 900) % 1000, logLinesRead.get(0));
+        }
+        Assert.assertEquals("Log file should have 1000 entries", 1000, fileLogger.getSize());
+        fileLogger = new FileLogger(targetContext, COMPONENT_NAME);
+        Assert.assertEquals("Log file should have 1000 entries after reopening", 1000, fileLogger.getSize());
+        Assert.assertEquals("Incorrect log line read", TEST_LOG_LINE_1 + 0, fileLogger.readLogLine());
+    }
+
+    /**
+     * Test for log lines written by earlier versions being kept.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMigrateLegacyLogFile() throws Exception {
+        final String componentName = COMPONENT_NAME + "Legacy";
+        final QueueFile legacyFile = new QueueFile(new File(targetContext.getFilesDir(), componentName + "_log"));
+        legacyFile.add(TEST_LOG_LINE_1.getBytes("UTF-8"));
+        legacyFile.add(TEST_UNICODE_LOG_LINE.getBytes("UTF-8"));
+        legacyFile.close();
+        final FileLogger migratedLogger = new FileLogger(targetContext, componentName);
+        final List<String> logLinesRead = migratedLogger.readAndRemoveFileAsList();
+        Assert.assertEquals("Log lines read are different from expected log lines",
+                Arrays.asList(TEST_LOG_LINE_1, TEST_UNICODE_LOG_LINE), logLinesRead);
+        Assert.assertFalse("Legacy log file should be deleted",
+                new File(targetContext.getFilesDir(), componentName + "_log").exists());
+    }
+
+    /**
+     * Measures write and read throughput against a QueueFile used the way FileLogger used to.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testThroughputAgainstQueueFile() throws Exception {
+        final int numLines = 2000;
+        final int maxLines = 500;
+        final List<String> logLines = new ArrayList<>();
+        for (int i = 0; i < numLines; i++) {
+            logLines.add(TEST_LOG_LINE_1 + i);
+        }
+        final File queueFilename = new File(targetContext.getFilesDir(), COMPONENT_NAME + "Benchmark");
+        queueFilename.delete();
+        final QueueFile queueFile = new QueueFile(queueFilename);
+        long start = System.nanoTime();
+        for (final String logLine : logLines) {
+            while (queueFile.size() >= maxLines) {
+                queueFile.remove();
+            }
+            queueFile.add(logLine.getBytes("UTF-8"));
+        }
+        final long queueWriteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        start = System.nanoTime();
+        while (queueFile.size() > 0) {
+            queueFile.peek();
+            queueFile.remove();
+        }
+        final long queueReadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        queueFile.close();
+        queueFilename.delete();
+        fileLogger.setMaxSize(maxLines);
+        start = System.nanoTime();
+        for (int i = 0; i < numLines; i += 256) {
+            fileLogger.addLogLines(logLines.subList(i, Math.min(i + 256, numLines)));
+        }
+        final long writeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        start = System.nanoTime();
+        final List<String> logLinesRead = fileLogger.readAndRemoveFileAsList();
+        final long readMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Log.i(TAG, "QueueFile: wrote " + numLines + " lines in " + queueWriteMillis + " ms, read them in "
+                + queueReadMillis + " ms. FileLogger: wrote them in " + writeMillis + " ms, read them in "
+                + readMillis + " ms");
+        Assert.assertEquals("Number of log lines read should be " + maxLines, maxLines, logLinesRead.size());
+        Assert.assertEquals("Incorrect log line read", TEST_LOG_LINE_1 + (numLines - maxLines), logLinesRead.get(0));
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.analytics.logger;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests for LogRingBuffer.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LogRingBufferTest {
+
+    /**
+     * Elements should come out in order, in batches of the requested size.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDrainInOrder() throws Exception {
+        final LogRingBuffer<Integer> buffer = new LogRingBuffer<>(8);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue("Element should have been added", buffer.offer(i));
+        }
+        final List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals("Wrong number of elements drained", 3, buffer.drainTo(drained, 3));
+        Assert.assertEquals("Wrong number of elements drained", 2, buffer.drainTo(drained, 3));
+        Assert.assertEquals("Wrong elements", Arrays.asList(0, 1, 2, 3, 4), drained);
+        Assert.assertTrue("Buffer should be empty", buffer.isEmpty());
+    }
+
+    /**
+     * Elements offered to a full buffer should be dropped.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDropWhenFull() throws Exception {
+        final LogRingBuffer<Integer> buffer = new LogRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue("Element should have been added", buffer.offer(i));
+        }
+        Assert.assertFalse("Element should have been dropped", buffer.offer(4));
+        Assert.assertEquals("Wrong dropped count", 1, buffer.getDroppedCount());
+        final List<Integer> drained = new ArrayList<>();
+        buffer.drainTo(drained, 10);
+        Assert.assertTrue("Element should have been added after drain", buffer.offer(5));
+        buffer.drainTo(drained, 10);
+        Assert.assertEquals("Wrong elements", Arrays.asList(0, 1, 2, 3, 5), drained);
+    }
+
+    /**
+     * Elements offered from many threads should all come out exactly once.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final LogRingBuffer<Integer> buffer = new LogRingBuffer<>(1024);
+        final int numThreads = 4;
+        final int perThread = 256;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int base = t * perThread;
+            final Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        buffer.offer(base + i);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        final List<Integer> drained = new ArrayList<>();
+        buffer.drainTo(drained, numThreads * perThread);
+        Assert.assertEquals("Wrong number of elements", numThreads * perThread, drained.size());
+        Assert.assertEquals("Elements should be unique", numThreads * perThread, new HashSet<>(drained).size());
+    }
+}
@@ -39,6 +39,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests for SalesforceLogger.
@@ -51,6 +52,7 @@ public class SalesforceLoggerTest {
 
     private static final String TEST_COMPONENT_1 = "TestComponent1";
     private static final String TEST_COMPONENT_2 = "TestComponent2";
+    private static final String TEST_TAG = "TestTag";
 
     private Context targetContext;
 
@@ -114,4 +116,55 @@ public class SalesforceLoggerTest {
         logLevel = logger.getLogLevel();
         Assert.assertEquals("Log levels should be the same", SalesforceLogger.Level.VERBOSE, logLevel);
     }
+
+    /**
+     * Test for log lines being written to the file logger.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLogToFile() throws Exception {
+        final SalesforceLogger logger = SalesforceLogger.getLogger(TEST_COMPONENT_1, targetContext);
+        logger.setLogLevel(SalesforceLogger.Level.DEBUG);
+        logger.enableFileLogging(100);
+        logger.getFileLogger().flushLog();
+        for (int i = 0; i < 10; i++) {
+            logger.d(TEST_TAG, "Message " + i);
+        }
+        logger.v(TEST_TAG, "Not logged");
+        logger.flush();
+        final FileLogger fileLogger = logger.getFileLogger();
+        Assert.assertEquals("Number of log lines should be 10", 10, fileLogger.getSize());
+        final String logLine = fileLogger.readLogLine();
+        Assert.assertTrue("Wrong log line: " + logLine,
+                logLine.matches("TIME: \\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3}, LEVEL: DEBUG, TAG: " + TEST_TAG + ", MESSAGE: Message 0"));
+        fileLogger.flushLog();
+    }
+
+    /**
+     * Test for messages only being built if they are going to be logged.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMessageSupplier() throws Exception {
+        final SalesforceLogger logger = SalesforceLogger.getLogger(TEST_COMPONENT_1, targetContext);
+        logger.setLogLevel(SalesforceLogger.Level.ERROR);
+        final AtomicInteger calls = new AtomicInteger();
+        final SalesforceLogger.MessageSupplier supplier = new SalesforceLogger.MessageSupplier() {
+
+            @Override
+            public String get() {
+                calls.incrementAndGet();
+                return "Message";
+            }
+        };
+        Assert.assertFalse("Debug should not be loggable", logger.isLoggable(SalesforceLogger.Level.DEBUG));
+        logger.log(SalesforceLogger.Level.DEBUG, TEST_TAG, supplier, null);
+        Assert.assertEquals("Message should not have been built", 0, calls.get());
+        logger.log(SalesforceLogger.Level.ERROR, TEST_TAG, supplier, null);
+        Assert.assertEquals("Message should have been built", 1, calls.get());
+        logger.flush();
+        logger.getFileLogger().flushLog();
+    }
 }
@@ -30,12 +30,14 @@ import android.content.Context;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
 
 import com.salesforce.androidsdk.analytics.manager.AnalyticsManager;
 import com.salesforce.androidsdk.analytics.model.DeviceAppAttributes;
 import com.salesforce.androidsdk.analytics.model.InstrumentationEvent;
 import com.salesforce.androidsdk.analytics.model.InstrumentationEventBuilder;
 import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.analytics.transform.AILTNTransform;
 
 import junit.framework.Assert;
 
@@ -45,9 +47,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for EventStoreManager.
@@ -58,6 +65,7 @@ import java.util.UUID;
 @SmallTest
 public class EventStoreManagerTest {
 
+    private static final String TAG = "EventStoreManagerTest";
     private static final String TEST_FILENAME_SUFFIX = "_test_filename_suffix";
     private static final String TEST_ENCRYPTION_KEY = Encryptor.hash("test_encryption_key", "key");
     private static final DeviceAppAttributes TEST_DEVICE_APP_ATTRIBUTES = new DeviceAppAttributes("TEST_APP_VERSION",
@@ -314,6 +322,226 @@ public class EventStoreManagerTest {
         Assert.assertTrue("Stored event should be the same as generated event", event.equals(events.get(0)));
     }
 
+    /**
+     * Test for fetching the oldest events.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFetchOldestEvents() throws Exception {
+        final List<InstrumentationEvent> genEvents = new ArrayList<>();
+        for (int i = 0; i < EventLog.MAX_EVENTS_PER_SEGMENT + 10; i++) {
+            final InstrumentationEvent event = createTestEvent();
+            genEvents.add(event);
+            storeManager.storeEvent(event);
+        }
+        final List<InstrumentationEvent> events = storeManager.fetchOldestEvents(5);
+        Assert.assertEquals("Number of events fetched should be 5", 5, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            Assert.assertTrue("Fetched event should be the same as generated event", genEvents.get(i).equals(events.get(i)));
+        }
+        Assert.assertEquals("All events should be fetched", genEvents.size(),
+                storeManager.fetchOldestEvents(genEvents.size() * 2).size());
+    }
+
+    /**
+     * Test for segments being rotated and deleted once their events are deleted.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSegmentRotationAndDeletion() throws Exception {
+        final int numEvents = EventLog.MAX_EVENTS_PER_SEGMENT * 2 + EventLog.MAX_EVENTS_PER_SEGMENT / 2;
+        final List<String> eventIds = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            final InstrumentationEvent event = createTestEvent();
+            eventIds.add(event.getEventId());
+            storeManager.storeEvent(event);
+        }
+        final File logDir = new File(targetContext.getFilesDir(), "sf__event_log" + TEST_FILENAME_SUFFIX);
+        Assert.assertEquals("Number of events stored should be " + numEvents, numEvents, storeManager.getNumStoredEvents());
+        Assert.assertEquals("Number of segments should be 3", 3, logDir.list().length);
+        storeManager.deleteEvents(eventIds.subList(0, EventLog.MAX_EVENTS_PER_SEGMENT + 1));
+        Assert.assertEquals("First segment should have been deleted", 2, logDir.list().length);
+        final List<InstrumentationEvent> events = storeManager.fetchAllEvents();
+        Assert.assertEquals("Wrong number of remaining events", numEvents - EventLog.MAX_EVENTS_PER_SEGMENT - 1, events.size());
+        Assert.assertEquals("Wrong first remaining event", eventIds.get(EventLog.MAX_EVENTS_PER_SEGMENT + 1), events.get(0).getEventId());
+        Assert.assertEquals("Wrong count of stored events", events.size(), storeManager.getNumStoredEvents());
+        storeManager.deleteAllEvents();
+        Assert.assertEquals("All segments should have been deleted", 0, logDir.list().length);
+    }
+
+    /**
+     * Test for re-encrypted events being split across segments.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testChangeEncryptionKeyKeepsSegmentSize() throws Exception {
+        final int numEvents = EventLog.MAX_EVENTS_PER_SEGMENT * 2 + EventLog.MAX_EVENTS_PER_SEGMENT / 2;
+        for (int i = 0; i < numEvents; i++) {
+            storeManager.storeEvent(createTestEvent());
+        }
+        final String newKey = Encryptor.hash("new_test_encryption_key", "key");
+        storeManager.changeEncryptionKey(TEST_ENCRYPTION_KEY, newKey);
+        try {
+            final File logDir = new File(targetContext.getFilesDir(), "sf__event_log" + TEST_FILENAME_SUFFIX);
+            Assert.assertEquals("Number of segments should be 3", 3, logDir.list().length);
+            Assert.assertEquals("Number of events stored should be " + numEvents, numEvents, storeManager.fetchAllEvents().size());
+        } finally {
+            storeManager.changeEncryptionKey(newKey, TEST_ENCRYPTION_KEY);
+        }
+    }
+
+    /**
+     * Test for events stored one per file being moved to the event log.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMigrateEventFiles() throws Exception {
+        final String suffix = "_test_migration_suffix";
+        final InstrumentationEvent event = createTestEvent();
+        final File legacyFile = new File(targetContext.getFilesDir(), event.getEventId() + suffix);
+        final FileOutputStream outputStream = new FileOutputStream(legacyFile);
+        outputStream.write(Encryptor.encrypt(event.toJson().toString(), TEST_ENCRYPTION_KEY).getBytes());
+        outputStream.close();
+        final File unreadableFile = new File(targetContext.getFilesDir(), "unreadable" + suffix);
+        final FileOutputStream unreadableOutputStream = new FileOutputStream(unreadableFile);
+        unreadableOutputStream.write(Encryptor.encrypt(event.toJson().toString(), Encryptor.hash("other_encryption_key", "key")).getBytes());
+        unreadableOutputStream.close();
+        final EventStoreManager migratedStoreManager = new EventStoreManager(suffix, targetContext, TEST_ENCRYPTION_KEY);
+        try {
+            Assert.assertFalse("Event file should have been deleted", legacyFile.exists());
+            Assert.assertTrue("Event file that could not be read should have been kept", unreadableFile.exists());
+            final List<InstrumentationEvent> events = migratedStoreManager.fetchAllEvents();
+            Assert.assertEquals("Number of events stored should be 1", 1, events.size());
+            Assert.assertTrue("Stored event should be the same as generated event", event.equals(events.get(0)));
+        } finally {
+            migratedStoreManager.deleteAllEvents();
+            unreadableFile.delete();
+        }
+    }
+
+    /**
+     * Measures store, fetch and delete throughput, the way events get stored and published,
+     * and compares it with storing each event in its own file (the way earlier versions did).
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStoreAndFetchThroughput() throws Exception {
+        final int numEvents = 1000;
+        final List<InstrumentationEvent> genEvents = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            genEvents.add(createTestEvent());
+        }
+
+        // Event log
+        long start = System.nanoTime();
+        for (final InstrumentationEvent event : genEvents) {
+            storeManager.storeEvent(event);
+        }
+        final long storeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        start = System.nanoTime();
+        final List<InstrumentationEvent> events = storeManager.fetchAllEvents();
+        final long fetchMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals("Number of events stored should be " + numEvents, numEvents, events.size());
+        start = System.nanoTime();
+        final List<String> eventIds = new ArrayList<>();
+        for (final InstrumentationEvent event : events) {
+            eventIds.add(event.getEventId());
+        }
+        storeManager.deleteEvents(eventIds);
+        final long deleteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals("Number of events stored should be 0", 0, storeManager.getNumStoredEvents());
+        Log.i(TAG, "Event log: stored " + numEvents + " events in " + storeMillis + " ms, fetched them in "
+                + fetchMillis + " ms, deleted them in " + deleteMillis + " ms");
+
+        // One file per event
+        final File fileDir = new File(targetContext.getCacheDir(), "event_files_throughput_test");
+        fileDir.mkdirs();
+        try {
+            start = System.nanoTime();
+            for (final InstrumentationEvent event : genEvents) {
+                storeEventFile(fileDir, event);
+            }
+            final long fileStoreMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            start = System.nanoTime();
+            final List<InstrumentationEvent> fileEvents = new ArrayList<>();
+            for (final File file : fileDir.listFiles()) {
+                fileEvents.add(fetchEventFile(file));
+            }
+            final long fileFetchMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertEquals("Number of event files should be " + numEvents, numEvents, fileEvents.size());
+            start = System.nanoTime();
+            for (final InstrumentationEvent event : fileEvents) {
+                new File(fileDir, event.getEventId()).delete();
+            }
+            final long fileDeleteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Timings are only logged: they vary too much on shared emulators, and storing events also computes their wire forms
+            Log.i(TAG, "One file per event: stored " + numEvents + " events in " + fileStoreMillis + " ms, fetched them in "
+                    + fileFetchMillis + " ms, deleted them in " + fileDeleteMillis + " ms");
+        } finally {
+            final File[] files = fileDir.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    file.delete();
+                }
+            }
+            fileDir.delete();
+        }
+    }
+
+    private void storeEventFile(File dir, InstrumentationEvent event) throws Exception {
+        final FileOutputStream outputStream = new FileOutputStream(new File(dir, event.getEventId()));
+        try {
+            outputStream.write(Encryptor.encrypt(event.toJson().toString(), TEST_ENCRYPTION_KEY).getBytes());
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private InstrumentationEvent fetchEventFile(File file) throws Exception {
+        final StringBuilder json = new StringBuilder();
+        final BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                json.append(line).append('\n');
+            }
+        } finally {
+            br.close();
+        }
+        return new InstrumentationEvent(new JSONObject(Encryptor.decrypt(json.toString(), TEST_ENCRYPTION_KEY)));
+    }
+
+    /**
+     * Test for the wire form of registered transforms being computed and stored with events.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testStoreWireForm() throws Exception {
+        final AILTNTransform transform = new AILTNTransform();
+        storeManager.addWireFormatTransform(transform);
+        final InstrumentationEvent event = createTestEvent();
+        storeManager.storeEvent(event);
+        final InstrumentationEvent storedEvent = storeManager.fetchEvent(event.getEventId());
+        final String wireForm = storedEvent.getWireForm(transform.getWireFormatKey());
+        Assert.assertNotNull("Wire form should have been stored", wireForm);
+
+        // Wire form should be the log line the publisher used to build from the transformed event
+        final JSONObject expectedPayload = transform.transform(event);
+        final Object schemaType = expectedPayload.remove(InstrumentationEvent.SCHEMA_TYPE_KEY);
+        final JSONObject logLine = new JSONObject(wireForm);
+        Assert.assertEquals("Wrong code", "ailtn", logLine.getString("code"));
+        final JSONObject data = logLine.getJSONObject("data");
+        Assert.assertEquals("Wrong schema type", schemaType, data.getString(InstrumentationEvent.SCHEMA_TYPE_KEY));
+        Assert.assertEquals("Wrong payload", expectedPayload.toString(), data.getString("payload"));
+    }
+
     private InstrumentationEvent createTestEvent() throws Exception {
         final InstrumentationEventBuilder eventBuilder = InstrumentationEventBuilder.getInstance(analyticsManager, targetContext);
         long curTime = System.currentTimeMillis();
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.analytics;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.analytics.EventSampler.Decision;
+import com.salesforce.androidsdk.analytics.EventSampler.Policy;
+import com.salesforce.androidsdk.analytics.EventSampler.Summary;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for EventSampler
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class EventSamplerTest {
+
+    private static final String EVENT_NAME = "testEvent";
+    private static final String TEST_CLASS = "EventSamplerTest";
+
+    private EventSampler sampler;
+
+    @Before
+    public void setUp() throws Exception {
+        sampler = new EventSampler(new Random(42));
+    }
+
+    /**
+     * Events without a policy should all be stored
+     */
+    @Test
+    public void testNoPolicy() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("Wrong decision", Decision.STORE, sampler.decide(EVENT_NAME, null, TEST_CLASS, null, i));
+        }
+        Assert.assertFalse("There should be no summaries", sampler.hasSummaries());
+    }
+
+    /**
+     * Only the allowed number of events should be stored per window
+     */
+    @Test
+    public void testRateLimit() throws Exception {
+        sampler.setPolicy(EVENT_NAME, new Policy(1, 3, 1000));
+        int stored = 0;
+        for (int i = 0; i < 10; i++) {
+            if (sampler.decide(EVENT_NAME, null, TEST_CLASS, null, 500) == Decision.STORE) {
+                stored++;
+            }
+        }
+        Assert.assertEquals("Wrong number of events stored in first window", 3, stored);
+        Assert.assertEquals("Event should be stored in next window", Decision.STORE,
+                sampler.decide(EVENT_NAME, null, TEST_CLASS, null, 1500));
+        Assert.assertEquals("Other events should not be limited", Decision.STORE,
+                sampler.decide(EVENT_NAME + "Other", null, TEST_CLASS, null, 500));
+    }
+
+    /**
+     * About the sample rate of the events should be stored, with the rate in their attributes
+     */
+    @Test
+    public void testSampling() throws Exception {
+        sampler.setPolicy(EVENT_NAME, new Policy(0.25, 0, 0));
+        int stored = 0;
+        JSONObject storedAttributes = null;
+        for (int i = 0; i < 1000; i++) {
+            final JSONObject attributes = new JSONObject();
+            if (sampler.decide(EVENT_NAME, null, TEST_CLASS, attributes, i) == Decision.STORE) {
+                stored++;
+                storedAttributes = attributes;
+            }
+        }
+        Assert.assertTrue("Wrong number of events stored: " + stored, stored > 150 && stored < 350);
+        Assert.assertEquals("Wrong sample rate", 0.25, storedAttributes.getDouble(EventSampler.SAMPLE_RATE));
+        sampler.setPolicy(EVENT_NAME, new Policy(0, 0, 0));
+        Assert.assertEquals("Event should be dropped", Decision.DROP, sampler.decide(EVENT_NAME, null, TEST_CLASS, null, 0));
+    }
+
+    /**
+     * Aggregated events should come out as one summary per group
+     */
+    @Test
+    public void testAggregation() throws Exception {
+        sampler.setPolicy(EVENT_NAME, Policy.aggregated("target"));
+        Assert.assertTrue("Events should be aggregated", sampler.isAggregated(EVENT_NAME));
+        for (int i = 1; i <= 10; i++) {
+            final JSONObject attributes = new JSONObject();
+            attributes.put("target", i % 2 == 0 ? "even" : "odd");
+            attributes.put(EventBuilderHelper.START_TIME, i * 1000);
+            attributes.put(EventBuilderHelper.END_TIME, i * 1000 + i * 100);
+            attributes.put(EventSampler.NUM_RECORDS, i);
+            Assert.assertEquals("Wrong decision", Decision.AGGREGATE, sampler.decide(EVENT_NAME, null, TEST_CLASS, attributes, 0));
+        }
+        Assert.assertTrue("There should be summaries", sampler.hasSummaries());
+        final List<Summary> summaries = sampler.drainSummaries();
+        Assert.assertFalse("Summaries should have been reset", sampler.hasSummaries());
+        Assert.assertEquals("Wrong number of summaries", 2, summaries.size());
+        final Summary odd = summaries.get(0);
+        Assert.assertEquals("Wrong name", EVENT_NAME, odd.getName());
+        Assert.assertEquals("Wrong class name", TEST_CLASS, odd.getClassName());
+        final JSONObject attributes = odd.getAttributes();
+        Assert.assertEquals("Wrong group", "odd", attributes.getString("target"));
+        Assert.assertTrue("Should be a summary", attributes.getBoolean(EventSampler.SUMMARY));
+        Assert.assertEquals("Wrong count", 5, attributes.getLong(EventSampler.COUNT));
+        Assert.assertEquals("Wrong start time", 1000, attributes.getLong(EventBuilderHelper.START_TIME));
+        Assert.assertEquals("Wrong end time", 9900, attributes.getLong(EventBuilderHelper.END_TIME));
+        Assert.assertFalse("Histogram should not reuse the numRecords attribute", attributes.has(EventSampler.NUM_RECORDS));
+        final JSONObject numRecords = attributes.getJSONObject(EventSampler.NUM_RECORDS_HISTOGRAM);
+        Assert.assertEquals("Wrong record count sum", 1 + 3 + 5 + 7 + 9, numRecords.getLong("sum"));
+        Assert.assertEquals("Wrong record count max", 9, numRecords.getLong("max"));
+        final JSONObject duration = attributes.getJSONObject(EventSampler.DURATION_HISTOGRAM);
+        Assert.assertEquals("Wrong duration count", 5, duration.getLong("count"));
+        Assert.assertEquals("Wrong duration max", 900, duration.getLong("max"));
+    }
+}
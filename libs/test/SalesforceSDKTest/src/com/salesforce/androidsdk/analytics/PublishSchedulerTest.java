@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.analytics;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.analytics.PublishScheduler.Conditions;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for PublishScheduler
+ *
+ * Runs against a fake clock
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class PublishSchedulerTest {
+
+    private static final int MIN_BATCH_SIZE = 100;
+    private static final long MAX_DELAY_MILLIS = TimeUnit.HOURS.toMillis(8);
+    private static final Conditions METERED_FEW_EVENTS = new Conditions(true, false, false, 5);
+
+    private FakeClock clock;
+    private PublishScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new FakeClock();
+        scheduler = new PublishScheduler(clock, MIN_BATCH_SIZE, MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Nothing should be published without a connection or without pending events
+     */
+    @Test
+    public void testNoConnectionOrNoEvents() throws Exception {
+        Assert.assertFalse("Should not publish without connection",
+                scheduler.shouldPublish(new Conditions(false, false, true, 500)));
+        Assert.assertFalse("Should not publish without events",
+                scheduler.shouldPublish(new Conditions(true, true, true, 0)));
+    }
+
+    /**
+     * A handful of events on a metered network should wait for better conditions
+     */
+    @Test
+    public void testFavorableConditions() throws Exception {
+        Assert.assertFalse("Should not publish a few events on metered network", scheduler.shouldPublish(METERED_FEW_EVENTS));
+        Assert.assertTrue("Should publish on unmetered network", scheduler.shouldPublish(new Conditions(true, true, false, 5)));
+        clock.advance(PublishScheduler.MIN_PUBLISH_INTERVAL_MILLIS);
+        Assert.assertTrue("Should publish while charging", scheduler.shouldPublish(new Conditions(true, false, true, 5)));
+        clock.advance(PublishScheduler.MIN_PUBLISH_INTERVAL_MILLIS);
+        Assert.assertTrue("Should publish a full batch", scheduler.shouldPublish(new Conditions(true, false, false, MIN_BATCH_SIZE)));
+    }
+
+    /**
+     * Publishes should be spaced by the minimum interval
+     */
+    @Test
+    public void testMinInterval() throws Exception {
+        final Conditions unmetered = new Conditions(true, true, false, 5);
+        Assert.assertTrue("Should publish", scheduler.shouldPublish(unmetered));
+        scheduler.onPublishSucceeded();
+        clock.advance(PublishScheduler.MIN_PUBLISH_INTERVAL_MILLIS - 1);
+        Assert.assertFalse("Should not publish before min interval", scheduler.shouldPublish(unmetered));
+        clock.advance(1);
+        Assert.assertTrue("Should publish after min interval", scheduler.shouldPublish(unmetered));
+    }
+
+    /**
+     * Publishing should piggyback on recent network activity
+     */
+    @Test
+    public void testPiggyback() throws Exception {
+        scheduler.onNetworkActivity();
+        clock.advance(PublishScheduler.PIGGYBACK_WINDOW_MILLIS);
+        Assert.assertTrue("Should publish within piggyback window", scheduler.shouldPublish(METERED_FEW_EVENTS));
+        clock.advance(PublishScheduler.MIN_PUBLISH_INTERVAL_MILLIS);
+        Assert.assertFalse("Should not publish after piggyback window", scheduler.shouldPublish(METERED_FEW_EVENTS));
+    }
+
+    /**
+     * Events should be published once they waited for the max delay, whatever the conditions
+     */
+    @Test
+    public void testMaxDelay() throws Exception {
+        clock.advance(MAX_DELAY_MILLIS - 1);
+        Assert.assertFalse("Should not publish before max delay", scheduler.shouldPublish(METERED_FEW_EVENTS));
+        clock.advance(1);
+        Assert.assertTrue("Should publish after max delay", scheduler.shouldPublish(METERED_FEW_EVENTS));
+        scheduler.onPublishSucceeded();
+        clock.advance(PublishScheduler.MIN_PUBLISH_INTERVAL_MILLIS);
+        Assert.assertFalse("Max delay should restart after success", scheduler.shouldPublish(METERED_FEW_EVENTS));
+    }
+
+    /**
+     * Consecutive failures should back off exponentially, up to the max backoff
+     */
+    @Test
+    public void testBackoff() throws Exception {
+        final Conditions unmetered = new Conditions(true, true, false, 5);
+        long expectedBackoff = PublishScheduler.INITIAL_BACKOFF_MILLIS;
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue("Should publish", scheduler.shouldPublish(unmetered));
+            scheduler.onPublishFailed();
+            Assert.assertEquals("Wrong backoff", expectedBackoff, scheduler.getBackoffMillis());
+            clock.advance(expectedBackoff - 1);
+            Assert.assertFalse("Should not publish during backoff", scheduler.shouldPublish(unmetered));
+            clock.advance(1);
+            expectedBackoff *= 2;
+        }
+        for (int i = 0; i < 10; i++) {
+            scheduler.onPublishFailed();
+        }
+        Assert.assertEquals("Backoff should be capped", PublishScheduler.MAX_BACKOFF_MILLIS, scheduler.getBackoffMillis());
+        scheduler.onPublishSucceeded();
+        Assert.assertEquals("Backoff should be reset", 0, scheduler.getBackoffMillis());
+        clock.advance(PublishScheduler.MIN_PUBLISH_INTERVAL_MILLIS);
+        Assert.assertTrue("Should publish after success", scheduler.shouldPublish(unmetered));
+    }
+
+    /**
+     * Last success and backoff should survive a restart, even across a reboot
+     */
+    @Test
+    public void testRestoreState() throws Exception {
+        final SharedPreferences prefs = InstrumentationRegistry.getTargetContext().getSharedPreferences("publish_scheduler_test", Context.MODE_PRIVATE);
+        prefs.edit().clear().commit();
+        try {
+            scheduler.restore(prefs);
+            clock.advance(MAX_DELAY_MILLIS / 2);
+
+            // Restarting should not restart the max delay
+            scheduler = new PublishScheduler(clock, MIN_BATCH_SIZE, MAX_DELAY_MILLIS);
+            scheduler.restore(prefs);
+            clock.advance(MAX_DELAY_MILLIS / 2);
+            Assert.assertTrue("Should publish after max delay", scheduler.shouldPublish(METERED_FEW_EVENTS));
+
+            // Backoff should survive a reboot
+            scheduler.onPublishFailed();
+            scheduler.onPublishFailed();
+            clock.reboot(PublishScheduler.INITIAL_BACKOFF_MILLIS);
+            scheduler = new PublishScheduler(clock, MIN_BATCH_SIZE, MAX_DELAY_MILLIS);
+            scheduler.restore(prefs);
+            Assert.assertEquals("Failures should have been restored", PublishScheduler.INITIAL_BACKOFF_MILLIS * 2, scheduler.getBackoffMillis());
+            final Conditions unmetered = new Conditions(true, true, false, 5);
+            clock.advance(PublishScheduler.INITIAL_BACKOFF_MILLIS - 1);
+            Assert.assertFalse("Should not publish during backoff", scheduler.shouldPublish(unmetered));
+            clock.advance(1);
+            Assert.assertTrue("Should publish after backoff", scheduler.shouldPublish(unmetered));
+        } finally {
+            prefs.edit().clear().commit();
+        }
+    }
+
+    private static class FakeClock implements PublishScheduler.Clock {
+
+        private long now = TimeUnit.DAYS.toMillis(1);
+        private long wallOffset = TimeUnit.DAYS.toMillis(17000);
+
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return now + wallOffset;
+        }
+
+        void advance(long millis) {
+            now += millis;
+        }
+
+        /**
+         * Elapsed realtime starts over, wall clock time goes on
+         */
+        void reboot(long downMillis) {
+            wallOffset += now + downMillis;
+            now = 0;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.rest.NetworkMetrics.CallMetrics;
+import com.salesforce.androidsdk.rest.NetworkMetrics.EndpointFamily;
+import com.salesforce.androidsdk.rest.NetworkMetrics.EndpointStats;
+import com.salesforce.androidsdk.rest.NetworkMetrics.LatencyHistogram;
+import com.salesforce.androidsdk.rest.NetworkMetrics.Phase;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Tests for NetworkMetrics
+ *
+ * Runs against a local mock server
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class NetworkMetricsTest {
+
+    private static final String QUERY_PATH = "/services/data/v42.0/query/";
+    private static final String COMPOSITE_PATH = "/services/data/v42.0/composite/batch";
+
+    private MockWebServer server;
+    private NetworkMetrics networkMetrics;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        networkMetrics = new NetworkMetrics(2);
+        client = new OkHttpClient.Builder().eventListenerFactory(networkMetrics).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Endpoint families should be derived from paths
+     */
+    @Test
+    public void testEndpointFamilies() {
+        Assert.assertEquals(EndpointFamily.QUERY, EndpointFamily.fromPath("/services/data/v42.0/query"));
+        Assert.assertEquals(EndpointFamily.QUERY, EndpointFamily.fromPath("/services/data/v42.0/queryAll"));
+        Assert.assertEquals(EndpointFamily.COMPOSITE, EndpointFamily.fromPath("/services/data/v42.0/composite/tree/Account"));
+        Assert.assertEquals(EndpointFamily.COMPOSITE, EndpointFamily.fromPath("/services/data/v42.0/composite/sobjects"));
+        Assert.assertEquals(EndpointFamily.SOBJECTS, EndpointFamily.fromPath("/services/data/v42.0/sobjects/Account/001"));
+        Assert.assertEquals(EndpointFamily.CHATTER_FILES, EndpointFamily.fromPath("/services/data/v42.0/connect/files/069/content"));
+        Assert.assertEquals(EndpointFamily.OTHER, EndpointFamily.fromPath("/services/data/"));
+    }
+
+    /**
+     * Calls should be aggregated per endpoint family, with byte counts
+     */
+    @Test
+    public void testStatsPerEndpointFamily() throws Exception {
+        server.enqueue(new MockResponse().setBody("{\"records\":[]}"));
+        server.enqueue(new MockResponse().setBody("{\"records\":[]}"));
+        server.enqueue(new MockResponse().setBody("{\"results\":[]}"));
+        send(new Request.Builder().url(server.url(QUERY_PATH)).build());
+        send(new Request.Builder().url(server.url(QUERY_PATH)).build());
+        send(new Request.Builder().url(server.url(COMPOSITE_PATH)).post(RequestBody.create(RestRequest.MEDIA_TYPE_JSON, "{\"batchRequests\":[]}")).build());
+
+        final EndpointStats queryStats = networkMetrics.getStats(EndpointFamily.QUERY);
+        Assert.assertEquals("Wrong call count", 2, queryStats.getCallCount());
+        Assert.assertEquals("Wrong failure count", 0, queryStats.getFailureCount());
+        Assert.assertEquals("Wrong response bytes", 2 * "{\"records\":[]}".length(), queryStats.getResponseBytes());
+        Assert.assertEquals("Wrong total count", 2, queryStats.getHistogram(Phase.TOTAL).getCount());
+        Assert.assertEquals("Wrong time to first byte count", 2, queryStats.getHistogram(Phase.TIME_TO_FIRST_BYTE).getCount());
+        final EndpointStats compositeStats = networkMetrics.getStats(EndpointFamily.COMPOSITE);
+        Assert.assertEquals("Wrong call count", 1, compositeStats.getCallCount());
+        Assert.assertEquals("Wrong request bytes", "{\"batchRequests\":[]}".length(), compositeStats.getRequestBytes());
+        Assert.assertEquals("Wrong call count", 0, networkMetrics.getStats(EndpointFamily.SOBJECTS).getCallCount());
+    }
+
+    /**
+     * Only the last calls should be kept
+     */
+    @Test
+    public void testRecentCalls() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200 + i));
+            send(new Request.Builder().url(server.url(QUERY_PATH + i)).build());
+        }
+        final List<CallMetrics> recentCalls = networkMetrics.getRecentCalls();
+        Assert.assertEquals("Wrong number of recent calls", 2, recentCalls.size());
+        Assert.assertEquals("Wrong oldest call", QUERY_PATH + 1, recentCalls.get(0).path);
+        Assert.assertEquals("Wrong status code", 201, recentCalls.get(0).statusCode);
+        Assert.assertEquals("Wrong newest call", QUERY_PATH + 2, recentCalls.get(1).path);
+        networkMetrics.reset();
+        Assert.assertTrue("Recent calls should be cleared", networkMetrics.getRecentCalls().isEmpty());
+        Assert.assertEquals("Stats should be cleared", 0, networkMetrics.getStats(EndpointFamily.QUERY).getCallCount());
+    }
+
+    /**
+     * A call retried after a token refresh should be recorded once, with the bytes of the retried attempt
+     */
+    @Test
+    public void testTokenRefreshRecordedOnce() throws Exception {
+        final String body = "{\"records\":[]}";
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAUTHORIZED).setBody("unauthorized"));
+        server.enqueue(new MockResponse().setBody(body));
+        final URI instanceUrl = server.url("/").uri();
+        final RestClient.ClientInfo clientInfo = new RestClient.ClientInfo(instanceUrl, instanceUrl, instanceUrl, "account",
+                "username", "test-user-id", "test-org-id", null, null, null, null, null, null, null, null, null);
+        final RestClient.AuthTokenProvider authTokenProvider = new RestClient.AuthTokenProvider() {
+
+            @Override
+            public String getNewAuthToken() {
+                return "new-token";
+            }
+
+            @Override
+            public String getRefreshToken() {
+                return "refresh-token";
+            }
+
+            @Override
+            public long getLastRefreshTime() {
+                return -1;
+            }
+
+            @Override
+            public String getInstanceUrl() {
+                return instanceUrl.toString();
+            }
+        };
+        client = new OkHttpClient.Builder().eventListenerFactory(networkMetrics).addInterceptor(networkMetrics)
+                .addInterceptor(new RestClient.OAuthRefreshInterceptor(clientInfo, "old-token", authTokenProvider)).build();
+        send(new Request.Builder().url(server.url(QUERY_PATH)).build());
+
+        Assert.assertEquals("Request should have been retried", 2, server.getRequestCount());
+        final List<CallMetrics> recentCalls = networkMetrics.getRecentCalls();
+        Assert.assertEquals("Call should be recorded once", 1, recentCalls.size());
+        Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_OK, recentCalls.get(0).statusCode);
+        Assert.assertFalse("Call should not be failed", recentCalls.get(0).failed);
+        Assert.assertEquals("Wrong response bytes", body.length(), recentCalls.get(0).responseBytes);
+        Assert.assertEquals("Wrong call count", 1, networkMetrics.getStats(EndpointFamily.QUERY).getCallCount());
+    }
+
+    /**
+     * Histograms should bucket values and estimate percentiles
+     */
+    @Test
+    public void testLatencyHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis : new long[] {5, 8, 40, 90, 20000}) {
+            histogram.add(millis);
+        }
+        Assert.assertEquals("Wrong count", 5, histogram.getCount());
+        Assert.assertEquals("Wrong max", 20000, histogram.getMax());
+        Assert.assertEquals("Wrong first bucket count", 2, histogram.getBucketCount(0));
+        Assert.assertEquals("Wrong last bucket count", 1, histogram.getBucketCount(LatencyHistogram.BUCKET_BOUNDS.length));
+        Assert.assertEquals("Wrong median", 50, histogram.getPercentile(50));
+        Assert.assertEquals("Wrong p100", 20000, histogram.getPercentile(100));
+    }
+
+    private void send(Request request) throws Exception {
+        try (Response response = client.newCall(request).execute()) {
+            response.body().string();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.auth.HttpAccess;
+import com.salesforce.androidsdk.rest.RestClient.AuthTokenProvider;
+import com.salesforce.androidsdk.rest.RestClient.ClientInfo;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Tests for the token refresh done by RestClient.OAuthRefreshInterceptor
+ *
+ * Runs against a local mock server
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class OAuthRefreshInterceptorTest {
+
+    private static final String OLD_TOKEN = "old-token";
+    private static final String NEW_TOKEN = "new-token";
+    private static final String ORG_ID = "test-org-id";
+    private static final String USER_ID = "test-user-id";
+    private static final String SLOW_PATH = "/slow";
+    private static final String FAST_PATH = "/fast";
+    private static final String FORBIDDEN_PATH = "/forbidden";
+    private static final String UNAUTHORIZED_BODY = "unauthorized";
+    private static final int NUMBER_OF_REQUESTS = 10;
+
+    private MockWebServer server;
+    private CountingAuthTokenProvider authTokenProvider;
+    private CountDownLatch slowRequestReceived;
+    private RestClient restClient;
+
+    @Before
+    public void setUp() throws Exception {
+        RestClient.clearCaches();
+        slowRequestReceived = new CountDownLatch(1);
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                boolean authorized = ("Bearer " + NEW_TOKEN).equals(request.getHeader("Authorization"));
+
+                // Holds on to the response until the token has been refreshed
+                if (SLOW_PATH.equals(request.getPath()) && !authorized) {
+                    slowRequestReceived.countDown();
+                    authTokenProvider.refreshed.await(10, TimeUnit.SECONDS);
+                }
+                final int unauthorizedCode = FORBIDDEN_PATH.equals(request.getPath()) ? HttpURLConnection.HTTP_FORBIDDEN : HttpURLConnection.HTTP_UNAUTHORIZED;
+                return authorized ? new MockResponse().setResponseCode(HttpURLConnection.HTTP_OK)
+                        : new MockResponse().setResponseCode(unauthorizedCode).setBody(UNAUTHORIZED_BODY);
+            }
+        });
+        server.start();
+        authTokenProvider = new CountingAuthTokenProvider(server.url("/").toString());
+        URI instanceUrl = server.url("/").uri();
+        ClientInfo clientInfo = new ClientInfo(instanceUrl, instanceUrl, instanceUrl, "account", "username",
+                USER_ID, ORG_ID, null, null, null, null, null, null, null, null, null);
+        restClient = new RestClient(clientInfo, OLD_TOKEN, new HttpAccess(null, "dummy-agent"), authTokenProvider);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RestClient.clearCaches();
+        server.shutdown();
+    }
+
+    /**
+     * Many requests getting a 401 at the same time should cause a single refresh
+     */
+    @Test
+    public void testConcurrentRequestsShareRefresh() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_REQUESTS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> statusCodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+                statusCodes.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return restClient.sendSync(new RestRequest(RestMethod.GET, FAST_PATH)).getStatusCode();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> statusCode : statusCodes) {
+                Assert.assertEquals("Request should have succeeded", HttpURLConnection.HTTP_OK, (int) statusCode.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals("Token should have been refreshed once", 1, authTokenProvider.refreshCount.get());
+        Assert.assertEquals("Wrong auth token", NEW_TOKEN, restClient.getAuthToken());
+    }
+
+    /**
+     * A request that gets a 401 for a token that was already replaced should be replayed without another refresh
+     */
+    @Test
+    public void testRequestWithSupersededTokenDoesNotRefresh() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> slowStatusCode = executor.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    return restClient.sendSync(new RestRequest(RestMethod.GET, SLOW_PATH)).getStatusCode();
+                }
+            });
+
+            // Slow request was sent with the old token, its 401 comes back after the refresh
+            Assert.assertTrue("Slow request not received", slowRequestReceived.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("Request should have succeeded", HttpURLConnection.HTTP_OK,
+                    restClient.sendSync(new RestRequest(RestMethod.GET, FAST_PATH)).getStatusCode());
+            Assert.assertEquals("Request should have succeeded", HttpURLConnection.HTTP_OK, (int) slowStatusCode.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals("Token should have been refreshed once", 1, authTokenProvider.refreshCount.get());
+    }
+
+    /**
+     * Requests waiting on a refresh that fails should all fail without refreshing again
+     */
+    @Test
+    public void testConcurrentRequestsShareFailedRefresh() throws Exception {
+        authTokenProvider.newAuthToken = null;
+        ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_REQUESTS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> requests = new ArrayList<>();
+        try {
+            for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+                requests.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        try {
+                            restClient.sendSync(new RestRequest(RestMethod.GET, FAST_PATH));
+                        } catch (RestClient.RefreshTokenRevokedException e) {
+                            failures.incrementAndGet();
+                        } catch (IOException e) {
+                            Assert.fail("Wrong exception: " + e);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> request : requests) {
+                request.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals("All requests should have failed", NUMBER_OF_REQUESTS, failures.get());
+        Assert.assertTrue("Failed refresh should have been shared", authTokenProvider.refreshCount.get() < NUMBER_OF_REQUESTS);
+    }
+
+    /**
+     * Whether to refresh on 403 should be decided by each request, not by the last request built
+     */
+    @Test
+    public void testShouldRefreshOn403PerRequest() throws Exception {
+        RestRequest noRefreshRequest = new RestRequest(RestMethod.GET, FORBIDDEN_PATH);
+        noRefreshRequest.setShouldRefreshOn403(false);
+        Request noRefresh = restClient.buildRequest(noRefreshRequest);
+
+        // Building another request in between used to change the setting for all requests
+        Request refresh = restClient.buildRequest(new RestRequest(RestMethod.GET, FORBIDDEN_PATH));
+        try (Response response = restClient.getOkHttpClient().newCall(noRefresh).execute()) {
+            Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_FORBIDDEN, response.code());
+        }
+        Assert.assertEquals("Token should not have been refreshed", 0, authTokenProvider.refreshCount.get());
+        try (Response response = restClient.getOkHttpClient().newCall(refresh).execute()) {
+            Assert.assertEquals("Request should have succeeded", HttpURLConnection.HTTP_OK, response.code());
+        }
+        Assert.assertEquals("Token should have been refreshed once", 1, authTokenProvider.refreshCount.get());
+    }
+
+    /**
+     * A 401 that is not retried should be returned with its body still readable
+     */
+    @Test
+    public void testUnauthorizedResponseReturnedOpenWithoutNewToken() throws Exception {
+        URI instanceUrl = server.url("/").uri();
+        ClientInfo clientInfo = new ClientInfo(instanceUrl, instanceUrl, instanceUrl, "account", "username",
+                USER_ID, ORG_ID, null, null, null, null, null, null, null, null, null);
+        RestClient unauthenticatedClient = new RestClient(clientInfo, null, new HttpAccess(null, "dummy-agent"), null);
+        Request request = unauthenticatedClient.buildRequest(new RestRequest(RestMethod.GET, FAST_PATH));
+        try (Response response = unauthenticatedClient.getOkHttpClient().newCall(request).execute()) {
+            Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_UNAUTHORIZED, response.code());
+            Assert.assertEquals("Wrong body", UNAUTHORIZED_BODY, response.body().string());
+        }
+        Assert.assertEquals("Request should not have been retried", 1, server.getRequestCount());
+    }
+
+    /**
+     * Clients derived for the same network interceptors should be reused
+     */
+    @Test
+    public void testDerivedClientsAreCached() throws Exception {
+        OkHttpClient derivedClient = restClient.getOkHttpClient(new HttpAccess.UserAgentInterceptor("agent-1"));
+        Assert.assertSame("Derived client should have been reused", derivedClient,
+                restClient.getOkHttpClient(new HttpAccess.UserAgentInterceptor("agent-1")));
+        Assert.assertNotSame("Different interceptors need a different client", derivedClient,
+                restClient.getOkHttpClient(new HttpAccess.UserAgentInterceptor("agent-2")));
+        Assert.assertSame("Derived client should share the dispatcher", restClient.getOkHttpClient().dispatcher(), derivedClient.dispatcher());
+        Assert.assertSame("Derived client should share the connection pool", restClient.getOkHttpClient().connectionPool(), derivedClient.connectionPool());
+        Assert.assertEquals("Request should have succeeded after refresh", HttpURLConnection.HTTP_OK,
+                restClient.sendSync(new RestRequest(RestMethod.GET, FAST_PATH), new HttpAccess.UserAgentInterceptor("agent-1")).getStatusCode());
+    }
+
+    /**
+     * Auth token provider that counts refreshes and takes a while to complete them
+     */
+    private static class CountingAuthTokenProvider implements AuthTokenProvider {
+
+        final AtomicInteger refreshCount = new AtomicInteger();
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        volatile String newAuthToken = NEW_TOKEN;
+        private final String instanceUrl;
+
+        CountingAuthTokenProvider(String instanceUrl) {
+            this.instanceUrl = instanceUrl;
+        }
+
+        @Override
+        public String getInstanceUrl() {
+            return instanceUrl;
+        }
+
+        @Override
+        public String getNewAuthToken() {
+            refreshCount.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            refreshed.countDown();
+            return newAuthToken;
+        }
+
+        @Override
+        public String getRefreshToken() {
+            return "refresh-token";
+        }
+
+        @Override
+        public long getLastRefreshTime() {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.app.SalesforceSDKManager;
+import com.salesforce.androidsdk.auth.HttpAccess;
+import com.salesforce.androidsdk.rest.RestClient.ClientInfo;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Tests for OfflineRequestQueue
+ *
+ * Runs against a local mock server
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class OfflineRequestQueueTest {
+
+    private static final String VERSION = "v42.0";
+    private static final String ACCOUNT_PATH = "/services/data/" + VERSION + "/sobjects/Account/";
+    private static final String BATCH_PATH = "/services/data/" + VERSION + "/composite/batch";
+    private static final String MISSING_ID = "missing";
+
+    private MockWebServer server;
+    private FakeHttpAccess httpAccess;
+    private RestClient restClient;
+    private File file;
+    private OfflineRequestQueue queue;
+    private List<String> received;
+    private volatile boolean unavailable;
+    private volatile int batchCount;
+    private List<String> completed;
+    private List<String> failed;
+
+    @Before
+    public void setUp() throws Exception {
+        RestClient.clearCaches();
+        received = Collections.synchronizedList(new ArrayList<String>());
+        completed = Collections.synchronizedList(new ArrayList<String>());
+        failed = Collections.synchronizedList(new ArrayList<String>());
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    if (unavailable) {
+                        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE);
+                    }
+                    if (BATCH_PATH.equals(request.getPath())) {
+                        batchCount++;
+                        JSONArray subRequests = new JSONObject(request.getBody().readUtf8()).getJSONArray(RestRequest.BATCH_REQUESTS);
+                        JSONArray results = new JSONArray();
+                        boolean halted = false;
+                        for (int i = 0; i < subRequests.length(); i++) {
+                            JSONObject subRequest = subRequests.getJSONObject(i);
+                            JSONObject result = new JSONObject();
+                            if (halted) {
+                                result.put("statusCode", HttpURLConnection.HTTP_PRECON_FAILED);
+                                result.put("result", new JSONArray().put(new JSONObject().put("errorCode", "BATCH_PROCESSING_HALTED")));
+                            } else {
+                                String url = subRequest.getString(RestRequest.URL);
+                                received.add(subRequest.getString("method") + " /services/data/" + url + " " + subRequest.opt("richInput"));
+                                if (url.endsWith(MISSING_ID)) {
+                                    result.put("statusCode", HttpURLConnection.HTTP_NOT_FOUND);
+                                    result.put("result", new JSONArray().put(new JSONObject().put("errorCode", "NOT_FOUND")));
+                                    halted = true;
+                                } else {
+                                    result.put("statusCode", HttpURLConnection.HTTP_NO_CONTENT);
+                                    result.put("result", JSONObject.NULL);
+                                }
+                            }
+                            results.put(result);
+                        }
+                        return new MockResponse().setBody(new JSONObject().put("hasErrors", halted).put("results", results).toString());
+                    }
+                    String body = request.getBody().readUtf8();
+                    received.add(request.getMethod() + " " + request.getPath() + " " + (body.isEmpty() ? null : body));
+                    if (request.getPath().endsWith(MISSING_ID)) {
+                        return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND);
+                    }
+                    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_NO_CONTENT);
+                } catch (Exception e) {
+                    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+                }
+            }
+        });
+        server.start();
+        URI instanceUrl = server.url("/").uri();
+        ClientInfo clientInfo = new ClientInfo(instanceUrl, instanceUrl, instanceUrl, "account", "username",
+                "test-user-id", "test-org-id", null, null, null, null, null, null, null, null, null);
+        httpAccess = new FakeHttpAccess();
+        restClient = new RestClient(clientInfo, "token", httpAccess, null);
+
+        // No retries, so that transient errors show up right away
+        restClient.setRetryPolicy(RetryPolicy.NO_RETRY);
+        file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "offline_requests_test");
+        file.delete();
+        queue = openQueue();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.close();
+        file.delete();
+        server.shutdown();
+        RestClient.clearCaches();
+    }
+
+    /**
+     * Queued requests should survive the queue being reopened
+     */
+    @Test
+    public void testPersistence() throws Exception {
+        httpAccess.online = false;
+        queue.enqueue(update("001A", "Name", "A"));
+        queue.enqueue(new RestRequest(RestMethod.DELETE, ACCOUNT_PATH + "001B"));
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Nothing should have been sent while offline", 0, server.getRequestCount());
+        queue.close();
+        queue = openQueue();
+        Assert.assertEquals("Wrong number of pending requests", 2, queue.getPendingCount());
+        httpAccess.online = true;
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Wrong requests sent", Arrays.asList(
+                "PATCH " + ACCOUNT_PATH + "001A {\"Name\":\"A\"}",
+                "DELETE " + ACCOUNT_PATH + "001B null"), received);
+        Assert.assertEquals("Queue should be empty", 0, queue.getPendingCount());
+    }
+
+    /**
+     * Queued requests should be replayed in order, in one batch request
+     */
+    @Test
+    public void testReplayInBatch() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (String recordId : new String[] {"001A", "001B", "001C"}) {
+            ids.add(queue.enqueue(update(recordId, "Name", recordId)));
+        }
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Wrong number of requests", 1, server.getRequestCount());
+        Assert.assertEquals("Wrong number of batch requests", 1, batchCount);
+        Assert.assertEquals("Wrong order", "PATCH " + ACCOUNT_PATH + "001C {\"Name\":\"001C\"}", received.get(2));
+        Assert.assertEquals("Wrong completed requests", ids, completed);
+        Assert.assertEquals("Queue should be empty", 0, queue.getPendingCount());
+    }
+
+    /**
+     * A PATCH of a record with a PATCH waiting should be merged into it
+     */
+    @Test
+    public void testPatchCompaction() throws Exception {
+        String firstId = queue.enqueue(update("001A", "Name", "A"));
+        String secondId = queue.enqueue(update("001A", "Phone", "555"));
+        String thirdId = queue.enqueue(update("001A", "Name", "B"));
+        Assert.assertEquals("Patch should have been merged", firstId, secondId);
+        Assert.assertEquals("Patch should have been merged", firstId, thirdId);
+        Assert.assertEquals("Wrong number of pending requests", 1, queue.getPendingCount());
+
+        // Not merged across a request that depends on it
+        queue.enqueue(new RestRequest(RestMethod.DELETE, ACCOUNT_PATH + "001B"), Collections.singletonList(firstId));
+        Assert.assertFalse("Patch should not have been merged", firstId.equals(queue.enqueue(update("001A", "Name", "C"))));
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Wrong number of requests sent", 3, received.size());
+        JSONObject merged = new JSONObject(received.get(0).substring(received.get(0).indexOf('{')));
+        Assert.assertEquals("Wrong merged name", "B", merged.getString("Name"));
+        Assert.assertEquals("Wrong merged phone", "555", merged.getString("Phone"));
+    }
+
+    /**
+     * Requests depending on a failed request should be dropped, other requests should go through
+     */
+    @Test
+    public void testDependencyFailure() throws Exception {
+        String missingId = queue.enqueue(update(MISSING_ID, "Name", "A"));
+        String dependentId = queue.enqueue(update("001A", "Name", "B"), Collections.singletonList(missingId));
+        String transitiveId = queue.enqueue(new RestRequest(RestMethod.DELETE, ACCOUNT_PATH + "001B"), Collections.singletonList(dependentId));
+        String independentId = queue.enqueue(update("001C", "Name", "C"));
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Wrong failed requests", Arrays.asList(dependentId, transitiveId), failed);
+        Assert.assertEquals("Wrong completed requests", Arrays.asList(missingId, independentId), completed);
+        Assert.assertEquals("Wrong requests sent", Arrays.asList(
+                "PATCH " + ACCOUNT_PATH + MISSING_ID + " {\"Name\":\"A\"}",
+                "PATCH " + ACCOUNT_PATH + "001C {\"Name\":\"C\"}"), received);
+        Assert.assertEquals("Queue should be empty", 0, queue.getPendingCount());
+    }
+
+    /**
+     * Requests should stay queued while the server is unavailable
+     */
+    @Test
+    public void testServerUnavailable() throws Exception {
+        unavailable = true;
+        queue.enqueue(update("001A", "Name", "A"));
+        queue.enqueue(update("001B", "Name", "B"));
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Requests should still be queued", 2, queue.getPendingCount());
+        Assert.assertTrue("No request should have completed", completed.isEmpty() && failed.isEmpty());
+        unavailable = false;
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Queue should be empty", 0, queue.getPendingCount());
+        Assert.assertEquals("Wrong number of completed requests", 2, completed.size());
+    }
+
+    /**
+     * A started queue should retry an interrupted replay with backoff, and reset the delay once a replay goes through
+     */
+    @Test
+    public void testRetryBackoff() throws Exception {
+        unavailable = true;
+        queue.enqueue(update("001A", "Name", "A"));
+        queue.start();
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Retry should have been scheduled", OfflineRequestQueue.INITIAL_RETRY_DELAY_MILLIS * 2,
+                queue.getRetryDelayMillis());
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Pending retry should not be scheduled again", OfflineRequestQueue.INITIAL_RETRY_DELAY_MILLIS * 2,
+                queue.getRetryDelayMillis());
+        unavailable = false;
+        queue.replay().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("Queue should be empty", 0, queue.getPendingCount());
+        Assert.assertEquals("Retry delay should have been reset", OfflineRequestQueue.INITIAL_RETRY_DELAY_MILLIS,
+                queue.getRetryDelayMillis());
+        queue.stop();
+    }
+
+    /**
+     * A closed queue should reject requests and leave its file ready to be reopened
+     */
+    @Test
+    public void testClose() throws Exception {
+        httpAccess.online = false;
+        queue.enqueue(update("001A", "Name", "A"));
+        queue.close();
+        try {
+            queue.enqueue(update("001B", "Name", "B"));
+            Assert.fail("Closed queue should reject requests");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertTrue("Replay of closed queue should be done", queue.replay().isDone());
+        queue = openQueue();
+        Assert.assertEquals("Wrong number of pending requests", 1, queue.getPendingCount());
+    }
+
+    /**
+     * Only requests with a JSON body can be queued
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonJsonBody() throws Exception {
+        queue.enqueue(new RestRequest(RestMethod.POST, ACCOUNT_PATH,
+                RequestBody.create(RestRequest.MEDIA_TYPE_JSON, "{}")));
+    }
+
+    private OfflineRequestQueue openQueue() throws Exception {
+        OfflineRequestQueue offlineQueue = new OfflineRequestQueue(null, restClient, httpAccess, file,
+                SalesforceSDKManager.getEncryptionKey());
+        offlineQueue.addListener(new OfflineRequestQueue.Listener() {
+
+            @Override
+            public void onCompleted(String requestId, RestRequest request, RestResponse response) {
+                completed.add(requestId);
+            }
+
+            @Override
+            public void onFailed(String requestId, RestRequest request, Exception exception) {
+                failed.add(requestId);
+            }
+        });
+        return offlineQueue;
+    }
+
+    private RestRequest update(String recordId, String field, String value) throws Exception {
+        return new RestRequest(RestMethod.PATCH, ACCOUNT_PATH + recordId, new JSONObject().put(field, value));
+    }
+
+    /**
+     * HttpAccess whose connectivity is controlled by the test
+     */
+    private static class FakeHttpAccess extends HttpAccess {
+
+        volatile boolean online = true;
+
+        FakeHttpAccess() {
+            super(null, "dummy-agent");
+        }
+
+        @Override
+        public synchronized boolean hasNetwork() {
+            return online;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.auth.HttpAccess;
+import com.salesforce.androidsdk.rest.RestClient.ClientInfo;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Tests for automatic batching of requests by RestClient
+ *
+ * Runs against a local mock server
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class RequestBatcherTest {
+
+    private static final String VERSION = "v42.0";
+    private static final String RETRIEVE_PATH = "/services/data/" + VERSION + "/sobjects/Account/";
+    private static final String BATCH_PATH = "/services/data/" + VERSION + "/composite/batch";
+    private static final String MISSING_ID = "missing";
+
+    private MockWebServer server;
+    private RestClient restClient;
+    private BlockingQueue<RecordedRequest> batchRequests;
+
+    @Before
+    public void setUp() throws Exception {
+        RestClient.clearCaches();
+        batchRequests = new LinkedBlockingQueue<>();
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    if (BATCH_PATH.equals(request.getPath())) {
+                        batchRequests.add(request);
+                        JSONArray subRequests = new JSONObject(request.getBody().readUtf8()).getJSONArray(RestRequest.BATCH_REQUESTS);
+                        JSONArray results = new JSONArray();
+                        for (int i = 0; i < subRequests.length(); i++) {
+                            String url = subRequests.getJSONObject(i).getString(RestRequest.URL);
+                            String id = url.substring(url.lastIndexOf('/') + 1);
+                            JSONObject result = new JSONObject();
+                            if (MISSING_ID.equals(id)) {
+                                result.put("statusCode", HttpURLConnection.HTTP_NOT_FOUND);
+                                result.put("result", new JSONArray().put(new JSONObject().put("errorCode", "NOT_FOUND")));
+                            } else {
+                                result.put("statusCode", HttpURLConnection.HTTP_OK);
+                                result.put("result", new JSONObject().put("Id", id));
+                            }
+                            results.put(result);
+                        }
+                        return new MockResponse().setBody(new JSONObject().put("hasErrors", false).put("results", results).toString());
+                    }
+                    String path = request.getPath();
+                    return new MockResponse().setBody(new JSONObject().put("Id", path.substring(path.lastIndexOf('/') + 1)).toString());
+                } catch (Exception e) {
+                    return new MockResponse().setResponseCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
+                }
+            }
+        });
+        server.start();
+        URI instanceUrl = server.url("/").uri();
+        ClientInfo clientInfo = new ClientInfo(instanceUrl, instanceUrl, instanceUrl, "account", "username",
+                "test-user-id", "test-org-id", null, null, null, null, null, null, null, null, null);
+        restClient = new RestClient(clientInfo, "token", new HttpAccess(null, "dummy-agent"), null);
+        restClient.setAutoBatching(200);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        restClient.setAutoBatching(0);
+        server.shutdown();
+        RestClient.clearCaches();
+    }
+
+    /**
+     * Requests sent within the window should go out in one batch, each caller getting its own response
+     */
+    @Test
+    public void testRequestsAreBatched() throws Exception {
+        Map<String, RestResponse> responses = sendAll("001A", "001B", MISSING_ID);
+        Assert.assertEquals("Wrong number of requests", 1, server.getRequestCount());
+        Assert.assertEquals("Wrong number of batch requests", 1, batchRequests.size());
+        Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_OK, responses.get("001A").getStatusCode());
+        Assert.assertEquals("Wrong response", "001A", responses.get("001A").asJSONObject().getString("Id"));
+        Assert.assertEquals("Wrong response", "001B", responses.get("001B").asJSONObject().getString("Id"));
+        Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_NOT_FOUND, responses.get(MISSING_ID).getStatusCode());
+        Assert.assertEquals("Wrong error", "NOT_FOUND", responses.get(MISSING_ID).asJSONArray().getJSONObject(0).getString("errorCode"));
+    }
+
+    /**
+     * A request alone in its window should be sent as is
+     */
+    @Test
+    public void testSingleRequestNotBatched() throws Exception {
+        Map<String, RestResponse> responses = sendAll("001A");
+        Assert.assertEquals("Wrong number of batch requests", 0, batchRequests.size());
+        Assert.assertEquals("Wrong path", RETRIEVE_PATH + "001A", server.takeRequest().getPath());
+        Assert.assertEquals("Wrong response", "001A", responses.get("001A").asJSONObject().getString("Id"));
+    }
+
+    /**
+     * Batches should not go over the maximum batch size
+     */
+    @Test
+    public void testMaxBatchSize() throws Exception {
+        String[] ids = new String[RequestBatcher.MAX_BATCH_SIZE + 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "001" + i;
+        }
+        Map<String, RestResponse> responses = sendAll(ids);
+        Assert.assertEquals("Wrong number of responses", ids.length, responses.size());
+        Assert.assertEquals("Wrong number of batch requests", 2, batchRequests.size());
+        for (String id : ids) {
+            Assert.assertEquals("Wrong response", id, responses.get(id).asJSONObject().getString("Id"));
+        }
+    }
+
+    /**
+     * Only plain GET requests should be batched
+     */
+    @Test
+    public void testIsBatchable() throws Exception {
+        Assert.assertTrue(RequestBatcher.isBatchable(new RestRequest(RestMethod.GET, RETRIEVE_PATH + "001A")));
+        Assert.assertFalse(RequestBatcher.isBatchable(new RestRequest(RestMethod.DELETE, RETRIEVE_PATH + "001A")));
+        Assert.assertFalse(RequestBatcher.isBatchable(new RestRequest(RestMethod.GET, "/services/apexrest/foo")));
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-Custom", "value");
+        Assert.assertFalse(RequestBatcher.isBatchable(new RestRequest(RestMethod.GET, RETRIEVE_PATH + "001A", headers)));
+        Assert.assertFalse(RequestBatcher.isBatchable(RestRequest.getRequestForDescribe(VERSION, "Account")));
+    }
+
+    private Map<String, RestResponse> sendAll(String... ids) throws Exception {
+        final Map<String, RestResponse> responses = new HashMap<>();
+        final CountDownLatch done = new CountDownLatch(ids.length);
+        for (final String id : ids) {
+            restClient.sendAsync(new RestRequest(RestMethod.GET, RETRIEVE_PATH + id), new RestClient.AsyncRequestCallback() {
+
+                @Override
+                public void onSuccess(RestRequest request, RestResponse response) {
+                    response.consumeQuietly();
+                    synchronized (responses) {
+                        responses.put(id, response);
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    done.countDown();
+                }
+            });
+        }
+        Assert.assertTrue("Requests timed out", done.await(10, TimeUnit.SECONDS));
+        return responses;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.rest.RestRequest.Priority;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Tests for ResilienceInterceptor and RetryPolicy
+ *
+ * Runs against a local mock server
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class ResilienceInterceptorTest {
+
+    private static final String PATH = "/services/data/v42.0/sobjects/";
+    private static final String REQUEST_LIMIT_EXCEEDED_BODY = "[{\"message\":\"TotalRequests Limit exceeded.\",\"errorCode\":\"REQUEST_LIMIT_EXCEEDED\"}]";
+
+    private MockWebServer server;
+    private ResilienceInterceptor resilienceInterceptor;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        resilienceInterceptor = new ResilienceInterceptor(new RetryPolicy(3, 10, 100), ResilienceInterceptor.DEFAULT_MAX_REQUESTS_PER_HOST);
+        client = new OkHttpClient.Builder().addInterceptor(resilienceInterceptor).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    /**
+     * Service unavailable responses should be retried
+     */
+    @Test
+    public void testRetryOnServiceUnavailable() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE));
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE));
+        server.enqueue(new MockResponse().setBody("ok"));
+        Assert.assertEquals("Request should have succeeded", HttpURLConnection.HTTP_OK, send(new RestRequest(RestMethod.GET, PATH)));
+        Assert.assertEquals("Wrong number of attempts", 3, server.getRequestCount());
+        Assert.assertEquals("No request should be in flight", 0, resilienceInterceptor.getInFlightCount(server.getHostName()));
+    }
+
+    /**
+     * Request limit exceeded responses should be retried, even for non idempotent requests
+     */
+    @Test
+    public void testRetryOnRequestLimitExceeded() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_FORBIDDEN).setBody(REQUEST_LIMIT_EXCEEDED_BODY));
+        server.enqueue(new MockResponse().setBody("ok"));
+        RestRequest request = new RestRequest(RestMethod.POST, PATH, RequestBody.create(RestRequest.MEDIA_TYPE_JSON, "{}"));
+        Assert.assertEquals("Request should have succeeded", HttpURLConnection.HTTP_OK, send(request));
+        Assert.assertEquals("Wrong number of attempts", 2, server.getRequestCount());
+    }
+
+    /**
+     * Other errors should not be retried
+     */
+    @Test
+    public void testNoRetryOnOtherErrors() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_FORBIDDEN).setBody("[{\"errorCode\":\"INSUFFICIENT_ACCESS\"}]"));
+        Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_FORBIDDEN, send(new RestRequest(RestMethod.GET, PATH)));
+        Assert.assertEquals("Wrong number of attempts", 1, server.getRequestCount());
+    }
+
+    /**
+     * Retries should stop after the maximum number of retries
+     */
+    @Test
+    public void testMaxRetries() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE));
+        }
+        Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_UNAVAILABLE, send(new RestRequest(RestMethod.GET, PATH)));
+        Assert.assertEquals("Wrong number of attempts", 4, server.getRequestCount());
+    }
+
+    /**
+     * Request retry policy should take precedence
+     */
+    @Test
+    public void testRequestRetryPolicy() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE));
+        server.enqueue(new MockResponse().setBody("ok"));
+        RestRequest request = new RestRequest(RestMethod.GET, PATH);
+        request.setRetryPolicy(RetryPolicy.NO_RETRY);
+        Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_UNAVAILABLE, send(request));
+        Assert.assertEquals("Wrong number of attempts", 1, server.getRequestCount());
+    }
+
+    /**
+     * Retry-After should be honored, unless it is longer than the maximum backoff
+     */
+    @Test
+    public void testRetryAfter() throws Exception {
+        resilienceInterceptor.setRetryPolicy(new RetryPolicy(3, 10, 5000));
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("ok"));
+        long start = System.nanoTime();
+        Assert.assertEquals("Request should have succeeded", HttpURLConnection.HTTP_OK, send(new RestRequest(RestMethod.GET, PATH)));
+        Assert.assertTrue("Retry-After should have been honored", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+
+        // Server asking to wait too long
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE).setHeader("Retry-After", "120"));
+        Assert.assertEquals("Wrong status code", HttpURLConnection.HTTP_UNAVAILABLE, send(new RestRequest(RestMethod.GET, PATH)));
+        Assert.assertEquals("Wrong number of attempts", 3, server.getRequestCount());
+    }
+
+    /**
+     * Network errors should only be retried when it is safe
+     */
+    @Test
+    public void testRetryPolicyForExceptions() {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        Request get = new Request.Builder().url(server.url(PATH)).build();
+        Request post = new Request.Builder().url(server.url(PATH)).post(RequestBody.create(RestRequest.MEDIA_TYPE_JSON, "{}")).build();
+        Assert.assertTrue("Connect failure should be retried", policy.shouldRetry(post, new ConnectException()));
+        Assert.assertTrue("Dropped connection should be retried for GET", policy.shouldRetry(get, new SocketException()));
+        Assert.assertFalse("Dropped connection should not be retried for POST", policy.shouldRetry(post, new SocketException()));
+        Assert.assertFalse("Revoked token should not be retried", policy.shouldRetry(get, new RestClient.RefreshTokenRevokedException("revoked", null)));
+    }
+
+    /**
+     * Backoff should grow exponentially with jitter and be capped
+     */
+    @Test
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int retry = 1; retry <= 10; retry++) {
+            long backoff = Math.min(1000, 100 << (retry - 1));
+            long delay = policy.getDelayMillis(retry, null);
+            Assert.assertTrue("Delay too short", delay >= backoff / 2);
+            Assert.assertTrue("Delay too long", delay <= backoff);
+        }
+    }
+
+    /**
+     * Canceling a call waiting to be retried should end it right away
+     */
+    @Test
+    public void testCancelWhileWaitingToRetry() throws Exception {
+        resilienceInterceptor.setRetryPolicy(new RetryPolicy(3, 10000, 10000));
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_UNAVAILABLE));
+        Request request = new Request.Builder().url(server.url(PATH)).build();
+        final CountDownLatch failed = new CountDownLatch(1);
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                failed.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        });
+        server.takeRequest(5, TimeUnit.SECONDS);
+        call.cancel();
+        Assert.assertTrue("Canceled call should have failed without waiting for the retry", failed.await(2, TimeUnit.SECONDS));
+        Assert.assertEquals("Wrong number of attempts", 1, server.getRequestCount());
+    }
+
+    /**
+     * A request should stay in flight until its response body is closed
+     */
+    @Test
+    public void testInFlightUntilBodyClosed() throws Exception {
+        final ResilienceInterceptor interceptor = new ResilienceInterceptor(RetryPolicy.NO_RETRY, 1);
+        final OkHttpClient limitedClient = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+        server.enqueue(new MockResponse().setBody("first"));
+        server.enqueue(new MockResponse().setBody("second"));
+        final Request request = new Request.Builder().url(server.url(PATH)).build();
+        Response first = limitedClient.newCall(request).execute();
+        Assert.assertEquals("Request should be in flight until its body is closed", 1, interceptor.getInFlightCount(server.getHostName()));
+
+        // Second request should wait for the first body to be closed
+        final CountDownLatch sent = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try (Response second = limitedClient.newCall(request).execute()) {
+                    sent.countDown();
+                } catch (IOException e) {
+                    // sent stays at 1
+                }
+            }
+        });
+        thread.start();
+        Assert.assertFalse("Second request should be waiting for the host", sent.await(500, TimeUnit.MILLISECONDS));
+        first.close();
+        Assert.assertTrue("Second request should have gone out", sent.await(5, TimeUnit.SECONDS));
+        thread.join(5000);
+        Assert.assertEquals("Wrong number of requests", 2, server.getRequestCount());
+        Assert.assertEquals("No request should be in flight", 0, interceptor.getInFlightCount(server.getHostName()));
+    }
+
+    /**
+     * Requests waiting for a busy host should go out by priority
+     */
+    @Test
+    public void testPriority() throws Exception {
+        final ResilienceInterceptor.HostPermits permits = new ResilienceInterceptor.HostPermits(1);
+        permits.acquire(Priority.NORMAL);
+        final List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+        List<Thread> threads = new ArrayList<>();
+        for (final Priority priority : new Priority[] {Priority.LOW, Priority.NORMAL, Priority.HIGH}) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        permits.acquire(priority);
+                        order.add(priority);
+                        permits.release();
+                    } catch (Exception e) {
+                        order.add(null);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+
+            // Making sure waiters queue up in order
+            Thread.sleep(100);
+        }
+        permits.release();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        Assert.assertEquals("Wrong order", Arrays.asList(Priority.HIGH, Priority.NORMAL, Priority.LOW), order);
+        Assert.assertEquals("No request should be in flight", 0, permits.getInFlightCount());
+    }
+
+    private int send(RestRequest restRequest) throws Exception {
+        Request request = new Request.Builder().url(server.url(restRequest.getPath()))
+                .method(restRequest.getMethod().toString(), restRequest.getRequestBody()).tag(restRequest).build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.code();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.app.SalesforceSDKManager;
+import com.salesforce.androidsdk.rest.RestRequest.CachePolicy;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Tests for ResponseCacheInterceptor
+ *
+ * Runs against a local mock server
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class ResponseCacheInterceptorTest {
+
+    private static final String ETAG = "\"1234\"";
+    private static final String BODY = "{\"name\":\"Account\"}";
+    private static final String PATH = "/services/data/v42.0/sobjects/Account/describe/";
+
+    private MockWebServer server;
+    private File directory;
+    private ResponseCacheInterceptor responseCache;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        directory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "response_cache_test");
+        responseCache = new ResponseCacheInterceptor(directory, ResponseCacheInterceptor.DEFAULT_MAX_SIZE,
+                SalesforceSDKManager.getEncryptionKey());
+        client = new OkHttpClient.Builder().addInterceptor(responseCache).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        responseCache.evictAll();
+        server.shutdown();
+    }
+
+    /**
+     * Second request should be revalidated with the server and answered from the cache on 304
+     */
+    @Test
+    public void testRevalidate() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(BODY));
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED).setHeader("ETag", ETAG));
+        Assert.assertEquals("Wrong body", BODY, send(CachePolicy.REVALIDATE, PATH));
+        Assert.assertEquals("Wrong body", BODY, send(CachePolicy.REVALIDATE, PATH));
+        Assert.assertNull("First request should not be conditional", server.takeRequest().getHeader("If-None-Match"));
+        RecordedRequest revalidation = server.takeRequest();
+        Assert.assertEquals("Second request should be conditional", ETAG, revalidation.getHeader("If-None-Match"));
+        Assert.assertEquals("Wrong network count", 2, responseCache.getNetworkCount());
+        Assert.assertEquals("Wrong hit count", 1, responseCache.getHitCount());
+        Assert.assertTrue("Cache should not be empty", responseCache.getSize() > 0);
+    }
+
+    /**
+     * A changed resource should replace the cached response
+     */
+    @Test
+    public void testRevalidateWithChangedResource() throws Exception {
+        String newBody = "{\"name\":\"Contact\"}";
+        server.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(BODY));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"5678\"").setBody(newBody));
+        server.enqueue(new MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED));
+        Assert.assertEquals("Wrong body", BODY, send(CachePolicy.REVALIDATE, PATH));
+        Assert.assertEquals("Wrong body", newBody, send(CachePolicy.REVALIDATE, PATH));
+        Assert.assertEquals("Wrong body", newBody, send(CachePolicy.REVALIDATE, PATH));
+        server.takeRequest();
+        server.takeRequest();
+        Assert.assertEquals("Wrong validator", "\"5678\"", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    /**
+     * Cached response should be used without contacting the server
+     */
+    @Test
+    public void testReturnCacheElseLoad() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(BODY));
+        Assert.assertEquals("Wrong body", BODY, send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH));
+        Assert.assertEquals("Wrong body", BODY, send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH));
+        Assert.assertEquals("Server should have been called once", 1, server.getRequestCount());
+        Assert.assertEquals("Wrong hit count", 1, responseCache.getHitCount());
+    }
+
+    /**
+     * Requests ignoring the cache should neither read nor write it
+     */
+    @Test
+    public void testIgnoreCache() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(BODY));
+        server.enqueue(new MockResponse().setHeader("ETag", ETAG).setBody(BODY));
+        send(CachePolicy.IGNORE_CACHE, PATH);
+        send(CachePolicy.IGNORE_CACHE, PATH);
+        Assert.assertEquals("Cache should be empty", 0, responseCache.getSize());
+        Assert.assertEquals("Cache should not have been used", 0, responseCache.getRequestCount());
+        Assert.assertNull("Request should not be conditional", server.takeRequest().getHeader("If-None-Match"));
+        Assert.assertNull("Request should not be conditional", server.takeRequest().getHeader("If-None-Match"));
+    }
+
+    /**
+     * Least recently used entries should be evicted once the cache is full
+     */
+    @Test
+    public void testEviction() throws Exception {
+        server.enqueue(new MockResponse().setBody(BODY));
+        send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH + "?1");
+        long entrySize = responseCache.getSize();
+        responseCache = new ResponseCacheInterceptor(directory, entrySize * 2, SalesforceSDKManager.getEncryptionKey());
+        client = new OkHttpClient.Builder().addInterceptor(responseCache).build();
+        for (int i = 2; i <= 3; i++) {
+            server.enqueue(new MockResponse().setBody(BODY));
+            send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH + "?" + i);
+        }
+        Assert.assertEquals("Wrong cache size", entrySize * 2, responseCache.getSize());
+
+        // First entry should have been evicted
+        server.enqueue(new MockResponse().setBody(BODY));
+        send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH + "?1");
+        Assert.assertEquals("Evicted entry should have been reloaded", 4, server.getRequestCount());
+    }
+
+    /**
+     * Bodies of unknown length should only be cached when they fit in an entry
+     */
+    @Test
+    public void testUnknownLengthBody() throws Exception {
+        responseCache = new ResponseCacheInterceptor(directory, 4096, SalesforceSDKManager.getEncryptionKey());
+        client = new OkHttpClient.Builder().addInterceptor(responseCache).build();
+        StringBuilder largeBody = new StringBuilder();
+        while (largeBody.length() <= 4096) {
+            largeBody.append(BODY);
+        }
+
+        // Too large, should bypass the cache
+        server.enqueue(new MockResponse().setChunkedBody(largeBody.toString(), 512));
+        server.enqueue(new MockResponse().setChunkedBody(largeBody.toString(), 512));
+        Assert.assertEquals("Wrong body", largeBody.toString(), send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH + "?large"));
+        Assert.assertEquals("Cache should be empty", 0, responseCache.getSize());
+        Assert.assertEquals("Wrong body", largeBody.toString(), send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH + "?large"));
+        Assert.assertEquals("Large body should not have been cached", 2, server.getRequestCount());
+
+        // Small enough, should be cached
+        server.enqueue(new MockResponse().setChunkedBody(BODY, 8));
+        Assert.assertEquals("Wrong body", BODY, send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH + "?small"));
+        Assert.assertEquals("Wrong body", BODY, send(CachePolicy.RETURN_CACHE_ELSE_LOAD, PATH + "?small"));
+        Assert.assertEquals("Small body should have been cached", 3, server.getRequestCount());
+        Assert.assertEquals("Wrong hit count", 1, responseCache.getHitCount());
+    }
+
+    private String send(CachePolicy cachePolicy, String path) throws Exception {
+        RestRequest restRequest = new RestRequest(RestMethod.GET, path);
+        restRequest.setCachePolicy(cachePolicy);
+        Request request = new Request.Builder().url(server.url(path)).tag(restRequest).build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
+}
@@ -30,6 +30,7 @@ import android.support.test.filters.LargeTest;
 import android.support.test.runner.AndroidJUnit4;
 
 import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+import com.salesforce.androidsdk.util.JSONObjectHelper;
 import com.salesforce.androidsdk.util.test.JSONTestHelper;
 
 import junit.framework.Assert;
@@ -50,7 +51,11 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import okhttp3.RequestBody;
 import okio.Buffer;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.Okio;
 
 @RunWith(AndroidJUnit4.class)
 @LargeTest
@@ -161,6 +166,7 @@ public class RestRequestTest {
         Assert.assertEquals("Wrong path", "/services/data/" + TEST_API_VERSION + "/sobjects/" + TEST_OBJECT_TYPE + "/describe/", request.getPath());
         Assert.assertNull("Wrong request entity", request.getRequestBody());
         Assert.assertNull("Wrong additional headers", request.getAdditionalHttpHeaders());
+        Assert.assertEquals("Wrong cache policy", RestRequest.CachePolicy.REVALIDATE, request.getCachePolicy());
 	}
 
 	/**
@@ -445,6 +451,52 @@ public class RestRequestTest {
         JSONTestHelper.assertSameJSON("Wrong request entity", expectedBodyJson, actualBodyJson);
     }
 
+    /**
+     * Test for StreamingJsonRequestBody
+     * @throws JSONException
+     */
+    @Test
+    public void testStreamingJsonRequestBody() throws JSONException, IOException {
+        JSONObject envelope = new JSONObject();
+        envelope.put(RestRequest.ALL_OR_NONE, true);
+        List<JSONObject> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            records.add(new JSONObject(TEST_FIELDS_STRING));
+        }
+        RestRequest request = new RestRequest(RestMethod.POST, "/some/path", StreamingJsonRequestBody.create(envelope, RestRequest.RECORDS, records));
+        JSONObject expectedBodyJson = new JSONObject();
+        expectedBodyJson.put(RestRequest.ALL_OR_NONE, true);
+        expectedBodyJson.put(RestRequest.RECORDS, new JSONArray(records));
+        JSONTestHelper.assertSameJSON("Wrong request entity", expectedBodyJson, new JSONObject(bodyToString(request)));
+
+        // Body can be written again (e.g. when request is replayed)
+        JSONTestHelper.assertSameJSON("Wrong request entity", expectedBodyJson, new JSONObject(bodyToString(request)));
+
+        // Empty envelope
+        request = new RestRequest(RestMethod.POST, "/some/path", StreamingJsonRequestBody.create(null, RestRequest.RECORDS, new JSONArray(records)));
+        JSONTestHelper.assertSameJSON("Wrong request entity", JSONObjectHelper.makeJSONObject(RestRequest.RECORDS, new JSONArray(records)),
+                new JSONObject(bodyToString(request)));
+    }
+
+    /**
+     * Test for GzipRequestBody
+     * @throws IOException
+     */
+    @Test
+    public void testGzipRequestBody() throws IOException {
+        RestRequest request = new RestRequest(RestMethod.POST, "/some/path", RequestBody.create(RestRequest.MEDIA_TYPE_JSON, TEST_FIELDS_STRING));
+        Assert.assertFalse("Body should not be compressed by default", request.getGzipRequestBody());
+        GzipRequestBody gzipBody = new GzipRequestBody(request.getRequestBody());
+        Assert.assertEquals("Wrong content type", RestRequest.MEDIA_TYPE_JSON, gzipBody.contentType());
+        for (int i = 0; i < 2; i++) {
+            Buffer compressed = new Buffer();
+            gzipBody.writeTo(compressed);
+            Assert.assertEquals("Wrong content length", compressed.size(), gzipBody.contentLength());
+            BufferedSource uncompressed = Okio.buffer(new GzipSource(compressed));
+            Assert.assertEquals("Wrong uncompressed body", TEST_FIELDS_STRING, uncompressed.readUtf8());
+        }
+    }
+
     private static String bodyToString(final RestRequest request) throws IOException {
 		final Buffer buffer = new Buffer();
 		request.getRequestBody().writeTo(buffer);
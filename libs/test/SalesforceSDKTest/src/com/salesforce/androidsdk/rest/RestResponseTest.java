@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.JsonReader;
+
+import junit.framework.Assert;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Tests for RestResponse body handling
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class RestResponseTest {
+
+    private static final String BODY = "{\"totalSize\":2,\"records\":[{\"Id\":\"001A\"},{\"Id\":\"001B\"}]}";
+
+    /**
+     * Accessors should all be served from the buffered content
+     */
+    @Test
+    public void testAccessors() throws Exception {
+        RestResponse response = makeResponse(BODY);
+        Assert.assertEquals("Wrong size", BODY.length(), response.getBodySize());
+        Assert.assertEquals("Wrong json", 2, response.asJSONObject().getInt("totalSize"));
+        Assert.assertEquals("Wrong string", BODY, response.asString());
+        byte[] bytes = response.asBytes();
+        Assert.assertEquals("Wrong bytes", BODY, new String(bytes, "UTF-8"));
+        Assert.assertNotSame("Each call should return a new array", bytes, response.asBytes());
+        Assert.assertEquals("Wrong string after asBytes", BODY, response.asString());
+    }
+
+    /**
+     * Released responses should have empty content
+     */
+    @Test
+    public void testRelease() throws Exception {
+        RestResponse response = makeResponse(BODY);
+        Assert.assertEquals("Wrong json", 2, response.asJSONObject().getInt("totalSize"));
+        response.release();
+        Assert.assertEquals("Content should be empty", 0, response.getBodySize());
+        Assert.assertEquals("Content should be empty", "", response.asString());
+        try {
+            response.asJSONObject();
+            Assert.fail("asJSONObject() should fail");
+        } catch (JSONException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Content should be readable as a stream of JSON tokens
+     */
+    @Test
+    public void testJsonReader() throws Exception {
+        RestResponse response = makeResponse(BODY);
+        StringBuilder ids = new StringBuilder();
+        try (JsonReader reader = response.asJsonReader()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("records".equals(reader.nextName())) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        reader.beginObject();
+                        reader.nextName();
+                        ids.append(reader.nextString());
+                        reader.endObject();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        Assert.assertEquals("Wrong ids", "001A001B", ids.toString());
+        Assert.assertEquals("Content should be empty after streaming", "", response.asString());
+        try {
+            response.asJsonReader();
+            Assert.fail("Content should not be readable twice");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private RestResponse makeResponse(String body) {
+        return new RestResponse(new Response.Builder()
+                .request(new Request.Builder().url("https://test.salesforce.com/services/data/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(RestRequest.MEDIA_TYPE_JSON, body))
+                .build());
+    }
+}
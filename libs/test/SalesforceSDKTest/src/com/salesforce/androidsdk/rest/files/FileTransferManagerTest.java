@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.rest.files;
+
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.app.SalesforceSDKManager;
+import com.salesforce.androidsdk.auth.HttpAccess;
+import com.salesforce.androidsdk.rest.RestClient;
+import com.salesforce.androidsdk.rest.RestClient.ClientInfo;
+import com.salesforce.androidsdk.rest.RestRequest;
+import com.salesforce.androidsdk.rest.RestRequest.RestMethod;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Tests for FileTransferManager
+ *
+ * Runs against a local mock server serving byte ranges
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class FileTransferManagerTest {
+
+    private static final String FILE_PATH = "/file";
+    private static final int FILE_SIZE = 200 * 1024;
+    private static final long CHUNK_SIZE = 64 * 1024;
+
+    private MockWebServer server;
+    private byte[] content;
+    private File destination;
+    private File source;
+    private FileTransferManager fileTransferManager;
+
+    @Before
+    public void setUp() throws Exception {
+        RestClient.clearCaches();
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String range = request.getHeader("Range");
+                if (range == null) {
+                    return new MockResponse().setBody(new Buffer().write(content));
+                }
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                int start = Integer.parseInt(bounds[0]);
+                int end = bounds[1].isEmpty() ? content.length - 1 : Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+                if (start >= content.length) {
+                    return new MockResponse().setResponseCode(416).setHeader("Content-Range", "bytes */" + content.length);
+                }
+                return new MockResponse().setResponseCode(HttpURLConnection.HTTP_PARTIAL)
+                        .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.length)
+                        .setBody(new Buffer().write(Arrays.copyOfRange(content, start, end + 1)));
+            }
+        });
+        server.start();
+        URI instanceUrl = server.url("/").uri();
+        ClientInfo clientInfo = new ClientInfo(instanceUrl, instanceUrl, instanceUrl, "account", "username",
+                "test-user-id", "test-org-id", null, null, null, null, null, null, null, null, null);
+        RestClient restClient = new RestClient(clientInfo, "token", new HttpAccess(null, "dummy-agent"), null);
+        fileTransferManager = new FileTransferManager(restClient);
+        File dir = SalesforceSDKManager.getInstance().getAppContext().getCacheDir();
+        destination = new File(dir, "transfer-test");
+        source = new File(dir, "transfer-test-source");
+        cleanup();
+        try (FileOutputStream out = new FileOutputStream(source)) {
+            out.write(content);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileTransferManager.shutdown();
+        server.shutdown();
+        cleanup();
+        RestClient.clearCaches();
+    }
+
+    /**
+     * Download should stream the whole content to the destination and report progress
+     */
+    @Test
+    public void testDownload() throws Exception {
+        final AtomicLong progress = new AtomicLong();
+        File result = fileTransferManager.download(new RestRequest(RestMethod.GET, FILE_PATH), destination,
+                FileTransferManager.computeMd5(source), new FileTransferManager.ProgressListener() {
+
+                    @Override
+                    public void onProgress(long bytesTransferred, long totalBytes) {
+                        progress.set(bytesTransferred);
+                    }
+                }).get(10, TimeUnit.SECONDS);
+        checkDownloaded(result);
+        Assert.assertEquals("Wrong progress", FILE_SIZE, progress.get());
+    }
+
+    /**
+     * Download should pick up where a previous partial download left off
+     */
+    @Test
+    public void testResumeDownload() throws Exception {
+        File part = FileTransferManager.getPartFile(destination);
+        try (FileOutputStream out = new FileOutputStream(part)) {
+            out.write(content, 0, 1000);
+        }
+        File result = fileTransferManager.download(new RestRequest(RestMethod.GET, FILE_PATH), destination,
+                FileTransferManager.computeMd5(source), null).get(10, TimeUnit.SECONDS);
+        checkDownloaded(result);
+        Assert.assertEquals("Wrong number of requests", 1, server.getRequestCount());
+        RecordedRequest request = server.takeRequest();
+        Assert.assertEquals("Wrong range", "bytes=1000-", request.getHeader("Range"));
+        Assert.assertEquals("Wrong encoding", "identity", request.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * Download should start over if the server does not resume at the requested offset
+     */
+    @Test
+    public void testResumeDownloadAtWrongOffset() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getHeader("Range") == null) {
+                    return new MockResponse().setBody(new Buffer().write(content));
+                }
+                return new MockResponse().setResponseCode(HttpURLConnection.HTTP_PARTIAL)
+                        .setHeader("Content-Range", "bytes 0-" + (content.length - 1) + "/" + content.length)
+                        .setBody(new Buffer().write(content));
+            }
+        });
+        File part = FileTransferManager.getPartFile(destination);
+        try (FileOutputStream out = new FileOutputStream(part)) {
+            out.write(content, 0, 1000);
+        }
+        File result = fileTransferManager.download(new RestRequest(RestMethod.GET, FILE_PATH), destination,
+                FileTransferManager.computeMd5(source), null).get(10, TimeUnit.SECONDS);
+        checkDownloaded(result);
+        Assert.assertEquals("Wrong number of requests", 2, server.getRequestCount());
+    }
+
+    /**
+     * Download with a bad checksum should fail and not leave a partial file behind
+     */
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        try {
+            fileTransferManager.download(new RestRequest(RestMethod.GET, FILE_PATH), destination,
+                    "00000000000000000000000000000000", null).get(10, TimeUnit.SECONDS);
+            Assert.fail("Download should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue("Wrong exception", e.getCause() instanceof FileTransferManager.TransferFailedException);
+        }
+        Assert.assertFalse("Destination should not exist", destination.exists());
+        Assert.assertFalse("Partial file should have been deleted", FileTransferManager.getPartFile(destination).exists());
+    }
+
+    /**
+     * Chunked download should fetch every chunk once
+     */
+    @Test
+    public void testDownloadInChunks() throws Exception {
+        File result = fileTransferManager.downloadInChunks(new RestRequest(RestMethod.GET, FILE_PATH), destination,
+                CHUNK_SIZE, FileTransferManager.computeMd5(source), null).get(10, TimeUnit.SECONDS);
+        checkDownloaded(result);
+        int chunkCount = (int) ((FILE_SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        Assert.assertEquals("Wrong number of requests", 1 + chunkCount, server.getRequestCount());
+        Assert.assertFalse("Chunk log should have been deleted",
+                FileTransferManager.getChunkLogFile(FileTransferManager.getPartFile(destination)).exists());
+    }
+
+    /**
+     * Download should not resume from the partial file of an interrupted chunked download (sized to the full length)
+     */
+    @Test
+    public void testDownloadAfterInterruptedChunkedDownload() throws Exception {
+        File part = FileTransferManager.getPartFile(destination);
+        try (FileOutputStream out = new FileOutputStream(part)) {
+            out.write(content, 0, (int) CHUNK_SIZE);
+            out.write(new byte[FILE_SIZE - (int) CHUNK_SIZE]);
+        }
+        try (FileOutputStream out = new FileOutputStream(FileTransferManager.getChunkLogFile(part))) {
+            out.write("0\n".getBytes("UTF-8"));
+        }
+        File result = fileTransferManager.download(new RestRequest(RestMethod.GET, FILE_PATH), destination,
+                null, null).get(10, TimeUnit.SECONDS);
+        checkDownloaded(result);
+        Assert.assertEquals("Wrong number of requests", 1, server.getRequestCount());
+        Assert.assertNull("Download should not have resumed", server.takeRequest().getHeader("Range"));
+        Assert.assertFalse("Chunk log should have been deleted", FileTransferManager.getChunkLogFile(part).exists());
+    }
+
+    /**
+     * Content-Range parsing
+     */
+    @Test
+    public void testParseTotal() {
+        Assert.assertEquals(67589, FileTransferManager.parseTotal("bytes 200-1000/67589"));
+        Assert.assertEquals(67589, FileTransferManager.parseTotal("bytes */67589"));
+        Assert.assertEquals(-1, FileTransferManager.parseTotal("bytes 200-1000/*"));
+        Assert.assertEquals(-1, FileTransferManager.parseTotal(null));
+    }
+
+    /**
+     * Content-Range start parsing
+     */
+    @Test
+    public void testParseStart() {
+        Assert.assertEquals(200, FileTransferManager.parseStart("bytes 200-1000/67589"));
+        Assert.assertEquals(-1, FileTransferManager.parseStart("bytes */67589"));
+        Assert.assertEquals(-1, FileTransferManager.parseStart(null));
+    }
+
+    private void checkDownloaded(File result) throws Exception {
+        Assert.assertEquals("Wrong file", destination, result);
+        try (BufferedSource downloaded = Okio.buffer(Okio.source(result))) {
+            Assert.assertTrue("Wrong content", Arrays.equals(content, downloaded.readByteArray()));
+        }
+        Assert.assertFalse("Partial file should be gone", FileTransferManager.getPartFile(destination).exists());
+    }
+
+    private void cleanup() {
+        File part = FileTransferManager.getPartFile(destination);
+        for (File file : new File[] {destination, source, part, FileTransferManager.getChunkLogFile(part)}) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+}
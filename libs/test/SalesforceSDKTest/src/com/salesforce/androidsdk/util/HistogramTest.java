@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.util;
+
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for Histogram
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class HistogramTest {
+
+    /**
+     * Histogram percentiles should be upper estimates from the buckets
+     */
+    @Test
+    public void testPercentiles() {
+        final Histogram histogram = new Histogram(new long[] {10, 100});
+        for (int i = 1; i <= 10; i++) {
+            histogram.add(i);
+        }
+        histogram.add(50);
+        histogram.add(500);
+        Assert.assertEquals("Wrong count", 12, histogram.getCount());
+        Assert.assertEquals("Wrong sum", 605, histogram.getSum());
+        Assert.assertEquals("Wrong first bucket count", 10, histogram.getBucketCount(0));
+        Assert.assertEquals("Wrong last bucket count", 1, histogram.getBucketCount(2));
+        Assert.assertEquals("Wrong p50", 10, histogram.getPercentile(50));
+        Assert.assertEquals("Wrong p100", 500, histogram.getPercentile(100));
+    }
+
+    /**
+     * Merging should add the values of the other histogram, copies should not share them
+     */
+    @Test
+    public void testMergeAndCopy() {
+        final Histogram histogram = new Histogram(new long[] {10, 100});
+        histogram.add(5);
+        final Histogram copy = new Histogram(histogram);
+        final Histogram other = new Histogram(new long[] {10, 100});
+        other.add(50);
+        other.add(500);
+        histogram.merge(other);
+        Assert.assertEquals("Wrong count", 3, histogram.getCount());
+        Assert.assertEquals("Wrong max", 500, histogram.getMax());
+        Assert.assertEquals("Wrong middle bucket count", 1, histogram.getBucketCount(1));
+        Assert.assertEquals("Copy should not have changed", 1, copy.getCount());
+        Assert.assertEquals("Wrong copy max", 5, copy.getMax());
+    }
+}
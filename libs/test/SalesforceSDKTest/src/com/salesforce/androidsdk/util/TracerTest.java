@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for Tracer
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class TracerTest {
+
+    private static final String SPAN_A = "TracerTest.a";
+    private static final String SPAN_B = "TracerTest.b";
+
+    @Before
+    public void setUp() throws Exception {
+        Tracer.reset();
+        Tracer.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Tracer.setEnabled(false);
+        Tracer.reset();
+    }
+
+    /**
+     * Nothing should be recorded while tracing is off
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        Tracer.setEnabled(false);
+        Tracer.begin(SPAN_A).end();
+        Assert.assertFalse("Tracing should be off", Tracer.isEnabled());
+        Assert.assertFalse("No stats expected", Tracer.getStats().containsKey(SPAN_A));
+    }
+
+    /**
+     * Spans should be counted per name, across threads
+     */
+    @Test
+    public void testStatsPerName() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Tracer.begin(SPAN_A).end();
+        }
+        final Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                Tracer.begin(SPAN_A).end();
+                Tracer.begin(SPAN_B).end();
+            }
+        });
+        thread.start();
+        thread.join();
+        final Map<String, Tracer.Stats> stats = Tracer.getStats();
+        Assert.assertEquals("Wrong count for " + SPAN_A, 4, stats.get(SPAN_A).getCount());
+        Assert.assertEquals("Wrong count for " + SPAN_B, 1, stats.get(SPAN_B).getCount());
+        final JSONObject summary = Tracer.getSummary();
+        Assert.assertEquals("Wrong count in summary", 4, summary.getJSONObject(SPAN_A).getInt("count"));
+    }
+
+    /**
+     * Percentiles should be the upper bound of the bucket they fall in, capped by the max
+     */
+    @Test
+    public void testPercentiles() throws Exception {
+        final Tracer.Stats stats = new Tracer.Stats();
+        for (int i = 0; i < 90; i++) {
+            stats.add(TimeUnit.MICROSECONDS.toNanos(5));
+        }
+        for (int i = 0; i < 9; i++) {
+            stats.add(TimeUnit.MICROSECONDS.toNanos(300));
+        }
+        stats.add(TimeUnit.MICROSECONDS.toNanos(20000));
+        Assert.assertEquals("Wrong count", 100, stats.getCount());
+        Assert.assertEquals("Wrong p50", 10, stats.getPercentileMicros(50));
+        Assert.assertEquals("Wrong p90", 10, stats.getPercentileMicros(90));
+        Assert.assertEquals("Wrong p99", 500, stats.getPercentileMicros(99));
+        Assert.assertEquals("Wrong p100", 20000, stats.getPercentileMicros(100));
+        Assert.assertEquals("Wrong max", TimeUnit.MICROSECONDS.toNanos(20000), stats.getMaxNanos());
+    }
+
+    /**
+     * The trace file should contain one complete event per span
+     */
+    @Test
+    public void testWriteTraceFile() throws Exception {
+        Tracer.begin(SPAN_A).end();
+        Tracer.begin(SPAN_B).end();
+        final File file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "tracer_test.json");
+        try {
+            Tracer.writeTraceFile(file);
+            final byte[] bytes = new byte[(int) file.length()];
+            final FileInputStream in = new FileInputStream(file);
+            try {
+                Assert.assertEquals("Wrong number of bytes read", bytes.length, in.read(bytes));
+            } finally {
+                in.close();
+            }
+            final JSONArray events = new JSONObject(new String(bytes, "UTF-8")).getJSONArray("traceEvents");
+            int completeEvents = 0;
+            for (int i = 0; i < events.length(); i++) {
+                final JSONObject event = events.getJSONObject(i);
+                if ("X".equals(event.getString("ph"))) {
+                    Assert.assertTrue("Unexpected span name",
+                            SPAN_A.equals(event.getString("name")) || SPAN_B.equals(event.getString("name")));
+                    completeEvents++;
+                }
+            }
+            Assert.assertEquals("Wrong number of complete events", 2, completeEvents);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Buffers of dead threads should be dropped, their stats kept
+     */
+    @Test
+    public void testDeadThreadBuffersDropped() throws Exception {
+        Tracer.begin(SPAN_A).end();
+        Tracer.dropDeadThreadBuffers();
+        final int buffersBefore = Tracer.getBufferCount();
+        for (int i = 0; i < 5; i++) {
+            final Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Tracer.begin(SPAN_B).end();
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        Tracer.dropDeadThreadBuffers();
+        Assert.assertEquals("Dead thread buffers should have been dropped", buffersBefore, Tracer.getBufferCount());
+        Assert.assertEquals("Stats of dead threads should be kept", 5, Tracer.getStats().get(SPAN_B).getCount());
+    }
+
+    /**
+     * Reset should clear stats
+     */
+    @Test
+    public void testReset() throws Exception {
+        Tracer.begin(SPAN_A).end();
+        Assert.assertTrue("Stats expected", Tracer.getStats().containsKey(SPAN_A));
+        Tracer.reset();
+        Assert.assertTrue("No stats expected", Tracer.getStats().isEmpty());
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.store;
+
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.smartstore.store.AsyncSmartStore;
+import com.salesforce.androidsdk.smartstore.store.IndexSpec;
+import com.salesforce.androidsdk.smartstore.store.QuerySpec;
+import com.salesforce.androidsdk.smartstore.store.SmartStore;
+import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the asynchronous smart store front end
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class AsyncSmartStoreTest extends SmartStoreTestCase {
+
+	private static final String TEST_SOUP = "test_soup";
+	private static final int TIMEOUT_SECONDS = 10;
+
+	private AsyncSmartStore asyncStore;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		store.registerSoup(TEST_SOUP, new IndexSpec[] { new IndexSpec("key", Type.string) });
+		asyncStore = AsyncSmartStore.getInstance(store);
+	}
+
+	@Override
+	protected String getEncryptionKey() {
+		return "test123";
+	}
+
+	/**
+	 * Same async store should be returned for a given database
+	 */
+	@Test
+	public void testGetInstance() {
+		Assert.assertSame("Wrong async store", asyncStore, AsyncSmartStore.getInstance(store));
+		Assert.assertSame("Wrong store", store, asyncStore.getStore());
+	}
+
+	/**
+	 * Upsert then query through the async store
+	 */
+	@Test
+	public void testUpsertThenQuery() throws Exception {
+		JSONArray upserted = asyncStore.upsert(TEST_SOUP, entries("ka1", "ka2", "ka3"), SmartStore.SOUP_ENTRY_ID, null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		Assert.assertEquals("Wrong number of upserted entries", 3, upserted.length());
+		JSONArray results = asyncStore.query(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", QuerySpec.Order.ascending, 10), 0, null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		Assert.assertEquals("Wrong number of results", 3, results.length());
+		Assert.assertEquals("Wrong result", "ka1", results.getJSONObject(0).getString("key"));
+		Assert.assertEquals("Wrong result", "ka3", results.getJSONObject(2).getString("key"));
+	}
+
+	/**
+	 * Writes queued behind each other should be committed in submission order
+	 */
+	@Test
+	public void testWritesCommittedInOrder() throws Exception {
+		List<Future<JSONArray>> futures = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			futures.add(asyncStore.upsert(TEST_SOUP, entries("k" + i), SmartStore.SOUP_ENTRY_ID, null));
+		}
+		long previousId = -1;
+		for (Future<JSONArray> future : futures) {
+			long id = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getJSONObject(0).getLong(SmartStore.SOUP_ENTRY_ID);
+			Assert.assertTrue("Writes should be committed in order", id > previousId);
+			previousId = id;
+		}
+		Assert.assertEquals("Wrong number of entries", 100, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", QuerySpec.Order.ascending, 10)));
+	}
+
+	/**
+	 * A failing write committed in a group should not make the other writes of the group fail
+	 */
+	@Test
+	public void testFailingWriteInGroup() throws Exception {
+		// Holding the writer so that the following writes end up in the same group
+		final CountDownLatch release = new CountDownLatch(1);
+		asyncStore.exclusiveWrite(new AsyncSmartStore.Operation<Void>() {
+			@Override
+			public Void run(SmartStore store) throws Exception {
+				release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				return null;
+			}
+		}, null);
+		Future<JSONArray> first = asyncStore.upsert(TEST_SOUP, entries("ka1"), SmartStore.SOUP_ENTRY_ID, null);
+		Future<Void> failing = asyncStore.write(new AsyncSmartStore.Operation<Void>() {
+			@Override
+			public Void run(SmartStore store) throws Exception {
+				throw new RuntimeException("Failing write");
+			}
+		}, null);
+		Future<JSONArray> last = asyncStore.upsert(TEST_SOUP, entries("ka3"), SmartStore.SOUP_ENTRY_ID, null);
+		release.countDown();
+
+		Assert.assertEquals("First write should have succeeded", 1, first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).length());
+		try {
+			failing.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			Assert.fail("Failing write should have failed");
+		} catch (ExecutionException e) {
+			Assert.assertEquals("Wrong exception", "Failing write", e.getCause().getMessage());
+		}
+		Assert.assertEquals("Last write should have succeeded", 1, last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).length());
+		Assert.assertEquals("Wrong number of entries", 2, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", QuerySpec.Order.ascending, 10)));
+	}
+
+	/**
+	 * A write throwing an error in a group should fail every write of the group instead of leaving them pending
+	 */
+	@Test
+	public void testErrorInGroup() throws Exception {
+		// Holding the writer so that the following writes end up in the same group
+		final CountDownLatch release = new CountDownLatch(1);
+		asyncStore.exclusiveWrite(new AsyncSmartStore.Operation<Void>() {
+			@Override
+			public Void run(SmartStore store) throws Exception {
+				release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				return null;
+			}
+		}, null);
+		List<Future<?>> futures = new ArrayList<>();
+		futures.add(asyncStore.upsert(TEST_SOUP, entries("ka1"), SmartStore.SOUP_ENTRY_ID, null));
+		futures.add(asyncStore.write(new AsyncSmartStore.Operation<Void>() {
+			@Override
+			public Void run(SmartStore store) throws Exception {
+				throw new AssertionError("Failing write");
+			}
+		}, null));
+		futures.add(asyncStore.upsert(TEST_SOUP, entries("ka3"), SmartStore.SOUP_ENTRY_ID, null));
+		release.countDown();
+
+		for (Future<?> future : futures) {
+			try {
+				future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				Assert.fail("Write should have failed");
+			} catch (ExecutionException e) {
+				Assert.assertTrue("Wrong exception", e.getCause() instanceof AssertionError);
+			}
+		}
+		Assert.assertEquals("Group should have been rolled back", 0, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", QuerySpec.Order.ascending, 10)));
+
+		// Writer should still be usable
+		Assert.assertEquals("Write after error should have succeeded", 1, asyncStore.upsert(TEST_SOUP, entries("ka4"), SmartStore.SOUP_ENTRY_ID, null).get(TIMEOUT_SECONDS, TimeUnit.SECONDS).length());
+	}
+
+	/**
+	 * Writes arriving from several callers within the group commit window should share one transaction
+	 */
+	@Test
+	public void testGroupCommitWindow() throws Exception {
+		asyncStore.setGroupCommit(2000, 10);
+		final List<Future<JSONArray>> futures = new ArrayList<>();
+		List<Thread> callers = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			final String key = "k" + i;
+			Thread caller = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Future<JSONArray> future = asyncStore.upsert(TEST_SOUP, entries(key), SmartStore.SOUP_ENTRY_ID, null);
+						synchronized (futures) {
+							futures.add(future);
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			callers.add(caller);
+			caller.start();
+		}
+		for (Thread caller : callers) {
+			caller.join();
+		}
+		for (Future<JSONArray> future : futures) {
+			future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		Assert.assertEquals("Wrong number of writes committed", 5, asyncStore.getCommittedWriteCount());
+		Assert.assertEquals("Writes should have been committed together", 1, asyncStore.getCommittedGroupCount());
+		Assert.assertEquals("Wrong largest group size", 5, asyncStore.getLargestGroupSize());
+		Assert.assertEquals("Wrong number of entries", 5, store.countQuery(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", QuerySpec.Order.ascending, 10)));
+	}
+
+	/**
+	 * Group should be committed as soon as it reaches the maximum group size, without waiting for the window to close
+	 */
+	@Test
+	public void testGroupCommitMaxGroupSize() throws Exception {
+		asyncStore.setGroupCommit(TIMEOUT_SECONDS * 1000, 2);
+		List<Future<JSONArray>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(asyncStore.upsert(TEST_SOUP, entries("k" + i), SmartStore.SOUP_ENTRY_ID, null));
+		}
+		for (Future<JSONArray> future : futures) {
+			future.get(TIMEOUT_SECONDS / 2, TimeUnit.SECONDS);
+		}
+		Assert.assertEquals("Wrong number of writes committed", 4, asyncStore.getCommittedWriteCount());
+		Assert.assertEquals("Wrong number of transactions", 2, asyncStore.getCommittedGroupCount());
+		Assert.assertEquals("Wrong average group size", 2.0, asyncStore.getAverageGroupSize(), 0.0);
+	}
+
+	/**
+	 * Callback should be invoked with the result
+	 */
+	@Test
+	public void testCallbacks() throws Exception {
+		final CountDownLatch done = new CountDownLatch(2);
+		final AtomicReference<JSONArray> upserted = new AtomicReference<>();
+		final AtomicReference<Exception> error = new AtomicReference<>();
+		asyncStore.upsert(TEST_SOUP, entries("ka1"), SmartStore.SOUP_ENTRY_ID, new AsyncSmartStore.Callback<JSONArray>() {
+			@Override
+			public void onSuccess(JSONArray result) {
+				upserted.set(result);
+				done.countDown();
+			}
+
+			@Override
+			public void onError(Exception exception) {
+				Assert.fail("Upsert should have succeeded");
+			}
+		});
+		asyncStore.retrieve("missing_soup", new Long[] { 1L }, new AsyncSmartStore.Callback<JSONArray>() {
+			@Override
+			public void onSuccess(JSONArray result) {
+				Assert.fail("Retrieve from missing soup should have failed");
+			}
+
+			@Override
+			public void onError(Exception exception) {
+				error.set(exception);
+				done.countDown();
+			}
+		});
+		Assert.assertTrue("Callbacks not invoked", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+		Assert.assertEquals("Wrong result", "ka1", upserted.get().getJSONObject(0).getString("key"));
+		Assert.assertTrue("Wrong exception", error.get() instanceof SmartStore.SmartStoreException);
+	}
+
+	private List<JSONObject> entries(String... keys) throws Exception {
+		List<JSONObject> entries = new ArrayList<>();
+		for (String key : Arrays.asList(keys)) {
+			entries.add(new JSONObject().put("key", key));
+		}
+		return entries;
+	}
+}
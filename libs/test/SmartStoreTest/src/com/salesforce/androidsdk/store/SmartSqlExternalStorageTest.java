@@ -281,6 +281,24 @@ public class SmartSqlExternalStorageTest extends SmartStoreTestCase {
 		JSONTestHelper.assertSameJSON("Wrong soupLastModifiedDate", christineJson.getString(SmartStore.SOUP_LAST_MODIFIED_DATE), result.getJSONArray(0).getLong(2));
 	}
 
+	/**
+	 * Test running smart query and query spec with select paths that are not indexed when projection is turned on
+	 * @throws JSONException
+	 */
+    @Test
+	public void testQueryWithUnindexedPathProjection() throws JSONException {
+		loadData();
+		JSONObject christineJson = store.query(QuerySpec.buildExactQuerySpec(EMPLOYEES_SOUP, "employeeId", "00010", null, null, 1), 0).getJSONObject(0);
+		christineJson.put("address", new JSONObject("{'city':'San Francisco', 'zip':'94105'}"));
+		christineJson.put("skills", new JSONArray("[{'name':'java'}, {'name':'sql'}]"));
+		store.upsert(EMPLOYEES_SOUP, christineJson);
+		store.setProjectUnindexedPaths(true);
+		JSONArray result = store.query(QuerySpec.buildSmartQuerySpec("select {employees:firstName}, {employees:address.city}, {employees:skills.name}, {employees:title} from {employees} where {employees:lastName} = 'Haas'", 1), 0);
+		JSONTestHelper.assertSameJSONArray("Wrong result", new JSONArray("[['Christine', 'San Francisco', ['java', 'sql'], null]]"), result);
+		result = store.query(QuerySpec.buildExactQuerySpec(EMPLOYEES_SOUP, new String[] {LAST_NAME, "address"}, EMPLOYEE_ID, "00010", null, null, 1), 0);
+		JSONTestHelper.assertSameJSONArray("Wrong result", new JSONArray("[['Haas', {'city':'San Francisco', 'zip':'94105'}]]"), result);
+	}
+
 	/**
 	 * Load some datq in the smart store
 	 * @throws JSONException
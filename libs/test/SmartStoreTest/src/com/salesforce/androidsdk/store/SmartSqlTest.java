@@ -164,6 +164,35 @@ public class SmartSqlTest extends SmartStoreTestCase {
 				store.convertSmartSql("select mgr.{employees:_soupEntryId}, e.{employees:_soupEntryId} from {employees} as mgr, {employees} as e"));
 	}
 	
+	/**
+	 * Testing smart sql to sql conversion with non-indexed paths in select clause when projection is turned on
+	 */
+    @Test
+	public void testConvertSmartSqlWithUnindexedPathProjection() {
+		store.setProjectUnindexedPaths(true);
+        Assert.assertEquals("select TABLE_1_0, TABLE_1.soup as 'soup_projection:TABLE_1:address.city' from TABLE_1 order by TABLE_1_1",
+				store.convertSmartSql("select {employees:firstName}, {employees:address.city} from {employees} order by {employees:lastName}"));
+        Assert.assertEquals("select e.soup as 'soup_projection:TABLE_1:address.city' from TABLE_1 as e",
+				store.convertSmartSql("select e.{employees:address.city} from {employees} as e"));
+        Assert.assertEquals("SELECT count(*) FROM (select TABLE_1.soup as 'soup_projection:TABLE_1:address.city' from TABLE_1 where TABLE_1_1 = 'Haas')",
+				store.convertSmartSql("SELECT count(*) FROM (select {employees:address.city} from {employees} where {employees:lastName} = 'Haas')"));
+	}
+
+	/**
+	 * Testing smart sql to sql conversion with non-indexed paths outside of select clause: expect exception
+	 */
+    @Test
+	public void testConvertSmartSqlWithUnindexedPathOutsideSelectClause() {
+		store.setProjectUnindexedPaths(true);
+		try {
+			store.convertSmartSql("select {employees:firstName} from {employees} where {employees:address.city} = 'Paris'");
+			Assert.fail("Should have thrown exception for non-indexed path in where clause");
+		}
+		catch (SmartSqlException e) {
+			Assert.assertTrue("Wrong exception", e.getMessage().contains("does not have an index"));
+		}
+	}
+
 	/**
 	 * Test smart sql to sql conversation with insert/update/delete: expect exception
 	 */
@@ -367,6 +396,46 @@ public class SmartSqlTest extends SmartStoreTestCase {
 	}
 
 
+	/**
+	 * Test running smart query and query spec with select paths that are not indexed when projection is turned on
+	 * Values should be the same as the ones SmartStore.project returns (arrays for paths going through arrays, objects for objects)
+	 * @throws JSONException
+	 */
+	@Test
+	public void testQueryWithUnindexedPathProjection() throws JSONException {
+		loadData();
+		JSONObject christineJson = store.query(QuerySpec.buildExactQuerySpec(EMPLOYEES_SOUP, EMPLOYEE_ID, "00010", null, null, 1), 0).getJSONObject(0);
+		christineJson.put("address", new JSONObject("{'city':'San Francisco', 'zip':'94105'}"));
+		christineJson.put("skills", new JSONArray("[{'name':'java'}, {'name':'sql'}]"));
+		store.upsert(EMPLOYEES_SOUP, christineJson);
+		store.setProjectUnindexedPaths(true);
+		JSONArray result = store.query(QuerySpec.buildSmartQuerySpec("select {employees:firstName}, {employees:address.city}, {employees:skills.name}, {employees:address}, {employees:title} from {employees} where {employees:lastName} = 'Haas'", 1), 0);
+		JSONTestHelper.assertSameJSONArray("Wrong result", new JSONArray("[['Christine', 'San Francisco', ['java', 'sql'], {'city':'San Francisco', 'zip':'94105'}, null]]"), result);
+		result = store.query(QuerySpec.buildExactQuerySpec(EMPLOYEES_SOUP, new String[] {LAST_NAME, "address"}, EMPLOYEE_ID, "00010", null, null, 1), 0);
+		JSONTestHelper.assertSameJSONArray("Wrong result", new JSONArray("[['Haas', {'city':'San Francisco', 'zip':'94105'}]]"), result);
+
+		// Self join: each alias gets the values of its own soup element
+		result = store.query(QuerySpec.buildSmartQuerySpec("select e.{employees:address.city}, mgr.{employees:address.city} from {employees} as e, {employees} as mgr where e.{employees:managerId} = mgr.{employees:employeeId} and e.{employees:employeeId} = '00020'", 1), 0);
+		JSONTestHelper.assertSameJSONArray("Wrong result", new JSONArray("[[null, 'San Francisco']]"), result);
+	}
+
+	/**
+	 * Test running smart query with non-indexed paths in select clause with count and paging
+	 * @throws JSONException
+	 */
+    @Test
+	public void testSmartQueryWithPagingAndUnindexedPathProjection() throws JSONException {
+		loadData();
+		JSONObject christineJson = store.query(QuerySpec.buildExactQuerySpec(EMPLOYEES_SOUP, EMPLOYEE_ID, "00010", null, null, 1), 0).getJSONObject(0);
+		christineJson.put("address", new JSONObject("{'city':'San Francisco', 'zip':'94105'}"));
+		store.upsert(EMPLOYEES_SOUP, christineJson);
+		store.setProjectUnindexedPaths(true);
+		QuerySpec query = QuerySpec.buildSmartQuerySpec("select {employees:firstName}, {employees:address.city} from {employees} order by {employees:firstName}", 1);
+		Assert.assertEquals("Expected 7 employees", 7, store.countQuery(query));
+		JSONTestHelper.assertSameJSONArray("Wrong result at page 0", new JSONArray("[['Christine', 'San Francisco']]"), store.query(query, 0));
+		JSONTestHelper.assertSameJSONArray("Wrong result at page 1", new JSONArray("[['Eileen', null]]"), store.query(query, 1));
+	}
+
 	/**
 	 * Load some datq in the smart store
 	 * @throws JSONException 
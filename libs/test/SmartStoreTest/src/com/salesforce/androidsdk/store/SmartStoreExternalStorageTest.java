@@ -39,6 +39,7 @@ import com.salesforce.androidsdk.smartstore.store.QuerySpec.Order;
 import com.salesforce.androidsdk.smartstore.store.SmartStore;
 import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
 import com.salesforce.androidsdk.smartstore.store.SoupSpec;
+import com.salesforce.androidsdk.smartstore.store.SoupStorageStats;
 import com.salesforce.androidsdk.util.test.JSONTestHelper;
 
 import junit.framework.Assert;
@@ -144,6 +145,38 @@ public class SmartStoreExternalStorageTest extends SmartStoreTest {
         Assert.assertTrue("Total database size should be larger than just db file", totalSizeAfter > totalSizeBefore);
 	}
 
+	/**
+	 * Test getSoupStorageStats: external blobs bytes should be maintained as soup elements get created and deleted
+	 *
+	 * @throws JSONException
+	 */
+	@Override
+    @Test
+	public void testGetSoupStorageStats() throws JSONException {
+		super.testGetSoupStorageStats();
+		long blobsBytes = store.getSoupStorageStats(TEST_SOUP).getExternalBlobsBytes();
+		Assert.assertTrue("Soup blobs should take some space", blobsBytes > 0);
+		Assert.assertEquals("Wrong external blobs bytes", dbOpenHelper.getSizeOfDir(null), sumExternalBlobsBytes());
+
+		// Delete half of the soup elements
+		JSONArray soupElts = store.query(QuerySpec.buildAllQuerySpec(TEST_SOUP, null, null, 50), 0);
+		Long[] soupEntryIds = new Long[soupElts.length()];
+		for (int i = 0; i < soupElts.length(); i++) {
+			soupEntryIds[i] = soupElts.getJSONObject(i).getLong(SmartStore.SOUP_ENTRY_ID);
+		}
+		store.delete(TEST_SOUP, soupEntryIds);
+		Assert.assertTrue("Soup blobs should take less space", store.getSoupStorageStats(TEST_SOUP).getExternalBlobsBytes() < blobsBytes);
+		Assert.assertEquals("Wrong external blobs bytes", dbOpenHelper.getSizeOfDir(null), sumExternalBlobsBytes());
+	}
+
+	private long sumExternalBlobsBytes() {
+		long size = 0;
+		for (SoupStorageStats stats : store.getAllSoupStorageStats()) {
+			size += stats.getExternalBlobsBytes();
+		}
+		return size;
+	}
+
 	@Override
     @Test
 	public void testAggregateQueryOnJSON1IndexedField() throws JSONException {
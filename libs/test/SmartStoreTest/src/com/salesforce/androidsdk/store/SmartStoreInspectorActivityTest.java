@@ -42,12 +42,14 @@ import com.salesforce.androidsdk.smartstore.store.DBOpenHelper;
 import com.salesforce.androidsdk.smartstore.store.IndexSpec;
 import com.salesforce.androidsdk.smartstore.store.SmartStore;
 import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
+import com.salesforce.androidsdk.smartstore.store.SoupStorageStats;
 import com.salesforce.androidsdk.smartstore.ui.SmartStoreInspectorActivity;
 
 import junit.framework.Assert;
 
 import net.sqlcipher.database.SQLiteOpenHelper;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -130,6 +132,22 @@ public class SmartStoreInspectorActivityTest {
 				"[[\"test_soup\",\"key\",\"string\"],[\"other_test_soup\",\"key\",\"string\"]]");
 	}
 
+	/**
+	 * Testing "storage" button
+	 */
+    @Test
+	public void testClickingStorage() throws JSONException {
+		clickButton(R.id.sf__inspector_storage_button);
+		JSONArray results = smartStoreInspectorActivityTestRule.getActivity().getLastResults();
+		Assert.assertEquals("Wrong number of rows", 4, results.length());
+		Assert.assertEquals("Wrong header", SoupStorageStats.SOUP_NAME, results.getJSONArray(0).getString(0));
+		Assert.assertEquals("Wrong soup", OTHER_TEST_SOUP, results.getJSONArray(1).getString(0));
+		Assert.assertEquals("Wrong row count", NUMBER_ROWS_OTHER_TEST_SOUP, results.getJSONArray(1).getLong(1));
+		Assert.assertEquals("Wrong soup", TEST_SOUP, results.getJSONArray(2).getString(0));
+		Assert.assertEquals("Wrong row count", NUMBER_ROWS_TEST_SOUP, results.getJSONArray(2).getLong(1));
+		Assert.assertEquals("Wrong total", store.getStorageSize(), results.getJSONArray(3).getLong(3));
+	}
+
 	/**
 	 * Testing "run" button without specifying a query
 	 */
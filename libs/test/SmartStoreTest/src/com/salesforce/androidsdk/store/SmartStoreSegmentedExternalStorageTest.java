@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018-present, salesforce.com, inc.
+ * All rights reserved.
+ * Redistribution and use of this software in source and binary forms, with or
+ * without modification, are permitted provided that the following conditions
+ * are met:
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * - Neither the name of salesforce.com, inc. nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission of salesforce.com, inc.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.androidsdk.store;
+
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.salesforce.androidsdk.analytics.security.Encryptor;
+import com.salesforce.androidsdk.smartstore.store.DBOpenHelper;
+import com.salesforce.androidsdk.smartstore.store.IndexSpec;
+import com.salesforce.androidsdk.smartstore.store.QuerySpec;
+import com.salesforce.androidsdk.smartstore.store.SmartStore;
+import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
+import com.salesforce.androidsdk.smartstore.store.SoupSpec;
+import com.salesforce.androidsdk.util.test.JSONTestHelper;
+
+import junit.framework.Assert;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for encrypted smart store with external storage packed into segment files
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class SmartStoreSegmentedExternalStorageTest extends SmartStoreExternalStorageTest {
+
+	@Override
+	protected void registerSoup(SmartStore store, String soupName, IndexSpec[] indexSpecs) {
+		store.registerSoupWithSpec(new SoupSpec(soupName, SoupSpec.FEATURE_EXTERNAL_STORAGE, SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS), indexSpecs);
+	}
+
+	@Override
+	protected void checkFileSystem(String soupName, long[] expectedIds, boolean shouldExist) {
+		String soupTableName = getSoupTableName(soupName);
+		Assert.assertTrue("Blobs should be stored in segments", ((DBOpenHelper) dbOpenHelper).usesBlobSegments(soupTableName));
+		for (long expectedId : expectedIds) {
+			String blob = ((DBOpenHelper) dbOpenHelper).loadSoupBlobAsString(soupTableName, expectedId, getEncryptionKey());
+			if (shouldExist) {
+				Assert.assertNotNull("External blob for " + expectedId + " should exist", blob);
+			}
+			else {
+				Assert.assertNull("External blob for " + expectedId + " should not exist", blob);
+			}
+		}
+	}
+
+	/**
+	 * Ensure that a soup cannot be using segmented external storage without external storage
+	 */
+	@Test
+	public void testRegisterSoupWithSegmentsAndNoExternalStorage() {
+		Assert.assertFalse("Soup other_test_soup should not exist", store.hasSoup(OTHER_TEST_SOUP));
+		try {
+			store.registerSoupWithSpec(new SoupSpec(OTHER_TEST_SOUP, SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS), new IndexSpec[]{new IndexSpec("lastName", Type.string)});
+			Assert.fail("Registering soup with segments and no external storage should have thrown an exception");
+		}
+		catch (SmartStore.SmartStoreException e) {
+			Assert.assertEquals("Wrong exception", "Can't have segmented external storage without external storage in soup:" + OTHER_TEST_SOUP, e.getMessage());
+		}
+		Assert.assertFalse("Register soup call should have failed", store.hasSoup(OTHER_TEST_SOUP));
+	}
+
+	/**
+	 * Ensure entries survive going from segments to one file per entry and back
+	 */
+	@Test
+	public void testAlterSoupBetweenBlobsLayouts() throws JSONException {
+		JSONObject soupElt1 = store.create(TEST_SOUP, new JSONObject("{'key':'ka1', 'value':'va1'}"));
+		JSONObject soupElt2 = store.create(TEST_SOUP, new JSONObject("{'key':'ka2', 'value':'va2'}"));
+		IndexSpec[] indexSpecs = new IndexSpec[]{new IndexSpec("key", Type.string)};
+
+		// Segments to one file per entry
+		store.alterSoup(TEST_SOUP, new SoupSpec(TEST_SOUP, SoupSpec.FEATURE_EXTERNAL_STORAGE), indexSpecs, true);
+		Assert.assertFalse("Blobs should not be stored in segments", ((DBOpenHelper) dbOpenHelper).usesBlobSegments(getSoupTableName(TEST_SOUP)));
+		super.checkFileSystem(TEST_SOUP, new long[]{idOf(soupElt1), idOf(soupElt2)}, true);
+		checkAllEntries(soupElt1, soupElt2);
+
+		// One file per entry to segments
+		store.alterSoup(TEST_SOUP, new SoupSpec(TEST_SOUP, SoupSpec.FEATURE_EXTERNAL_STORAGE, SoupSpec.FEATURE_EXTERNAL_STORAGE_SEGMENTS), indexSpecs, true);
+		checkFileSystem(TEST_SOUP, new long[]{idOf(soupElt1), idOf(soupElt2)}, true);
+		checkAllEntries(soupElt1, soupElt2);
+	}
+
+	/**
+	 * Ensure entries are still readable after most of them have been deleted and the segments compacted
+	 */
+	@Test
+	public void testDeleteManyEntries() throws JSONException {
+		long[] ids = new long[100];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = idOf(store.create(TEST_SOUP, new JSONObject("{'key':'k" + i + "', 'value':'v" + i + "'}")));
+		}
+		for (int i = 0; i < ids.length - 1; i++) {
+			store.delete(TEST_SOUP, ids[i]);
+		}
+		checkFileSystem(TEST_SOUP, new long[]{ids[ids.length - 1]}, true);
+		JSONArray result = store.retrieve(TEST_SOUP, ids[ids.length - 1]);
+		Assert.assertEquals("One result expected", 1, result.length());
+		Assert.assertEquals("Wrong value", "v" + (ids.length - 1), result.getJSONObject(0).getString("value"));
+	}
+
+	/**
+	 * Ensure every entry is still readable after changing key when blobs span several segments
+	 */
+	@Test
+	public void testChangeKeyWithManySegments() throws JSONException {
+		StringBuilder largeValue = new StringBuilder();
+		for (int i = 0; i < 100 * 1024; i++) {
+			largeValue.append((char) ('a' + i % 26));
+		}
+		long[] ids = new long[60]; // about 6MB of blobs, more than one segment
+		for (int i = 0; i < ids.length; i++) {
+			JSONObject soupElt = new JSONObject();
+			soupElt.put("key", "k" + i);
+			soupElt.put("value", i + largeValue.toString());
+			ids[i] = idOf(store.create(TEST_SOUP, soupElt));
+		}
+		String newPasscode = Encryptor.hash("123test", "hashing-key");
+		final SQLiteDatabase db = dbOpenHelper.getWritableDatabase(getEncryptionKey());
+		SmartStore.changeKey(db, getEncryptionKey(), newPasscode);
+		store = new SmartStore(dbOpenHelper, newPasscode);
+		for (int i = 0; i < ids.length; i++) {
+			JSONArray result = store.retrieve(TEST_SOUP, ids[i]);
+			Assert.assertEquals("One result expected for entry " + i, 1, result.length());
+			Assert.assertEquals("Wrong value for entry " + i, i + largeValue.toString(), result.getJSONObject(0).getString("value"));
+		}
+	}
+
+	private void checkAllEntries(JSONObject... expectedEntries) throws JSONException {
+		JSONArray result = store.query(QuerySpec.buildAllQuerySpec(TEST_SOUP, "key", QuerySpec.Order.ascending, 10), 0);
+		Assert.assertEquals("Wrong number of results", expectedEntries.length, result.length());
+		for (int i = 0; i < expectedEntries.length; i++) {
+			JSONTestHelper.assertSameJSON("Wrong result for query", expectedEntries[i], result.getJSONObject(i));
+		}
+	}
+
+	private long idOf(JSONObject soupElt) throws JSONException {
+		return soupElt.getLong(SmartStore.SOUP_ENTRY_ID);
+	}
+}
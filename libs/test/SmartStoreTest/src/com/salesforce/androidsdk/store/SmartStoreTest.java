@@ -38,6 +38,7 @@ import com.salesforce.androidsdk.smartstore.store.QuerySpec.Order;
 import com.salesforce.androidsdk.smartstore.store.SmartStore;
 import com.salesforce.androidsdk.smartstore.store.SmartStore.Type;
 import com.salesforce.androidsdk.smartstore.store.SoupSpec;
+import com.salesforce.androidsdk.smartstore.store.SoupStorageStats;
 import com.salesforce.androidsdk.util.test.JSONTestHelper;
 
 import junit.framework.Assert;
@@ -1255,6 +1256,27 @@ public class SmartStoreTest extends SmartStoreTestCase {
         Assert.assertTrue("Database should be larger now", store.getDatabaseSize() > initialSize);
 	}
 
+	/**
+	 * Test getSoupStorageStats: row count and table bytes should follow the soup content
+	 * @throws JSONException
+	 */
+	@Test
+	public void testGetSoupStorageStats() throws JSONException {
+		SoupStorageStats initialStats = store.getSoupStorageStats(TEST_SOUP);
+		Assert.assertEquals("Wrong soup name", TEST_SOUP, initialStats.getSoupName());
+		Assert.assertEquals("Wrong row count", 0, initialStats.getRowCount());
+		for (int i=0; i<100; i++) {
+			JSONObject soupElt = new JSONObject("{'key':'abcd" + i + "', 'value':'va" + i + "', 'otherValue':'ova" + i + "'}");
+			store.create(TEST_SOUP, soupElt);
+		}
+		SoupStorageStats stats = store.getSoupStorageStats(TEST_SOUP);
+		Assert.assertEquals("Wrong row count", 100, stats.getRowCount());
+		if (stats.getTableBytes() != SoupStorageStats.UNKNOWN) {
+			Assert.assertTrue("Table bytes should have grown", stats.getTableBytes() > initialStats.getTableBytes());
+		}
+		Assert.assertEquals("Wrong number of stats", store.getAllSoupNames().size(), store.getAllSoupStorageStats().size());
+	}
+
 	/**
 	 * Test registerSoup with json1 indexes
      * Register soup with multiple json1 indexes and a string index, check the underlying table and indexes in the database
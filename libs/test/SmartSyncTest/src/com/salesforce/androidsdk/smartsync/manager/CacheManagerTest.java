@@ -36,11 +36,13 @@ import com.salesforce.androidsdk.smartsync.model.SalesforceObjectTypeLayout;
 
 import junit.framework.Assert;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -182,4 +184,70 @@ public class CacheManagerTest extends ManagerTestCase {
     			objects.size());
         Assert.assertNotNull("Account layout should not be null", objects.get(0));
     }
+
+    /**
+     * Test for the in memory cache (ensures reads after a write are served from memory,
+     * along with the last cache update time).
+     */
+    @Test
+    public void testInMemoryCacheHit() throws Exception {
+        final String cacheKey = "in_memory_test";
+        cacheManager.writeObjectTypes(buildObjectTypes(3), cacheKey, METADATA_CACHE_TYPE);
+        final CacheManager.InMemoryStats before = cacheManager.getInMemoryStats();
+        final long cachedTime = cacheManager.getLastCacheUpdateTime(METADATA_CACHE_TYPE, cacheKey);
+        Assert.assertTrue("Last cache update time should be set", cachedTime > 0);
+        final List<SalesforceObjectType> objects = cacheManager.readObjectTypes(METADATA_CACHE_TYPE, cacheKey);
+        Assert.assertNotNull("List of object types should not be null", objects);
+        Assert.assertEquals("Wrong number of object types", 3, objects.size());
+        objects.clear();
+        Assert.assertEquals("Changing the returned list should not change the cache", 3,
+                cacheManager.readObjectTypes(METADATA_CACHE_TYPE, cacheKey).size());
+        final CacheManager.InMemoryStats after = cacheManager.getInMemoryStats();
+        Assert.assertEquals("All reads should be in memory hits", before.getHitCount() + 3, after.getHitCount());
+        Assert.assertEquals("No in memory miss expected", before.getMissCount(), after.getMissCount());
+
+        // Reading the key as another type misses and leaves the cached object types in place
+        cacheManager.readObjects(METADATA_CACHE_TYPE, cacheKey);
+        Assert.assertEquals("Read of another type should be an in memory miss", after.getMissCount() + 1,
+                cacheManager.getInMemoryStats().getMissCount());
+        Assert.assertEquals("Wrong number of object types", 3, cacheManager.readObjectTypes(METADATA_CACHE_TYPE, cacheKey).size());
+        Assert.assertEquals("Object types should still be in memory", after.getHitCount() + 1,
+                cacheManager.getInMemoryStats().getHitCount());
+        cacheManager.removeCache(METADATA_CACHE_TYPE, cacheKey);
+    }
+
+    /**
+     * Test for the in memory cache bound (ensures least recently used lists are evicted,
+     * and read back from smart store).
+     */
+    @Test
+    public void testInMemoryCacheEviction() throws Exception {
+        cacheManager.setMaxInMemoryRecords(5);
+        try {
+            cacheManager.writeObjectTypes(buildObjectTypes(3), "eviction_test_1", METADATA_CACHE_TYPE);
+            cacheManager.writeObjectTypes(buildObjectTypes(3), "eviction_test_2", METADATA_CACHE_TYPE);
+            final CacheManager.InMemoryStats stats = cacheManager.getInMemoryStats();
+            Assert.assertTrue("Wrong number of records in memory", stats.getSize() <= 5);
+            Assert.assertTrue("An eviction was expected", stats.getEvictionCount() > 0);
+            final List<SalesforceObjectType> objects = cacheManager.readObjectTypes(METADATA_CACHE_TYPE, "eviction_test_1");
+            Assert.assertNotNull("Evicted object types should be read from smart store", objects);
+            Assert.assertEquals("Wrong number of object types", 3, objects.size());
+            Assert.assertEquals("Read should be an in memory miss", stats.getMissCount() + 1,
+                    cacheManager.getInMemoryStats().getMissCount());
+        } finally {
+            cacheManager.setMaxInMemoryRecords(CacheManager.DEFAULT_MAX_IN_MEMORY_RECORDS);
+            cacheManager.removeCache(METADATA_CACHE_TYPE, "eviction_test_1");
+        }
+    }
+
+    private List<SalesforceObjectType> buildObjectTypes(int count) throws Exception {
+        final List<SalesforceObjectType> objectTypes = new ArrayList<SalesforceObjectType>();
+        for (int i = 0; i < count; i++) {
+            final JSONObject rawData = new JSONObject();
+            rawData.put("name", "Object" + i);
+            rawData.put("keyPrefix", "a0" + i);
+            objectTypes.add(new SalesforceObjectType(rawData));
+        }
+        return objectTypes;
+    }
 }
@@ -100,6 +100,14 @@ public class LayoutSyncManagerTest extends ManagerTestCase {
                 throw new RuntimeException("Interrupted waiting for callback");
             }
         }
+
+        public Result pollResult(long timeoutSeconds) {
+            try {
+                return results.poll(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new RuntimeException("Interrupted waiting for callback");
+            }
+        }
     }
 
     @Before
@@ -184,6 +192,36 @@ public class LayoutSyncManagerTest extends ManagerTestCase {
         Assert.assertEquals("Number of rows should be 1", 1, numRows);
     }
 
+    /**
+     * Test for fetching layout in STALE_WHILE_REVALIDATE mode with a hydrated cache.
+     */
+    @Test
+    public void testFetchLayoutInStaleWhileRevalidateModeWithCacheData() {
+        layoutSyncManager.fetchLayout(ACCOUNT, COMPACT, Constants.Mode.SERVER_FIRST,
+                layoutSyncCallbackQueue);
+        layoutSyncCallbackQueue.getResult();
+        layoutSyncCallbackQueue.clearQueue();
+        layoutSyncManager.fetchLayout(ACCOUNT, COMPACT, Constants.Mode.STALE_WHILE_REVALIDATE,
+                layoutSyncCallbackQueue);
+        validateResult(layoutSyncCallbackQueue.getResult());
+        Assert.assertNull("Unchanged layout should not be returned again",
+                layoutSyncCallbackQueue.pollResult(5));
+        final QuerySpec querySpec = QuerySpec.buildSmartQuerySpec(String.format(LayoutSyncManager.QUERY,
+                ACCOUNT, COMPACT), 2);
+        int numRows = layoutSyncManager.getSmartStore().countQuery(querySpec);
+        Assert.assertEquals("Number of rows should be 1", 1, numRows);
+    }
+
+    /**
+     * Test for fetching layout in STALE_WHILE_REVALIDATE mode with an empty cache.
+     */
+    @Test
+    public void testFetchLayoutInStaleWhileRevalidateModeWithoutCacheData() {
+        layoutSyncManager.fetchLayout(ACCOUNT, COMPACT, Constants.Mode.STALE_WHILE_REVALIDATE,
+                layoutSyncCallbackQueue);
+        validateResult(layoutSyncCallbackQueue.getResult());
+    }
+
     private void validateResult(LayoutSyncCallbackQueue.Result result) {
         final String objectType = result.objectType;
         final Layout layout = result.layout;
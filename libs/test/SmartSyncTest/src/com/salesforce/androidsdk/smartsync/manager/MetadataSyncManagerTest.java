@@ -31,17 +31,22 @@ import android.support.test.runner.AndroidJUnit4;
 
 import com.salesforce.androidsdk.smartstore.store.QuerySpec;
 import com.salesforce.androidsdk.smartsync.model.Metadata;
+import com.salesforce.androidsdk.smartsync.target.MetadataSyncDownTarget;
 import com.salesforce.androidsdk.smartsync.util.Constants;
 
 import junit.framework.Assert;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -87,6 +92,14 @@ public class MetadataSyncManagerTest extends ManagerTestCase {
                 throw new RuntimeException("Interrupted waiting for callback");
             }
         }
+
+        public Metadata pollResult(long timeoutSeconds) {
+            try {
+                return results.poll(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new RuntimeException("Interrupted waiting for callback");
+            }
+        }
     }
 
     @Before
@@ -171,6 +184,79 @@ public class MetadataSyncManagerTest extends ManagerTestCase {
         Assert.assertEquals("Number of rows should be 1", 1, numRows);
     }
 
+    /**
+     * Test for fetching metadata in STALE_WHILE_REVALIDATE mode with a hydrated cache.
+     */
+    @Test
+    public void testFetchMetadataInStaleWhileRevalidateModeWithCacheData() {
+        metadataSyncManager.fetchMetadata(ACCOUNT, Constants.Mode.SERVER_FIRST,
+                metadataSyncCallbackQueue);
+        metadataSyncCallbackQueue.getResult();
+        metadataSyncCallbackQueue.clearQueue();
+        metadataSyncManager.fetchMetadata(ACCOUNT, Constants.Mode.STALE_WHILE_REVALIDATE,
+                metadataSyncCallbackQueue);
+        validateResult(metadataSyncCallbackQueue.getResult());
+        Assert.assertNull("Unchanged metadata should not be returned again",
+                metadataSyncCallbackQueue.pollResult(5));
+    }
+
+    /**
+     * Test for fetching metadata in STALE_WHILE_REVALIDATE mode with an empty cache.
+     */
+    @Test
+    public void testFetchMetadataInStaleWhileRevalidateModeWithoutCacheData() {
+        metadataSyncManager.fetchMetadata(ACCOUNT, Constants.Mode.STALE_WHILE_REVALIDATE,
+                metadataSyncCallbackQueue);
+        validateResult(metadataSyncCallbackQueue.getResult());
+    }
+
+    /**
+     * Test that a failed refresh still calls back a caller attached without cached data,
+     * but not a caller that was served from the cache.
+     */
+    @Test
+    public void testRevalidateFailureNotifiesCallersWithoutCacheData() throws Exception {
+        final CountDownLatch fetchStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFetch = new CountDownLatch(1);
+        final MetadataSyncDownTarget failingTarget = new MetadataSyncDownTarget(ACCOUNT) {
+
+            @Override
+            public JSONArray startFetch(SyncManager syncManager, long maxTimeStamp) throws IOException {
+                fetchStarted.countDown();
+                try {
+                    releaseFetch.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Server unreachable");
+            }
+        };
+        final CountDownLatch servedCallback = new CountDownLatch(1);
+        final CountDownLatch missCallback = new CountDownLatch(1);
+        CacheRevalidator.revalidate(syncManager, failingTarget, MetadataSyncManager.SOUP_NAME, ACCOUNT,
+                new JSONObject(), new CacheRevalidator.RevalidateCallback() {
+
+            @Override
+            public void onRefreshed() {
+                servedCallback.countDown();
+            }
+        });
+        Assert.assertTrue("Refresh should have started", fetchStarted.await(5, TimeUnit.SECONDS));
+
+        // Attached to the refresh in flight
+        CacheRevalidator.revalidate(syncManager, failingTarget, MetadataSyncManager.SOUP_NAME, ACCOUNT,
+                null, new CacheRevalidator.RevalidateCallback() {
+
+            @Override
+            public void onRefreshed() {
+                missCallback.countDown();
+            }
+        });
+        releaseFetch.countDown();
+        Assert.assertTrue("Caller without cached data should be called back", missCallback.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse("Caller served from the cache should not be called back", servedCallback.await(1, TimeUnit.SECONDS));
+    }
+
     private void validateResult(Metadata metadata) {
         Assert.assertNotNull("Metadata should not be null", metadata);
         Assert.assertEquals("Object types should match", ACCOUNT, metadata.getName());